@@ -1,9 +1,12 @@
 package com.swiftq.broker;
 
+import com.swiftq.broker.ring.RingBuffer;
+import com.swiftq.broker.ring.WaitStrategy;
 import com.swiftq.common.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -11,17 +14,79 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class SwiftQBroker {
     private static final Logger logger = LoggerFactory.getLogger(SwiftQBroker.class);
 
-    private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+    // 二者只有一个不为 null：默认使用无界的 LinkedBlockingQueue，指定容量时使用预分配的环形缓冲区
+    private final BlockingQueue<Message> queue;
+    private final RingBuffer<Message> ring;
+
+    public SwiftQBroker() {
+        this.queue = new LinkedBlockingQueue<>();
+        this.ring = null;
+    }
+
+    /**
+     * 使用有界环形缓冲区，发布与消费不再为每条消息分配链表节点
+     *
+     * @param capacity     槽位数，取不小于该值的 2 的幂；缓冲区满时发布方等待
+     * @param waitStrategy 缓冲区空或满时的等待方式，见 {@link com.swiftq.broker.ring.WaitStrategies}
+     */
+    public SwiftQBroker(int capacity, WaitStrategy waitStrategy) {
+        this.queue = null;
+        this.ring = new RingBuffer<>(capacity, waitStrategy);
+    }
 
-    
     public void publish(Message msg) {
-        queue.offer(msg);
-        logger.info("Message published: {}", msg);
+        if (ring != null) {
+            try {
+                ring.publish(msg);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while publishing", e);
+            }
+        } else {
+            queue.offer(msg);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Message published: {}", msg);
+        }
+    }
+
+    /**
+     * 按顺序发布一批消息；使用环形缓冲区时每批只认领一次序号
+     */
+    public void publishAll(List<Message> messages) {
+        if (ring != null) {
+            try {
+                ring.publishAll(messages);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while publishing", e);
+            }
+        } else {
+            queue.addAll(messages);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("{} messages published", messages.size());
+        }
     }
 
     public Message consume() throws InterruptedException {
-        Message msg = queue.take();
-        logger.info("Message consumed: {}", msg);
+        Message msg = ring != null ? ring.take() : queue.take();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Message consumed: {}", msg);
+        }
         return msg;
     }
+
+    /**
+     * 不等待地取出当前可用的消息，最多 maxMessages 条
+     *
+     * @return 取出的条数，没有消息时为 0
+     */
+    public int drain(List<Message> out, int maxMessages) {
+        return ring != null ? ring.drainTo(out, maxMessages) : queue.drainTo(out, maxMessages);
+    }
+
+    public int size() {
+        return ring != null ? ring.size() : queue.size();
+    }
 }
@@ -0,0 +1,365 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.protocol.Compression;
+import com.swiftq.broker.store.StoreConfig;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Broker 网络层配置
+ */
+public class BrokerConfig {
+
+    private final int port;
+    private final boolean preferNativeTransport;
+    private final int bossThreads;
+    private final int workerThreads;
+    private final int acceptors;
+    private final boolean reusePort;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int writeBufferLowWaterMark;
+    private final int writeBufferHighWaterMark;
+    private final String dataDir;
+    private final StoreConfig storeConfig;
+    private final int commitThreads;
+    private final int maxTopics;
+    private final int topicQueueCapacity;
+    private final long topicQueueMaxBytes;
+    private final Map<String, Long> topicQueueBytes;
+    private final int maxInFlightRequests;
+    private final int partitions;
+    private final Map<String, Integer> topicPartitions;
+    private final Set<String> priorityTopics;
+    private final long priorityAgingMs;
+    private final long[] retryDelaysMs;
+    private final Set<Compression> compressions;
+
+    public BrokerConfig(Builder builder) {
+        this.port = builder.port;
+        this.preferNativeTransport = builder.preferNativeTransport;
+        this.bossThreads = builder.bossThreads;
+        this.workerThreads = builder.workerThreads;
+        this.acceptors = builder.acceptors;
+        this.reusePort = builder.reusePort;
+        this.backlog = builder.backlog;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.keepAlive = builder.keepAlive;
+        this.sendBufferSize = builder.sendBufferSize;
+        this.receiveBufferSize = builder.receiveBufferSize;
+        this.writeBufferLowWaterMark = builder.writeBufferLowWaterMark;
+        this.writeBufferHighWaterMark = builder.writeBufferHighWaterMark;
+        this.dataDir = builder.dataDir;
+        this.storeConfig = builder.storeConfig;
+        this.commitThreads = builder.commitThreads;
+        this.maxTopics = builder.maxTopics;
+        this.topicQueueCapacity = builder.topicQueueCapacity;
+        this.topicQueueMaxBytes = builder.topicQueueMaxBytes;
+        this.topicQueueBytes = Collections.unmodifiableMap(new HashMap<>(builder.topicQueueBytes));
+        this.maxInFlightRequests = builder.maxInFlightRequests;
+        this.partitions = builder.partitions;
+        this.topicPartitions = Collections.unmodifiableMap(new HashMap<>(builder.topicPartitions));
+        this.priorityTopics = Collections.unmodifiableSet(new HashSet<>(builder.priorityTopics));
+        this.priorityAgingMs = builder.priorityAgingMs;
+        this.retryDelaysMs = builder.retryDelaysMs.clone();
+        this.compressions = Collections.unmodifiableSet(EnumSet.copyOf(builder.compressions));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int port = 9000;
+        private boolean preferNativeTransport = true;
+        private int bossThreads = 1;
+        private int workerThreads = 0; // 0 表示使用 Netty 默认值（CPU 核数 * 2）
+        private int acceptors = 1;
+        private boolean reusePort = false;
+        private int backlog = 1024;
+        private boolean tcpNoDelay = true;
+        private boolean keepAlive = true;
+        private int sendBufferSize = 0; // 0 表示使用系统默认值
+        private int receiveBufferSize = 0;
+        private int writeBufferLowWaterMark = 32 * 1024;
+        private int writeBufferHighWaterMark = 64 * 1024;
+        private String dataDir; // null 表示使用内存存储
+        private StoreConfig storeConfig = StoreConfig.builder().build();
+        private int commitThreads = 1;
+        private int maxTopics = 1024;
+        private int topicQueueCapacity = 100_000;
+        private long topicQueueMaxBytes = 64L * 1024 * 1024;
+        private final Map<String, Long> topicQueueBytes = new HashMap<>();
+        private int maxInFlightRequests = 1024;
+        private int partitions = 1;
+        private final Map<String, Integer> topicPartitions = new HashMap<>();
+        private final Set<String> priorityTopics = new HashSet<>();
+        private long priorityAgingMs = 1000;
+        private long[] retryDelaysMs = new long[0];
+        private Set<Compression> compressions = EnumSet.allOf(Compression.class);
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Linux 上可用时使用 epoll 原生传输
+         */
+        public Builder preferNativeTransport(boolean preferNativeTransport) {
+            this.preferNativeTransport = preferNativeTransport;
+            return this;
+        }
+
+        public Builder bossThreads(int bossThreads) {
+            this.bossThreads = bossThreads;
+            return this;
+        }
+
+        public Builder workerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * 以 SO_REUSEPORT 在同一端口上绑定多个监听 Channel，由内核在它们之间分摊新连接
+         * 仅在 epoll 传输下生效
+         */
+        public Builder reusePort(int acceptors) {
+            this.reusePort = acceptors > 0;
+            this.acceptors = Math.max(1, acceptors);
+            return this;
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder keepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder socketBuffers(int sendBufferSize, int receiveBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public Builder writeBufferWaterMark(int low, int high) {
+            if (low < 0 || high < low) {
+                throw new IllegalArgumentException("Invalid water marks: low=" + low + ", high=" + high);
+            }
+            this.writeBufferLowWaterMark = low;
+            this.writeBufferHighWaterMark = high;
+            return this;
+        }
+
+        /**
+         * 消息持久化目录，设置后使用提交日志存储
+         */
+        public Builder dataDir(String dataDir) {
+            this.dataDir = dataDir;
+            return this;
+        }
+
+        public Builder storeConfig(StoreConfig storeConfig) {
+            this.storeConfig = storeConfig;
+            return this;
+        }
+
+        /**
+         * 组提交线程数，所有 topic 分区的日志分摊到这些线程上，每个日志固定由一个线程写入
+         */
+        public Builder commitThreads(int commitThreads) {
+            if (commitThreads <= 0) {
+                throw new IllegalArgumentException("Invalid commit threads: " + commitThreads);
+            }
+            this.commitThreads = commitThreads;
+            return this;
+        }
+
+        /**
+         * topic 数量上限，topic 在首次发布时创建，消费与订阅不会创建 topic
+         */
+        public Builder maxTopics(int maxTopics) {
+            if (maxTopics <= 0) {
+                throw new IllegalArgumentException("Invalid max topics: " + maxTopics);
+            }
+            this.maxTopics = maxTopics;
+            return this;
+        }
+
+        /**
+         * 内存存储下每个 topic 分区队列的容量，写满后发布返回错误
+         */
+        public Builder topicQueueCapacity(int topicQueueCapacity) {
+            if (topicQueueCapacity <= 0) {
+                throw new IllegalArgumentException("Invalid topic queue capacity: " + topicQueueCapacity);
+            }
+            this.topicQueueCapacity = topicQueueCapacity;
+            return this;
+        }
+
+        /**
+         * 内存存储下每个 topic 分区队列占用的记录字节上限，写满后发布返回错误
+         */
+        public Builder topicQueueMaxBytes(long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("Invalid topic queue bytes: " + maxBytes);
+            }
+            this.topicQueueMaxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * 为指定 topic 单独设置分区队列的字节上限
+         */
+        public Builder topicQueueMaxBytes(String topic, long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("Invalid topic queue bytes: " + maxBytes);
+            }
+            this.topicQueueBytes.put(topic, maxBytes);
+            return this;
+        }
+
+        /**
+         * 每个连接上等待存储确认的发布请求上限，达到上限后暂停读取该连接，确认过半后恢复
+         */
+        public Builder maxInFlightRequests(int maxInFlightRequests) {
+            if (maxInFlightRequests <= 0) {
+                throw new IllegalArgumentException("Invalid max in-flight requests: " + maxInFlightRequests);
+            }
+            this.maxInFlightRequests = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * 新建 topic 的默认分区数
+         */
+        public Builder partitions(int partitions) {
+            if (partitions <= 0) {
+                throw new IllegalArgumentException("Invalid partitions: " + partitions);
+            }
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * 为指定 topic 单独设置分区数；已有数据的 topic 只能增加分区
+         */
+        public Builder partitions(String topic, int partitions) {
+            if (partitions <= 0) {
+                throw new IllegalArgumentException("Invalid partitions: " + partitions);
+            }
+            this.topicPartitions.put(topic, partitions);
+            return this;
+        }
+
+        /**
+         * 指定 topic 按消息优先级投递，而不是按发布顺序
+         * 优先级 topic 只支持内存存储，设置了 dataDir 时 Broker 启动失败
+         */
+        public Builder priorityTopic(String topic) {
+            this.priorityTopics.add(topic);
+            return this;
+        }
+
+        /**
+         * 优先级 topic 中消息每等待该时长，有效优先级提升一级，避免低优先级消息被饿死
+         */
+        public Builder priorityAgingMs(long priorityAgingMs) {
+            if (priorityAgingMs <= 0) {
+                throw new IllegalArgumentException("Invalid priority aging interval: " + priorityAgingMs);
+            }
+            this.priorityAgingMs = priorityAgingMs;
+            return this;
+        }
+
+        /**
+         * nack 或租约超时后重新投递前的等待时间，第 n 次重试使用第 n 个值，超出部分沿用最后一个
+         * 每个值对应一个重试 topic（topic.retry-n），消息在其中等待到期后移回原 topic；
+         * 未设置时立即重新投递
+         */
+        public Builder retryDelaysMs(long... retryDelaysMs) {
+            for (long delay : retryDelaysMs) {
+                if (delay < 0) {
+                    throw new IllegalArgumentException("Invalid retry delay: " + delay);
+                }
+            }
+            this.retryDelaysMs = retryDelaysMs.clone();
+            return this;
+        }
+
+        /**
+         * 接受的发布压缩算法，生产者在 metadata 请求中协商，使用未接受算法的发布返回错误；默认接受全部算法
+         */
+        public Builder compressions(Compression... compressions) {
+            Set<Compression> accepted = EnumSet.of(Compression.NONE);
+            Collections.addAll(accepted, compressions);
+            this.compressions = accepted;
+            return this;
+        }
+
+        public BrokerConfig build() {
+            return new BrokerConfig(this);
+        }
+    }
+
+    // Getters
+    public int getPort() { return port; }
+    public boolean isPreferNativeTransport() { return preferNativeTransport; }
+    public int getBossThreads() { return bossThreads; }
+    public int getWorkerThreads() { return workerThreads; }
+    public int getAcceptors() { return acceptors; }
+    public boolean isReusePort() { return reusePort; }
+    public int getBacklog() { return backlog; }
+    public boolean isTcpNoDelay() { return tcpNoDelay; }
+    public boolean isKeepAlive() { return keepAlive; }
+    public int getSendBufferSize() { return sendBufferSize; }
+    public int getReceiveBufferSize() { return receiveBufferSize; }
+    public int getWriteBufferLowWaterMark() { return writeBufferLowWaterMark; }
+    public int getWriteBufferHighWaterMark() { return writeBufferHighWaterMark; }
+    public String getDataDir() { return dataDir; }
+    public StoreConfig getStoreConfig() { return storeConfig; }
+    public int getCommitThreads() { return commitThreads; }
+    public int getMaxTopics() { return maxTopics; }
+    public int getTopicQueueCapacity() { return topicQueueCapacity; }
+    public long getTopicQueueMaxBytes() { return topicQueueMaxBytes; }
+    public Map<String, Long> getTopicQueueBytes() { return topicQueueBytes; }
+    public int getMaxInFlightRequests() { return maxInFlightRequests; }
+    public int getPartitions() { return partitions; }
+    public Map<String, Integer> getTopicPartitions() { return topicPartitions; }
+    public Set<String> getPriorityTopics() { return priorityTopics; }
+    public long getPriorityAgingMs() { return priorityAgingMs; }
+    public long[] getRetryDelaysMs() { return retryDelaysMs.clone(); }
+    public Set<Compression> getCompressions() { return compressions; }
+
+    public int partitionsFor(String topic) {
+        Integer value = topicPartitions.get(topic);
+        return value != null ? value : partitions;
+    }
+
+    public long queueBytesFor(String topic) {
+        Long value = topicQueueBytes.get(topic);
+        return value != null ? value : topicQueueMaxBytes;
+    }
+
+    public boolean isPriorityTopic(String topic) {
+        return priorityTopics.contains(topic);
+    }
+}
@@ -1,56 +1,115 @@
 package com.swiftq.broker.net;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.swiftq.common.Message;
+import com.swiftq.broker.protocol.Protocol;
+import com.swiftq.broker.protocol.ServerProtocolCodec;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class BrokerServer {
+    private static final Logger logger = LoggerFactory.getLogger(BrokerServer.class);
 
-    private final int port;
-    private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final BrokerConfig config;
+    private final ObjectMapper mapper = Protocol.newObjectMapper();
 
     public BrokerServer(int port) {
-        this.port = port;
+        this(BrokerConfig.builder().port(port).build());
     }
 
-    public void start() throws InterruptedException {
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+    public BrokerServer(BrokerConfig config) {
+        this.config = config;
+    }
+
+    public void start() throws IOException, InterruptedException {
+        if (config.getDataDir() != null) {
+            logger.info("Using commit log store at {}", config.getDataDir());
+        }
+        TopicManager topics = new TopicManager(config);
+        GroupCoordinator groups = new GroupCoordinator(topics, config);
+        // 租约超时与重试延迟的精度不需要高于 100ms，时间轮的登记与取消都是 O(1)
+        HashedWheelTimer leaseTimer = new HashedWheelTimer(new DefaultThreadFactory("swiftq-lease", true),
+                100, TimeUnit.MILLISECONDS);
+        RetryRouter retries = new RetryRouter(topics, config, leaseTimer);
+
+        Transport transport = Transport.select(config.isPreferNativeTransport());
+        boolean reusePort = config.isReusePort() && transport == Transport.EPOLL;
+        if (config.isReusePort() && !reusePort) {
+            logger.warn("SO_REUSEPORT requires the epoll transport, binding a single acceptor");
+        }
+        int acceptors = reusePort ? config.getAcceptors() : 1;
+
+        // 每个监听 Channel 独占一个 boss 线程
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(Math.max(config.getBossThreads(), acceptors), "swiftq-boss");
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(config.getWorkerThreads(), "swiftq-worker");
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-             .channel(NioServerSocketChannel.class)
+             .channel(transport.serverChannelClass())
              .childHandler(new ChannelInitializer<SocketChannel>() {
                  @Override
                  protected void initChannel(SocketChannel ch) {
-                     ch.pipeline().addLast(new BrokerServerHandler(queue, mapper));
+                     ch.pipeline().addLast(Protocol.newFrameDecoder());
+                     ch.pipeline().addLast(new ServerProtocolCodec(mapper));
+                     ch.pipeline().addLast(new BrokerServerHandler(topics, groups, retries, leaseTimer,
+                             config.getMaxInFlightRequests(), config.getCompressions()));
                  }
              })
-             .option(ChannelOption.SO_BACKLOG, 128)
-             .childOption(ChannelOption.SO_KEEPALIVE, true);
+             .option(ChannelOption.SO_BACKLOG, config.getBacklog())
+             .option(ChannelOption.SO_REUSEADDR, true)
+             // 帧与记录都分配自池化直接内存，写出时无需再拷贝到堆外
+             .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+             .childOption(ChannelOption.SO_KEEPALIVE, config.isKeepAlive())
+             .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
+             .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                     config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()));
+            if (config.getSendBufferSize() > 0) {
+                b.childOption(ChannelOption.SO_SNDBUF, config.getSendBufferSize());
+            }
+            if (config.getReceiveBufferSize() > 0) {
+                b.childOption(ChannelOption.SO_RCVBUF, config.getReceiveBufferSize());
+            }
+            if (reusePort) {
+                b.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+
+            List<Channel> serverChannels = new ArrayList<>(acceptors);
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(b.bind(config.getPort()).sync().channel());
+            }
+            logger.info("Broker started on port {} ({} transport, {} acceptor(s))",
+                    config.getPort(), transport, acceptors);
 
-            ChannelFuture f = b.bind(port).sync();
-            System.out.println("Broker started on port " + port);
-            f.channel().closeFuture().sync();
+            for (Channel channel : serverChannels) {
+                channel.closeFuture().sync();
+            }
         } finally {
-            workerGroup.shutdownGracefully();
             bossGroup.shutdownGracefully();
+            // 等待 I/O 线程退出后再关闭存储
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+            // 连接关闭时未确认的消息已重新发布
+            leaseTimer.stop();
+            retries.close();
+            groups.close();
+            topics.close();
         }
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         int port = 9000;
-        new BrokerServer(port).start();
+        // 可选参数：消息持久化目录
+        String dataDir = args.length > 0 ? args[0] : null;
+        new BrokerServer(BrokerConfig.builder().port(port).dataDir(dataDir).build()).start();
     }
 }
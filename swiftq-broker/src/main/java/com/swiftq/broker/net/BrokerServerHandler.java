@@ -1,116 +1,1040 @@
 package com.swiftq.broker.net;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.swiftq.common.Message;
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.broker.protocol.Compression;
+import com.swiftq.broker.protocol.MalformedRequestException;
+import com.swiftq.broker.protocol.Partitioner;
+import com.swiftq.broker.protocol.Request;
+import com.swiftq.broker.protocol.Response;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.BlockingQueue;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
-public class BrokerServerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+/**
+ * Broker 请求处理器
+ *
+ * 消息以 ServerProtocolCodec 切出的已编码记录在此流转：发布时 retain 后入队，
+ * 消费时把记录的引用交给响应，由编码器拼接到出站帧后释放
+ *
+ * 每个 topic 分区有独立的投递队列，发布按记录中的 topic 与请求指定的分区路由，
+ * 未指定分区时带键的消息按键哈希、没有键的消息每批选一个分区；
+ * 消费请求可以指定一个或多个 topic，读取其所有分区，未指定时消费所有已存在的 topic；
+ * 加入消费组的连接带上组名消费时只读取组分配给自己的分区，按组的 offset 读取
+ *
+ * 消费请求带上可见性超时时按租约投递：消息在 ack 之前不算消费完成，nack、超时或连接断开后重新发布，
+ * 重试次数加一；超过最大重试次数的消息进入死信 topic（见 RetryRouter）
+ *
+ * 背压：连接上等待存储确认的发布请求达到上限，或出站缓冲超过高水位（对端读得慢）时关闭 autoRead，
+ * 不再从 socket 读取新请求，由 TCP 窗口把压力传回客户端；确认过半且出站缓冲回落后恢复读取
+ */
+public class BrokerServerHandler extends SimpleChannelInboundHandler<Request> {
+    private static final Logger logger = LoggerFactory.getLogger(BrokerServerHandler.class);
 
-    private final BlockingQueue<Message> queue;
-    private final ObjectMapper mapper;
+    // consumeBatch 未指定上限时的默认值
+    static final int DEFAULT_BATCH_MESSAGES = 100;
+    static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
 
-    public BrokerServerHandler(BlockingQueue<Message> queue, ObjectMapper mapper) {
-        this.queue = queue;
-        this.mapper = mapper;
+    // 长轮询最长挂起时间
+    static final long MAX_WAIT_MS = 60_000;
+
+    // 租约最长可见性超时
+    static final long MAX_VISIBILITY_TIMEOUT_MS = TimeUnit.HOURS.toMillis(12);
+
+    // redrive 未指定数量时一次移回的消息数
+    static final int DEFAULT_REDRIVE_MESSAGES = 1000;
+
+    private final TopicManager topics;
+    private final GroupCoordinator groups;
+    private final RetryRouter retries;
+    private final Timer leaseTimer;
+    private final int maxInFlightRequests;
+    private final Set<Compression> compressions;
+
+    // 等待存储确认的发布请求数与是否已暂停读取，只在本 Channel 的 EventLoop 上访问
+    private int inFlight;
+    private boolean readPaused;
+
+    // 多 topic 消费时轮转起始 topic，避免总是优先取第一个；只在本 Channel 的 EventLoop 上访问
+    private int nextTopic;
+
+    // 当前连接上的推送订阅，只在本 Channel 的 EventLoop 上访问
+    private Subscription subscription;
+
+    // 当前连接在消费组中的成员身份，只在本 Channel 的 EventLoop 上访问
+    private ConsumerGroup.Member member;
+
+    // 本连接上未确认的租约，首次按租约消费时创建；只在本 Channel 的 EventLoop 上访问
+    private LeaseTable leases;
+
+    // 正在处理一轮读事件，期间的响应只写不刷，在 channelReadComplete 时统一 flush
+    private boolean reading;
+
+    /**
+     * @param leaseTimer          所有连接共享的租约超时时间轮
+     * @param maxInFlightRequests 每个连接上等待存储确认的发布请求上限
+     * @param compressions        接受的发布压缩算法
+     */
+    public BrokerServerHandler(TopicManager topics, GroupCoordinator groups, RetryRouter retries, Timer leaseTimer,
+                               int maxInFlightRequests, Set<Compression> compressions) {
+        this.topics = topics;
+        this.groups = groups;
+        this.retries = retries;
+        this.leaseTimer = leaseTimer;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.compressions = compressions;
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-        String json = msg.toString(StandardCharsets.UTF_8);
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        reading = true;
+        super.channelRead(ctx, msg);
+    }
 
-        Request request;
-        try {
-            request = mapper.readValue(json, Request.class);
-        } catch (Exception e) {
-            sendError(ctx, "Invalid JSON", 0L);
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (reading) {
+            reading = false;
+            ctx.flush();
+        }
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Request request) throws Exception {
+        String type = request.getType();
+        if (type == null) {
+            sendError(ctx, "Missing command", request.getRequestId());
+            return;
+        }
+
+        if (!compressions.contains(request.getCompression()) && !"metadata".equals(type)) {
+            sendError(ctx, "Unsupported compression: " + request.getCompression(), request.getRequestId());
             return;
         }
 
-        switch (request.getType()) {
+        switch (type) {
             case "publish":
-                handlePublish(ctx, request.getMessage(), request.getRequestId());
+                handlePublish(ctx, request.getRecords(), request.getPartition(), request.getRequestId());
                 break;
             case "consume":
-                handleConsume(ctx, request.getRequestId());
+                handleConsume(ctx, request.getTopics(), request.getGroup(), request.getVisibilityTimeoutMs(),
+                        request.getMaxWaitMs(), request.getRequestId());
+                break;
+            case "publishBatch":
+                handlePublishBatch(ctx, request, request.getRequestId());
+                break;
+            case "consumeBatch":
+                handleConsumeBatch(ctx, request.getTopics(), request.getGroup(), request.getVisibilityTimeoutMs(),
+                        request.getMaxMessages(), request.getMaxBytes(), request.getMaxWaitMs(), request.getRequestId());
+                break;
+            case "subscribe":
+                handleSubscribe(ctx, request.getTopics(), request.getGroup(), request.getVisibilityTimeoutMs(),
+                        request.getCredits(), request.getRequestId());
+                break;
+            case "credit":
+                handleCredit(ctx, request.getCredits(), request.getRequestId());
+                break;
+            case "unsubscribe":
+                handleUnsubscribe(ctx, request.getRequestId());
+                break;
+            case "fetch":
+                handleFetch(ctx, request.getTopics(), request.getPartition(), request.getOffset(), request.getMaxBytes(),
+                        request.getRequestId());
+                break;
+            case "metadata":
+                handleMetadata(ctx, request.getTopics(), request.getCompression(), request.getRequestId());
+                break;
+            case "join":
+                handleJoin(ctx, request.getGroup(), request.getTopics(), request.getRequestId());
+                break;
+            case "commit":
+                handleCommit(ctx, request.getGroup(), request.getRequestId());
+                break;
+            case "leave":
+                handleLeave(ctx, request.getRequestId());
+                break;
+            case "ack":
+                handleSettle(ctx, request.getLeases(), true, request.getRequestId());
+                break;
+            case "nack":
+                handleSettle(ctx, request.getLeases(), false, request.getRequestId());
+                break;
+            case "redrive":
+                handleRedrive(ctx, request.getTopics(), request.getMaxMessages(), request.getRequestId());
                 break;
             default:
                 sendError(ctx, "Unknown command", request.getRequestId());
         }
     }
 
-    private void handlePublish(ChannelHandlerContext ctx, Message message, long requestId) throws Exception {
-        if (message == null) {
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        updateAutoRead(ctx);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * 按在途请求数与出站缓冲水位开关读取；暂停后在途请求降到上限的一半以下才恢复，避免频繁切换
+     */
+    private void updateAutoRead(ChannelHandlerContext ctx) {
+        int limit = readPaused ? maxInFlightRequests / 2 : maxInFlightRequests;
+        boolean read = ctx.channel().isWritable() && inFlight < Math.max(limit, 1);
+        if (read == readPaused) {
+            readPaused = !read;
+            ctx.channel().config().setAutoRead(read);
+            if (!read) {
+                logger.debug("Pausing reads from {}: {} request(s) in flight, writable={}",
+                        ctx.channel().remoteAddress(), inFlight, ctx.channel().isWritable());
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+        if (member != null) {
+            // 断开即离开消费组，分区转给其他成员
+            member.leave();
+            member = null;
+        }
+        if (leases != null) {
+            // 消费者断开，未确认的消息立即重新投递
+            leases.redeliverAll();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (cause instanceof MalformedRequestException && ((MalformedRequestException) cause).requestId() >= 0) {
+            // 帧已由长度字段切分，单帧损坏不影响后续请求
+            sendError(ctx, "Malformed frame: " + cause.getMessage(), ((MalformedRequestException) cause).requestId());
+            return;
+        }
+        if (cause instanceof DecoderException) {
+            // 错误无法对应到请求，关闭连接让客户端等待中的请求立即失败
+            logger.warn("Closing connection from {}: {}", ctx.channel().remoteAddress(), cause.getMessage());
+            ctx.close();
+            return;
+        }
+        logger.warn("Closing connection from {} after error", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private void handlePublish(ChannelHandlerContext ctx, List<ByteBuf> records, int partition, long requestId) {
+        if (records == null || records.isEmpty()) {
             sendError(ctx, "Message is null", requestId);
             return;
         }
-        queue.offer(message);
-        Response resp = new Response("ok", null, null, requestId);
+        if (records.size() != 1) {
+            // 只确认一条却收下多条会让其余消息悄悄丢失，多条消息应使用 publishBatch
+            sendError(ctx, "publish carries exactly one message, got " + records.size(), requestId);
+            return;
+        }
+        ByteBuf record = records.get(0);
+        withTopics(ctx, records, requestId, () -> {
+            DeliveryQueue queue;
+            try {
+                Topic topic = topics.existing(BinaryCodec.recordTopic(record));
+                queue = place(topic, record, partition);
+                if (queue == null) {
+                    queue = topic.nextPartition();
+                }
+            } catch (IllegalArgumentException e) {
+                sendError(ctx, e.getMessage(), requestId);
+                return;
+            }
+            // 请求在返回后被释放，入队的记录需要自己的引用
+            ackWhenStored(ctx, queue.offer(record.retain()), requestId);
+        });
+    }
+
+    /**
+     * 确保记录所属的 topic 都已存在后执行 action
+     * topic 都已存在时直接执行；需要创建时在后台创建，期间记录多持有一个引用，
+     * 创建完成后回到本 Channel 的 EventLoop 继续，任何一个创建失败时整个请求应答错误
+     */
+    private void withTopics(ChannelHandlerContext ctx, List<ByteBuf> records, long requestId, Runnable action) {
+        List<CompletableFuture<Topic>> pending = null;
+        try {
+            for (ByteBuf record : records) {
+                CompletableFuture<Topic> topic = topics.topic(BinaryCodec.recordTopic(record));
+                if (!topic.isDone() || topic.isCompletedExceptionally()) {
+                    if (pending == null) {
+                        pending = new ArrayList<>();
+                    }
+                    if (!pending.contains(topic)) {
+                        pending.add(topic);
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(ctx, e.getMessage(), requestId);
+            return;
+        }
+        if (pending == null) {
+            action.run();
+            return;
+        }
+        for (ByteBuf record : records) {
+            record.retain();
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).whenComplete((v, cause) ->
+                ctx.executor().execute(() -> {
+                    try {
+                        if (cause != null) {
+                            Throwable root = cause instanceof CompletionException && cause.getCause() != null
+                                    ? cause.getCause() : cause;
+                            sendError(ctx, root.getMessage(), requestId);
+                        } else {
+                            action.run();
+                        }
+                    } finally {
+                        for (ByteBuf record : records) {
+                            record.release();
+                        }
+                    }
+                }));
+    }
+
+    private void handleConsume(ChannelHandlerContext ctx, List<String> topicNames, String group,
+                               long visibilityTimeoutMs, long maxWaitMs, long requestId) {
+        if (!checkLease(ctx, group, visibilityTimeoutMs, requestId)) {
+            return;
+        }
+        ConsumerGroup.Member groupMember = null;
+        List<DeliveryQueue> queues = null;
+        ByteBuf record;
+        if (group != null) {
+            if ((groupMember = member(ctx, group, requestId)) == null) {
+                return;
+            }
+            List<ByteBuf> records = groupMember.read(1, Long.MAX_VALUE);
+            record = records.isEmpty() ? null : records.get(0);
+        } else {
+            if ((queues = resolve(ctx, topicNames, requestId)) == null) {
+                return;
+            }
+            record = poll(queues);
+        }
+        if (record != null) {
+            deliver(ctx, "ok", Collections.singletonList(record), false, visibilityTimeoutMs, requestId);
+        } else if (maxWaitMs > 0) {
+            new LongPoll(ctx, requestId, topicNames, queues, groupMember, visibilityTimeoutMs, false, 1, Long.MAX_VALUE)
+                    .start(maxWaitMs);
+        } else {
+            Response resp = new Response("empty", null, null, requestId);
+            sendResponse(ctx, resp);
+        }
+    }
+
+    private void handlePublishBatch(ChannelHandlerContext ctx, Request request, long requestId) {
+        List<ByteBuf> records = request.getRecords();
+        if (records == null || records.isEmpty()) {
+            // 含空消息的 JSON 批次不会被转换为记录，消息列表保持原样
+            boolean empty = request.getMessages() == null || request.getMessages().isEmpty();
+            sendError(ctx, empty ? "Batch is empty" : "Message is null", requestId);
+            return;
+        }
+        int partition = request.getPartition();
+        withTopics(ctx, records, requestId, () -> publishBatch(ctx, records, partition, requestId));
+    }
+
+    private void publishBatch(ChannelHandlerContext ctx, List<ByteBuf> records, int partition, long requestId) {
+        // 先解析所有分区，任何一个不合法时整批拒绝
+        Map<DeliveryQueue, List<ByteBuf>> byPartition;
+        try {
+            byPartition = groupByPartition(records, partition);
+        } catch (IllegalArgumentException e) {
+            sendError(ctx, e.getMessage(), requestId);
+            return;
+        }
+        for (ByteBuf record : records) {
+            record.retain();
+        }
+        if (byPartition.size() == 1) {
+            Map.Entry<DeliveryQueue, List<ByteBuf>> only = byPartition.entrySet().iterator().next();
+            ackWhenStored(ctx, only.getKey().offerAll(only.getValue()), requestId);
+            return;
+        }
+        List<CompletableFuture<Void>> stored = new ArrayList<>(byPartition.size());
+        for (Map.Entry<DeliveryQueue, List<ByteBuf>> entry : byPartition.entrySet()) {
+            stored.add(entry.getKey().offerAll(entry.getValue()));
+        }
+        ackWhenStored(ctx, CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0])), requestId);
+    }
+
+    /**
+     * 按目标分区拆分批次，保持每个分区内的顺序；批次只有一个目标分区时不拷贝列表
+     * 记录所属的 topic 都已存在
+     */
+    private Map<DeliveryQueue, List<ByteBuf>> groupByPartition(List<ByteBuf> records, int partition) {
+        Map<DeliveryQueue, List<ByteBuf>> byPartition = new LinkedHashMap<>();
+        // 没有键的消息在一个批次内粘在同一个分区
+        Map<Topic, DeliveryQueue> sticky = null;
+        for (ByteBuf record : records) {
+            Topic topic = topics.existing(BinaryCodec.recordTopic(record));
+            DeliveryQueue queue = place(topic, record, partition);
+            if (queue == null) {
+                if (sticky == null) {
+                    sticky = new HashMap<>();
+                }
+                queue = sticky.computeIfAbsent(topic, Topic::nextPartition);
+            }
+            byPartition.computeIfAbsent(queue, q -> new ArrayList<>()).add(record);
+        }
+        if (byPartition.size() == 1) {
+            byPartition.replaceAll((queue, list) -> records);
+        }
+        return byPartition;
+    }
+
+    /**
+     * 按请求指定的分区或消息键选择分区
+     *
+     * @return 需要由服务端轮流选择分区时返回 null
+     */
+    static DeliveryQueue place(Topic topic, ByteBuf record, int partition) {
+        if (partition >= 0) {
+            return topic.partition(partition);
+        }
+        if (topic.partitionCount() == 1) {
+            return topic.partition(0);
+        }
+        String key = BinaryCodec.recordTag(record, Partitioner.KEY_TAG);
+        return key != null ? topic.partition(Partitioner.partitionForKey(key, topic.partitionCount())) : null;
+    }
+
+    /**
+     * 解析消费请求的 topic 列表，失败时应答错误并返回 null
+     */
+    private List<DeliveryQueue> resolve(ChannelHandlerContext ctx, List<String> topicNames, long requestId) {
+        try {
+            return topics.queues(topicNames);
+        } catch (IllegalArgumentException e) {
+            sendError(ctx, e.getMessage(), requestId);
+            return null;
+        }
+    }
+
+    private ByteBuf poll(List<DeliveryQueue> queues) {
+        if (queues.size() == 1) {
+            return queues.get(0).poll();
+        }
+        List<ByteBuf> records = drain(queues, 1, Long.MAX_VALUE, null);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    /**
+     * 按消费组读取时返回本连接的成员，未加入该组时应答错误并返回 null
+     *
+     * @param group 为 null 时表示本连接当前加入的组
+     */
+    private ConsumerGroup.Member member(ChannelHandlerContext ctx, String group, long requestId) {
+        if (member == null || group != null && !member.group().name().equals(group)) {
+            sendError(ctx, "Not a member of group " + (group != null ? group : ""), requestId);
+            return null;
+        }
+        return member;
+    }
+
+    /**
+     * 从多个 topic 中取出一批消息，每次从不同的 topic 开始轮转
+     *
+     * @param partitions 不为 null 时依次填入每条消息所在的分区，长度不小于 maxMessages
+     */
+    private List<ByteBuf> drain(List<DeliveryQueue> queues, int maxMessages, long maxBytes, int[] partitions) {
+        if (queues.size() == 1) {
+            List<ByteBuf> batch = queues.get(0).drain(maxMessages, maxBytes);
+            if (partitions != null) {
+                Arrays.fill(partitions, 0, batch.size(), queues.get(0).partition());
+            }
+            return batch;
+        }
+        List<ByteBuf> batch = Collections.emptyList();
+        long bytes = 0;
+        int start = nextTopic++ & Integer.MAX_VALUE;
+        for (int i = 0; i < queues.size() && batch.size() < maxMessages && bytes < maxBytes; i++) {
+            DeliveryQueue queue = queues.get((start + i) % queues.size());
+            List<ByteBuf> part = queue.drain(maxMessages - batch.size(), maxBytes - bytes);
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (partitions != null) {
+                Arrays.fill(partitions, batch.size(), batch.size() + part.size(), queue.partition());
+            }
+            if (batch.isEmpty()) {
+                batch = new ArrayList<>(part);
+            } else {
+                batch.addAll(part);
+            }
+            for (ByteBuf record : part) {
+                bytes += record.readableBytes();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 消费组按提交的 offset 记录进度，不使用租约；不合法时应答错误并返回 false
+     */
+    private boolean checkLease(ChannelHandlerContext ctx, String group, long visibilityTimeoutMs, long requestId) {
+        if (visibilityTimeoutMs < 0 || visibilityTimeoutMs > 0 && group != null) {
+            sendError(ctx, visibilityTimeoutMs < 0 ? "Invalid visibility timeout"
+                    : "Group consumers commit offsets instead of acking", requestId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 应答取出的消息；按租约投递时为每条消息登记租约并随响应返回
+     */
+    private void deliver(ChannelHandlerContext ctx, String status, List<ByteBuf> records, boolean batch,
+                         long visibilityTimeoutMs, long requestId) {
+        deliver(ctx, status, records, batch, visibilityTimeoutMs, null, requestId);
+    }
+
+    /**
+     * @param partitions 不为 null 时随响应返回每条消息所在的分区
+     */
+    private void deliver(ChannelHandlerContext ctx, String status, List<ByteBuf> records, boolean batch,
+                         long visibilityTimeoutMs, int[] partitions, long requestId) {
+        Response resp = new Response(status, null, null, requestId);
+        resp.setRecordPartitions(partitions);
+        if (visibilityTimeoutMs > 0 && !records.isEmpty()) {
+            resp.setLeases(leases(ctx).addAll(records, Math.min(visibilityTimeoutMs, MAX_VISIBILITY_TIMEOUT_MS)));
+        }
+        if (batch) {
+            resp.setRecords(records);
+        } else {
+            resp.setRecord(records.get(0));
+        }
         sendResponse(ctx, resp);
     }
 
-    private void handleConsume(ChannelHandlerContext ctx, long requestId) throws Exception {
-        Message message = queue.poll();
-        if (message == null) {
+    private LeaseTable leases(ChannelHandlerContext ctx) {
+        if (leases == null) {
+            leases = new LeaseTable(leaseTimer, ctx.executor(),
+                    (record, reason) -> retries.redeliver(ctx.alloc(), record, reason));
+        }
+        return leases;
+    }
+
+    /**
+     * 存储确认后应答；持久化存储在提交线程上完成确认，应答切回本 Channel 的 EventLoop
+     */
+    private void ackWhenStored(ChannelHandlerContext ctx, CompletableFuture<Void> stored, long requestId) {
+        inFlight++;
+        if (inFlight >= maxInFlightRequests && !readPaused) {
+            updateAutoRead(ctx);
+        }
+        stored.whenComplete((v, cause) -> {
+            if (ctx.executor().inEventLoop()) {
+                stored(ctx, cause, requestId);
+            } else {
+                ctx.executor().execute(() -> stored(ctx, cause, requestId));
+            }
+        });
+    }
+
+    private void stored(ChannelHandlerContext ctx, Throwable cause, long requestId) {
+        inFlight--;
+        if (readPaused) {
+            updateAutoRead(ctx);
+        }
+        ack(ctx, cause, requestId);
+    }
+
+    private void ack(ChannelHandlerContext ctx, Throwable cause, long requestId) {
+        if (cause == null) {
+            sendResponse(ctx, new Response("ok", null, null, requestId));
+            return;
+        }
+        Throwable root = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+        sendError(ctx, "Store failure: " + root.getMessage(), requestId);
+    }
+
+    /**
+     * 一次往返取出多条消息，maxWaitMs > 0 时在队列为空的情况下挂起等待
+     */
+    private void handleConsumeBatch(ChannelHandlerContext ctx, List<String> topicNames, String group,
+                                    long visibilityTimeoutMs, int maxMessages, int maxBytes, long maxWaitMs,
+                                    long requestId) {
+        if (!checkLease(ctx, group, visibilityTimeoutMs, requestId)) {
+            return;
+        }
+        ConsumerGroup.Member groupMember = null;
+        List<DeliveryQueue> queues = null;
+        if (group != null) {
+            if ((groupMember = member(ctx, group, requestId)) == null) {
+                return;
+            }
+        } else if ((queues = resolve(ctx, topicNames, requestId)) == null) {
+            return;
+        }
+        int messageLimit = maxMessages > 0 ? maxMessages : DEFAULT_BATCH_MESSAGES;
+        long byteLimit = maxBytes > 0 ? maxBytes : DEFAULT_BATCH_BYTES;
+
+        List<ByteBuf> batch = groupMember != null
+                ? groupMember.read(messageLimit, byteLimit) : drain(queues, messageLimit, byteLimit, null);
+        if (batch.isEmpty() && maxWaitMs > 0) {
+            new LongPoll(ctx, requestId, topicNames, queues, groupMember, visibilityTimeoutMs, true, messageLimit,
+                    byteLimit).start(maxWaitMs);
+            return;
+        }
+        deliver(ctx, batch.isEmpty() ? "empty" : "ok", batch, true, visibilityTimeoutMs, requestId);
+    }
+
+    /**
+     * 从指定 offset 读取一个 topic 分区的日志，不影响共享消费位点，仅持久化存储支持
+     * 日志项以 FileRegion 原样发送，批量大小只受 maxBytes 限制；未指定 topic 时读取默认 topic，未指定分区时读取分区 0
+     */
+    private void handleFetch(ChannelHandlerContext ctx, List<String> topicNames, int partition, long offset,
+                             int maxBytes, long requestId) {
+        if (topicNames != null && topicNames.size() > 1) {
+            sendError(ctx, "Fetch accepts a single topic", requestId);
+            return;
+        }
+        Topic topic = topics.existing(topicNames != null && !topicNames.isEmpty() ? topicNames.get(0) : null);
+        if (topic == null) {
             Response resp = new Response("empty", null, null, requestId);
+            resp.setNextOffset(offset);
             sendResponse(ctx, resp);
+            return;
+        }
+        DeliveryQueue queue;
+        try {
+            queue = topic.partition(Math.max(partition, 0));
+        } catch (IllegalArgumentException e) {
+            sendError(ctx, e.getMessage(), requestId);
+            return;
+        }
+        if (!queue.store().isDurable()) {
+            sendError(ctx, "Fetch requires a durable store", requestId);
+            return;
+        }
+        long byteLimit = maxBytes > 0 ? maxBytes : DEFAULT_BATCH_BYTES;
+
+        FileRegion entries;
+        try {
+            entries = queue.store().readRegion(offset, byteLimit);
+        } catch (UncheckedIOException e) {
+            sendError(ctx, "Store failure: " + e.getMessage(), requestId);
+            return;
+        }
+        Response resp;
+        if (entries == null) {
+            resp = new Response("empty", null, null, requestId);
+            resp.setNextOffset(offset);
+        } else {
+            // 下一个 offset 由客户端根据收到的日志项计算
+            resp = new Response("ok", null, null, requestId);
+            resp.setEntries(entries);
+        }
+        sendResponse(ctx, resp);
+    }
+
+    /**
+     * 返回 topic 的分区数，生产者据此在本地选择分区；不存在的 topic 不在结果中，也不会被创建
+     * 请求带上压缩算法时一并返回是否接受：接受时原样返回，否则返回 NONE
+     */
+    private void handleMetadata(ChannelHandlerContext ctx, List<String> topicNames, Compression compression,
+                                long requestId) {
+        Map<String, Integer> partitions = new HashMap<>();
+        if (topicNames == null || topicNames.isEmpty()) {
+            for (Topic topic : topics.topics()) {
+                partitions.put(topic.name(), topic.partitionCount());
+            }
         } else {
-            Response resp = new Response("ok", message, null, requestId);
+            for (String name : topicNames) {
+                Topic topic = topics.existing(name);
+                if (topic != null) {
+                    partitions.put(topic.name(), topic.partitionCount());
+                }
+            }
+        }
+        Response resp = new Response("ok", null, null, requestId);
+        resp.setPartitions(partitions);
+        if (compression != Compression.NONE) {
+            resp.setCompression(compressions.contains(compression) ? compression : Compression.NONE);
+        }
+        sendResponse(ctx, resp);
+    }
+
+    /**
+     * 加入消费组，组内的分区重新分配；每个连接同时只能加入一个组
+     */
+    private void handleJoin(ChannelHandlerContext ctx, String group, List<String> topicNames, long requestId) {
+        if (member != null) {
+            sendError(ctx, "Already joined group " + member.group().name(), requestId);
+            return;
+        }
+        try {
+            member = groups.join(group, topicNames);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            sendError(ctx, e.getMessage(), requestId);
+            return;
+        }
+        sendResponse(ctx, new Response("ok", null, null, requestId));
+    }
+
+    /**
+     * 提交已投递给本连接的消息，消费者应在处理完成后调用
+     */
+    private void handleCommit(ChannelHandlerContext ctx, String group, long requestId) {
+        ConsumerGroup.Member groupMember = member(ctx, group, requestId);
+        if (groupMember == null) {
+            return;
+        }
+        groupMember.commit();
+        sendResponse(ctx, new Response("ok", null, null, requestId));
+    }
+
+    /**
+     * ack 确认消息处理完成，nack 立即重新投递；租约只能在消费时所用的连接上结算
+     */
+    private void handleSettle(ChannelHandlerContext ctx, long[] ids, boolean ack, long requestId) {
+        if (ids == null || ids.length == 0) {
+            sendError(ctx, "Missing leases", requestId);
+            return;
+        }
+        int unknown = 0;
+        for (long id : ids) {
+            if (leases == null || !(ack ? leases.ack(id) : leases.nack(id))) {
+                unknown++;
+            }
+        }
+        if (unknown > 0) {
+            // 其余租约已结算，过期的租约对应的消息已经重新投递
+            sendError(ctx, unknown + " lease(s) expired or unknown", requestId);
+            return;
+        }
+        sendResponse(ctx, new Response("ok", null, null, requestId));
+    }
+
+    /**
+     * 把 topic 的死信消息批量移回原 topic，应答移回的条数；返回 0 条时死信 topic 已清空
+     */
+    private void handleRedrive(ChannelHandlerContext ctx, List<String> topicNames, int maxMessages, long requestId) {
+        if (topicNames == null || topicNames.size() != 1) {
+            sendError(ctx, "Redrive requires a single topic", requestId);
+            return;
+        }
+        CompletableFuture<Integer> redriven;
+        try {
+            redriven = retries.redrive(ctx.alloc(), topicNames.get(0),
+                    maxMessages > 0 ? maxMessages : DEFAULT_REDRIVE_MESSAGES);
+        } catch (IllegalArgumentException e) {
+            sendError(ctx, e.getMessage(), requestId);
+            return;
+        }
+        redriven.whenComplete((count, cause) -> ctx.executor().execute(() -> {
+            if (cause != null) {
+                ack(ctx, cause, requestId);
+                return;
+            }
+            Response resp = new Response("ok", null, null, requestId);
+            resp.setCount(count);
             sendResponse(ctx, resp);
+        }));
+    }
+
+    private void handleLeave(ChannelHandlerContext ctx, long requestId) {
+        if (member != null) {
+            if (subscription != null && subscription.member == member) {
+                subscription.close();
+                subscription = null;
+            }
+            member.leave();
+            member = null;
         }
+        sendResponse(ctx, new Response("ok", null, null, requestId));
     }
 
-    private void sendResponse(ChannelHandlerContext ctx, Response resp) throws Exception {
-        byte[] bytes = mapper.writeValueAsBytes(resp);
-        ByteBuf buf = Unpooled.wrappedBuffer(bytes);
-        ctx.writeAndFlush(buf);
+    /**
+     * 开启推送订阅，credits 为初始窗口大小
+     */
+    private void handleSubscribe(ChannelHandlerContext ctx, List<String> topicNames, String group,
+                                 long visibilityTimeoutMs, int credits, long requestId) {
+        if (subscription != null) {
+            sendError(ctx, "Already subscribed", requestId);
+            return;
+        }
+        if (credits <= 0) {
+            sendError(ctx, "Credits must be positive", requestId);
+            return;
+        }
+        if (!checkLease(ctx, group, visibilityTimeoutMs, requestId)) {
+            return;
+        }
+        ConsumerGroup.Member groupMember = null;
+        List<DeliveryQueue> queues = null;
+        if (group != null) {
+            if ((groupMember = member(ctx, group, requestId)) == null) {
+                return;
+            }
+        } else if ((queues = resolve(ctx, topicNames, requestId)) == null) {
+            return;
+        }
+        subscription = new Subscription(ctx, requestId, topicNames, queues, groupMember, visibilityTimeoutMs, credits);
+        sendResponse(ctx, new Response("ok", null, null, requestId));
+        subscription.wake();
     }
 
-    private void sendError(ChannelHandlerContext ctx, String errorMsg, long requestId) throws Exception {
+    private void handleCredit(ChannelHandlerContext ctx, int credits, long requestId) {
+        if (subscription == null) {
+            sendError(ctx, "Not subscribed", requestId);
+            return;
+        }
+        if (credits <= 0) {
+            sendError(ctx, "Credits must be positive", requestId);
+            return;
+        }
+        subscription.grant(credits);
+    }
+
+    private void handleUnsubscribe(ChannelHandlerContext ctx, long requestId) {
+        if (subscription != null) {
+            subscription.close();
+            subscription = null;
+        }
+        sendResponse(ctx, new Response("ok", null, null, requestId));
+    }
+
+    /**
+     * 读事件中产生的响应合并到 channelReadComplete 时刷新，流水线请求一次 flush 即可写出；
+     * 长轮询与推送等异步路径不在读事件中，立即刷新
+     */
+    private void sendResponse(ChannelHandlerContext ctx, Response resp) {
+        if (reading) {
+            ctx.write(resp);
+        } else {
+            ctx.writeAndFlush(resp);
+        }
+    }
+
+    private void sendError(ChannelHandlerContext ctx, String errorMsg, long requestId) {
         Response resp = new Response("error", null, errorMsg, requestId);
         sendResponse(ctx, resp);
     }
 
-    static class Request {
-        private String type;
-        private Message message;
-        private long requestId;
+    /**
+     * 等待数据的消费请求，按消费组成员分配的分区或请求的 topic 读取
+     */
+    private abstract class Consumer extends DeliveryQueue.Waiter {
+        final ChannelHandlerContext ctx;
+        final long requestId;
+        final ConsumerGroup.Member member;
+        final long visibilityTimeoutMs;
+        private final List<String> topicNames;
+        private List<DeliveryQueue> queues;
+        // 请求的 topic 都已存在并解析到 queues，之后不必重新解析
+        private boolean resolved;
+
+        Consumer(ChannelHandlerContext ctx, long requestId, List<String> topicNames, List<DeliveryQueue> queues,
+                 ConsumerGroup.Member member, long visibilityTimeoutMs) {
+            this.ctx = ctx;
+            this.requestId = requestId;
+            this.topicNames = topicNames;
+            this.queues = queues;
+            this.member = member;
+            this.visibilityTimeoutMs = visibilityTimeoutMs;
+        }
 
-        public String getType() { return type; }
-        public void setType(String type) { this.type = type; }
-        public Message getMessage() { return message; }
-        public void setMessage(Message message) { this.message = message; }
-        public long getRequestId() { return requestId; }
-        public void setRequestId(long requestId) { this.requestId = requestId; }
+        @Override
+        EventExecutor executor() {
+            return ctx.executor();
+        }
+
+        @Override
+        boolean broadcast() {
+            // 组成员按自己的 offset 读取，不与其他等待者竞争
+            return member != null;
+        }
+
+        @Override
+        boolean hasData(DeliveryQueue queue) {
+            return member != null ? member.hasData(queue) : super.hasData(queue);
+        }
+
+        List<ByteBuf> read(int maxMessages, long maxBytes) {
+            return read(maxMessages, maxBytes, null);
+        }
+
+        /**
+         * @param partitions 不为 null 时依次填入每条消息所在的分区，长度不小于 maxMessages
+         */
+        List<ByteBuf> read(int maxMessages, long maxBytes, int[] partitions) {
+            return member != null ? member.read(maxMessages, maxBytes, partitions)
+                    : drain(queues, maxMessages, maxBytes, partitions);
+        }
+
+        /**
+         * 等待数据；请求的 topic 尚未全部存在或未指定 topic 时同时等待新 topic，创建后重新登记到包含它的队列
+         */
+        void park() {
+            if (member != null) {
+                member.park(this);
+                return;
+            }
+            if (resolved) {
+                DeliveryQueue.park(this, queues);
+                return;
+            }
+            long created = topics.createdCount();
+            boolean all = topics.allExist(topicNames);
+            if (!all) {
+                topics.awaitTopic(this);
+            }
+            queues = topics.queues(topicNames);
+            resolved = all;
+            DeliveryQueue.park(this, queues);
+            if (!all && topics.createdCount() != created) {
+                // 登记期间有新 topic 创建，可能不在刚解析的队列中
+                DeliveryQueue.wake(this);
+            }
+        }
+
+        void stopAwaitingTopics() {
+            topics.cancelAwaitTopic(this);
+        }
     }
 
-    static class Response {
-        private String status;
-        private Message message;
-        private String error;
-        private long requestId;
+    /**
+     * 挂起的长轮询请求：有数据时被唤醒应答，超时后应答 empty
+     */
+    private class LongPoll extends Consumer {
+        private final boolean batch;
+        private final int maxMessages;
+        private final long maxBytes;
+        private ScheduledFuture<?> timeout;
+        private volatile boolean done;
 
-        public Response() {}
+        LongPoll(ChannelHandlerContext ctx, long requestId, List<String> topicNames, List<DeliveryQueue> queues,
+                 ConsumerGroup.Member member, long visibilityTimeoutMs, boolean batch, int maxMessages,
+                 long maxBytes) {
+            super(ctx, requestId, topicNames, queues, member, visibilityTimeoutMs);
+            this.batch = batch;
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+        }
 
-        public Response(String status, Message message, String error, long requestId) {
-            this.status = status;
-            this.message = message;
-            this.error = error;
-            this.requestId = requestId;
+        void start(long maxWaitMs) {
+            timeout = ctx.executor().schedule(this::expire, Math.min(maxWaitMs, MAX_WAIT_MS), TimeUnit.MILLISECONDS);
+            park();
+        }
+
+        @Override
+        boolean isCancelled() {
+            return done || !ctx.channel().isActive();
+        }
+
+        @Override
+        void wake() {
+            if (isCancelled()) {
+                DeliveryQueue.handOff(this);
+                return;
+            }
+            List<ByteBuf> records = read(maxMessages, maxBytes);
+            if (records.isEmpty()) {
+                // 被其他消费者抢先取走或分区重新分配，继续等待
+                park();
+                return;
+            }
+            done = true;
+            timeout.cancel(false);
+            stopAwaitingTopics();
+            deliver(ctx, "ok", records, batch, visibilityTimeoutMs, requestId);
+        }
+
+        private void expire() {
+            if (done) {
+                return;
+            }
+            done = true;
+            DeliveryQueue.unpark(this);
+            stopAwaitingTopics();
+            sendResponse(ctx, new Response("empty", null, null, requestId));
+        }
+    }
+
+    /**
+     * 推送订阅：在信用额度内主动把消息推给消费者，额度用尽后等待 credit 命令补充
+     */
+    private class Subscription extends Consumer {
+        private int credits;
+        private volatile boolean closed;
+
+        Subscription(ChannelHandlerContext ctx, long requestId, List<String> topicNames, List<DeliveryQueue> queues,
+                     ConsumerGroup.Member member, long visibilityTimeoutMs, int credits) {
+            super(ctx, requestId, topicNames, queues, member, visibilityTimeoutMs);
+            this.credits = credits;
         }
 
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
-        public Message getMessage() { return message; }
-        public void setMessage(Message message) { this.message = message; }
-        public String getError() { return error; }
-        public void setError(String error) { this.error = error; }
-        public long getRequestId() { return requestId; }
-        public void setRequestId(long requestId) { this.requestId = requestId; }
+        @Override
+        boolean isCancelled() {
+            return closed || !ctx.channel().isActive();
+        }
+
+        void grant(int amount) {
+            boolean exhausted = credits <= 0;
+            credits += amount;
+            if (exhausted) {
+                wake();
+            }
+        }
+
+        void close() {
+            closed = true;
+            DeliveryQueue.unpark(this);
+            stopAwaitingTopics();
+        }
+
+        @Override
+        void wake() {
+            if (isCancelled() || credits <= 0) {
+                DeliveryQueue.handOff(this);
+                return;
+            }
+            int maxMessages = Math.min(credits, DEFAULT_BATCH_MESSAGES);
+            int[] partitions = new int[maxMessages];
+            List<ByteBuf> records = read(maxMessages, DEFAULT_BATCH_BYTES, partitions);
+            if (records.isEmpty()) {
+                park();
+                return;
+            }
+            credits -= records.size();
+            // 推送带上每条消息的分区，客户端按 topic 与分区保序处理
+            deliver(ctx, "push", records, true, visibilityTimeoutMs, Arrays.copyOf(partitions, records.size()), requestId);
+
+            if (credits > 0) {
+                // 让出 EventLoop，下一轮继续取
+                ctx.executor().execute(this::wake);
+            }
+        }
     }
 }
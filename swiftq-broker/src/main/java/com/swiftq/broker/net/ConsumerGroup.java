@@ -0,0 +1,332 @@
+package com.swiftq.broker.net;
+
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 消费组：组内成员分摊所订阅 topic 的分区，每个分区同一时刻只属于一个成员
+ *
+ * 分区由 Broker 分配，成员加入或离开时重新分配。成员在自己的分区上按 offset 读取，不影响共享消费位点；
+ * 读到的位置在成员提交后才成为组的已提交 offset，分区换了成员后从已提交的 offset 继续，
+ * 未提交的消息会再次投递（至少一次）
+ */
+final class ConsumerGroup {
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerGroup.class);
+
+    private final String name;
+    private final TopicManager topics;
+
+    // 以下字段由组锁保护
+    // 按加入顺序排列，分配结果只取决于成员顺序
+    private final Map<String, Member> members = new LinkedHashMap<>();
+    private final Map<DeliveryQueue, Member> owners = new HashMap<>();
+    // 当前成员已读到的位置，分区换了成员后丢弃
+    private final Map<DeliveryQueue, Long> positions = new HashMap<>();
+    // 已提交的 offset，键为 topic/partition
+    private final Map<String, Long> committed = new HashMap<>();
+    private boolean dirty;
+    private int nextMemberId;
+    private int generation;
+
+    ConsumerGroup(String name, TopicManager topics, Map<String, Long> committed) {
+        this.name = name;
+        this.topics = topics;
+        this.committed.putAll(committed);
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * 加入消费组并重新分配分区；尚不存在的 topic 不会被创建，创建后再分配其分区
+     *
+     * @throws IllegalArgumentException topic 不合法
+     */
+    Member join(List<String> topicNames) {
+        List<String> names = new ArrayList<>(new TreeSet<>(topicNames));
+        for (String topicName : names) {
+            if (topicName == null || !TopicManager.isValidName(topicName)) {
+                throw new IllegalArgumentException("Invalid topic: " + topicName);
+            }
+        }
+        List<Member> changed;
+        Member member;
+        synchronized (this) {
+            member = new Member(name + "-" + ++nextMemberId, names);
+            members.put(member.id, member);
+            changed = rebalance();
+        }
+        reassigned(changed);
+        return member;
+    }
+
+    /**
+     * 成员订阅的 topic 创建完成，把它的分区分给成员
+     */
+    void topicCreated(Topic topic) {
+        List<Member> changed;
+        synchronized (this) {
+            boolean subscribed = false;
+            for (Member member : members.values()) {
+                subscribed |= member.topics.contains(topic.name());
+            }
+            if (!subscribed) {
+                return;
+            }
+            changed = rebalance();
+        }
+        reassigned(changed);
+    }
+
+    private void leave(Member member) {
+        List<Member> changed;
+        synchronized (this) {
+            if (members.remove(member.id) == null) {
+                return;
+            }
+            changed = rebalance();
+        }
+        reassigned(changed);
+    }
+
+    /**
+     * 按 topic 与分区的顺序把分区轮流分给订阅了该 topic 的成员
+     *
+     * @return 分配结果发生变化的成员
+     */
+    private List<Member> rebalance() {
+        Map<DeliveryQueue, Member> assigned = new HashMap<>();
+        Map<Member, List<DeliveryQueue>> byMember = new HashMap<>();
+        TreeSet<String> names = new TreeSet<>();
+        for (Member member : members.values()) {
+            names.addAll(member.topics);
+        }
+        int next = 0;
+        for (String topicName : names) {
+            List<Member> subscribers = new ArrayList<>();
+            for (Member member : members.values()) {
+                if (member.topics.contains(topicName)) {
+                    subscribers.add(member);
+                }
+            }
+            Topic topic = topics.existing(topicName);
+            if (topic == null) {
+                continue;
+            }
+            for (DeliveryQueue partition : topic.partitions()) {
+                Member owner = subscribers.get(next++ % subscribers.size());
+                assigned.put(partition, owner);
+                byMember.computeIfAbsent(owner, m -> new ArrayList<>()).add(partition);
+            }
+        }
+        for (Map.Entry<DeliveryQueue, Member> entry : owners.entrySet()) {
+            if (assigned.get(entry.getKey()) != entry.getValue()) {
+                // 新成员从已提交的 offset 继续
+                positions.remove(entry.getKey());
+            }
+        }
+        owners.clear();
+        owners.putAll(assigned);
+        generation++;
+
+        List<Member> changed = new ArrayList<>();
+        for (Member member : members.values()) {
+            List<DeliveryQueue> assignment = byMember.getOrDefault(member, Collections.emptyList());
+            if (!assignment.equals(member.assignment)) {
+                member.assignment = Collections.unmodifiableList(assignment);
+                changed.add(member);
+            }
+        }
+        logger.info("Group {} generation {}: {} member(s), {} partition(s)", name, generation, members.size(),
+                assigned.size());
+        return changed;
+    }
+
+    /**
+     * 唤醒分配发生变化的成员，让其在新的分区上重新等待
+     */
+    private static void reassigned(List<Member> changed) {
+        for (Member member : changed) {
+            DeliveryQueue.Waiter waiter = member.waiter;
+            if (waiter != null) {
+                DeliveryQueue.wake(waiter);
+            }
+        }
+    }
+
+    /**
+     * 从成员的分区中读取一批记录，每次从不同的分区开始轮转
+     * 只在组锁内确认分区归属与读取位置，存储读取（持久化存储上是磁盘读）在锁外进行，不阻塞组内其他成员；
+     * 读取期间分区换了成员或位置被改动时丢弃这次读到的记录
+     *
+     * @param partitions 不为 null 时依次填入每条记录所在的分区，长度不小于 maxMessages
+     */
+    private List<ByteBuf> read(Member member, int maxMessages, long maxBytes, int[] partitions) {
+        List<DeliveryQueue> assignment = member.assignment;
+        List<ByteBuf> out = new ArrayList<>();
+        long bytes = 0;
+        int start;
+        synchronized (this) {
+            start = member.nextPartition++ & Integer.MAX_VALUE;
+        }
+        for (int i = 0; i < assignment.size() && out.size() < maxMessages && bytes < maxBytes; i++) {
+            DeliveryQueue partition = assignment.get((start + i) % assignment.size());
+            long from;
+            synchronized (this) {
+                if (owners.get(partition) != member) {
+                    continue;
+                }
+                from = position(partition);
+            }
+            int before = out.size();
+            long next = partition.store().read(from, maxMessages - out.size(), maxBytes - bytes, out);
+            synchronized (this) {
+                if (owners.get(partition) != member || position(partition) != from) {
+                    discard(out, before);
+                    continue;
+                }
+                positions.put(partition, next);
+            }
+            for (int j = before; j < out.size(); j++) {
+                bytes += out.get(j).readableBytes();
+                if (partitions != null) {
+                    partitions[j] = partition.partition();
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void discard(List<ByteBuf> records, int from) {
+        while (records.size() > from) {
+            records.remove(records.size() - 1).release();
+        }
+    }
+
+    private synchronized boolean hasData(DeliveryQueue partition) {
+        return position(partition) < partition.store().nextOffset();
+    }
+
+    /**
+     * 分区的读取位置，没有读过时从已提交的 offset 开始，组从未提交过时从最早的 offset 开始
+     */
+    private long position(DeliveryQueue partition) {
+        Long position = positions.get(partition);
+        if (position == null) {
+            position = committed.get(key(partition));
+        }
+        long start = partition.store().startOffset();
+        return position != null ? Math.max(position, start) : start;
+    }
+
+    private synchronized void commit(Member member) {
+        for (DeliveryQueue partition : member.assignment) {
+            Long position = positions.get(partition);
+            if (position != null && owners.get(partition) == member) {
+                committed.put(key(partition), position);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * @return 自上次调用以来有新的提交时返回已提交 offset 的副本，否则返回 null
+     */
+    synchronized Map<String, Long> takeCommitted() {
+        if (!dirty) {
+            return null;
+        }
+        dirty = false;
+        return new HashMap<>(committed);
+    }
+
+    /**
+     * 持久化失败后恢复脏标记，下次重试
+     */
+    synchronized void markDirty() {
+        dirty = true;
+    }
+
+    static String key(DeliveryQueue partition) {
+        return partition.topic() + '/' + partition.partition();
+    }
+
+    /**
+     * 组成员，对应一个连接；只在所属连接的 EventLoop 上调用
+     */
+    final class Member {
+        private final String id;
+        private final List<String> topics;
+        private volatile List<DeliveryQueue> assignment = Collections.emptyList();
+        // 当前等待数据的请求，分配变化时被唤醒
+        private volatile DeliveryQueue.Waiter waiter;
+        // 由组锁保护
+        private int nextPartition;
+
+        private Member(String id, List<String> topics) {
+            this.id = id;
+            this.topics = topics;
+        }
+
+        String id() {
+            return id;
+        }
+
+        ConsumerGroup group() {
+            return ConsumerGroup.this;
+        }
+
+        /**
+         * 当前分配给成员的分区
+         */
+        List<DeliveryQueue> assignment() {
+            return assignment;
+        }
+
+        List<ByteBuf> read(int maxMessages, long maxBytes) {
+            return ConsumerGroup.this.read(this, maxMessages, maxBytes, null);
+        }
+
+        List<ByteBuf> read(int maxMessages, long maxBytes, int[] partitions) {
+            return ConsumerGroup.this.read(this, maxMessages, maxBytes, partitions);
+        }
+
+        boolean hasData(DeliveryQueue partition) {
+            return ConsumerGroup.this.hasData(partition);
+        }
+
+        /**
+         * 在当前分配的分区上等待；登记后分配已经变化时立即唤醒，避免停在旧分区上
+         */
+        void park(DeliveryQueue.Waiter waiter) {
+            this.waiter = waiter;
+            List<DeliveryQueue> current = assignment;
+            DeliveryQueue.park(waiter, current);
+            if (assignment != current) {
+                DeliveryQueue.wake(waiter);
+            }
+        }
+
+        /**
+         * 把已读到的位置提交为组的消费进度
+         */
+        void commit() {
+            ConsumerGroup.this.commit(this);
+        }
+
+        void leave() {
+            waiter = null;
+            ConsumerGroup.this.leave(this);
+        }
+    }
+}
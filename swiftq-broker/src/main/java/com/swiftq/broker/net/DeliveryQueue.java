@@ -0,0 +1,212 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.store.MessageStore;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 投递队列，每个 topic 分区一个
+ * 在消息存储之上维护等待数据的消费者（长轮询请求与推送订阅），发布时按需唤醒；
+ * 同时消费多个 topic 的等待者登记在每个 topic 的队列上，被任意一个唤醒时从其余队列中移除
+ *
+ * 共享消费位点的等待者竞争同一批记录，每条新记录只唤醒一个；
+ * 按各自 offset 读取的等待者（消费组）互不影响，有新记录时全部唤醒
+ *
+ * 等待者只在自己 Channel 的 EventLoop 上被唤醒执行，不占用任何阻塞线程
+ *
+ * 存储中保存的是已编码的消息记录（见 BinaryCodec），入队时由存储接管一个引用，
+ * 取出后由调用方负责释放或交给出站响应
+ */
+public class DeliveryQueue {
+
+    private final String topic;
+    private final int partition;
+    private final MessageStore store;
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final Queue<Waiter> broadcastWaiters = new ConcurrentLinkedQueue<>();
+
+    public DeliveryQueue(String topic, int partition, MessageStore store) {
+        this.topic = topic;
+        this.partition = partition;
+        this.store = store;
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    public int partition() {
+        return partition;
+    }
+
+    public MessageStore store() {
+        return store;
+    }
+
+    /**
+     * 追加到存储，记录可见后唤醒等待者
+     *
+     * @return 存储确认后完成的 future
+     */
+    public CompletableFuture<Void> offer(ByteBuf record) {
+        return store.append(record).thenRun(() -> signal(1));
+    }
+
+    public CompletableFuture<Void> offerAll(List<ByteBuf> records) {
+        int count = records.size();
+        return store.appendAll(records).thenRun(() -> signal(count));
+    }
+
+    public ByteBuf poll() {
+        return store.poll();
+    }
+
+    /**
+     * 取出一批消息
+     * maxBytes 为软上限：累计记录大小达到上限后停止，因此非空批次至少包含一条消息
+     */
+    public List<ByteBuf> drain(int maxMessages, long maxBytes) {
+        return store.drain(maxMessages, maxBytes);
+    }
+
+    /**
+     * 登记等待者；登记后复查一次队列，避免与并发发布之间丢失唤醒
+     */
+    void park(Waiter waiter) {
+        park(waiter, Collections.singletonList(this));
+    }
+
+    /**
+     * 在多个队列上登记同一个等待者，任意一个队列有数据时唤醒一次
+     */
+    static void park(Waiter waiter, List<DeliveryQueue> queues) {
+        if (waiter.parked.compareAndSet(false, true)) {
+            waiter.queues = queues;
+            for (DeliveryQueue queue : queues) {
+                queue.waitersOf(waiter).add(waiter);
+            }
+            for (DeliveryQueue queue : queues) {
+                if (waiter.hasData(queue)) {
+                    queue.signal(1);
+                    break;
+                }
+            }
+        }
+    }
+
+    static void unpark(Waiter waiter) {
+        if (waiter.parked.compareAndSet(true, false)) {
+            waiter.detach(null);
+        }
+    }
+
+    /**
+     * 立即唤醒已登记的等待者，用于等待者需要改在其他队列上等待时
+     */
+    static void wake(Waiter waiter) {
+        if (waiter.parked.compareAndSet(true, false)) {
+            waiter.detach(null);
+            if (!waiter.isCancelled()) {
+                waiter.executor().execute(waiter::wake);
+            }
+        }
+    }
+
+    /**
+     * 被唤醒的等待者已失效时调用，把唤醒转交给下一个等待者
+     */
+    static void handOff(Waiter waiter) {
+        if (waiter.broadcast()) {
+            // 广播唤醒不会转交
+            return;
+        }
+        for (DeliveryQueue queue : waiter.queues) {
+            if (!queue.store.isEmpty()) {
+                queue.signal(1);
+            }
+        }
+    }
+
+    private Queue<Waiter> waitersOf(Waiter waiter) {
+        return waiter.broadcast() ? broadcastWaiters : waiters;
+    }
+
+    /**
+     * 唤醒最多 count 个仍然有效的等待者
+     */
+    private void signal(int count) {
+        Waiter waiter;
+        while (!broadcastWaiters.isEmpty() && (waiter = broadcastWaiters.poll()) != null) {
+            wakeUp(waiter);
+        }
+        while (count > 0 && (waiter = waiters.poll()) != null) {
+            if (wakeUp(waiter)) {
+                count--;
+            }
+        }
+    }
+
+    private boolean wakeUp(Waiter waiter) {
+        if (!waiter.parked.compareAndSet(true, false)) {
+            return false;
+        }
+        // 先从其他队列移除再唤醒，唤醒后的重新登记不会被这里误删
+        waiter.detach(this);
+        if (waiter.isCancelled()) {
+            return false;
+        }
+        waiter.executor().execute(waiter::wake);
+        return true;
+    }
+
+    /**
+     * 等待数据的消费者
+     */
+    abstract static class Waiter {
+
+        private final AtomicBoolean parked = new AtomicBoolean();
+        // 最近一次登记的队列
+        private volatile List<DeliveryQueue> queues = Collections.emptyList();
+
+        private void detach(DeliveryQueue except) {
+            for (DeliveryQueue queue : queues) {
+                if (queue != except) {
+                    queue.waitersOf(this).remove(this);
+                }
+            }
+        }
+
+        /**
+         * wake() 执行所在的线程，即所属 Channel 的 EventLoop
+         */
+        abstract EventExecutor executor();
+
+        /**
+         * 被唤醒后尝试取数据；取不到时应重新 park
+         */
+        abstract void wake();
+
+        abstract boolean isCancelled();
+
+        /**
+         * 是否按自己的 offset 读取，而不是竞争共享消费位点
+         */
+        boolean broadcast() {
+            return false;
+        }
+
+        /**
+         * 登记后复查队列时判断是否已有可读的数据
+         */
+        boolean hasData(DeliveryQueue queue) {
+            return !queue.store.isEmpty();
+        }
+    }
+}
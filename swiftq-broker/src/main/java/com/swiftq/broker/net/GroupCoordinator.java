@@ -0,0 +1,179 @@
+package com.swiftq.broker.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消费组协调者：管理消费组的成员与分区分配，并持久化各组已提交的 offset
+ *
+ * 已提交的 offset 保存在 dataDir/.groups/group.offsets，按存储的检查点间隔落盘，关闭时再落盘一次；
+ * 落盘前崩溃时从上一次落盘的 offset 重新投递。消费组只支持持久化存储
+ *
+ * 文件格式: [int32 count] ([utf topic/partition][int64 offset]) ...
+ */
+public class GroupCoordinator implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCoordinator.class);
+
+    static final String GROUPS_DIR = ".groups";
+    private static final String OFFSETS_SUFFIX = ".offsets";
+
+    private final TopicManager topics;
+    private final File dir;
+    private final ConcurrentHashMap<String, ConsumerGroup> groups = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> flushTask;
+
+    public GroupCoordinator(TopicManager topics, BrokerConfig config) throws IOException {
+        this.topics = topics;
+        if (!topics.isDurable()) {
+            this.dir = null;
+            this.flushTask = null;
+            return;
+        }
+        this.dir = new File(topics.dataDir(), GROUPS_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create group directory " + dir);
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(OFFSETS_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().substring(0, file.getName().length() - OFFSETS_SUFFIX.length());
+                if (TopicManager.isValidName(name)) {
+                    groups.put(name, new ConsumerGroup(name, topics, readOffsets(file)));
+                }
+            }
+        }
+        logger.info("Loaded committed offsets of {} consumer group(s) from {}", groups.size(), dir);
+        // 成员订阅的 topic 可能在加入之后才由发布创建
+        topics.onCreate(topic -> {
+            for (ConsumerGroup group : groups.values()) {
+                group.topicCreated(topic);
+            }
+        });
+
+        long interval = config.getStoreConfig().getCheckpointIntervalMs();
+        this.flushTask = topics.scheduler().scheduleWithFixedDelay(this::flushQuietly, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 加入消费组，组不存在时创建
+     *
+     * @throws IllegalArgumentException 组名或 topic 不合法
+     * @throws IllegalStateException 未使用持久化存储
+     */
+    public ConsumerGroup.Member join(String group, List<String> topicNames) {
+        if (dir == null) {
+            throw new IllegalStateException("Consumer groups require a durable store");
+        }
+        if (group == null || !TopicManager.isValidName(group)) {
+            throw new IllegalArgumentException("Invalid group: " + group);
+        }
+        if (topicNames == null || topicNames.isEmpty()) {
+            throw new IllegalArgumentException("Group members must subscribe to at least one topic");
+        }
+        ConsumerGroup consumerGroup = groups.computeIfAbsent(group,
+                name -> new ConsumerGroup(name, topics, Collections.emptyMap()));
+        return consumerGroup.join(topicNames);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.warn("Failed to persist committed offsets", e);
+        }
+    }
+
+    /**
+     * 把有新提交的组的 offset 写入磁盘
+     */
+    public synchronized void flush() throws IOException {
+        if (dir == null) {
+            return;
+        }
+        IOException failure = null;
+        for (ConsumerGroup group : groups.values()) {
+            Map<String, Long> committed = group.takeCommitted();
+            if (committed == null) {
+                continue;
+            }
+            try {
+                writeOffsets(new File(dir, group.name() + OFFSETS_SUFFIX), committed);
+            } catch (IOException e) {
+                group.markDirty();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Map<String, Long> readOffsets(File file) throws IOException {
+        Map<String, Long> offsets = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                offsets.put(in.readUTF(), in.readLong());
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * 写入临时文件后原子替换
+     */
+    private static void writeOffsets(File file, Map<String, Long> offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(offsets.size());
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 停止定时落盘并写入最后一次提交，需在关闭 TopicManager 之前调用
+     */
+    @Override
+    public void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flushQuietly();
+    }
+}
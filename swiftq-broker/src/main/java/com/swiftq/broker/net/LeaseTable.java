@@ -0,0 +1,125 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.common.MsgState;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个连接上尚未确认的消息租约
+ *
+ * 按租约消费时每条投递出去的消息登记一个租约：ack 后丢弃，nack、可见性超时或连接断开时重新投递。
+ * 超时由 Broker 共享的时间轮触发，登记与取消都是 O(1)，不扫描未确认的消息；
+ * 超时回调切回连接的 EventLoop 执行，租约表只在该线程上访问
+ *
+ * 租约只保存在内存中，Broker 重启后未确认的消息不会重新投递
+ */
+final class LeaseTable {
+
+    /**
+     * 重新投递一条记录，接管记录的引用
+     */
+    interface Redelivery {
+        void redeliver(ByteBuf record, MsgState reason);
+    }
+
+    private final Timer timer;
+    private final EventExecutor executor;
+    private final Redelivery redelivery;
+    private final Map<Long, Lease> leases = new HashMap<>();
+    private long nextId;
+
+    LeaseTable(Timer timer, EventExecutor executor, Redelivery redelivery) {
+        this.timer = timer;
+        this.executor = executor;
+        this.redelivery = redelivery;
+    }
+
+    /**
+     * 为即将投递的记录登记租约，租约持有记录自己的引用
+     *
+     * @return 租约编号，与记录一一对应
+     */
+    long[] addAll(List<ByteBuf> records, long timeoutMs) {
+        long[] ids = new long[records.size()];
+        for (int i = 0; i < ids.length; i++) {
+            // 记录本身交给响应写出后读指针会移动，租约保留一份独立的视图
+            Lease lease = new Lease(++nextId, records.get(i).retainedDuplicate());
+            lease.timeout = timer.newTimeout(t -> executor.execute(() -> expire(lease)), timeoutMs,
+                    TimeUnit.MILLISECONDS);
+            leases.put(lease.id, lease);
+            ids[i] = lease.id;
+        }
+        return ids;
+    }
+
+    /**
+     * 确认处理完成
+     *
+     * @return 租约不存在（已确认或已超时重新投递）时返回 false
+     */
+    boolean ack(long id) {
+        Lease lease = leases.remove(id);
+        if (lease == null) {
+            return false;
+        }
+        lease.timeout.cancel();
+        lease.record.release();
+        return true;
+    }
+
+    /**
+     * 处理失败，立即重新投递
+     *
+     * @return 租约不存在时返回 false
+     */
+    boolean nack(long id) {
+        Lease lease = leases.remove(id);
+        if (lease == null) {
+            return false;
+        }
+        lease.timeout.cancel();
+        redelivery.redeliver(lease.record, MsgState.FAILED);
+        return true;
+    }
+
+    private void expire(Lease lease) {
+        if (leases.remove(lease.id, lease)) {
+            redelivery.redeliver(lease.record, MsgState.TIMEOUT);
+        }
+    }
+
+    /**
+     * 连接断开时重新投递所有未确认的消息，不等待超时
+     */
+    void redeliverAll() {
+        List<Lease> pending = new ArrayList<>(leases.values());
+        leases.clear();
+        for (Lease lease : pending) {
+            lease.timeout.cancel();
+            redelivery.redeliver(lease.record, MsgState.TIMEOUT);
+        }
+    }
+
+    int size() {
+        return leases.size();
+    }
+
+    private static final class Lease {
+        final long id;
+        final ByteBuf record;
+        Timeout timeout;
+
+        Lease(long id, ByteBuf record) {
+            this.id = id;
+            this.record = record;
+        }
+    }
+}
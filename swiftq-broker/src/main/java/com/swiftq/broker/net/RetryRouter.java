@@ -0,0 +1,322 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.common.Message;
+import com.swiftq.common.MsgState;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重试与死信路由：处理 nack、租约超时或断开后需要重新投递的消息
+ *
+ * 重试次数加一后超过消息的 maxRetries 时移入死信 topic（topic.DLQ），不再占用原 topic 的投递能力，
+ * 运维可以消费其中的消息排查，或用 redrive 批量移回原 topic；
+ * 否则按配置的重试延迟放入对应的重试 topic（topic.retry-n），到期后移回原 topic，未配置延迟时直接移回
+ *
+ * 同一个重试 topic 的延迟固定，分区内消息按到期先后排列，每个分区只需检查队首：
+ * 队首未到期时按剩余时间在时间轮上登记一次，不扫描队列。重试 topic 与死信 topic 不参与未指定 topic 的消费
+ *
+ * 时间轮与租约超时共用，到期回调只把搬运转交给专用线程，读写存储不占用时间轮线程
+ */
+public class RetryRouter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RetryRouter.class);
+
+    static final String DLQ_SUFFIX = ".DLQ";
+    static final String RETRY_INFIX = ".retry-";
+
+    // 消息在重试 topic 中的到期时间
+    public static final String RETRY_AT_TAG = "retryAt";
+
+    private final TopicManager topics;
+    private final Timer timer;
+    private final long[] retryDelaysMs;
+    private final ConcurrentHashMap<DeliveryQueue, Mover> movers = new ConcurrentHashMap<>();
+    // 执行搬运的线程，持久化存储上的读写在这里进行
+    private final ExecutorService moverExecutor =
+            Executors.newSingleThreadExecutor(new DefaultThreadFactory("swiftq-retry", true));
+    private volatile boolean closed;
+
+    public RetryRouter(TopicManager topics, BrokerConfig config, Timer timer) {
+        this.topics = topics;
+        this.timer = timer;
+        this.retryDelaysMs = config.getRetryDelaysMs();
+        // 重启前留在重试 topic 中的消息
+        for (Topic topic : topics.topics()) {
+            if (topic.name().contains(RETRY_INFIX)) {
+                for (DeliveryQueue queue : topic.partitions()) {
+                    mover(queue).kick(0);
+                }
+            }
+        }
+    }
+
+    static String deadLetterTopic(String topic) {
+        return topic + DLQ_SUFFIX;
+    }
+
+    static String retryTopic(String topic, int tier) {
+        return topic + RETRY_INFIX + tier;
+    }
+
+    /**
+     * 是否为重试或死信 topic
+     */
+    static boolean isDerived(String topic) {
+        return topic.endsWith(DLQ_SUFFIX) || topic.contains(RETRY_INFIX);
+    }
+
+    /**
+     * 重新投递一条记录：重试次数加一并记下原因，按重试次数放入原 topic、重试 topic 或死信 topic；
+     * 接管记录的引用
+     */
+    void redeliver(ByteBufAllocator alloc, ByteBuf record, MsgState reason) {
+        ByteBuf retry;
+        String targetName;
+        long delayMs = 0;
+        try {
+            Message message = BinaryCodec.decodeRecord(record);
+            message.incrementRetry();
+            String origin = message.getTopic() != null ? message.getTopic() : TopicManager.DEFAULT_TOPIC;
+            if (message.getRetryCount() > message.getMaxRetries()) {
+                message.setState(MsgState.DEAD_LETTER);
+                targetName = deadLetterTopic(origin);
+            } else {
+                message.setState(reason);
+                int tier = Math.min(message.getRetryCount(), retryDelaysMs.length);
+                delayMs = tier > 0 ? retryDelaysMs[tier - 1] : 0;
+                if (delayMs > 0) {
+                    setTag(message, RETRY_AT_TAG, Long.toString(System.currentTimeMillis() + delayMs));
+                    targetName = retryTopic(origin, tier);
+                } else {
+                    targetName = origin;
+                }
+            }
+            retry = BinaryCodec.encodeRecord(alloc, message);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to redeliver message", e);
+            return;
+        } finally {
+            record.release();
+        }
+        CompletableFuture<Topic> target;
+        try {
+            // 重试与死信 topic 首次使用时创建，持久化存储上在 TopicManager 的创建线程上完成
+            target = topics.topic(targetName);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to redeliver message to {}", targetName, e);
+            retry.release();
+            return;
+        }
+        long delay = delayMs;
+        target.whenComplete((topic, cause) -> {
+            if (cause != null) {
+                logger.warn("Failed to redeliver message to {}", targetName, cause);
+                retry.release();
+                return;
+            }
+            // 键不变，按原记录选择分区
+            DeliveryQueue queue = BrokerServerHandler.place(topic, retry, -1);
+            DeliveryQueue partition = queue != null ? queue : topic.nextPartition();
+            partition.offer(retry).whenComplete((v, stored) -> {
+                if (stored != null) {
+                    logger.warn("Failed to redeliver message", stored);
+                } else if (delay > 0) {
+                    mover(partition).kick(delay);
+                }
+            });
+        });
+    }
+
+    /**
+     * 把死信 topic 中最多 maxMessages 条消息移回原 topic，重试次数清零
+     *
+     * @return 移回的消息全部写入存储后完成，结果为移回的条数
+     * @throws IllegalArgumentException topic 不合法或本身是重试 / 死信 topic
+     */
+    CompletableFuture<Integer> redrive(ByteBufAllocator alloc, String topicName, int maxMessages) {
+        if (topicName == null || !TopicManager.isValidName(topicName)) {
+            throw new IllegalArgumentException("Invalid topic: " + topicName);
+        }
+        if (isDerived(topicName)) {
+            throw new IllegalArgumentException("Cannot redrive derived topic " + topicName);
+        }
+        Topic origin = topics.existing(topicName);
+        if (origin == null) {
+            // 原 topic 不存在时也不会有它的死信 topic
+            return CompletableFuture.completedFuture(0);
+        }
+        Topic dlq = topics.existing(deadLetterTopic(origin.name()));
+        if (dlq == null) {
+            return CompletableFuture.completedFuture(0);
+        }
+        List<CompletableFuture<Void>> stored = new ArrayList<>();
+        int moved = 0;
+        for (DeliveryQueue partition : dlq.partitions()) {
+            if (moved >= maxMessages) {
+                break;
+            }
+            for (ByteBuf record : partition.drain(maxMessages - moved, Long.MAX_VALUE)) {
+                ByteBuf redriven;
+                DeliveryQueue queue;
+                try {
+                    Message message = BinaryCodec.decodeRecord(record);
+                    message.setRetryCount(0);
+                    message.setState(MsgState.INIT);
+                    queue = BrokerServerHandler.place(origin, record, -1);
+                    if (queue == null) {
+                        queue = origin.nextPartition();
+                    }
+                    redriven = BinaryCodec.encodeRecord(alloc, message);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to redrive message from {}", dlq.name(), e);
+                    continue;
+                } finally {
+                    record.release();
+                }
+                stored.add(queue.offer(redriven));
+                moved++;
+            }
+        }
+        if (moved > 0) {
+            logger.info("Redriving {} message(s) from {} to {}", moved, dlq.name(), origin.name());
+        }
+        int count = moved;
+        return CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0])).thenApply(v -> count);
+    }
+
+    private static void setTag(Message message, String key, String value) {
+        if (message.getTags() == null) {
+            message.setTags(new HashMap<>());
+        }
+        message.getTags().put(key, value);
+    }
+
+    private Mover mover(DeliveryQueue queue) {
+        return movers.computeIfAbsent(queue, Mover::new);
+    }
+
+    /**
+     * 停止移动，已取出但未到期的消息放回重试 topic；需在时间轮停止后、存储关闭前调用
+     */
+    @Override
+    public void close() {
+        closed = true;
+        moverExecutor.shutdown();
+        try {
+            if (!moverExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Retry mover did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Mover mover : movers.values()) {
+            mover.close();
+        }
+        movers.clear();
+    }
+
+    /**
+     * 一个重试 topic 分区的搬运者：队首到期后移回原 topic；时间轮只负责定时，搬运在 moverExecutor 上执行
+     */
+    private final class Mover {
+        private final DeliveryQueue queue;
+        // 已取出但未到期的队首
+        private ByteBuf head;
+        private boolean scheduled;
+
+        Mover(DeliveryQueue queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * 有新消息入队，尚未登记检查时在 delayMs 后检查队首
+         */
+        synchronized void kick(long delayMs) {
+            if (scheduled || closed) {
+                return;
+            }
+            scheduled = true;
+            timer.newTimeout(t -> submit(), delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * 在时间轮线程上执行，只转交
+         */
+        private void submit() {
+            try {
+                moverExecutor.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                // 已关闭
+            }
+        }
+
+        private synchronized void run() {
+            while (!closed) {
+                if (head == null && (head = queue.poll()) == null) {
+                    scheduled = false;
+                    return;
+                }
+                long waitMs = dueAt(head) - System.currentTimeMillis();
+                if (waitMs > 0) {
+                    timer.newTimeout(t -> submit(), waitMs, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                ByteBuf record = head;
+                head = null;
+                move(record);
+            }
+        }
+
+        private void move(ByteBuf record) {
+            DeliveryQueue target;
+            try {
+                // 在搬运线程上，可以等待原 topic 创建完成
+                Topic origin = topics.topic(BinaryCodec.recordTopic(record)).join();
+                target = BrokerServerHandler.place(origin, record, -1);
+                if (target == null) {
+                    target = origin.nextPartition();
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to move message out of {}", queue.topic(), e);
+                record.release();
+                return;
+            }
+            target.offer(record).whenComplete((v, cause) -> {
+                if (cause != null) {
+                    logger.warn("Failed to move message out of {}", queue.topic(), cause);
+                }
+            });
+        }
+
+        private long dueAt(ByteBuf record) {
+            String value = BinaryCodec.recordTag(record, RETRY_AT_TAG);
+            try {
+                return value != null ? Long.parseLong(value) : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        synchronized void close() {
+            if (head != null) {
+                queue.offer(head);
+                head = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.swiftq.broker.net;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * topic 与其分区
+ * 每个分区是独立的投递队列与存储，有自己的 offset 空间和写线程，分区之间不共享锁
+ */
+public class Topic {
+
+    private final String name;
+    private final List<DeliveryQueue> partitions;
+    // 服务端为未指定分区且没有键的消息轮流选择分区
+    private final AtomicInteger nextPartition = new AtomicInteger();
+
+    Topic(String name, DeliveryQueue[] partitions) {
+        this.name = name;
+        this.partitions = Collections.unmodifiableList(Arrays.asList(partitions));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int partitionCount() {
+        return partitions.size();
+    }
+
+    /**
+     * @throws IllegalArgumentException 分区不存在
+     */
+    public DeliveryQueue partition(int partition) {
+        if (partition < 0 || partition >= partitions.size()) {
+            throw new IllegalArgumentException("Invalid partition " + partition + " of topic " + name);
+        }
+        return partitions.get(partition);
+    }
+
+    public List<DeliveryQueue> partitions() {
+        return partitions;
+    }
+
+    DeliveryQueue nextPartition() {
+        return partitions.get((nextPartition.getAndIncrement() & Integer.MAX_VALUE) % partitions.size());
+    }
+}
@@ -0,0 +1,386 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.store.GroupCommitter;
+import com.swiftq.broker.store.LogMessageStore;
+import com.swiftq.broker.store.MemoryMessageStore;
+import com.swiftq.broker.store.MessageStore;
+import com.swiftq.broker.store.PriorityMessageStore;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 按 topic 与分区划分的投递队列
+ * 每个分区有独立的存储与等待者列表，topic 只在首次发布（以及重试、死信投递）时创建，消费、订阅、
+ * 元数据查询与加入消费组不会创建 topic；不同分区之间不共享锁，慢 topic 不会阻塞其他 topic
+ *
+ * 持久化存储时每个分区使用 dataDir/topic/partition 目录，启动时载入已有的 topic；
+ * 运行中创建 topic 要打开日志、扫描目录，在专用线程上进行，不占用 EventLoop
+ */
+public class TopicManager implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TopicManager.class);
+
+    // 未设置 topic 的消息归入默认 topic
+    public static final String DEFAULT_TOPIC = "default";
+
+    // topic 同时用作目录名
+    private static final Pattern VALID_TOPIC = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9._-]{0,127}");
+
+    private final BrokerConfig config;
+    private final File dataDir;
+    private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+    // 正在创建的 topic，创建完成后移入 topics
+    private final ConcurrentHashMap<String, CompletableFuture<Topic>> creating = new ConcurrentHashMap<>();
+    // 已存在与正在创建的 topic 数，创建前先占用名额，并发创建也不会超过上限
+    private final AtomicInteger topicCount = new AtomicInteger();
+    // 已创建完成的 topic 数，等待新 topic 的消费者据此发现登记期间新建的 topic
+    private final AtomicLong created = new AtomicLong();
+    // 等待新 topic 的消费者：请求的 topic 尚不存在，或未指定 topic 时等待新 topic 加入
+    private final Set<DeliveryQueue.Waiter> topicWaiters = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<Topic>> listeners = new CopyOnWriteArrayList<>();
+
+    // 所有 topic 的日志共享的后台线程
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService cleanerScheduler;
+    private final GroupCommitter committer;
+    // 创建 topic 的线程，未使用持久化存储时为 null，创建在调用方线程上完成
+    private final ExecutorService creator;
+
+    public TopicManager(BrokerConfig config) throws IOException {
+        this.config = config;
+        this.dataDir = config.getDataDir() != null ? new File(config.getDataDir()) : null;
+        if (dataDir != null && !config.getPriorityTopics().isEmpty()) {
+            throw new IllegalArgumentException("Priority topics require the memory store: " + config.getPriorityTopics());
+        }
+        if (dataDir == null) {
+            this.scheduler = null;
+            this.cleanerScheduler = null;
+            this.committer = null;
+            this.creator = null;
+            return;
+        }
+        if (!dataDir.isDirectory() && !dataDir.mkdirs()) {
+            throw new IOException("Cannot create data directory " + dataDir);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("swiftq-store", true));
+        this.cleanerScheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("swiftq-cleaner", true));
+        this.committer = new GroupCommitter(config.getCommitThreads());
+        this.creator = Executors.newSingleThreadExecutor(new DefaultThreadFactory("swiftq-topic", true));
+        File[] dirs = dataDir.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (isValidName(dir.getName())) {
+                    if (!reserve()) {
+                        throw new IllegalStateException("Too many topics in " + dataDir);
+                    }
+                    topics.put(dir.getName(), createTopic(dir.getName()));
+                }
+            }
+        }
+        logger.info("Loaded {} topic(s) from {}", topics.size(), dataDir);
+    }
+
+    /**
+     * 返回 topic，不存在时创建；只用于发布以及重试、死信投递
+     * 持久化存储上的创建在专用线程上进行，返回的 future 在那里完成，调用方需要时自行切回 EventLoop
+     *
+     * @return topic 可用时完成的 future；topic 数量已达上限时以 IllegalStateException 失败，
+     *         持久化存储打开失败时以 UncheckedIOException 失败
+     * @throws IllegalArgumentException topic 名称不合法
+     */
+    public CompletableFuture<Topic> topic(String name) {
+        String topicName = name != null ? name : DEFAULT_TOPIC;
+        Topic topic = topics.get(topicName);
+        if (topic != null) {
+            return CompletableFuture.completedFuture(topic);
+        }
+        if (!isValidName(topicName)) {
+            throw new IllegalArgumentException("Invalid topic: " + topicName);
+        }
+        CompletableFuture<Topic> future = new CompletableFuture<>();
+        CompletableFuture<Topic> pending = creating.putIfAbsent(topicName, future);
+        if (pending != null) {
+            return pending;
+        }
+        // 创建完成时先放入 topics 再移出 creating，这里可能正好错过
+        topic = topics.get(topicName);
+        if (topic != null) {
+            creating.remove(topicName, future);
+            future.complete(topic);
+            return future;
+        }
+        if (!reserve()) {
+            creating.remove(topicName, future);
+            future.completeExceptionally(new IllegalStateException("Too many topics"));
+            return future;
+        }
+        if (creator == null) {
+            create(topicName, future);
+            return future;
+        }
+        try {
+            creator.execute(() -> create(topicName, future));
+        } catch (RejectedExecutionException e) {
+            topicCount.decrementAndGet();
+            creating.remove(topicName, future);
+            future.completeExceptionally(new IllegalStateException("Broker is shutting down"));
+        }
+        return future;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int count = topicCount.get();
+            if (count >= config.getMaxTopics()) {
+                return false;
+            }
+            if (topicCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void create(String name, CompletableFuture<Topic> future) {
+        Topic topic;
+        try {
+            topic = createTopic(name);
+        } catch (RuntimeException e) {
+            topicCount.decrementAndGet();
+            creating.remove(name, future);
+            future.completeExceptionally(e);
+            return;
+        }
+        topics.put(name, topic);
+        creating.remove(name, future);
+        created.incrementAndGet();
+        future.complete(topic);
+        for (Consumer<Topic> listener : listeners) {
+            try {
+                listener.accept(topic);
+            } catch (RuntimeException e) {
+                logger.warn("Topic listener failed on {}", name, e);
+            }
+        }
+        for (DeliveryQueue.Waiter waiter : topicWaiters) {
+            if (topicWaiters.remove(waiter)) {
+                DeliveryQueue.wake(waiter);
+            }
+        }
+    }
+
+    /**
+     * 登记新 topic 创建完成时的回调，回调在创建 topic 的线程上执行，必须很短
+     */
+    void onCreate(Consumer<Topic> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 已创建完成的 topic 数，与 {@link #awaitTopic} 配合发现登记期间新建的 topic
+     */
+    long createdCount() {
+        return created.get();
+    }
+
+    /**
+     * 等待者在下一个新 topic 创建完成时被唤醒一次
+     */
+    void awaitTopic(DeliveryQueue.Waiter waiter) {
+        topicWaiters.add(waiter);
+    }
+
+    void cancelAwaitTopic(DeliveryQueue.Waiter waiter) {
+        topicWaiters.remove(waiter);
+    }
+
+    /**
+     * topic 与消费组名称同时用作文件名，只允许字母、数字与 . _ -
+     */
+    static boolean isValidName(String name) {
+        return VALID_TOPIC.matcher(name).matches();
+    }
+
+    /**
+     * 是否使用持久化存储
+     */
+    public boolean isDurable() {
+        return dataDir != null;
+    }
+
+    File dataDir() {
+        return dataDir;
+    }
+
+    /**
+     * 持久化存储的后台线程，未使用持久化存储时为 null
+     */
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 已存在的 topic
+     *
+     * @return topic 不存在时返回 null
+     */
+    public Topic existing(String name) {
+        return topics.get(name != null ? name : DEFAULT_TOPIC);
+    }
+
+    public Collection<Topic> topics() {
+        return topics.values();
+    }
+
+    /**
+     * 解析消费请求中的 topic 列表，返回其中已存在的 topic 的所有分区，不存在的 topic 不会被创建；
+     * 未指定 topic 时返回当前所有 topic 的分区，重试与死信 topic 除外
+     *
+     * @throws IllegalArgumentException topic 名称不合法
+     */
+    public List<DeliveryQueue> queues(Collection<String> names) {
+        List<DeliveryQueue> result = new ArrayList<>();
+        if (names == null || names.isEmpty()) {
+            for (Topic topic : topics.values()) {
+                if (!RetryRouter.isDerived(topic.name())) {
+                    result.addAll(topic.partitions());
+                }
+            }
+            return result;
+        }
+        for (String name : names) {
+            Topic topic = existing(name);
+            if (topic == null) {
+                if (name != null && !isValidName(name)) {
+                    throw new IllegalArgumentException("Invalid topic: " + name);
+                }
+                continue;
+            }
+            if (!result.contains(topic.partitions().get(0))) {
+                result.addAll(topic.partitions());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 指定的 topic 是否都已存在；names 为空时表示所有 topic，总是可能有新的 topic 加入，返回 false
+     */
+    boolean allExist(Collection<String> names) {
+        if (names == null || names.isEmpty()) {
+            return false;
+        }
+        for (String name : names) {
+            if (existing(name) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Topic createTopic(String name) {
+        int count = Math.max(config.partitionsFor(name), existingPartitions(name));
+        DeliveryQueue[] partitions = new DeliveryQueue[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                partitions[i] = new DeliveryQueue(name, i, createStore(name, i));
+            }
+        } catch (RuntimeException e) {
+            for (DeliveryQueue partition : partitions) {
+                if (partition != null) {
+                    partition.store().close();
+                }
+            }
+            throw e;
+        }
+        logger.info("Created topic {} with {} partition(s)", name, count);
+        return new Topic(name, partitions);
+    }
+
+    /**
+     * 磁盘上已有的分区数，分区目录以分区号命名
+     */
+    private int existingPartitions(String name) {
+        if (dataDir == null) {
+            return 0;
+        }
+        String[] dirs = new File(dataDir, name).list();
+        int count = 0;
+        if (dirs != null) {
+            for (String dir : dirs) {
+                try {
+                    count = Math.max(count, Integer.parseInt(dir) + 1);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected directory {} in topic {}", dir, name);
+                }
+            }
+        }
+        return count;
+    }
+
+    private MessageStore createStore(String topic, int partition) {
+        if (dataDir == null) {
+            long maxBytes = config.queueBytesFor(topic);
+            if (config.isPriorityTopic(topic)) {
+                return new PriorityMessageStore(config.getTopicQueueCapacity(), maxBytes, config.getPriorityAgingMs());
+            }
+            return new MemoryMessageStore(config.getTopicQueueCapacity(), maxBytes);
+        }
+        try {
+            File dir = new File(new File(dataDir, topic), Integer.toString(partition));
+            return new LogMessageStore(dir, config.getStoreConfig().forTopic(topic), scheduler, cleanerScheduler, committer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (creator != null) {
+            // 等正在创建的 topic 完成，之后的创建请求被拒绝
+            creator.shutdown();
+            try {
+                if (!creator.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Topic creation did not finish in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Topic topic : topics.values()) {
+            for (DeliveryQueue partition : topic.partitions()) {
+                try {
+                    partition.store().close();
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to close partition {} of topic {}", partition.partition(), topic.name(), e);
+                }
+            }
+        }
+        topics.clear();
+        if (scheduler != null) {
+            committer.close();
+            scheduler.shutdown();
+            cleanerScheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,961 @@
+package com.swiftq.broker.protocol;
+
+import com.swiftq.common.Message;
+import com.swiftq.common.MsgState;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 紧凑二进制编解码
+ * 直接在 ByteBuf 上读写，不经过中间 String / byte[] 拷贝
+ *
+ * 单条消息的编码（记录）以 4 字节长度开头，服务端以记录为单位存储和转发，无需重新序列化；
+ * fetch 响应可以直接携带存储中的原始日志项，由 sendfile 发送。
+ * 发布请求中的消息字段可以整体压缩成一个块，服务端解码时解压，存储与投递的都是未压缩的记录
+ *
+ * 请求体: opcode(1) | requestId(varlong) | fieldMask(varint) | fields...
+ * 响应体: status(1) | requestId(varlong) | fieldMask(varint) | fields...
+ * opcode / status 为 0 时后跟一个字符串，用于兼容未登记的命令
+ */
+public final class BinaryCodec {
+
+    // 已登记的命令与状态，下标 + 1 即为线上的编码
+    private static final String[] REQUEST_TYPES = {
+            "publish", "consume", "publishBatch", "consumeBatch", "subscribe", "credit", "unsubscribe", "fetch", "metadata",
+            "join", "commit", "leave", "ack", "nack", "redrive"};
+    private static final String[] RESPONSE_STATUSES = {"ok", "empty", "error", "push"};
+
+    // 请求字段位
+    private static final int REQ_MESSAGE = 1;
+    private static final int REQ_MESSAGES = 1 << 1;
+    private static final int REQ_MAX_MESSAGES = 1 << 2;
+    private static final int REQ_MAX_BYTES = 1 << 3;
+    private static final int REQ_MAX_WAIT = 1 << 4;
+    private static final int REQ_CREDITS = 1 << 5;
+    private static final int REQ_OFFSET = 1 << 6;
+    private static final int REQ_TOPICS = 1 << 7;
+    private static final int REQ_PARTITION = 1 << 8;
+    private static final int REQ_GROUP = 1 << 9;
+    private static final int REQ_VISIBILITY_TIMEOUT = 1 << 10;
+    private static final int REQ_LEASES = 1 << 11;
+    // 消息字段整体压缩：compression(1) | 原始长度(varint) | 压缩数据(字节数组)，解压后按原布局读取消息字段
+    private static final int REQ_COMPRESSED = 1 << 12;
+    // 不带消息的请求（metadata）中为客户端希望使用的压缩算法
+    private static final int REQ_COMPRESSION = 1 << 13;
+
+    // 响应字段位
+    private static final int RESP_MESSAGE = 1;
+    private static final int RESP_ERROR = 1 << 1;
+    private static final int RESP_MESSAGES = 1 << 2;
+    private static final int RESP_NEXT_OFFSET = 1 << 3;
+    private static final int RESP_ENTRIES = 1 << 4;
+    private static final int RESP_PARTITIONS = 1 << 5;
+    private static final int RESP_LEASES = 1 << 6;
+    private static final int RESP_COUNT = 1 << 7;
+    // metadata 响应：服务端接受的压缩算法
+    private static final int RESP_COMPRESSION = 1 << 8;
+    private static final int RESP_RECORD_PARTITIONS = 1 << 9;
+
+    // 存储日志项头: offset(8) + crc(4)，其后是记录
+    public static final int ENTRY_HEADER_SIZE = 12;
+
+    // 消息标志位
+    private static final int MSG_BODY_FROM_PAYLOAD = 1;
+    private static final int MSG_BODY_INLINE = 1 << 1;
+    private static final int MSG_HAS_STATE = 1 << 2;
+    private static final int MSG_HAS_TAGS = 1 << 3;
+
+    private BinaryCodec() {
+    }
+
+    public static void writeRequest(ByteBuf out, Request request) {
+        writeCode(out, REQUEST_TYPES, request.getType());
+        writeVarLong(out, request.getRequestId());
+
+        int mask = 0;
+        if (request.getMessage() != null) {
+            mask |= REQ_MESSAGE;
+        }
+        if (request.getMessages() != null) {
+            mask |= REQ_MESSAGES;
+        }
+        Compression compression = request.getCompression();
+        ByteBuf messages = null;
+        byte[] compressed = null;
+        if (compression != Compression.NONE) {
+            if ((mask & (REQ_MESSAGE | REQ_MESSAGES)) == 0) {
+                mask |= REQ_COMPRESSION;
+            } else {
+                // 先编码出消息字段，整体压缩后变小才使用压缩块
+                messages = out.alloc().heapBuffer();
+                writeMessageFields(messages, request, mask);
+                if (messages.readableBytes() >= Compression.MIN_COMPRESS_SIZE) {
+                    compressed = compression.compress(ByteBufUtil.getBytes(messages));
+                    if (compressed.length < messages.readableBytes()) {
+                        mask |= REQ_COMPRESSED;
+                    } else {
+                        compressed = null;
+                    }
+                }
+            }
+        }
+        if (request.getMaxMessages() != 0) {
+            mask |= REQ_MAX_MESSAGES;
+        }
+        if (request.getMaxBytes() != 0) {
+            mask |= REQ_MAX_BYTES;
+        }
+        if (request.getMaxWaitMs() != 0) {
+            mask |= REQ_MAX_WAIT;
+        }
+        if (request.getCredits() != 0) {
+            mask |= REQ_CREDITS;
+        }
+        if (request.getOffset() != 0) {
+            mask |= REQ_OFFSET;
+        }
+        if (request.getTopics() != null && !request.getTopics().isEmpty()) {
+            mask |= REQ_TOPICS;
+        }
+        if (request.getPartition() >= 0) {
+            mask |= REQ_PARTITION;
+        }
+        if (request.getGroup() != null) {
+            mask |= REQ_GROUP;
+        }
+        if (request.getVisibilityTimeoutMs() != 0) {
+            mask |= REQ_VISIBILITY_TIMEOUT;
+        }
+        if (request.getLeases() != null) {
+            mask |= REQ_LEASES;
+        }
+        writeVarInt(out, mask);
+        if (messages == null) {
+            writeMessageFields(out, request, mask);
+        } else {
+            try {
+                if (compressed != null) {
+                    out.writeByte(compression.getId());
+                    writeVarInt(out, messages.readableBytes());
+                    writeBytes(out, compressed);
+                } else {
+                    out.writeBytes(messages);
+                }
+            } finally {
+                messages.release();
+            }
+        }
+        if ((mask & REQ_COMPRESSION) != 0) {
+            out.writeByte(compression.getId());
+        }
+        if ((mask & REQ_MAX_MESSAGES) != 0) {
+            writeVarInt(out, request.getMaxMessages());
+        }
+        if ((mask & REQ_MAX_BYTES) != 0) {
+            writeVarInt(out, request.getMaxBytes());
+        }
+        if ((mask & REQ_MAX_WAIT) != 0) {
+            writeVarLong(out, request.getMaxWaitMs());
+        }
+        if ((mask & REQ_CREDITS) != 0) {
+            writeVarInt(out, request.getCredits());
+        }
+        if ((mask & REQ_OFFSET) != 0) {
+            writeVarLong(out, request.getOffset());
+        }
+        if ((mask & REQ_TOPICS) != 0) {
+            writeVarInt(out, request.getTopics().size());
+            for (String topic : request.getTopics()) {
+                writeString(out, topic);
+            }
+        }
+        if ((mask & REQ_PARTITION) != 0) {
+            writeVarInt(out, request.getPartition());
+        }
+        if ((mask & REQ_GROUP) != 0) {
+            writeString(out, request.getGroup());
+        }
+        if ((mask & REQ_VISIBILITY_TIMEOUT) != 0) {
+            writeVarLong(out, request.getVisibilityTimeoutMs());
+        }
+        if ((mask & REQ_LEASES) != 0) {
+            writeLongs(out, request.getLeases());
+        }
+    }
+
+    private static void writeMessageFields(ByteBuf out, Request request, int mask) {
+        if ((mask & REQ_MESSAGE) != 0) {
+            writeMessage(out, request.getMessage());
+        }
+        if ((mask & REQ_MESSAGES) != 0) {
+            writeMessages(out, request.getMessages());
+        }
+    }
+
+    public static Request readRequest(ByteBuf in) {
+        return readRequest(in, false);
+    }
+
+    /**
+     * @param retainRecords 为 true 时不解析消息，而是把每条消息切成入站缓冲区的保留切片放入
+     *                      {@link Request#getRecords()}，供服务端原样存储与转发
+     */
+    public static Request readRequest(ByteBuf in, boolean retainRecords) {
+        Request request = new Request();
+        try {
+            request.setType(readCode(in, REQUEST_TYPES));
+            request.setRequestId(readVarLong(in));
+
+            int mask = readVarInt(in);
+            ByteBuf messages = in;
+            if ((mask & REQ_COMPRESSED) != 0) {
+                Compression compression = compressionOf(in.readByte());
+                int originalLength = readVarInt(in);
+                if (originalLength < 0 || originalLength > Protocol.MAX_FRAME_LENGTH) {
+                    throw new CorruptedFrameException("Invalid compressed length: " + originalLength);
+                }
+                byte[] data = readBytes(in);
+                if (data == null) {
+                    throw new CorruptedFrameException("Missing compressed messages");
+                }
+                // 记录是解压缓冲区的保留切片，最后一条记录释放后缓冲区才释放
+                messages = Unpooled.wrappedBuffer(compression.decompress(data, originalLength));
+                request.setCompression(compression);
+            }
+            try {
+                if (retainRecords) {
+                    readRequestRecords(messages, mask, request);
+                } else {
+                    if ((mask & REQ_MESSAGE) != 0) {
+                        request.setMessage(readMessage(messages));
+                    }
+                    if ((mask & REQ_MESSAGES) != 0) {
+                        request.setMessages(readMessages(messages));
+                    }
+                }
+                if (messages != in && messages.isReadable()) {
+                    throw new CorruptedFrameException("Trailing bytes after compressed messages");
+                }
+            } finally {
+                if (messages != in) {
+                    messages.release();
+                }
+            }
+            if ((mask & REQ_COMPRESSION) != 0) {
+                request.setCompression(compressionOf(in.readByte()));
+            }
+            if ((mask & REQ_MAX_MESSAGES) != 0) {
+                request.setMaxMessages(readVarInt(in));
+            }
+            if ((mask & REQ_MAX_BYTES) != 0) {
+                request.setMaxBytes(readVarInt(in));
+            }
+            if ((mask & REQ_MAX_WAIT) != 0) {
+                request.setMaxWaitMs(readVarLong(in));
+            }
+            if ((mask & REQ_CREDITS) != 0) {
+                request.setCredits(readVarInt(in));
+            }
+            if ((mask & REQ_OFFSET) != 0) {
+                request.setOffset(readVarLong(in));
+            }
+            if ((mask & REQ_TOPICS) != 0) {
+                int count = readVarInt(in);
+                if (count < 0 || count > in.readableBytes()) {
+                    throw new CorruptedFrameException("Invalid topic count: " + count);
+                }
+                List<String> topics = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    topics.add(readString(in));
+                }
+                request.setTopics(topics);
+            }
+            if ((mask & REQ_PARTITION) != 0) {
+                request.setPartition(readVarInt(in));
+            }
+            if ((mask & REQ_GROUP) != 0) {
+                request.setGroup(readString(in));
+            }
+            if ((mask & REQ_VISIBILITY_TIMEOUT) != 0) {
+                request.setVisibilityTimeoutMs(readVarLong(in));
+            }
+            if ((mask & REQ_LEASES) != 0) {
+                request.setLeases(readLongs(in));
+            }
+        } catch (RuntimeException e) {
+            // 释放已切出的记录
+            request.release();
+            throw e;
+        }
+        return request;
+    }
+
+    /**
+     * 读出请求帧体开头的 requestId，不移动读位置
+     *
+     * @param index 帧体的起始位置
+     * @return 读不出时返回 -1
+     */
+    public static long peekRequestId(ByteBuf in, int index) {
+        ByteBuf header = in.duplicate().readerIndex(index);
+        try {
+            readCode(header, REQUEST_TYPES);
+            return readVarLong(header);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 写入响应
+     * 响应携带已编码记录或原始日志项时，这里只写入它们之前的部分，
+     * 返回需要按序追加在 out 之后的 ByteBuf / FileRegion（已 retain），由调用方拼接或依次写出，避免拷贝
+     */
+    public static List<Object> writeResponse(ByteBuf out, Response response) {
+        writeCode(out, RESPONSE_STATUSES, response.getStatus());
+        writeVarLong(out, response.getRequestId());
+
+        int mask = 0;
+        if (response.getError() != null) {
+            mask |= RESP_ERROR;
+        }
+        if (response.getMessage() != null || response.getRecord() != null) {
+            mask |= RESP_MESSAGE;
+        }
+        if (response.getMessages() != null || response.getRecords() != null) {
+            mask |= RESP_MESSAGES;
+        }
+        if (response.getNextOffset() != 0) {
+            mask |= RESP_NEXT_OFFSET;
+        }
+        if (response.getEntries() != null) {
+            mask |= RESP_ENTRIES;
+        }
+        if (response.getPartitions() != null) {
+            mask |= RESP_PARTITIONS;
+        }
+        if (response.getLeases() != null) {
+            mask |= RESP_LEASES;
+        }
+        if (response.getCount() != 0) {
+            mask |= RESP_COUNT;
+        }
+        if (response.getCompression() != null) {
+            mask |= RESP_COMPRESSION;
+        }
+        if (response.getRecordPartitions() != null) {
+            mask |= RESP_RECORD_PARTITIONS;
+        }
+        writeVarInt(out, mask);
+        // 消息字段放在最后，记录可以直接拼接在尾部
+        if ((mask & RESP_ERROR) != 0) {
+            writeString(out, response.getError());
+        }
+        if ((mask & RESP_NEXT_OFFSET) != 0) {
+            writeVarLong(out, response.getNextOffset());
+        }
+        if ((mask & RESP_PARTITIONS) != 0) {
+            writeVarInt(out, response.getPartitions().size());
+            for (Map.Entry<String, Integer> entry : response.getPartitions().entrySet()) {
+                writeString(out, entry.getKey());
+                writeVarInt(out, entry.getValue());
+            }
+        }
+        if ((mask & RESP_LEASES) != 0) {
+            writeLongs(out, response.getLeases());
+        }
+        if ((mask & RESP_COUNT) != 0) {
+            writeVarInt(out, response.getCount());
+        }
+        if ((mask & RESP_COMPRESSION) != 0) {
+            out.writeByte(response.getCompression().getId());
+        }
+        if ((mask & RESP_RECORD_PARTITIONS) != 0) {
+            writeInts(out, response.getRecordPartitions());
+        }
+
+        List<Object> tail = new ArrayList<>(response.getRecords() != null ? response.getRecords().size() : 1);
+        if (response.getRecord() != null) {
+            tail.add(response.getRecord().retain());
+        } else if (response.getMessage() != null) {
+            writeMessage(out, response.getMessage());
+        }
+        if (response.getRecords() != null) {
+            List<ByteBuf> records = response.getRecords();
+            writeVarInt(out, records.size());
+            for (ByteBuf record : records) {
+                tail.add(record.retain());
+            }
+        } else if (response.getMessages() != null) {
+            writeMessages(out, response.getMessages());
+        }
+        if (response.getEntries() != null) {
+            FileRegion entries = response.getEntries();
+            writeVarInt(out, (int) entries.count());
+            tail.add(entries.retain());
+        }
+        return tail;
+    }
+
+    public static Response readResponse(ByteBuf in) {
+        Response response = new Response();
+        response.setStatus(readCode(in, RESPONSE_STATUSES));
+        response.setRequestId(readVarLong(in));
+
+        int mask = readVarInt(in);
+        if ((mask & RESP_ERROR) != 0) {
+            response.setError(readString(in));
+        }
+        if ((mask & RESP_NEXT_OFFSET) != 0) {
+            response.setNextOffset(readVarLong(in));
+        }
+        if ((mask & RESP_PARTITIONS) != 0) {
+            int count = readVarInt(in);
+            if (count < 0 || count > in.readableBytes()) {
+                throw new CorruptedFrameException("Invalid topic count: " + count);
+            }
+            Map<String, Integer> partitions = new HashMap<>(Math.max(4, count * 2));
+            for (int i = 0; i < count; i++) {
+                partitions.put(readString(in), readVarInt(in));
+            }
+            response.setPartitions(partitions);
+        }
+        if ((mask & RESP_LEASES) != 0) {
+            response.setLeases(readLongs(in));
+        }
+        if ((mask & RESP_COUNT) != 0) {
+            response.setCount(readVarInt(in));
+        }
+        if ((mask & RESP_COMPRESSION) != 0) {
+            response.setCompression(compressionOf(in.readByte()));
+        }
+        if ((mask & RESP_RECORD_PARTITIONS) != 0) {
+            response.setRecordPartitions(readInts(in));
+        }
+        if ((mask & RESP_MESSAGE) != 0) {
+            response.setMessage(readMessage(in));
+        }
+        if ((mask & RESP_MESSAGES) != 0) {
+            response.setMessages(readMessages(in));
+        }
+        if ((mask & RESP_ENTRIES) != 0) {
+            int length = readVarInt(in);
+            checkReadable(in, length);
+            List<Message> messages = new ArrayList<>();
+            long next = readEntries(in.readSlice(length), messages);
+            response.setMessages(messages);
+            if (next >= 0) {
+                response.setNextOffset(next);
+            }
+        }
+        return response;
+    }
+
+    private static void readRequestRecords(ByteBuf in, int mask, Request request) {
+        if ((mask & REQ_MESSAGE) != 0) {
+            List<ByteBuf> records = new ArrayList<>(1);
+            request.setRecords(records);
+            records.add(readRecord(in));
+        }
+        if ((mask & REQ_MESSAGES) != 0) {
+            int count = readVarInt(in);
+            if (count < 0 || count > in.readableBytes() / 4) {
+                throw new CorruptedFrameException("Invalid message count: " + count);
+            }
+            List<ByteBuf> records = new ArrayList<>(count);
+            request.setRecords(records);
+            for (int i = 0; i < count; i++) {
+                records.add(readRecord(in));
+            }
+        }
+    }
+
+    /**
+     * 解析一段原始日志项 [int64 offset][int32 crc][record]，末尾不完整的日志项被忽略
+     *
+     * @return 最后一条完整日志项的下一个 offset，没有完整日志项时返回 -1
+     */
+    public static long readEntries(ByteBuf in, List<Message> out) {
+        long next = -1;
+        while (in.readableBytes() >= ENTRY_HEADER_SIZE + 4) {
+            int size = in.getInt(in.readerIndex() + ENTRY_HEADER_SIZE);
+            if (size < 0 || size > in.readableBytes() - ENTRY_HEADER_SIZE - 4) {
+                break;
+            }
+            long offset = in.readLong();
+            in.skipBytes(4);
+            out.add(readMessage(in));
+            next = offset + 1;
+        }
+        return next;
+    }
+
+    /**
+     * 把一条已编码消息（含 4 字节长度前缀）编码到新分配的缓冲区
+     */
+    public static ByteBuf encodeRecord(ByteBufAllocator alloc, Message message) {
+        ByteBuf record = alloc.ioBuffer();
+        try {
+            writeMessage(record, message);
+        } catch (RuntimeException e) {
+            record.release();
+            throw e;
+        }
+        return record;
+    }
+
+    /**
+     * 解码一条记录，不移动记录的读指针
+     */
+    public static Message decodeRecord(ByteBuf record) {
+        return readMessage(record.duplicate());
+    }
+
+    /**
+     * 只解析记录中的 topic，不解码整条消息
+     */
+    public static String recordTopic(ByteBuf record) {
+        ByteBuf in = record.duplicate();
+        // 长度前缀与标志位
+        in.skipBytes(5);
+        skipLengthPrefixed(in);
+        return readString(in);
+    }
+
+    /**
+     * 只解析记录中的优先级，不解码整条消息
+     */
+    public static int recordPriority(ByteBuf record) {
+        ByteBuf in = record.duplicate();
+        in.skipBytes(4);
+        int flags = in.readUnsignedByte();
+        skipLengthPrefixed(in); // id
+        skipLengthPrefixed(in); // topic
+        skipLengthPrefixed(in); // payload
+        if ((flags & MSG_BODY_INLINE) != 0) {
+            skipLengthPrefixed(in);
+        }
+        if ((flags & MSG_HAS_STATE) != 0) {
+            in.skipBytes(1);
+        }
+        return readVarInt(in);
+    }
+
+    /**
+     * 只解析记录中指定标签的值，不解码整条消息
+     *
+     * @return 没有该标签时返回 null
+     */
+    public static String recordTag(ByteBuf record, String tag) {
+        ByteBuf in = record.duplicate();
+        in.skipBytes(4);
+        int flags = in.readUnsignedByte();
+        if ((flags & MSG_HAS_TAGS) == 0) {
+            return null;
+        }
+        skipLengthPrefixed(in); // id
+        skipLengthPrefixed(in); // topic
+        skipLengthPrefixed(in); // payload
+        if ((flags & MSG_BODY_INLINE) != 0) {
+            skipLengthPrefixed(in);
+        }
+        if ((flags & MSG_HAS_STATE) != 0) {
+            in.skipBytes(1);
+        }
+        readVarInt(in);  // priority
+        readVarLong(in); // timestamp
+        readVarLong(in); // expireAt
+        readVarInt(in);  // retryCount
+        readVarInt(in);  // maxRetries
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            String value = readString(in);
+            if (tag.equals(key)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 切出一条完整记录（含长度前缀）作为保留切片，并校验其结构，避免把损坏的数据存入队列
+     */
+    public static ByteBuf readRecord(ByteBuf in) {
+        if (in.readableBytes() < 4) {
+            throw new CorruptedFrameException("Truncated message");
+        }
+        int size = in.getInt(in.readerIndex());
+        if (size < 0 || size > in.readableBytes() - 4) {
+            throw new CorruptedFrameException("Invalid message size: " + size);
+        }
+        validateRecord(in.slice(in.readerIndex() + 4, size));
+        return in.readRetainedSlice(4 + size);
+    }
+
+    /**
+     * 只跳过字段而不创建对象地遍历一条消息体
+     */
+    private static void validateRecord(ByteBuf body) {
+        int flags = body.readUnsignedByte();
+        skipLengthPrefixed(body); // id
+        skipLengthPrefixed(body); // topic
+        skipLengthPrefixed(body); // payload
+        if ((flags & MSG_BODY_INLINE) != 0) {
+            skipLengthPrefixed(body);
+        }
+        if ((flags & MSG_HAS_STATE) != 0 && body.readUnsignedByte() >= MsgState.values().length) {
+            throw new CorruptedFrameException("Invalid message state");
+        }
+        readVarInt(body);  // priority
+        readVarLong(body); // timestamp
+        readVarLong(body); // expireAt
+        readVarInt(body);  // retryCount
+        readVarInt(body);  // maxRetries
+        if ((flags & MSG_HAS_TAGS) != 0) {
+            int count = readVarInt(body);
+            for (int i = 0; i < count; i++) {
+                skipLengthPrefixed(body);
+                skipLengthPrefixed(body);
+            }
+        }
+    }
+
+    private static Compression compressionOf(byte id) {
+        try {
+            return Compression.fromId(id);
+        } catch (IllegalArgumentException e) {
+            throw new CorruptedFrameException(e.getMessage());
+        }
+    }
+
+    private static void skipLengthPrefixed(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length > 0) {
+            checkReadable(in, length);
+            in.skipBytes(length);
+        }
+    }
+
+    public static void writeMessages(ByteBuf out, List<Message> messages) {
+        writeVarInt(out, messages.size());
+        for (Message message : messages) {
+            writeMessage(out, message);
+        }
+    }
+
+    public static List<Message> readMessages(ByteBuf in) {
+        int count = readVarInt(in);
+        // 每条消息至少占 4 字节长度前缀，据此拒绝伪造的超大数量
+        if (count < 0 || count > in.readableBytes() / 4) {
+            throw new CorruptedFrameException("Invalid message count: " + count);
+        }
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(readMessage(in));
+        }
+        return messages;
+    }
+
+    /**
+     * 写入一条消息，前置 4 字节长度，便于接收方整体切片或跳过
+     */
+    public static void writeMessage(ByteBuf out, Message message) {
+        int sizeIndex = out.writerIndex();
+        out.writeInt(0);
+
+        byte[] payload = message.getPayload();
+        String body = message.getBody();
+        int flags = 0;
+        if (body != null) {
+            // 旧构造器中 body 与 payload 内容相同，此时只传一份
+            flags |= bodyMatchesPayload(body, payload) ? MSG_BODY_FROM_PAYLOAD : MSG_BODY_INLINE;
+        }
+        if (message.getState() != null) {
+            flags |= MSG_HAS_STATE;
+        }
+        if (message.getTags() != null) {
+            flags |= MSG_HAS_TAGS;
+        }
+        out.writeByte(flags);
+
+        writeString(out, message.getId());
+        writeString(out, message.getTopic());
+        writeBytes(out, payload);
+        if ((flags & MSG_BODY_INLINE) != 0) {
+            writeString(out, body);
+        }
+        if ((flags & MSG_HAS_STATE) != 0) {
+            out.writeByte(message.getState().ordinal());
+        }
+        writeVarInt(out, message.getPriority());
+        writeVarLong(out, message.getTimestamp());
+        // 过期时间通常是创建时间加一个固定值，按差值编码更短
+        writeVarLong(out, zigZag(message.getExpireAt() - message.getTimestamp()));
+        writeVarInt(out, message.getRetryCount());
+        writeVarInt(out, message.getMaxRetries());
+        if ((flags & MSG_HAS_TAGS) != 0) {
+            Map<String, String> tags = message.getTags();
+            writeVarInt(out, tags.size());
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                writeString(out, tag.getKey());
+                writeString(out, tag.getValue());
+            }
+        }
+
+        out.setInt(sizeIndex, out.writerIndex() - sizeIndex - 4);
+    }
+
+    public static Message readMessage(ByteBuf in) {
+        int size = in.readInt();
+        if (size < 0 || size > in.readableBytes()) {
+            throw new CorruptedFrameException("Invalid message size: " + size);
+        }
+        int end = in.readerIndex() + size;
+
+        Message message = new Message();
+        int flags = in.readUnsignedByte();
+        message.setId(readString(in));
+        message.setTopic(readString(in));
+        byte[] payload = readBytes(in);
+        message.setPayload(payload);
+        if ((flags & MSG_BODY_FROM_PAYLOAD) != 0) {
+            message.setBody(payload != null ? new String(payload, StandardCharsets.UTF_8) : null);
+        } else if ((flags & MSG_BODY_INLINE) != 0) {
+            message.setBody(readString(in));
+        }
+        if ((flags & MSG_HAS_STATE) != 0) {
+            message.setState(MsgState.values()[in.readUnsignedByte()]);
+        }
+        message.setPriority(readVarInt(in));
+        message.setTimestamp(readVarLong(in));
+        message.setExpireAt(message.getTimestamp() + unZigZag(readVarLong(in)));
+        message.setRetryCount(readVarInt(in));
+        message.setMaxRetries(readVarInt(in));
+        if ((flags & MSG_HAS_TAGS) != 0) {
+            int count = readVarInt(in);
+            Map<String, String> tags = new HashMap<>(Math.max(4, count * 2));
+            for (int i = 0; i < count; i++) {
+                tags.put(readString(in), readString(in));
+            }
+            message.setTags(tags);
+        }
+
+        // 跳过新版本追加的未知字段
+        in.readerIndex(end);
+        return message;
+    }
+
+    private static void writeInts(ByteBuf out, int[] values) {
+        writeVarInt(out, values.length);
+        for (int value : values) {
+            writeVarInt(out, value);
+        }
+    }
+
+    private static int[] readInts(ByteBuf in) {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.readableBytes()) {
+            throw new CorruptedFrameException("Invalid partition count: " + count);
+        }
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readVarInt(in);
+        }
+        return values;
+    }
+
+    private static void writeLongs(ByteBuf out, long[] values) {
+        writeVarInt(out, values.length);
+        for (long value : values) {
+            writeVarLong(out, value);
+        }
+    }
+
+    private static long[] readLongs(ByteBuf in) {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.readableBytes()) {
+            throw new CorruptedFrameException("Invalid lease count: " + count);
+        }
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readVarLong(in);
+        }
+        return values;
+    }
+
+    /**
+     * 字符串: varint(UTF-8 字节数 + 1)，0 表示 null
+     */
+    public static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, ByteBufUtil.utf8Bytes(value) + 1);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    public static String readString(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        checkReadable(in, length);
+        return in.readCharSequence(length, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * 字节数组: varint(长度 + 1)，0 表示 null
+     */
+    public static void writeBytes(ByteBuf out, byte[] value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, value.length + 1);
+        out.writeBytes(value);
+    }
+
+    public static byte[] readBytes(ByteBuf in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        checkReadable(in, length);
+        byte[] value = new byte[length];
+        in.readBytes(value);
+        return value;
+    }
+
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varint");
+    }
+
+    public static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varlong");
+    }
+
+    private static void writeCode(ByteBuf out, String[] table, String value) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i].equals(value)) {
+                out.writeByte(i + 1);
+                return;
+            }
+        }
+        out.writeByte(0);
+        writeString(out, value);
+    }
+
+    private static String readCode(ByteBuf in, String[] table) {
+        int code = in.readUnsignedByte();
+        if (code == 0) {
+            return readString(in);
+        }
+        if (code > table.length) {
+            throw new CorruptedFrameException("Unknown code: " + code);
+        }
+        return table[code - 1];
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void checkReadable(ByteBuf in, int length) {
+        if (length > in.readableBytes()) {
+            throw new CorruptedFrameException("Length " + length + " exceeds readable bytes " + in.readableBytes());
+        }
+    }
+
+    /**
+     * 不分配内存地比较 payload 是否恰为 body 的 UTF-8 编码；含孤立代理字符的 body 按不同处理
+     */
+    private static boolean bodyMatchesPayload(String body, byte[] payload) {
+        if (payload == null || body.length() > payload.length) {
+            return false;
+        }
+        int p = 0;
+        for (int i = 0; i < body.length(); i++) {
+            int c = body.charAt(i);
+            int length;
+            if (c < 0x80) {
+                if (p >= payload.length || payload[p++] != c) {
+                    return false;
+                }
+                continue;
+            } else if (c < 0x800) {
+                length = 2;
+            } else if (!Character.isSurrogate((char) c)) {
+                length = 3;
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < body.length()
+                    && Character.isLowSurrogate(body.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, body.charAt(++i));
+                length = 4;
+            } else {
+                return false;
+            }
+            if (p + length > payload.length) {
+                return false;
+            }
+            int shift = 6 * (length - 1);
+            // 首字节的前缀为 length 个 1 后跟一个 0
+            if (payload[p++] != (byte) ((0xF00 >> length) | c >> shift)) {
+                return false;
+            }
+            while (shift > 0) {
+                shift -= 6;
+                if (payload[p++] != (byte) (0x80 | (c >> shift) & 0x3F)) {
+                    return false;
+                }
+            }
+        }
+        return p == payload.length;
+    }
+}
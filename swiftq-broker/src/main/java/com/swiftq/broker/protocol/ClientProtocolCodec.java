@@ -0,0 +1,36 @@
+package com.swiftq.broker.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 客户端编解码：以固定格式编码 {@link Request}，解码 {@link Response}
+ */
+public class ClientProtocolCodec extends ProtocolCodec<Response, Request> {
+
+    private final WireFormat format;
+
+    public ClientProtocolCodec(ObjectMapper mapper, WireFormat format) {
+        super(mapper, Response.class, Request.class);
+        this.format = format;
+    }
+
+    @Override
+    protected WireFormat outboundFormat() {
+        return format;
+    }
+
+    @Override
+    protected List<?> writeBinary(ByteBuf out, Request msg) {
+        BinaryCodec.writeRequest(out, msg);
+        return Collections.emptyList();
+    }
+
+    @Override
+    protected Response readBinary(ByteBuf in) {
+        return BinaryCodec.readResponse(in);
+    }
+}
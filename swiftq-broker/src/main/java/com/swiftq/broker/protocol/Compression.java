@@ -0,0 +1,163 @@
+package com.swiftq.broker.protocol;
+
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 发布请求的压缩算法
+ * 生产者把请求中的整组消息压缩成一个块，算法编号随块传输；服务端解码时解压，存储与投递未压缩的记录。
+ * 使用的算法在 metadata 请求中与服务端协商
+ */
+public enum Compression {
+    NONE((byte) 0) {
+        @Override
+        byte[] compress(byte[] data) {
+            return data;
+        }
+
+        @Override
+        byte[] decompress(byte[] data, int originalLength) {
+            return data;
+        }
+    },
+
+    /**
+     * zlib 格式的 deflate，压缩率高于 LZ4，CPU 开销也更高
+     */
+    DEFLATE((byte) 1) {
+        @Override
+        byte[] compress(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+                byte[] chunk = new byte[Math.min(data.length + 16, 8192)];
+                while (!deflater.finished()) {
+                    out.write(chunk, 0, deflater.deflate(chunk));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        byte[] decompress(byte[] data, int originalLength) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                byte[] out = new byte[originalLength];
+                int length = 0;
+                while (length < originalLength && !inflater.finished()) {
+                    int n = inflater.inflate(out, length, originalLength - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+                // 输出已满但流尚未结束：再读一个字节确认流到此为止
+                if (length == originalLength && !inflater.finished() && inflater.inflate(new byte[1]) != 0) {
+                    throw new CorruptedFrameException("Deflate payload longer than " + originalLength);
+                }
+                if (length != originalLength || !inflater.finished()) {
+                    throw new CorruptedFrameException("Truncated deflate payload");
+                }
+                return out;
+            } catch (DataFormatException e) {
+                throw new CorruptedFrameException("Malformed deflate payload", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    },
+
+    GZIP((byte) 2) {
+        @Override
+        byte[] compress(byte[] data) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(data);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return out.toByteArray();
+        }
+
+        @Override
+        byte[] decompress(byte[] data, int originalLength) {
+            byte[] out = new byte[originalLength];
+            try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                int length = 0;
+                while (length < originalLength) {
+                    int n = gzip.read(out, length, originalLength - length);
+                    if (n < 0) {
+                        break;
+                    }
+                    length += n;
+                }
+                if (length != originalLength || gzip.read() >= 0) {
+                    throw new CorruptedFrameException("Gzip payload length mismatch");
+                }
+                return out;
+            } catch (IOException e) {
+                throw new CorruptedFrameException("Malformed gzip payload", e);
+            }
+        }
+    },
+
+    /**
+     * LZ4 块格式，纯 Java 实现，压缩与解压都很快，适合重复度高的 JSON 类载荷
+     */
+    LZ4((byte) 3) {
+        @Override
+        byte[] compress(byte[] data) {
+            return Lz4Block.compress(data);
+        }
+
+        @Override
+        byte[] decompress(byte[] data, int originalLength) {
+            return Lz4Block.decompress(data, originalLength);
+        }
+    };
+
+    /**
+     * 编码后小于该长度的消息组不压缩，压缩头与算法开销得不偿失
+     */
+    public static final int MIN_COMPRESS_SIZE = 128;
+
+    private final byte id;
+
+    Compression(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    abstract byte[] compress(byte[] data);
+
+    /**
+     * @throws CorruptedFrameException 数据损坏或解压后长度不是 originalLength
+     */
+    abstract byte[] decompress(byte[] data, int originalLength);
+
+    public static Compression fromId(byte id) {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + id);
+    }
+}
@@ -0,0 +1,173 @@
+package com.swiftq.broker.protocol;
+
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 块格式的编解码，与标准 LZ4 block 兼容
+ *
+ * 每个序列为 token(高 4 位字面量长度，低 4 位匹配长度 - 4) | 字面量长度扩展 | 字面量 |
+ * 匹配偏移(2 字节小端) | 匹配长度扩展；最后一个序列只有字面量。
+ * 压缩采用单哈希表的贪心匹配，连续找不到匹配时逐渐加大步长，不可压缩的数据也能很快扫过
+ */
+final class Lz4Block {
+
+    private static final int MIN_MATCH = 4;
+    // 最后 5 个字节总是字面量，最后一个匹配至少在末尾 12 字节之前开始
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int MAX_HASH_LOG = 12;
+    private static final int SKIP_STRENGTH = 6;
+
+    private Lz4Block() {
+    }
+
+    static byte[] compress(byte[] src) {
+        int length = src.length;
+        byte[] dst = new byte[length + length / 255 + 16];
+        int op = 0;
+        int anchor = 0;
+
+        if (length > MF_LIMIT) {
+            // 哈希表按输入大小缩放，小载荷不必分配并填充整张表
+            int hashLog = Math.min(MAX_HASH_LOG, 32 - Integer.numberOfLeadingZeros(length));
+            int[] table = new int[1 << hashLog];
+            Arrays.fill(table, -1);
+            int matchLimit = length - LAST_LITERALS;
+            int ip = 0;
+            while (ip < length - MF_LIMIT) {
+                int sequence = readInt(src, ip);
+                int hash = (sequence * -1640531535) >>> (32 - hashLog);
+                int ref = table[hash];
+                table[hash] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                int token = op++;
+                op = writeLiterals(dst, op, token, src, anchor, ip - anchor);
+                int offset = ip - ref;
+                dst[op++] = (byte) offset;
+                dst[op++] = (byte) (offset >>> 8);
+                int extra = matchLength - MIN_MATCH;
+                if (extra >= 15) {
+                    dst[token] |= 0x0F;
+                    op = writeLength(dst, op, extra - 15);
+                } else {
+                    dst[token] |= (byte) extra;
+                }
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        int token = op++;
+        op = writeLiterals(dst, op, token, src, anchor, length - anchor);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * @throws CorruptedFrameException 数据损坏或解压后长度不是 originalLength
+     */
+    static byte[] decompress(byte[] src, int originalLength) {
+        byte[] dst = new byte[originalLength];
+        int ip = 0;
+        int op = 0;
+        int end = src.length;
+        while (true) {
+            if (ip >= end) {
+                throw new CorruptedFrameException("Truncated lz4 block");
+            }
+            int token = src[ip++] & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new CorruptedFrameException("Truncated lz4 literal length");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255 && literals <= originalLength);
+            }
+            if (literals > end - ip || literals > originalLength - op) {
+                throw new CorruptedFrameException("Invalid lz4 literal length: " + literals);
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == end) {
+                break;
+            }
+
+            if (end - ip < 2) {
+                throw new CorruptedFrameException("Truncated lz4 match offset");
+            }
+            int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (offset == 0 || offset > op) {
+                throw new CorruptedFrameException("Invalid lz4 match offset: " + offset);
+            }
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw new CorruptedFrameException("Truncated lz4 match length");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255 && matchLength <= originalLength);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > originalLength - op) {
+                throw new CorruptedFrameException("Invalid lz4 match length: " + matchLength);
+            }
+            // 匹配可能与输出重叠（偏移小于长度），逐字节复制
+            for (int ref = op - offset, limit = op + matchLength; op < limit; ) {
+                dst[op++] = dst[ref++];
+            }
+        }
+        if (op != originalLength) {
+            throw new CorruptedFrameException("Lz4 length mismatch: " + op + " != " + originalLength);
+        }
+        return dst;
+    }
+
+    private static int writeLiterals(byte[] dst, int op, int token, byte[] src, int start, int count) {
+        if (count >= 15) {
+            dst[token] = (byte) 0xF0;
+            op = writeLength(dst, op, count - 15);
+        } else {
+            dst[token] = (byte) (count << 4);
+        }
+        System.arraycopy(src, start, dst, op, count);
+        return op + count;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int readInt(byte[] src, int index) {
+        return (src[index] & 0xFF) | (src[index + 1] & 0xFF) << 8
+                | (src[index + 2] & 0xFF) << 16 | (src[index + 3] & 0xFF) << 24;
+    }
+}
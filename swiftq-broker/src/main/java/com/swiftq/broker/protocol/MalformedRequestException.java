@@ -0,0 +1,24 @@
+package com.swiftq.broker.protocol;
+
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * 请求帧已切分完整但帧体无法解码
+ * 能从帧头读出 requestId 时携带它，服务端据此回复错误，不必断开连接
+ */
+public class MalformedRequestException extends CorruptedFrameException {
+
+    private final long requestId;
+
+    public MalformedRequestException(long requestId, Throwable cause) {
+        super(cause.getMessage(), cause);
+        this.requestId = requestId;
+    }
+
+    /**
+     * @return 帧头损坏、读不出 requestId 时返回 -1
+     */
+    public long requestId() {
+        return requestId;
+    }
+}
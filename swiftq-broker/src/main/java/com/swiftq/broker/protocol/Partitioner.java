@@ -0,0 +1,28 @@
+package com.swiftq.broker.protocol;
+
+import com.swiftq.common.Message;
+
+/**
+ * 分区选择规则，生产者与 Broker 共用
+ * 带键的消息按键的哈希放置，同一个键总是落在同一个分区并保持顺序；
+ * 键取自 {@link #KEY_TAG} 标签
+ */
+public final class Partitioner {
+
+    public static final String KEY_TAG = "key";
+
+    private Partitioner() {
+    }
+
+    /**
+     * @return 消息没有键时返回 null
+     */
+    public static String keyOf(Message message) {
+        return message.getTags() != null ? message.getTags().get(KEY_TAG) : null;
+    }
+
+    public static int partitionForKey(String key, int partitions) {
+        // String.hashCode 的算法由规范固定，客户端与服务端得到相同的结果
+        return (key.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+}
@@ -0,0 +1,45 @@
+package com.swiftq.broker.protocol;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+/**
+ * 线协议常量
+ *
+ * 帧布局 / Frame layout:
+ * <pre>
+ * +--------------+-------------+------------+----------------+
+ * | length (i32) | version (1) | format (1) | body (length-2)|
+ * +--------------+-------------+------------+----------------+
+ * </pre>
+ * length 不包含自身的 4 个字节
+ */
+public final class Protocol {
+
+    public static final byte VERSION = 1;
+
+    public static final int LENGTH_FIELD_SIZE = 4;
+
+    public static final int HEADER_SIZE = 2;
+
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private Protocol() {
+    }
+
+    /**
+     * 创建按长度字段切帧的解码器，输出的 ByteBuf 从 version 字节开始
+     */
+    public static LengthFieldBasedFrameDecoder newFrameDecoder() {
+        return new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, LENGTH_FIELD_SIZE, 0, LENGTH_FIELD_SIZE);
+    }
+
+    /**
+     * JSON 回退格式使用的 ObjectMapper
+     * Message 的 isExpired() 会被序列化为 "expired"，反序列化时需忽略这类只读属性
+     */
+    public static ObjectMapper newObjectMapper() {
+        return new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+}
@@ -0,0 +1,144 @@
+package com.swiftq.broker.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 协议编解码基类
+ * 位于 {@link Protocol#newFrameDecoder()} 之后，负责帧头与帧体的编解码
+ *
+ * 编码直接写入 Channel 分配器（池化直接内存）分配的缓冲区；
+ * 解码直接读取入站帧，JSON 格式也通过流读取，不先拷贝成 String
+ */
+abstract class ProtocolCodec<IN, OUT> extends MessageToMessageCodec<ByteBuf, OUT> {
+
+    protected final ObjectMapper mapper;
+    private final Class<IN> inboundType;
+
+    protected ProtocolCodec(ObjectMapper mapper, Class<IN> inboundType, Class<OUT> outboundType) {
+        super(ByteBuf.class, outboundType);
+        this.mapper = mapper;
+        this.inboundType = inboundType;
+    }
+
+    /**
+     * 出站消息使用的格式
+     */
+    protected abstract WireFormat outboundFormat();
+
+    /**
+     * 收到一帧时回调其声明的格式
+     */
+    protected void onInboundFormat(WireFormat format) {
+    }
+
+    /**
+     * 写入二进制帧体
+     *
+     * @return 需要按序零拷贝追加在帧体之后的 ByteBuf 或 FileRegion（已 retain），没有时返回空列表
+     */
+    protected abstract List<?> writeBinary(ByteBuf out, OUT msg);
+
+    protected abstract IN readBinary(ByteBuf in);
+
+    /**
+     * JSON 编码前的转换
+     */
+    protected Object toJson(OUT msg) throws IOException {
+        return msg;
+    }
+
+    /**
+     * JSON 解码后的转换
+     */
+    protected IN fromJson(ChannelHandlerContext ctx, IN msg) {
+        return msg;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, OUT msg, List<Object> out) throws Exception {
+        WireFormat format = outboundFormat();
+        ByteBuf head = ctx.alloc().ioBuffer();
+        List<?> tail = Collections.emptyList();
+        try {
+            head.writeInt(0);
+            head.writeByte(Protocol.VERSION);
+            head.writeByte(format.getId());
+            if (format == WireFormat.BINARY) {
+                tail = writeBinary(head, msg);
+            } else {
+                OutputStream stream = new ByteBufOutputStream(head);
+                mapper.writeValue(stream, toJson(msg));
+            }
+        } catch (Exception e) {
+            head.release();
+            for (Object part : tail) {
+                ReferenceCountUtil.release(part);
+            }
+            throw e;
+        }
+
+        long length = head.readableBytes() - Protocol.LENGTH_FIELD_SIZE;
+        boolean hasRegion = false;
+        for (Object part : tail) {
+            if (part instanceof FileRegion) {
+                length += ((FileRegion) part).count();
+                hasRegion = true;
+            } else {
+                length += ((ByteBuf) part).readableBytes();
+            }
+        }
+        head.setInt(0, (int) length);
+
+        if (tail.isEmpty()) {
+            out.add(head);
+        } else if (hasRegion) {
+            // FileRegion 不能放进 CompositeByteBuf，按序作为独立的出站消息写出，由传输层走 sendfile
+            out.add(head);
+            out.addAll(tail);
+        } else {
+            CompositeByteBuf frame = ctx.alloc().compositeDirectBuffer(tail.size() + 1);
+            frame.addComponent(true, head);
+            for (Object part : tail) {
+                frame.addComponent(true, (ByteBuf) part);
+            }
+            out.add(frame);
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
+        byte version = frame.readByte();
+        if (version != Protocol.VERSION) {
+            throw new CorruptedFrameException("Unsupported protocol version: " + version);
+        }
+        WireFormat format;
+        try {
+            format = WireFormat.fromId(frame.readByte());
+        } catch (IllegalArgumentException e) {
+            throw new CorruptedFrameException(e.getMessage());
+        }
+        onInboundFormat(format);
+
+        if (format == WireFormat.BINARY) {
+            out.add(readBinary(frame));
+        } else {
+            InputStream stream = new ByteBufInputStream(frame);
+            out.add(fromJson(ctx, mapper.readValue(stream, inboundType)));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.swiftq.broker.protocol;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.util.List;
+
+/**
+ * 客户端请求
+ *
+ * 服务端解码时消息以已编码记录的形式放在 records 中（入站缓冲区的保留切片），
+ * 请求被释放时一并释放；需要保留记录的一方应自行 retain
+ */
+public class Request extends AbstractReferenceCounted {
+    private String type;
+    private Message message;
+    private long requestId;
+    private List<Message> messages;
+    private int maxMessages;
+    private int maxBytes;
+    private long maxWaitMs;
+    private int credits;
+    private long offset;
+    private List<String> topics;
+    // 发布时为目标分区，fetch 时为读取的分区；-1 表示由服务端选择
+    private int partition = -1;
+    // 消费组名称，消费请求带上时按组分配的分区读取
+    private String group;
+    // 消费时大于 0 表示按租约投递，未在该时间内确认的消息重新投递
+    private long visibilityTimeoutMs;
+    // ack / nack 的租约
+    private long[] leases;
+    // 二进制格式下消息字段整体压缩使用的算法；metadata 请求中为客户端希望使用的算法
+    private Compression compression = Compression.NONE;
+    private List<ByteBuf> records;
+
+    public Request() {}
+
+    public Request(String type, Message message, long requestId) {
+        this.type = type;
+        this.message = message;
+        this.requestId = requestId;
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    public Message getMessage() { return message; }
+    public void setMessage(Message message) { this.message = message; }
+    public long getRequestId() { return requestId; }
+    public void setRequestId(long requestId) { this.requestId = requestId; }
+    public List<Message> getMessages() { return messages; }
+    public void setMessages(List<Message> messages) { this.messages = messages; }
+    public int getMaxMessages() { return maxMessages; }
+    public void setMaxMessages(int maxMessages) { this.maxMessages = maxMessages; }
+    public int getMaxBytes() { return maxBytes; }
+    public void setMaxBytes(int maxBytes) { this.maxBytes = maxBytes; }
+    public long getMaxWaitMs() { return maxWaitMs; }
+    public void setMaxWaitMs(long maxWaitMs) { this.maxWaitMs = maxWaitMs; }
+    public int getCredits() { return credits; }
+    public void setCredits(int credits) { this.credits = credits; }
+    public long getOffset() { return offset; }
+    public void setOffset(long offset) { this.offset = offset; }
+    public List<String> getTopics() { return topics; }
+    public void setTopics(List<String> topics) { this.topics = topics; }
+    public int getPartition() { return partition; }
+    public void setPartition(int partition) { this.partition = partition; }
+    public String getGroup() { return group; }
+    public void setGroup(String group) { this.group = group; }
+    public long getVisibilityTimeoutMs() { return visibilityTimeoutMs; }
+    public void setVisibilityTimeoutMs(long visibilityTimeoutMs) { this.visibilityTimeoutMs = visibilityTimeoutMs; }
+    public long[] getLeases() { return leases; }
+    public void setLeases(long[] leases) { this.leases = leases; }
+    @JsonIgnore
+    public Compression getCompression() { return compression; }
+    @JsonIgnore
+    public void setCompression(Compression compression) { this.compression = compression; }
+    @JsonIgnore
+    public List<ByteBuf> getRecords() { return records; }
+    @JsonIgnore
+    public void setRecords(List<ByteBuf> records) { this.records = records; }
+
+    @Override
+    public Request touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    protected void deallocate() {
+        if (records != null) {
+            for (ByteBuf record : records) {
+                record.release();
+            }
+            records = null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.swiftq.broker.protocol;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务端响应
+ *
+ * 服务端以 record / records 携带已编码的消息记录，或以 entries 携带一段原始日志项，
+ * 编码时直接拼接到帧尾，响应释放时一并释放
+ */
+public class Response extends AbstractReferenceCounted {
+    private String status;
+    private Message message;
+    private String error;
+    private long requestId;
+    private List<Message> messages;
+    private long nextOffset;
+    // metadata 响应：topic -> 分区数
+    private Map<String, Integer> partitions;
+    // 按租约投递时每条消息的租约，与消息一一对应
+    private long[] leases;
+    // 推送响应：每条消息所在的分区，与消息一一对应
+    private int[] recordPartitions;
+    // redrive 响应：移回原 topic 的消息数
+    private int count;
+    // metadata 响应：服务端接受的压缩算法，不接受请求的算法时为 NONE
+    private Compression compression;
+    private ByteBuf record;
+    private List<ByteBuf> records;
+    private FileRegion entries;
+
+    public Response() {}
+
+    public Response(String status, Message message, String error, long requestId) {
+        this.status = status;
+        this.message = message;
+        this.error = error;
+        this.requestId = requestId;
+    }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public Message getMessage() { return message; }
+    public void setMessage(Message message) { this.message = message; }
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+    public long getRequestId() { return requestId; }
+    public void setRequestId(long requestId) { this.requestId = requestId; }
+    public List<Message> getMessages() { return messages; }
+    public void setMessages(List<Message> messages) { this.messages = messages; }
+    public long getNextOffset() { return nextOffset; }
+    public void setNextOffset(long nextOffset) { this.nextOffset = nextOffset; }
+    public Map<String, Integer> getPartitions() { return partitions; }
+    public void setPartitions(Map<String, Integer> partitions) { this.partitions = partitions; }
+    public long[] getLeases() { return leases; }
+    public void setLeases(long[] leases) { this.leases = leases; }
+    public int[] getRecordPartitions() { return recordPartitions; }
+    public void setRecordPartitions(int[] recordPartitions) { this.recordPartitions = recordPartitions; }
+    public int getCount() { return count; }
+    public void setCount(int count) { this.count = count; }
+    @JsonIgnore
+    public Compression getCompression() { return compression; }
+    @JsonIgnore
+    public void setCompression(Compression compression) { this.compression = compression; }
+    @JsonIgnore
+    public ByteBuf getRecord() { return record; }
+    @JsonIgnore
+    public void setRecord(ByteBuf record) { this.record = record; }
+    @JsonIgnore
+    public List<ByteBuf> getRecords() { return records; }
+    @JsonIgnore
+    public void setRecords(List<ByteBuf> records) { this.records = records; }
+    @JsonIgnore
+    public FileRegion getEntries() { return entries; }
+    @JsonIgnore
+    public void setEntries(FileRegion entries) { this.entries = entries; }
+
+    @Override
+    public Response touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    protected void deallocate() {
+        if (record != null) {
+            record.release();
+            record = null;
+        }
+        if (records != null) {
+            for (ByteBuf buf : records) {
+                buf.release();
+            }
+            records = null;
+        }
+        if (entries != null) {
+            entries.release();
+            entries = null;
+        }
+    }
+}
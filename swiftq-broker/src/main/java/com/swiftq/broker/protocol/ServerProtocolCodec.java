@@ -0,0 +1,144 @@
+package com.swiftq.broker.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务端编解码：解码 {@link Request}，按对端最近一次使用的格式编码 {@link Response}
+ *
+ * 无论入站格式如何，交给业务处理器的请求都以已编码记录携带消息；
+ * 二进制格式下记录是入站帧的保留切片，出站时原样拼接，消息在生产者与消费者之间不再重新序列化
+ */
+public class ServerProtocolCodec extends ProtocolCodec<Request, Response> {
+
+    private WireFormat negotiated = WireFormat.BINARY;
+
+    public ServerProtocolCodec(ObjectMapper mapper) {
+        super(mapper, Request.class, Response.class);
+    }
+
+    @Override
+    protected WireFormat outboundFormat() {
+        return negotiated;
+    }
+
+    @Override
+    protected void onInboundFormat(WireFormat format) {
+        this.negotiated = format;
+    }
+
+    @Override
+    protected List<Object> writeBinary(ByteBuf out, Response msg) {
+        return BinaryCodec.writeResponse(out, msg);
+    }
+
+    /**
+     * 帧体解码失败时抛出 {@link MalformedRequestException}，尽量带上帧头中的 requestId
+     */
+    @Override
+    protected Request readBinary(ByteBuf in) {
+        int start = in.readerIndex();
+        try {
+            return BinaryCodec.readRequest(in, true);
+        } catch (RuntimeException e) {
+            throw new MalformedRequestException(BinaryCodec.peekRequestId(in, start), e);
+        }
+    }
+
+    /**
+     * JSON 客户端需要完整的消息对象，这里才解码记录与日志项
+     */
+    @Override
+    protected Object toJson(Response msg) throws IOException {
+        if (msg.getRecord() == null && msg.getRecords() == null && msg.getEntries() == null) {
+            return msg;
+        }
+        Response json = new Response(msg.getStatus(), null, msg.getError(), msg.getRequestId());
+        json.setNextOffset(msg.getNextOffset());
+        json.setLeases(msg.getLeases());
+        json.setRecordPartitions(msg.getRecordPartitions());
+        json.setCount(msg.getCount());
+        if (msg.getRecord() != null) {
+            json.setMessage(BinaryCodec.decodeRecord(msg.getRecord()));
+        }
+        if (msg.getRecords() != null) {
+            List<Message> messages = new ArrayList<>(msg.getRecords().size());
+            for (ByteBuf record : msg.getRecords()) {
+                messages.add(BinaryCodec.decodeRecord(record));
+            }
+            json.setMessages(messages);
+        }
+        if (msg.getEntries() != null) {
+            List<Message> messages = new ArrayList<>();
+            long next = readEntries(msg.getEntries(), messages);
+            json.setMessages(messages);
+            if (next >= 0) {
+                json.setNextOffset(next);
+            }
+        }
+        return json;
+    }
+
+    private static long readEntries(FileRegion region, List<Message> out) throws IOException {
+        ByteBuf data = Unpooled.buffer((int) region.count());
+        try {
+            WritableByteChannel target = Channels.newChannel(new ByteBufOutputStream(data));
+            long position = 0;
+            while (position < region.count()) {
+                long n = region.transferTo(target, position);
+                if (n <= 0) {
+                    throw new IOException("Log region truncated at " + position);
+                }
+                position += n;
+            }
+            return BinaryCodec.readEntries(data, out);
+        } finally {
+            data.release();
+        }
+    }
+
+    @Override
+    protected Request fromJson(ChannelHandlerContext ctx, Request msg) {
+        List<ByteBuf> records = new ArrayList<>();
+        msg.setRecords(records);
+        try {
+            if (msg.getMessage() != null) {
+                records.add(BinaryCodec.encodeRecord(ctx.alloc(), msg.getMessage()));
+            }
+            if (msg.getMessages() != null) {
+                for (Message message : msg.getMessages()) {
+                    if (message == null) {
+                        // 含空消息的批次保持原样，由处理器按原有规则拒绝
+                        releaseAll(records);
+                        msg.setRecords(null);
+                        return msg;
+                    }
+                    records.add(BinaryCodec.encodeRecord(ctx.alloc(), message));
+                }
+            }
+        } catch (RuntimeException e) {
+            msg.release();
+            throw e;
+        }
+        msg.setMessage(null);
+        msg.setMessages(null);
+        return msg;
+    }
+
+    private static void releaseAll(List<ByteBuf> records) {
+        for (ByteBuf record : records) {
+            record.release();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.swiftq.broker.protocol;
+
+/**
+ * 帧体编码格式
+ * 客户端在每个帧头中声明格式，服务端按请求的格式回写响应；JSON 作为兼容回退
+ */
+public enum WireFormat {
+    BINARY((byte) 1),
+    JSON((byte) 2);
+
+    private final byte id;
+
+    WireFormat(byte id) {
+        this.id = id;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public static WireFormat fromId(byte id) {
+        for (WireFormat format : values()) {
+            if (format.id == id) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown wire format: " + id);
+    }
+}
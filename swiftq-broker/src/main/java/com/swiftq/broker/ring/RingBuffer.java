@@ -0,0 +1,216 @@
+package com.swiftq.broker.ring;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 预分配的有界环形缓冲区，支持多生产者、多消费者，每条消息只被一个消费者取走
+ *
+ * 生产者与消费者各有一个序号，以 CAS 一次认领一段连续的序号（批量发布与批量取出只 CAS 一次）；
+ * 每个槽位另有一个序号标记它处于哪一轮、是否已发布：
+ * 槽位序号为 s 表示可以写入序号 s，为 s + 1 表示序号 s 已发布，消费者取走后置为 s + capacity 交给下一轮。
+ * 消费者只认领已发布的序号，生产者只在容量允许时认领，所以被中断的等待不会留下认领了却不发布的空洞
+ *
+ * 槽位数组在创建时分配，发布与取出不分配任何对象；缓冲区空或满时按 {@link WaitStrategy} 等待
+ */
+public final class RingBuffer<E> {
+
+    private final int capacity;
+    private final int mask;
+    private final Object[] entries;
+    private final AtomicLongArray slots;
+    // 下一个待认领的发布序号与消费序号
+    private final Sequence producer = new Sequence(0);
+    private final Sequence consumer = new Sequence(0);
+    private final WaitStrategy waitStrategy;
+
+    // 预先创建的等待条件，等待时不分配对象
+    private final BooleanSupplier readable = () -> isPublished(consumer.get());
+    private final BooleanSupplier writable = () -> producer.get() - consumer.get() < capacity();
+
+    /**
+     * @param capacity 槽位数，取不小于该值的 2 的幂
+     */
+    public RingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.entries = new Object[this.capacity];
+        this.slots = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            slots.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 已认领但尚未取出的消息数，并发修改时为近似值
+     */
+    public int size() {
+        long size = producer.get() - consumer.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return producer.get() == consumer.get();
+    }
+
+    /**
+     * 缓冲区满时返回 false
+     */
+    public boolean offer(E element) {
+        checkNotNull(element);
+        long sequence = tryClaim();
+        if (sequence < 0) {
+            return false;
+        }
+        write(sequence, element);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * 发布一条消息，缓冲区满时等待空位
+     */
+    public void publish(E element) throws InterruptedException {
+        checkNotNull(element);
+        long sequence;
+        while ((sequence = tryClaim()) < 0) {
+            waitStrategy.await(writable);
+        }
+        write(sequence, element);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * 按顺序发布一批消息，每次以一次 CAS 认领当前剩余空间能容纳的部分，空间不足时等待
+     */
+    public void publishAll(List<? extends E> elements) throws InterruptedException {
+        for (E element : elements) {
+            checkNotNull(element);
+        }
+        int published = 0;
+        while (published < elements.size()) {
+            long start = producer.get();
+            long free = capacity - (start - consumer.get());
+            if (free <= 0) {
+                waitStrategy.await(writable);
+                continue;
+            }
+            int count = (int) Math.min(free, elements.size() - published);
+            if (!producer.compareAndSet(start, start + count)) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                write(start + i, elements.get(published + i));
+            }
+            published += count;
+            waitStrategy.signalAll();
+        }
+    }
+
+    /**
+     * 取出一条消息，缓冲区空时返回 null
+     */
+    public E poll() {
+        while (true) {
+            long sequence = consumer.get();
+            if (!isPublished(sequence)) {
+                return null;
+            }
+            if (consumer.compareAndSet(sequence, sequence + 1)) {
+                E element = read(sequence);
+                waitStrategy.signalAll();
+                return element;
+            }
+        }
+    }
+
+    /**
+     * 取出一条消息，缓冲区空时等待
+     */
+    public E take() throws InterruptedException {
+        E element;
+        while ((element = poll()) == null) {
+            waitStrategy.await(readable);
+        }
+        return element;
+    }
+
+    /**
+     * 一次 CAS 认领所有已连续发布的消息（最多 maxElements 条）并放入 out
+     *
+     * @return 取出的条数，缓冲区空时为 0
+     */
+    public int drainTo(Collection<? super E> out, int maxElements) {
+        int limit = Math.min(maxElements, capacity);
+        while (limit > 0) {
+            long start = consumer.get();
+            int count = 0;
+            while (count < limit && isPublished(start + count)) {
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (consumer.compareAndSet(start, start + count)) {
+                for (int i = 0; i < count; i++) {
+                    out.add(read(start + i));
+                }
+                waitStrategy.signalAll();
+                return count;
+            }
+        }
+        return 0;
+    }
+
+    private long tryClaim() {
+        while (true) {
+            long sequence = producer.get();
+            if (sequence - consumer.get() >= capacity) {
+                return -1;
+            }
+            if (producer.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return slots.get((int) sequence & mask) == sequence + 1;
+    }
+
+    private void write(long sequence, E element) {
+        int index = (int) sequence & mask;
+        // 上一轮的消费者已认领该槽位但可能还没读完，等待时间只有几条指令
+        while (slots.get(index) != sequence) {
+            Thread.yield();
+        }
+        entries[index] = element;
+        // 需要完整的写屏障：阻塞策略随后读取等待者计数，不能与这次写重排
+        slots.set(index, sequence + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E read(long sequence) {
+        int index = (int) sequence & mask;
+        E element = (E) entries[index];
+        entries[index] = null;
+        slots.lazySet(index, sequence + capacity);
+        return element;
+    }
+
+    private static void checkNotNull(Object element) {
+        if (element == null) {
+            throw new NullPointerException("Null element");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.swiftq.broker.ring;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 前后各填充一个缓存行的序号，生产者与消费者的序号不会落在同一缓存行上互相失效
+ */
+class Sequence extends SequenceValue {
+    // 右侧填充
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    Sequence(long initial) {
+        this.value = initial;
+    }
+
+    long get() {
+        return value;
+    }
+
+    boolean compareAndSet(long expected, long update) {
+        return UPDATER.compareAndSet(this, expected, update);
+    }
+}
+
+class SequenceLeftPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLeftPadding {
+    protected volatile long value;
+}
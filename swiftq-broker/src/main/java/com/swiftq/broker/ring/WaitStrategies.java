@@ -0,0 +1,149 @@
+package com.swiftq.broker.ring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 常用的等待策略，延迟从低到高、CPU 占用从高到低：
+ * busySpin 一直空转，适合线程数不超过核数且绑核的场景；yielding 空转一段后让出 CPU；
+ * parking 空转、让出后按固定间隔休眠；blocking 在锁与条件变量上阻塞，发布方只在有等待者时加锁
+ */
+public final class WaitStrategies {
+
+    private static final int SPIN_TRIES = 100;
+
+    private WaitStrategies() {
+    }
+
+    public static WaitStrategy busySpin() {
+        return new BusySpin();
+    }
+
+    public static WaitStrategy yielding() {
+        return new Yielding();
+    }
+
+    /**
+     * @param parkNanos 空转与让出之后每次休眠的时长
+     */
+    public static WaitStrategy parking(long parkNanos) {
+        if (parkNanos <= 0) {
+            throw new IllegalArgumentException("Invalid park time: " + parkNanos);
+        }
+        return new Parking(parkNanos);
+    }
+
+    public static WaitStrategy parking() {
+        return parking(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    public static WaitStrategy blocking() {
+        return new Blocking();
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static final class BusySpin implements WaitStrategy {
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            while (!ready.getAsBoolean()) {
+                checkInterrupted();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    private static final class Yielding implements WaitStrategy {
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            int tries = 0;
+            while (!ready.getAsBoolean()) {
+                checkInterrupted();
+                if (++tries > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    private static final class Parking implements WaitStrategy {
+        private final long parkNanos;
+
+        Parking(long parkNanos) {
+            this.parkNanos = parkNanos;
+        }
+
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            int tries = 0;
+            while (!ready.getAsBoolean()) {
+                checkInterrupted();
+                tries++;
+                if (tries > 2 * SPIN_TRIES) {
+                    LockSupport.parkNanos(this, parkNanos);
+                } else if (tries > SPIN_TRIES) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    }
+
+    private static final class Blocking implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        // 先登记等待者再检查条件，发布方先更新序号再检查等待者，两边至少有一方看到对方
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        @Override
+        public void await(BooleanSupplier ready) throws InterruptedException {
+            if (ready.getAsBoolean()) {
+                return;
+            }
+            waiters.incrementAndGet();
+            try {
+                lock.lockInterruptibly();
+                try {
+                    while (!ready.getAsBoolean()) {
+                        changed.await();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void signalAll() {
+            if (waiters.get() == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
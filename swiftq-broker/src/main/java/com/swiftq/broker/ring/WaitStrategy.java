@@ -0,0 +1,22 @@
+package com.swiftq.broker.ring;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 环形缓冲区的等待策略：消费者等数据、生产者等空位时如何等待
+ * 同一个实例供缓冲区的生产者与消费者共用，常用实现见 {@link WaitStrategies}
+ */
+public interface WaitStrategy {
+
+    /**
+     * 等待直到 ready 返回 true；被唤醒后总是重新检查条件
+     *
+     * @throws InterruptedException 等待期间线程被中断
+     */
+    void await(BooleanSupplier ready) throws InterruptedException;
+
+    /**
+     * 发布或消费之后调用，唤醒阻塞中的等待者；不阻塞线程的策略为空操作
+     */
+    void signalAll();
+}
@@ -0,0 +1,465 @@
+package com.swiftq.broker.store;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分段的只追加提交日志
+ * 每条记录分配一个单调递增的 offset，写满一个段后滚动到以下一个 offset 命名的新段
+ *
+ * 追加串行执行；读取不加锁，可以与追加并发
+ */
+public class CommitLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(CommitLog.class);
+
+    static final String RECOVERY_FILE = "recovery.checkpoint";
+    // 压缩时写出新段的临时目录
+    static final String CLEANER_DIR = ".cleaner";
+
+    private final File dir;
+    private final StoreConfig config;
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private volatile LogSegment active;
+    private final CompletableFuture<Void> indexesReady = new CompletableFuture<>();
+
+    // 已被移出日志、等待延迟关闭的段
+    private final List<RetiredSegment> retired = new ArrayList<>();
+
+    private final Object checkpointLock = new Object();
+    private long checkpointedBase = -1;
+    private int checkpointedPosition = -1;
+
+    private CommitLog(File dir, StoreConfig config) {
+        this.dir = dir;
+        this.config = config;
+    }
+
+    /**
+     * 打开目录下的日志，目录不存在时创建
+     * 最后一个段从恢复检查点开始逐条校验，截掉不完整的尾部；检查点之前的数据和已封存的段直接信任
+     * 缺少索引的封存段在后台并行重建，不阻塞打开，重建完成前这些段的读取退化为顺序扫描
+     */
+    public static CommitLog open(File dir, StoreConfig config) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create log directory " + dir);
+        }
+        CommitLog log = new CommitLog(dir, config);
+        try {
+            log.load();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        return log;
+    }
+
+    private void load() throws IOException {
+        long started = System.nanoTime();
+        File[] leftovers = cleanerDir().listFiles();
+        if (leftovers != null) {
+            // 上次压缩未完成，原段仍然完整
+            for (File file : leftovers) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        List<Long> baseOffsets = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(LogSegment.LOG_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    baseOffsets.add(Long.parseLong(name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {}", file);
+                }
+            }
+        }
+        baseOffsets.sort(null);
+
+        List<LogSegment> unindexed = new ArrayList<>();
+        for (int i = 0; i < baseOffsets.size(); i++) {
+            LogSegment segment = LogSegment.open(dir, baseOffsets.get(i), config);
+            segments.put(segment.baseOffset(), segment);
+            if (i < baseOffsets.size() - 1) {
+                segment.seal(baseOffsets.get(i + 1));
+                if (segment.needsIndex()) {
+                    unindexed.add(segment);
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            LogSegment segment = LogSegment.open(dir, 0L, config);
+            segments.put(0L, segment);
+        }
+        active = segments.lastEntry().getValue();
+
+        int trusted = readRecoveryPoint(active.baseOffset());
+        int fileSize = active.size();
+        active.recover(trusted);
+        logger.info("Opened commit log {} with {} segment(s), offsets [{}, {}); verified {} tail byte(s) in {} ms",
+                dir, segments.size(), startOffset(), nextOffset(), Math.max(0, fileSize - trusted),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        rebuildIndexes(unindexed);
+    }
+
+    /**
+     * 在后台线程池中并行重建封存段的索引，按完成数量报告进度
+     */
+    private void rebuildIndexes(List<LogSegment> unindexed) {
+        if (unindexed.isEmpty()) {
+            indexesReady.complete(null);
+            return;
+        }
+        int threads = Math.min(unindexed.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DefaultThreadFactory("swiftq-recovery", true));
+        long started = System.nanoTime();
+        AtomicInteger done = new AtomicInteger();
+        logger.info("Rebuilding {} missing segment index(es) in {} with {} thread(s)", unindexed.size(), dir, threads);
+
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[unindexed.size()];
+        for (int i = 0; i < tasks.length; i++) {
+            LogSegment segment = unindexed.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    segment.rebuildIndex();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                logger.info("Rebuilt index of segment {} ({}/{})", segment.baseOffset(), done.incrementAndGet(), tasks.length);
+            }, executor);
+        }
+        CompletableFuture.allOf(tasks).whenComplete((ignored, error) -> {
+            executor.shutdown();
+            if (error != null) {
+                logger.warn("Index rebuild failed in {}, affected segments fall back to sequential scan", dir, error);
+                indexesReady.completeExceptionally(error);
+            } else {
+                logger.info("Rebuilt {} segment index(es) in {} ms", tasks.length,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                indexesReady.complete(null);
+            }
+        });
+    }
+
+    /**
+     * 封存段的索引全部可用时完成
+     */
+    public CompletableFuture<Void> indexesReady() {
+        return indexesReady;
+    }
+
+    /**
+     * 读取恢复检查点：检查点记录的是当前活跃段时返回其中已落盘的字节数，否则返回 0
+     */
+    private int readRecoveryPoint(long activeBase) throws IOException {
+        File file = new File(dir, RECOVERY_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (data.length != 12) {
+            logger.warn("Ignoring corrupt recovery checkpoint {}", file);
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long base = buffer.getLong();
+        int position = buffer.getInt();
+        return base == activeBase && position >= 0 ? position : 0;
+    }
+
+    /**
+     * 记录活跃段中已 fsync 的位置，重启时只需校验其后的数据
+     * 写入临时文件后原子替换
+     */
+    public void checkpoint() throws IOException {
+        LogSegment segment = active;
+        long base = segment.baseOffset();
+        int position = segment.syncedSize();
+        synchronized (checkpointLock) {
+            if (base == checkpointedBase && position == checkpointedPosition) {
+                return;
+            }
+            File file = new File(dir, RECOVERY_FILE);
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer data = ByteBuffer.allocate(12);
+                data.putLong(base).putInt(position);
+                ((Buffer) data).flip();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpointedBase = base;
+            checkpointedPosition = position;
+        }
+    }
+
+    /**
+     * 追加一条记录，不释放记录
+     *
+     * @return 记录的 offset
+     */
+    public long append(ByteBuf record) throws IOException {
+        return append(Collections.singletonList(record));
+    }
+
+    /**
+     * 追加一组记录，不释放记录；整组写入同一个段，要么全部写入，要么写入失败时全部回滚
+     * 段因此可能超出 segmentBytes 至多一个批次
+     *
+     * @return 第一条记录的 offset
+     */
+    public synchronized long append(List<ByteBuf> records) throws IOException {
+        long offset = active.nextOffset();
+        long bytes = 0;
+        for (ByteBuf record : records) {
+            bytes += LogSegment.ENTRY_HEADER_SIZE + (long) record.readableBytes();
+        }
+        LogSegment segment = active;
+        if (!segment.isEmpty() && segment.size() + bytes > config.getSegmentBytes()) {
+            segment = roll(offset);
+        }
+        segment.append(offset, records);
+        return offset;
+    }
+
+    private LogSegment roll(long nextOffset) throws IOException {
+        LogSegment previous = active;
+        previous.flush();
+        previous.seal(nextOffset);
+        LogSegment segment = LogSegment.open(dir, nextOffset, config);
+        segments.put(nextOffset, segment);
+        active = segment;
+        logger.debug("Rolled commit log {} to segment {}", dir, nextOffset);
+        return segment;
+    }
+
+    /**
+     * 从 offset 开始读取，记录追加到 out，跨段连续读取
+     * offset 早于日志起点时从起点开始
+     *
+     * @return 下一次读取应使用的 offset
+     */
+    public long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out) throws IOException {
+        long next = Math.max(offset, startOffset());
+        long bytes = 0;
+        int start = out.size();
+        while (out.size() - start < maxMessages && bytes < maxBytes) {
+            Map.Entry<Long, LogSegment> entry = segments.floorEntry(next);
+            if (entry == null) {
+                break;
+            }
+            int before = out.size();
+            next = entry.getValue().read(next, maxMessages - (out.size() - start), maxBytes - bytes, out);
+            for (int i = before; i < out.size(); i++) {
+                bytes += out.get(i).readableBytes();
+            }
+            if (out.size() == before) {
+                // 当前段已读完，转到下一个段
+                Long higher = segments.higherKey(entry.getKey());
+                if (higher == null) {
+                    break;
+                }
+                next = Math.max(next, higher);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 从 offset 开始取一段原始日志项，不跨段
+     *
+     * @return 没有更多数据时返回 null
+     * @see LogSegment#region(long, long)
+     */
+    public FileRegion readRegion(long offset, long maxBytes) throws IOException {
+        long next = Math.max(offset, startOffset());
+        Map.Entry<Long, LogSegment> entry = segments.floorEntry(next);
+        while (entry != null) {
+            FileRegion region = entry.getValue().region(next, maxBytes);
+            if (region != null) {
+                return region;
+            }
+            entry = segments.higherEntry(entry.getKey());
+        }
+        return null;
+    }
+
+    LogSegment activeSegment() {
+        return active;
+    }
+
+    /**
+     * 除活跃段外的所有段，按 offset 从小到大
+     */
+    List<LogSegment> sealedSegments() {
+        LogSegment current = active;
+        List<LogSegment> sealed = new ArrayList<>();
+        for (LogSegment segment : segments.values()) {
+            if (segment != current) {
+                sealed.add(segment);
+            }
+        }
+        return sealed;
+    }
+
+    long sizeInBytes() {
+        long total = 0;
+        for (LogSegment segment : segments.values()) {
+            total += segment.size();
+        }
+        return total;
+    }
+
+    File cleanerDir() {
+        return new File(dir, CLEANER_DIR);
+    }
+
+    /**
+     * 把一个封存段移出日志，延迟关闭并删除文件
+     */
+    void deleteSegment(LogSegment segment) {
+        if (segment == active || !segments.remove(segment.baseOffset(), segment)) {
+            return;
+        }
+        retire(segment, true);
+        logger.info("Deleted segment {} of {}", segment.baseOffset(), dir);
+    }
+
+    /**
+     * 用压缩后的段文件替换一个封存段
+     * 先删除旧索引再替换日志文件，中途崩溃时重启会为该段重建索引
+     */
+    void replaceSegment(LogSegment segment, LogSegment cleaned) throws IOException {
+        long lastModified = segment.lastModified();
+        cleaned.close();
+        Files.deleteIfExists(segment.indexFile().toPath());
+        Files.move(cleaned.logFile().toPath(), segment.logFile().toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(cleaned.indexFile().toPath(), segment.indexFile().toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segment.logFile().setLastModified(lastModified);
+
+        LogSegment replacement = LogSegment.open(dir, segment.baseOffset(), config);
+        replacement.seal(segment.nextOffset());
+        if (!segments.replace(segment.baseOffset(), segment, replacement)) {
+            replacement.close();
+            throw new IOException("Segment " + segment.baseOffset() + " changed during compaction");
+        }
+        // 旧段的文件路径已属于新段，只关闭不删除
+        retire(segment, false);
+    }
+
+    private void retire(LogSegment segment, boolean deleteFiles) {
+        synchronized (retired) {
+            retired.add(new RetiredSegment(segment, deleteFiles,
+                    System.currentTimeMillis() + config.getFileDeleteDelayMs()));
+        }
+    }
+
+    /**
+     * 关闭到期的被移出段
+     */
+    void closeRetired(boolean all) {
+        long now = System.currentTimeMillis();
+        List<RetiredSegment> due = new ArrayList<>();
+        synchronized (retired) {
+            retired.removeIf(r -> {
+                if (all || r.deadline <= now) {
+                    due.add(r);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (RetiredSegment r : due) {
+            try {
+                if (r.deleteFiles) {
+                    r.segment.delete();
+                } else {
+                    r.segment.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to close retired segment {} of {}", r.segment.baseOffset(), dir, e);
+            }
+        }
+    }
+
+    public long startOffset() {
+        return segments.firstKey();
+    }
+
+    public long nextOffset() {
+        return active.nextOffset();
+    }
+
+    public synchronized void flush() throws IOException {
+        active.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        if (active != null && segments.containsValue(active)) {
+            try {
+                active.flush();
+                checkpoint();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        segments.clear();
+        closeRetired(true);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static final class RetiredSegment {
+        final LogSegment segment;
+        final boolean deleteFiles;
+        final long deadline;
+
+        RetiredSegment(LogSegment segment, boolean deleteFiles, long deadline) {
+            this.segment = segment;
+            this.deleteFiles = deleteFiles;
+            this.deadline = deadline;
+        }
+    }
+}
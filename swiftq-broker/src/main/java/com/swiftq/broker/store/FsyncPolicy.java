@@ -0,0 +1,19 @@
+package com.swiftq.broker.store;
+
+/**
+ * 发布确认的持久化策略
+ */
+public enum FsyncPolicy {
+    /**
+     * 写入页缓存即确认，由操作系统决定何时落盘
+     */
+    NONE,
+    /**
+     * 写入页缓存即确认，后台按固定间隔 fsync，掉电最多丢失一个间隔内的消息
+     */
+    INTERVAL,
+    /**
+     * 所在批次 fsync 完成后才确认
+     */
+    EVERY_BATCH
+}
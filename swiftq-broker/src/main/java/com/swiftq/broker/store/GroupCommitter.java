@@ -0,0 +1,322 @@
+package com.swiftq.broker.store;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 组提交
+ * 由固定数量的提交线程为多个日志批量写入，每个日志登记时固定分配给一个提交线程，
+ * 该线程是这个日志唯一的写线程，磁盘 I/O 不占用 EventLoop。
+ * 一个批次可以包含多个日志的发布：批次写完后每个需要 fsync 的日志只 fsync 一次，
+ * EVERY_BATCH 策略的发布在所属日志 fsync 后再确认，INTERVAL 策略由提交线程按各日志的间隔 fsync
+ */
+public final class GroupCommitter {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitter.class);
+
+    // 没有待 fsync 的日志时提交线程等待发布的最长时间，也是关闭时的最长等待
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Lane[] lanes;
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    public GroupCommitter(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid commit threads: " + threads);
+        }
+        DefaultThreadFactory factory = new DefaultThreadFactory("swiftq-commit", true);
+        this.lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            lanes[i] = new Lane(factory);
+        }
+    }
+
+    /**
+     * 登记一个日志，日志按登记顺序轮流分配给提交线程
+     */
+    LogCommitter register(CommitLog log, StoreConfig config) {
+        Lane lane = lanes[Math.floorMod(nextLane.getAndIncrement(), lanes.length)];
+        return new LogCommitter(lane, log, config);
+    }
+
+    /**
+     * 停止接收新的发布，写完已排队的发布后返回
+     */
+    public void close() {
+        for (Lane lane : lanes) {
+            lane.running = false;
+        }
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 一个日志在提交线程上的登记
+     */
+    static final class LogCommitter {
+        private final Lane lane;
+        private final CommitLog log;
+        private final StoreConfig config;
+        private volatile boolean closed;
+
+        // 以下字段只在提交线程上访问
+        private boolean unsynced;
+        private long lastSyncNanos = System.nanoTime();
+
+        private LogCommitter(Lane lane, CommitLog log, StoreConfig config) {
+            this.lane = lane;
+            this.log = log;
+            this.config = config;
+        }
+
+        /**
+         * 提交一组记录，接管记录的引用
+         *
+         * @return 记录按策略持久化后完成的 future
+         */
+        CompletableFuture<Void> submit(List<ByteBuf> records) {
+            PendingAppend pending = new PendingAppend(this, records, policyOf(records));
+            if (closed) {
+                pending.fail(new IOException("Store is closed"));
+                return pending.future;
+            }
+            lane.add(pending);
+            return pending.future;
+        }
+
+        private FsyncPolicy policyOf(List<ByteBuf> records) {
+            if (config.getTopicFsyncPolicies().isEmpty()) {
+                return config.getFsyncPolicy();
+            }
+            FsyncPolicy strongest = FsyncPolicy.NONE;
+            for (ByteBuf record : records) {
+                FsyncPolicy policy = config.fsyncPolicyFor(BinaryCodec.recordTopic(record));
+                if (policy.compareTo(strongest) > 0) {
+                    strongest = policy;
+                }
+            }
+            return strongest;
+        }
+
+        /**
+         * 停止接收这个日志的发布，等已排队的发布写完并 fsync 后返回，之后可以关闭日志
+         */
+        void close() {
+            closed = true;
+            // 提交线程按顺序处理，屏障完成时之前排队的发布都已处理
+            PendingAppend barrier = new PendingAppend(this, Collections.emptyList(), FsyncPolicy.EVERY_BATCH);
+            lane.add(barrier);
+            try {
+                barrier.future.join();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to flush pending appends on close", e);
+            }
+        }
+    }
+
+    private static final class Lane implements Runnable {
+        private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        // 有未 fsync 写入的日志，只在提交线程上访问
+        private final Set<LogCommitter> unsynced = new LinkedHashSet<>();
+
+        Lane(DefaultThreadFactory factory) {
+            this.thread = factory.newThread(this);
+            thread.start();
+        }
+
+        void add(PendingAppend pending) {
+            queue.add(pending);
+            if (!running) {
+                // 与 close 并发时，由这里清理提交线程已不会处理的请求
+                failRemaining();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingAppend first = queue.poll(pollTimeoutNanos(), TimeUnit.NANOSECONDS);
+                    if (first != null) {
+                        commit(collect(first));
+                    }
+                    syncDue();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    logger.error("Group commit failed", e);
+                }
+            }
+            failRemaining();
+        }
+
+        private long pollTimeoutNanos() {
+            long timeout = IDLE_POLL_NANOS;
+            long now = System.nanoTime();
+            for (LogCommitter committer : unsynced) {
+                long due = committer.lastSyncNanos + TimeUnit.MILLISECONDS.toNanos(committer.config.getFsyncIntervalMs());
+                timeout = Math.min(timeout, Math.max(0, due - now));
+            }
+            return timeout;
+        }
+
+        /**
+         * 从队列中收集一个批次：先取走已排队的发布，需要 fsync 且未达到大小阈值时再等待 linger 时间，
+         * 阈值取第一个发布所属日志的配置
+         */
+        private List<PendingAppend> collect(PendingAppend first) throws InterruptedException {
+            StoreConfig config = first.owner.config;
+            List<PendingAppend> batch = new ArrayList<>();
+            batch.add(first);
+            long bytes = first.bytes;
+            boolean sync = first.policy == FsyncPolicy.EVERY_BATCH;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getGroupCommitLingerMs());
+
+            while (bytes < config.getGroupCommitBytes()) {
+                PendingAppend next = queue.poll();
+                if (next == null && sync) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining > 0) {
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                bytes += next.bytes;
+                sync |= next.policy == FsyncPolicy.EVERY_BATCH;
+            }
+            return batch;
+        }
+
+        private void commit(List<PendingAppend> batch) {
+            Map<LogCommitter, List<PendingAppend>> awaitingSync = new LinkedHashMap<>();
+            for (PendingAppend pending : batch) {
+                LogCommitter owner = pending.owner;
+                if (!pending.records.isEmpty()) {
+                    try {
+                        // 一次发布的记录整组写入或整组回滚，失败后客户端重试不会产生重复
+                        owner.log.append(pending.records);
+                    } catch (IOException e) {
+                        pending.future.completeExceptionally(e);
+                        continue;
+                    } finally {
+                        pending.release();
+                    }
+                }
+
+                if (pending.policy == FsyncPolicy.EVERY_BATCH) {
+                    awaitingSync.computeIfAbsent(owner, k -> new ArrayList<>()).add(pending);
+                } else {
+                    if (pending.policy == FsyncPolicy.INTERVAL) {
+                        owner.unsynced = true;
+                        unsynced.add(owner);
+                    }
+                    pending.future.complete(null);
+                }
+            }
+
+            // 每个日志只 fsync 一次，一个日志 fsync 失败不影响其他日志的确认
+            for (Map.Entry<LogCommitter, List<PendingAppend>> entry : awaitingSync.entrySet()) {
+                try {
+                    sync(entry.getKey());
+                    for (PendingAppend pending : entry.getValue()) {
+                        pending.future.complete(null);
+                    }
+                } catch (IOException e) {
+                    for (PendingAppend pending : entry.getValue()) {
+                        pending.future.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+
+        private void syncDue() {
+            if (unsynced.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (LogCommitter committer : new ArrayList<>(unsynced)) {
+                if (now - committer.lastSyncNanos >= TimeUnit.MILLISECONDS.toNanos(committer.config.getFsyncIntervalMs())) {
+                    try {
+                        sync(committer);
+                    } catch (IOException e) {
+                        logger.warn("Periodic fsync failed", e);
+                    }
+                }
+            }
+        }
+
+        private void sync(LogCommitter committer) throws IOException {
+            // 失败时也不再重试，避免已关闭的日志反复报错；下一次写入会重新登记
+            committer.unsynced = false;
+            unsynced.remove(committer);
+            committer.lastSyncNanos = System.nanoTime();
+            committer.log.flush();
+        }
+
+        private void failRemaining() {
+            PendingAppend pending;
+            while ((pending = queue.poll()) != null) {
+                pending.fail(new IOException("Store is closed"));
+            }
+        }
+    }
+
+    private static final class PendingAppend {
+        final LogCommitter owner;
+        final List<ByteBuf> records;
+        final FsyncPolicy policy;
+        final long bytes;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingAppend(LogCommitter owner, List<ByteBuf> records, FsyncPolicy policy) {
+            this.owner = owner;
+            this.records = records;
+            this.policy = policy;
+            long size = 0;
+            for (ByteBuf record : records) {
+                size += record.readableBytes();
+            }
+            this.bytes = size;
+        }
+
+        void release() {
+            for (ByteBuf record : records) {
+                record.release();
+            }
+        }
+
+        void fail(IOException cause) {
+            release();
+            future.completeExceptionally(cause);
+        }
+    }
+}
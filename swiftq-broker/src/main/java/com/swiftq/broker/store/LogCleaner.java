@@ -0,0 +1,219 @@
+package com.swiftq.broker.store;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台日志清理：按保留策略整段删除旧段，并对配置了压缩的 topic 按键压缩
+ *
+ * 只处理已封存的段，不与提交线程竞争日志的写锁；压缩的读写按配置的带宽限速。
+ * 每个日志属于一个 topic，配置已由 {@link StoreConfig#forTopic(String)} 解析出该 topic 的保留策略
+ */
+final class LogCleaner {
+    private static final Logger logger = LoggerFactory.getLogger(LogCleaner.class);
+
+    private final CommitLog log;
+    private final StoreConfig config;
+    private final ScheduledFuture<?> task;
+    private volatile boolean closed;
+
+    // 以下字段只在清理线程上访问
+    private long compactedUpTo = -1;
+    private long throttleStartNanos;
+    private long throttledBytes;
+
+    /**
+     * @param executor 执行清理的线程池，可以由多个日志共享
+     */
+    LogCleaner(CommitLog log, StoreConfig config, ScheduledExecutorService executor) {
+        this.log = log;
+        this.config = config;
+        long interval = config.getCleanupIntervalMs();
+        this.task = executor.scheduleWithFixedDelay(this::cleanQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cleanQuietly() {
+        if (closed) {
+            return;
+        }
+        try {
+            if (!log.indexesReady().isDone()) {
+                // 等待恢复时的索引重建结束
+                return;
+            }
+            enforceRetention();
+            compact();
+        } catch (InterruptedIOException e) {
+            logger.debug("Log cleanup stopped");
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Log cleanup failed", e);
+        } finally {
+            log.closeRetired(false);
+        }
+    }
+
+    void enforceRetention() {
+        long retentionMs = config.getRetentionMs();
+        long retentionBytes = config.getRetentionBytes();
+        if (retentionMs < 0 && retentionBytes < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long total = log.sizeInBytes();
+        // 只从最旧的段开始连续删除，日志始终保持连续
+        for (LogSegment segment : log.sealedSegments()) {
+            boolean expired = retentionMs >= 0 && now - segment.lastModified() > retentionMs;
+            boolean oversized = retentionBytes >= 0 && total - segment.size() >= retentionBytes;
+            if (!expired && !oversized) {
+                break;
+            }
+            log.deleteSegment(segment);
+            total -= segment.size();
+        }
+    }
+
+    /**
+     * 两遍压缩：第一遍记录每个键最新的 offset，第二遍重写含有过期键的段
+     * 活跃段中的新消息在其封存后参与下一次压缩
+     */
+    void compact() throws IOException {
+        if (config.getTopicCompactionKeys().isEmpty()) {
+            return;
+        }
+        List<LogSegment> sealed = log.sealedSegments();
+        if (sealed.isEmpty()) {
+            return;
+        }
+        long sealedUpTo = sealed.get(sealed.size() - 1).nextOffset();
+        if (sealedUpTo == compactedUpTo) {
+            return;
+        }
+        long started = System.nanoTime();
+        throttleStartNanos = started;
+        throttledBytes = 0;
+
+        Map<String, Long> latest = new HashMap<>();
+        for (LogSegment segment : sealed) {
+            segment.forEachRecord((offset, record) -> {
+                String key = compactionKey(record);
+                if (key != null) {
+                    latest.put(key, offset);
+                }
+                return throttle(record.readableBytes());
+            });
+            checkClosed();
+        }
+
+        int rewritten = 0;
+        for (LogSegment segment : sealed) {
+            if (hasObsoleteRecords(segment, latest)) {
+                rewrite(segment, latest);
+                rewritten++;
+            }
+            checkClosed();
+        }
+        compactedUpTo = sealedUpTo;
+        logger.info("Compacted {} of {} sealed segment(s) with {} key(s) in {} ms", rewritten, sealed.size(),
+                latest.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private boolean hasObsoleteRecords(LogSegment segment, Map<String, Long> latest) throws IOException {
+        boolean[] found = new boolean[1];
+        segment.forEachRecord((offset, record) -> {
+            String key = compactionKey(record);
+            found[0] = key != null && latest.get(key) != offset;
+            return !found[0] && throttle(record.readableBytes());
+        });
+        return found[0];
+    }
+
+    private void rewrite(LogSegment segment, Map<String, Long> latest) throws IOException {
+        File cleanerDir = log.cleanerDir();
+        if (!cleanerDir.isDirectory() && !cleanerDir.mkdirs()) {
+            throw new IOException("Cannot create cleaner directory " + cleanerDir);
+        }
+        LogSegment cleaned = LogSegment.open(cleanerDir, segment.baseOffset(), config);
+        try {
+            segment.forEachRecord((offset, record) -> {
+                String key = compactionKey(record);
+                if (key == null || latest.get(key) == offset) {
+                    cleaned.append(offset, record);
+                }
+                // 读和写都计入带宽
+                return throttle(2L * record.readableBytes());
+            });
+            checkClosed();
+            cleaned.flush();
+        } catch (IOException | RuntimeException e) {
+            cleaned.delete();
+            throw e;
+        }
+        log.replaceSegment(segment, cleaned);
+    }
+
+    /**
+     * @return 记录所属 topic 不压缩或没有键标签时返回 null
+     */
+    private String compactionKey(ByteBuf record) {
+        String topic = BinaryCodec.recordTopic(record);
+        String keyTag = config.compactionKeyFor(topic);
+        if (keyTag == null) {
+            return null;
+        }
+        String key = BinaryCodec.recordTag(record, keyTag);
+        return key != null ? topic + '\u0000' + key : null;
+    }
+
+    /**
+     * 按带宽上限休眠
+     *
+     * @return 已关闭或线程被中断时返回 false
+     */
+    private boolean throttle(long bytes) {
+        if (closed) {
+            return false;
+        }
+        throttledBytes += bytes;
+        long expectedNanos = (long) (throttledBytes * 1e9 / config.getCleanerBytesPerSecond());
+        long aheadNanos = expectedNanos - (System.nanoTime() - throttleStartNanos);
+        if (aheadNanos > TimeUnit.MILLISECONDS.toNanos(1)) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkClosed() throws InterruptedIOException {
+        if (closed || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Log cleaner stopped");
+        }
+    }
+
+    /**
+     * 停止清理，等待正在进行的一轮结束
+     */
+    void close() {
+        // 线程池由多个日志共享，不能中断，正在进行的压缩在下一条记录处检查 closed 后退出
+        closed = true;
+        task.cancel(false);
+        synchronized (this) {
+            // 等待 cleanQuietly 退出
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.swiftq.broker.store;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于提交日志的持久化存储
+ * 发布的记录经 {@link GroupCommitter} 批量追加到 {@link CommitLog}，消费者共享一个消费位点顺序读取；
+ * 位点定期落盘，重启后从上次落盘的位置继续，最多重复投递一个落盘间隔内的消息；
+ * 旧段由 {@link LogCleaner} 在后台按保留策略删除或按键压缩
+ */
+public class LogMessageStore implements MessageStore {
+    private static final Logger logger = LoggerFactory.getLogger(LogMessageStore.class);
+
+    static final String CURSOR_FILE = "consumer.offset";
+
+    private final CommitLog log;
+    private final GroupCommitter.LogCommitter committer;
+    private final GroupCommitter groupCommitter;
+    private final LogCleaner cleaner;
+    private final File cursorFile;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService cleanerScheduler;
+    // 单独使用时由存储创建并关闭后台线程与提交线程
+    private final boolean ownsSchedulers;
+    private final ScheduledFuture<?> checkpointTask;
+
+    // 共享消费位点，推进在 drain 中串行执行
+    private volatile long cursor;
+    // 位点落盘与 drain 使用不同的锁，fsync 不阻塞消费
+    private final Object checkpointLock = new Object();
+    private long checkpointed = -1;
+
+    public LogMessageStore(File dir, StoreConfig config) throws IOException {
+        this(dir, config, Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("swiftq-store", true)),
+                Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("swiftq-cleaner", true)),
+                new GroupCommitter(1), true);
+    }
+
+    /**
+     * 多个存储共享后台线程时使用，位点落盘与日志清理分别在 scheduler 与 cleanerScheduler 上执行，
+     * 写入由共享的 groupCommitter 完成，关闭存储时不关闭这些线程
+     */
+    public LogMessageStore(File dir, StoreConfig config, ScheduledExecutorService scheduler,
+                           ScheduledExecutorService cleanerScheduler, GroupCommitter groupCommitter) throws IOException {
+        this(dir, config, scheduler, cleanerScheduler, groupCommitter, false);
+    }
+
+    private LogMessageStore(File dir, StoreConfig config, ScheduledExecutorService scheduler,
+                            ScheduledExecutorService cleanerScheduler, GroupCommitter groupCommitter,
+                            boolean ownsSchedulers) throws IOException {
+        this.log = CommitLog.open(dir, config);
+        this.groupCommitter = groupCommitter;
+        this.committer = groupCommitter.register(log, config);
+        this.cursorFile = new File(dir, CURSOR_FILE);
+        this.cursor = Math.min(Math.max(readCursor(), log.startOffset()), log.nextOffset());
+
+        this.scheduler = scheduler;
+        this.cleanerScheduler = cleanerScheduler;
+        this.ownsSchedulers = ownsSchedulers;
+        this.cleaner = new LogCleaner(log, config, cleanerScheduler);
+        long interval = config.getCheckpointIntervalMs();
+        this.checkpointTask = scheduler.scheduleWithFixedDelay(this::checkpointQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public CommitLog log() {
+        return log;
+    }
+
+    @Override
+    public CompletableFuture<Void> append(ByteBuf record) {
+        return committer.submit(Collections.singletonList(record));
+    }
+
+    @Override
+    public CompletableFuture<Void> appendAll(List<ByteBuf> records) {
+        return committer.submit(new ArrayList<>(records));
+    }
+
+    @Override
+    public ByteBuf poll() {
+        List<ByteBuf> batch = drain(1, Long.MAX_VALUE);
+        return batch.isEmpty() ? null : batch.get(0);
+    }
+
+    @Override
+    public synchronized List<ByteBuf> drain(int maxMessages, long maxBytes) {
+        if (cursor >= log.nextOffset()) {
+            return Collections.emptyList();
+        }
+        List<ByteBuf> batch = new ArrayList<>(Math.min(maxMessages, 64));
+        try {
+            cursor = log.read(cursor, maxMessages, maxBytes, batch);
+        } catch (IOException e) {
+            for (ByteBuf record : batch) {
+                record.release();
+            }
+            throw new UncheckedIOException(e);
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return cursor >= log.nextOffset();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public FileRegion readRegion(long offset, long maxBytes) {
+        try {
+            return log.readRegion(offset, maxBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out) {
+        int start = out.size();
+        try {
+            return log.read(offset, maxMessages, maxBytes, out);
+        } catch (IOException e) {
+            for (int i = out.size() - 1; i >= start; i--) {
+                out.remove(i).release();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long startOffset() {
+        return log.startOffset();
+    }
+
+    @Override
+    public long nextOffset() {
+        return log.nextOffset();
+    }
+
+    private long readCursor() throws IOException {
+        if (!cursorFile.exists()) {
+            return 0L;
+        }
+        byte[] data = Files.readAllBytes(cursorFile.toPath());
+        if (data.length != 8) {
+            logger.warn("Ignoring corrupt cursor file {}", cursorFile);
+            return 0L;
+        }
+        return ByteBuffer.wrap(data).getLong();
+    }
+
+    /**
+     * 把消费位点写入临时文件后原子替换
+     */
+    void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            checkpoint(cursor);
+        }
+    }
+
+    private void checkpoint(long position) throws IOException {
+        if (position == checkpointed) {
+            return;
+        }
+        File tmp = new File(cursorFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.allocate(8);
+            data.putLong(position);
+            ((Buffer) data).flip();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), cursorFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpointed = position;
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            logger.warn("Failed to checkpoint consumer offset", e);
+        }
+        try {
+            log.checkpoint();
+        } catch (IOException e) {
+            logger.warn("Failed to checkpoint commit log", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        committer.close();
+        cleaner.close();
+        checkpointTask.cancel(false);
+        if (ownsSchedulers) {
+            groupCommitter.close();
+            scheduler.shutdown();
+            cleanerScheduler.shutdown();
+        }
+        try {
+            checkpoint();
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package com.swiftq.broker.store;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * 日志段：一个只追加的日志文件加一个稀疏索引文件
+ * 文件以段的起始 offset 命名，如 00000000000000000000.log / .index
+ *
+ * 日志项格式: [int64 offset][int32 crc][record]
+ * record 为带 4 字节长度前缀的已编码消息，crc 覆盖整个 record
+ *
+ * 只有一个写线程；读线程只读取已发布的 size 之前的数据
+ *
+ * 段封存后以只读方式映射到内存，读取直接切片映射区域，数据从页缓存写入 socket，不经过堆；
+ * 映射在 MappedByteBuffer 被回收时解除，段文件删除后仍在发送中的切片不受影响
+ *
+ * 段带引用计数：发送中的文件区域持有一个引用，关闭与删除等到最后一个区域释放后才真正执行
+ */
+final class LogSegment implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LogSegment.class);
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".index";
+
+    // offset + crc
+    static final int ENTRY_HEADER_SIZE = BinaryCodec.ENTRY_HEADER_SIZE;
+    // 日志项头加上 record 的长度前缀
+    static final int ENTRY_OVERHEAD = ENTRY_HEADER_SIZE + 4;
+
+    // 单次读取的字节数范围
+    private static final int MIN_READ_BYTES = 64 * 1024;
+    private static final int MAX_READ_BYTES = 4 * 1024 * 1024;
+
+    private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+    private final long baseOffset;
+    private final File logFile;
+    private final File indexFile;
+    private final FileChannel channel;
+    private final OffsetIndex index;
+    private final int indexIntervalBytes;
+    private final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    // 封存后的只读映射视图，未封存时为 null
+    private volatile ByteBuf mapped;
+
+    // 已写入并对读线程可见的字节数
+    private volatile int size;
+    // 已 fsync 的字节数，作为恢复检查点
+    private volatile int syncedSize;
+    private volatile long nextOffset;
+    private int bytesSinceLastIndex;
+
+    // 段自身持有一个引用，close 时放弃；发送中的文件区域各持有一个
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+    private volatile boolean closed;
+    private volatile boolean deleteOnRelease;
+    // 写入失败且未能截回时置位，之后的追加直接失败
+    private volatile boolean failed;
+
+    private LogSegment(long baseOffset, File dir, FileChannel channel, OffsetIndex index, int indexIntervalBytes) {
+        this.baseOffset = baseOffset;
+        this.logFile = new File(dir, fileName(baseOffset, LOG_SUFFIX));
+        this.indexFile = new File(dir, fileName(baseOffset, INDEX_SUFFIX));
+        this.channel = channel;
+        this.index = index;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.nextOffset = baseOffset;
+    }
+
+    static String fileName(long baseOffset, String suffix) {
+        return String.format("%020d%s", baseOffset, suffix);
+    }
+
+    /**
+     * 打开（或创建）一个段，载入已有索引，不扫描日志
+     * 可能未正常关闭的最后一个段需要再调用 {@link #recover(int)}；缺少索引的段需要调用 {@link #rebuildIndex()}
+     */
+    static LogSegment open(File dir, long baseOffset, StoreConfig config) throws IOException {
+        File logFile = new File(dir, fileName(baseOffset, LOG_SUFFIX));
+        File indexFile = new File(dir, fileName(baseOffset, INDEX_SUFFIX));
+
+        FileChannel channel = FileChannel.open(logFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        OffsetIndex index = null;
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment too large: " + logFile);
+            }
+            index = OffsetIndex.open(indexFile, baseOffset);
+            LogSegment segment = new LogSegment(baseOffset, dir, channel, index, config.getIndexIntervalBytes());
+            segment.size = (int) channel.size();
+            if (index.lastPosition() >= segment.size) {
+                // 索引指向日志末尾之外，不可信
+                index.reset();
+            }
+            channel.position(segment.size);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            if (index != null) {
+                index.close();
+            }
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 恢复可能未正常关闭的段：trustedBytes 之前的数据已确认落盘，直接信任；
+     * 其后的日志项逐条校验 crc，并补齐索引，截掉不完整或损坏的尾部
+     */
+    void recover(int trustedBytes) throws IOException {
+        int start = index.truncateTo(Math.min(trustedBytes, size));
+        long expected = baseOffset;
+        if (start > 0) {
+            expected = readEntryHeader(start).getLong(0);
+        }
+        int sinceIndex = index.entries() == 0 ? indexIntervalBytes : 0;
+        ScanResult result = scan(start, expected, sinceIndex, true, true);
+
+        if (result.position < channel.size()) {
+            channel.truncate(result.position);
+        }
+        channel.position(result.position);
+        channel.force(false);
+        this.bytesSinceLastIndex = result.sinceIndex;
+        this.size = result.position;
+        this.syncedSize = result.position;
+        this.nextOffset = result.nextOffset;
+    }
+
+    boolean needsIndex() {
+        return size > 0 && index.entries() == 0;
+    }
+
+    /**
+     * 为已封存的段重建索引，不校验 crc
+     * 可以在段对外提供读取后在后台执行：重建期间查找退化为从段首扫描
+     */
+    void rebuildIndex() throws IOException {
+        scan(0, baseOffset, indexIntervalBytes, false, true);
+        index.flush();
+    }
+
+    /**
+     * 从 position 开始逐条扫描日志项，到第一个无效日志项或末尾为止
+     */
+    private ScanResult scan(int position, long expected, int sinceIndex, boolean verifyCrc, boolean buildIndex)
+            throws IOException {
+        int end = size;
+        ByteBuf view = mapped;
+        while (position + ENTRY_OVERHEAD <= end) {
+            long offset;
+            int checksum;
+            int recordSize;
+            if (view != null) {
+                offset = view.getLong(position);
+                checksum = view.getInt(position + 8);
+                recordSize = view.getInt(position + ENTRY_HEADER_SIZE);
+            } else {
+                ByteBuffer entryHeader = readEntryHeader(position);
+                offset = entryHeader.getLong(0);
+                checksum = entryHeader.getInt(8);
+                recordSize = entryHeader.getInt(ENTRY_HEADER_SIZE);
+            }
+            long entrySize = (long) ENTRY_OVERHEAD + recordSize;
+            if (offset < expected || recordSize < 0 || position + entrySize > end) {
+                break;
+            }
+            if (verifyCrc && checksum != checksumAt(position + ENTRY_HEADER_SIZE, 4 + recordSize)) {
+                break;
+            }
+            if (buildIndex && sinceIndex >= indexIntervalBytes) {
+                index.append(offset, position);
+                sinceIndex = 0;
+            }
+            sinceIndex += (int) entrySize;
+            position += (int) entrySize;
+            expected = offset + 1;
+        }
+        return new ScanResult(position, expected, sinceIndex);
+    }
+
+    private static final class ScanResult {
+        final int position;
+        final long nextOffset;
+        final int sinceIndex;
+
+        ScanResult(int position, long nextOffset, int sinceIndex) {
+            this.position = position;
+            this.nextOffset = nextOffset;
+            this.sinceIndex = sinceIndex;
+        }
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @return 写入的字节数
+     */
+    int append(long offset, ByteBuf record) throws IOException {
+        return append(offset, Collections.singletonList(record));
+    }
+
+    /**
+     * 追加一组 offset 连续的记录，全部写入后才对读线程可见
+     * 任一条写入失败时截回写入前的位置再抛出，不留下部分写入的日志项；截断也失败时段不再接受追加
+     *
+     * @return 写入的字节数
+     */
+    int append(long firstOffset, List<ByteBuf> records) throws IOException {
+        if (failed) {
+            throw new IOException("Segment " + logFile + " is unwritable after a failed rollback");
+        }
+        int start = size;
+        int sinceIndex = bytesSinceLastIndex;
+        int position = start;
+        long offset = firstOffset;
+        try {
+            for (ByteBuf record : records) {
+                position += write(offset++, record, position);
+            }
+        } catch (IOException e) {
+            rollback(start, sinceIndex, e);
+            throw e;
+        }
+        nextOffset = offset;
+        size = position;
+        return position - start;
+    }
+
+    private int write(long offset, ByteBuf record, int position) throws IOException {
+        int recordSize = record.readableBytes();
+
+        // 通过 Buffer 调用：在 JDK 9 及以上编译时不会链接到 Java 8 中不存在的 ByteBuffer 协变方法
+        ((Buffer) header).clear();
+        header.putLong(offset).putInt(checksum(record));
+        ((Buffer) header).flip();
+        ByteBuffer[] body = record.nioBuffers();
+        ByteBuffer[] srcs = new ByteBuffer[body.length + 1];
+        srcs[0] = header;
+        System.arraycopy(body, 0, srcs, 1, body.length);
+
+        long remaining = ENTRY_HEADER_SIZE + (long) recordSize;
+        while (remaining > 0) {
+            remaining -= channel.write(srcs);
+        }
+
+        if (bytesSinceLastIndex >= indexIntervalBytes || position == 0) {
+            index.append(offset, position);
+            bytesSinceLastIndex = 0;
+        }
+        int entrySize = ENTRY_HEADER_SIZE + recordSize;
+        bytesSinceLastIndex += entrySize;
+        return entrySize;
+    }
+
+    /**
+     * 截掉 position 之后未发布的数据与索引项，通道回到 position 继续追加
+     */
+    private void rollback(int position, int sinceIndex, IOException cause) {
+        try {
+            index.truncateTo(position - 1);
+            channel.truncate(position);
+            channel.position(position);
+            bytesSinceLastIndex = sinceIndex;
+        } catch (IOException e) {
+            failed = true;
+            cause.addSuppressed(e);
+            logger.error("Failed to roll back segment {} to {}, refusing further appends", logFile, position, e);
+        }
+    }
+
+    /**
+     * 从 offset（或其后第一条存在的记录）开始读取，记录追加到 out
+     *
+     * @return 下一条待读记录的 offset；没有读到任何记录时返回传入的 offset
+     */
+    long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out) throws IOException {
+        ByteBuf view = mapped;
+        if (view != null) {
+            return readMapped(view, offset, maxMessages, maxBytes, out);
+        }
+        int end = size;
+        int position = seek(offset, end);
+        long next = offset;
+        int taken = 0;
+        long bytes = 0;
+        int need = 0;
+
+        while (position < end && taken < maxMessages && bytes < maxBytes) {
+            if (need == 0 && maxMessages - taken == 1) {
+                // 只剩一条要读时按长度前缀读取，返回的切片不会占住一整块读缓冲
+                need = ENTRY_OVERHEAD + readEntryHeader(position).getInt(ENTRY_HEADER_SIZE);
+            }
+            int chunkSize = need > 0 && maxMessages - taken == 1
+                    ? Math.min(end - position, need)
+                    : (int) Math.min(end - position,
+                            Math.max(need, Math.max(MIN_READ_BYTES, Math.min(maxBytes - bytes, MAX_READ_BYTES))));
+            ByteBuf chunk = ALLOC.directBuffer(chunkSize);
+            try {
+                readFully(chunk, position, chunkSize);
+                int parsed = 0;
+                while (chunk.readableBytes() >= ENTRY_OVERHEAD && taken < maxMessages && bytes < maxBytes) {
+                    int i = chunk.readerIndex();
+                    int recordSize = chunk.getInt(i + ENTRY_HEADER_SIZE);
+                    int entrySize = ENTRY_OVERHEAD + recordSize;
+                    if (chunk.readableBytes() < entrySize) {
+                        need = entrySize;
+                        break;
+                    }
+                    out.add(chunk.retainedSlice(i + ENTRY_HEADER_SIZE, 4 + recordSize));
+                    next = chunk.getLong(i) + 1;
+                    chunk.skipBytes(entrySize);
+                    position += entrySize;
+                    bytes += 4 + recordSize;
+                    taken++;
+                    parsed++;
+                }
+                if (parsed == 0 && need == 0) {
+                    // 剩余数据不足一个日志项头，不应出现在已发布范围内
+                    break;
+                }
+                if (parsed > 0) {
+                    need = 0;
+                }
+            } finally {
+                chunk.release();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 从映射区域读取：记录是映射视图的保留切片，不发生拷贝
+     */
+    private long readMapped(ByteBuf view, long offset, int maxMessages, long maxBytes, List<ByteBuf> out) {
+        int end = size;
+        int position = seekMapped(view, offset, end);
+        long next = offset;
+        int taken = 0;
+        long bytes = 0;
+        while (position + ENTRY_OVERHEAD <= end && taken < maxMessages && bytes < maxBytes) {
+            int recordSize = view.getInt(position + ENTRY_HEADER_SIZE);
+            out.add(view.retainedSlice(position + ENTRY_HEADER_SIZE, 4 + recordSize));
+            next = view.getLong(position) + 1;
+            position += ENTRY_OVERHEAD + recordSize;
+            bytes += 4 + recordSize;
+            taken++;
+        }
+        return next;
+    }
+
+    /**
+     * 返回从 offset（或其后第一条存在的记录）开始的一段原始日志项，交给 Netty 以 sendfile 发送
+     * 区域至少包含一条完整的日志项，按 maxBytes 截断时末尾可能有一条不完整的日志项，由接收方丢弃
+     *
+     * @return 段内没有更多数据时返回 null
+     */
+    FileRegion region(long offset, long maxBytes) throws IOException {
+        int end = size;
+        ByteBuf view = mapped;
+        int position = view != null ? seekMapped(view, offset, end) : seek(offset, end);
+        if (position + ENTRY_OVERHEAD > end) {
+            return null;
+        }
+        int firstEntry = ENTRY_OVERHEAD + (view != null
+                ? view.getInt(position + ENTRY_HEADER_SIZE)
+                : readEntryHeader(position).getInt(ENTRY_HEADER_SIZE));
+        long length = Math.min(end - position, Math.max(maxBytes, firstEntry));
+        if (!retain()) {
+            return null;
+        }
+        return new SegmentRegion(position, length);
+    }
+
+    /**
+     * 基于段已打开的文件通道的区域，释放时归还段的引用，段在发送完成前不会被关闭或删除
+     */
+    private final class SegmentRegion extends DefaultFileRegion {
+
+        SegmentRegion(long position, long count) {
+            super(channel, position, count);
+        }
+
+        @Override
+        protected void deallocate() {
+            // 文件通道属于段，不在这里关闭
+            LogSegment.this.release();
+        }
+    }
+
+    /**
+     * 按顺序遍历封存段中的记录，记录是映射视图的切片，只在回调内有效
+     */
+    void forEachRecord(RecordVisitor visitor) throws IOException {
+        ByteBuf view = mapped;
+        if (view == null) {
+            return;
+        }
+        int end = size;
+        int position = 0;
+        while (position + ENTRY_OVERHEAD <= end) {
+            int recordSize = view.getInt(position + ENTRY_HEADER_SIZE);
+            if (!visitor.visit(view.getLong(position), view.slice(position + ENTRY_HEADER_SIZE, 4 + recordSize))) {
+                return;
+            }
+            position += ENTRY_OVERHEAD + recordSize;
+        }
+    }
+
+    interface RecordVisitor {
+        /**
+         * @return 返回 false 时停止遍历
+         */
+        boolean visit(long offset, ByteBuf record) throws IOException;
+    }
+
+    /**
+     * 定位第一条 offset 不小于目标的日志项
+     */
+    private int seek(long offset, int end) throws IOException {
+        int position = index.lookup(offset);
+        while (position + ENTRY_OVERHEAD <= end) {
+            ByteBuffer entryHeader = readEntryHeader(position);
+            if (entryHeader.getLong(0) >= offset) {
+                return position;
+            }
+            position += ENTRY_OVERHEAD + entryHeader.getInt(ENTRY_HEADER_SIZE);
+        }
+        return end;
+    }
+
+    private int seekMapped(ByteBuf view, long offset, int end) {
+        int position = index.lookup(offset);
+        while (position + ENTRY_OVERHEAD <= end) {
+            if (view.getLong(position) >= offset) {
+                return position;
+            }
+            position += ENTRY_OVERHEAD + view.getInt(position + ENTRY_HEADER_SIZE);
+        }
+        return end;
+    }
+
+    private ByteBuffer readEntryHeader(int position) throws IOException {
+        ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_OVERHEAD);
+        readFully(entryHeader, position);
+        return entryHeader;
+    }
+
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of segment " + logFile);
+            }
+            position += n;
+        }
+    }
+
+    private void readFully(ByteBuf dst, long position, int length) throws IOException {
+        while (length > 0) {
+            int n = dst.writeBytes(channel, position, length);
+            if (n < 0) {
+                throw new IOException("Unexpected end of segment " + logFile);
+            }
+            position += n;
+            length -= n;
+        }
+    }
+
+    private int checksum(ByteBuf record) {
+        crc.reset();
+        for (ByteBuffer buffer : record.nioBuffers()) {
+            crc.update(buffer);
+        }
+        return (int) crc.getValue();
+    }
+
+    private int checksumAt(long position, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        readFully(data, position);
+        ((Buffer) data).flip();
+        CRC32 check = new CRC32();
+        check.update(data);
+        return (int) check.getValue();
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    long nextOffset() {
+        return nextOffset;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    File logFile() {
+        return logFile;
+    }
+
+    File indexFile() {
+        return indexFile;
+    }
+
+    long lastModified() {
+        return logFile.lastModified();
+    }
+
+    /**
+     * 已封存的段不再追加，nextOffset 由下一个段的起始 offset 决定
+     * 封存后把段映射到内存供读取
+     */
+    void seal(long nextOffset) throws IOException {
+        this.nextOffset = nextOffset;
+        if (mapped == null && size > 0) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped = Unpooled.wrappedBuffer(buffer);
+        }
+    }
+
+    void flush() throws IOException {
+        int flushed = size;
+        channel.force(false);
+        index.flush();
+        syncedSize = flushed;
+    }
+
+    int syncedSize() {
+        return syncedSize;
+    }
+
+    /**
+     * 已关闭的段不再给出新的引用，即使仍有发送中的区域
+     */
+    private boolean retain() {
+        while (true) {
+            int refs = refCnt.get();
+            if (refs == 0 || closed) {
+                return false;
+            }
+            if (refCnt.compareAndSet(refs, refs + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        if (refCnt.decrementAndGet() == 0) {
+            try {
+                closeFiles();
+            } catch (IOException e) {
+                logger.warn("Failed to close segment {}", logFile, e);
+            }
+        }
+    }
+
+    /**
+     * 放弃段自身的引用；仍有发送中的区域时，文件在最后一个区域释放后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (refCnt.decrementAndGet() == 0) {
+            closeFiles();
+        }
+    }
+
+    /**
+     * 关闭并删除段文件；仍有发送中的区域时推迟到最后一个区域释放后
+     */
+    void delete() throws IOException {
+        deleteOnRelease = true;
+        close();
+    }
+
+    private void closeFiles() throws IOException {
+        ByteBuf view = mapped;
+        if (view != null) {
+            mapped = null;
+            view.release();
+        }
+        try {
+            index.close();
+        } finally {
+            channel.close();
+            if (deleteOnRelease) {
+                Files.deleteIfExists(logFile.toPath());
+                Files.deleteIfExists(indexFile.toPath());
+            }
+        }
+    }
+}
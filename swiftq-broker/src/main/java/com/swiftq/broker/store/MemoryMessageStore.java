@@ -0,0 +1,180 @@
+package com.swiftq.broker.store;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存存储，Broker 重启后消息丢失
+ * 队列有界（条数或记录字节数）时，写满后的发布以失败的 future 返回，不会无限占用堆外内存；
+ * 只占入站帧一小部分的记录入队前拷贝出来，按记录字节数计量的上限才能反映实际占用的内存
+ */
+public class MemoryMessageStore implements MessageStore {
+
+    private final BlockingQueue<ByteBuf> queue;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+
+    public MemoryMessageStore() {
+        this(new LinkedBlockingQueue<ByteBuf>());
+    }
+
+    public MemoryMessageStore(int capacity) {
+        this(new LinkedBlockingQueue<ByteBuf>(capacity));
+    }
+
+    public MemoryMessageStore(int capacity, long maxBytes) {
+        this(new LinkedBlockingQueue<ByteBuf>(capacity), maxBytes);
+    }
+
+    public MemoryMessageStore(BlockingQueue<ByteBuf> queue) {
+        this(queue, Long.MAX_VALUE);
+    }
+
+    public MemoryMessageStore(BlockingQueue<ByteBuf> queue, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid max bytes: " + maxBytes);
+        }
+        this.queue = queue;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public CompletableFuture<Void> append(ByteBuf record) {
+        if (!offer(record)) {
+            return queueFull();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 队列写满时已入队的记录保留，其余记录被释放
+     */
+    @Override
+    public CompletableFuture<Void> appendAll(List<ByteBuf> records) {
+        for (int i = 0; i < records.size(); i++) {
+            if (!offer(records.get(i))) {
+                for (int j = i + 1; j < records.size(); j++) {
+                    records.get(j).release();
+                }
+                return queueFull();
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 接管记录的引用，入队失败时释放
+     */
+    private boolean offer(ByteBuf record) {
+        int size = record.readableBytes();
+        if (bytes.addAndGet(size) > maxBytes) {
+            bytes.addAndGet(-size);
+            record.release();
+            return false;
+        }
+        ByteBuf stored = detach(record);
+        if (!queue.offer(stored)) {
+            bytes.addAndGet(-size);
+            stored.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录通常是入站帧的保留切片，入队后整个帧（一块池化内存）要等它被消费才能释放。
+     * 记录不到所在缓冲区的一半时拷贝到只有记录大小的缓冲区并释放切片，
+     * 否则一批小消息中残留的一条就会让整帧留在内存中，而上限只计了这一条的字节数
+     *
+     * @return 接管 record 的引用后返回要入队的缓冲区
+     */
+    static ByteBuf detach(ByteBuf record) {
+        ByteBuf root = record.unwrap();
+        int size = record.readableBytes();
+        if (root == null || root.capacity() < 2 * size) {
+            return record;
+        }
+        ByteBuf copy;
+        try {
+            copy = record.alloc().directBuffer(size).writeBytes(record, record.readerIndex(), size);
+        } finally {
+            record.release();
+        }
+        return copy;
+    }
+
+    static CompletableFuture<Void> queueFull() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException("Queue is full"));
+        return future;
+    }
+
+    @Override
+    public ByteBuf poll() {
+        ByteBuf record = queue.poll();
+        if (record != null) {
+            bytes.addAndGet(-record.readableBytes());
+        }
+        return record;
+    }
+
+    @Override
+    public List<ByteBuf> drain(int maxMessages, long maxBytes) {
+        List<ByteBuf> batch = new ArrayList<>(Math.min(maxMessages, 64));
+        long bytes = 0;
+        while (batch.size() < maxMessages && bytes < maxBytes) {
+            ByteBuf record = poll();
+            if (record == null) {
+                break;
+            }
+            batch.add(record);
+            bytes += record.readableBytes();
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    @Override
+    public FileRegion readRegion(long offset, long maxBytes) {
+        throw new UnsupportedOperationException("Memory store does not support reading by offset");
+    }
+
+    @Override
+    public long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out) {
+        throw new UnsupportedOperationException("Memory store does not support reading by offset");
+    }
+
+    @Override
+    public long startOffset() {
+        throw new UnsupportedOperationException("Memory store does not support reading by offset");
+    }
+
+    @Override
+    public long nextOffset() {
+        throw new UnsupportedOperationException("Memory store does not support reading by offset");
+    }
+
+    @Override
+    public void close() {
+        ByteBuf record;
+        while ((record = poll()) != null) {
+            record.release();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.swiftq.broker.store;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 消息存储
+ * 以已编码的消息记录（见 BinaryCodec）为单位存取，不解析消息内容
+ *
+ * append 接管记录的一个引用；poll / drain 返回的记录与 readRegion 返回的区域由调用方负责释放
+ * 存储 I/O 失败时抛出 {@link java.io.UncheckedIOException}，追加失败时返回的 future 异常完成
+ */
+public interface MessageStore {
+
+    /**
+     * 追加记录
+     *
+     * @return 记录对消费者可见且按存储的持久化策略落盘后完成的 future
+     */
+    CompletableFuture<Void> append(ByteBuf record);
+
+    CompletableFuture<Void> appendAll(List<ByteBuf> records);
+
+    /**
+     * 按共享消费位点取出一条记录，没有时返回 null
+     */
+    ByteBuf poll();
+
+    /**
+     * 按共享消费位点取出一批记录
+     * maxBytes 为软上限：累计记录大小达到上限后停止，因此非空批次至少包含一条记录
+     */
+    List<ByteBuf> drain(int maxMessages, long maxBytes);
+
+    boolean isEmpty();
+
+    /**
+     * 是否支持按 offset 读取
+     */
+    boolean isDurable();
+
+    /**
+     * 从指定 offset 开始取一段原始日志项（格式见 LogSegment），用于零拷贝发送，不影响共享消费位点
+     * 区域至少包含一条完整的日志项，末尾可能有一条被截断的日志项
+     *
+     * @return 没有更多数据时返回 null
+     * @throws UnsupportedOperationException 存储不支持按 offset 读取时
+     */
+    FileRegion readRegion(long offset, long maxBytes);
+
+    /**
+     * 从指定 offset 开始读取记录追加到 out，不影响共享消费位点；offset 早于日志起点时从起点开始
+     *
+     * @return 下一次读取应使用的 offset
+     * @throws UnsupportedOperationException 存储不支持按 offset 读取时
+     */
+    long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out);
+
+    /**
+     * 最早仍保留的 offset
+     *
+     * @throws UnsupportedOperationException 存储不支持按 offset 读取时
+     */
+    long startOffset();
+
+    /**
+     * 下一条追加的记录将获得的 offset
+     *
+     * @throws UnsupportedOperationException 存储不支持按 offset 读取时
+     */
+    long nextOffset();
+
+    void close();
+}
@@ -0,0 +1,161 @@
+package com.swiftq.broker.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 段内稀疏索引
+ * 每隔一定字节数记录一项 (相对 offset, 文件位置)，查找时二分定位后在日志中顺序扫描
+ *
+ * 文件格式: [int32 relativeOffset][int32 position] ...
+ * 只有段的写线程追加，读线程可以并发查找
+ */
+final class OffsetIndex implements Closeable {
+
+    static final int ENTRY_SIZE = 8;
+
+    private final long baseOffset;
+    private final FileChannel channel;
+    private final ByteBuffer entryBuffer = ByteBuffer.allocate(ENTRY_SIZE);
+
+    private int[] relativeOffsets;
+    private int[] positions;
+    private volatile int entries;
+
+    private OffsetIndex(long baseOffset, FileChannel channel, int capacity) {
+        this.baseOffset = baseOffset;
+        this.channel = channel;
+        this.relativeOffsets = new int[Math.max(16, capacity)];
+        this.positions = new int[Math.max(16, capacity)];
+    }
+
+    /**
+     * 打开索引文件并载入已有索引项，末尾不完整的索引项被截掉
+     */
+    static OffsetIndex open(File file, long baseOffset) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int count = (int) (channel.size() / ENTRY_SIZE);
+        OffsetIndex index = new OffsetIndex(baseOffset, channel, count);
+
+        ByteBuffer data = ByteBuffer.allocate(count * ENTRY_SIZE);
+        while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+            // 读满为止
+        }
+        ((Buffer) data).flip();
+        int lastPosition = -1;
+        for (int i = 0; i < count; i++) {
+            int relativeOffset = data.getInt();
+            int position = data.getInt();
+            if (position <= lastPosition) {
+                // 索引项必须严格递增，否则视为损坏，丢弃其后的内容
+                break;
+            }
+            index.relativeOffsets[i] = relativeOffset;
+            index.positions[i] = position;
+            index.entries = i + 1;
+            lastPosition = position;
+        }
+        channel.truncate((long) index.entries * ENTRY_SIZE);
+        channel.position((long) index.entries * ENTRY_SIZE);
+        return index;
+    }
+
+    void append(long offset, int position) throws IOException {
+        int n = entries;
+        if (n > 0 && position <= positions[n - 1]) {
+            return;
+        }
+        int relativeOffset = (int) (offset - baseOffset);
+
+        ((Buffer) entryBuffer).clear();
+        entryBuffer.putInt(relativeOffset).putInt(position);
+        ((Buffer) entryBuffer).flip();
+        while (entryBuffer.hasRemaining()) {
+            channel.write(entryBuffer);
+        }
+
+        if (n == relativeOffsets.length) {
+            // 先替换数组再发布 entries，读线程看到新的数量时一定能看到新数组
+            relativeOffsets = Arrays.copyOf(relativeOffsets, n * 2);
+            positions = Arrays.copyOf(positions, n * 2);
+        }
+        relativeOffsets[n] = relativeOffset;
+        positions[n] = position;
+        entries = n + 1;
+    }
+
+    /**
+     * 返回不大于 offset 的最后一个索引项的文件位置，没有时返回 0
+     */
+    int lookup(long offset) {
+        int n = entries;
+        int[] offsets = relativeOffsets;
+        int[] pos = positions;
+        long target = offset - baseOffset;
+
+        int low = 0;
+        int high = n - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] <= target) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : pos[found];
+    }
+
+    /**
+     * 丢弃文件位置大于 position 的索引项
+     * 在段对外提供读取之前调用，或只丢弃指向未发布数据的索引项
+     *
+     * @return 剩余最后一个索引项的文件位置，没有时返回 0
+     */
+    int truncateTo(int position) throws IOException {
+        int n = entries;
+        while (n > 0 && positions[n - 1] > position) {
+            n--;
+        }
+        entries = n;
+        channel.truncate((long) n * ENTRY_SIZE);
+        channel.position((long) n * ENTRY_SIZE);
+        return n > 0 ? positions[n - 1] : 0;
+    }
+
+    int lastPosition() {
+        int n = entries;
+        return n > 0 ? positions[n - 1] : -1;
+    }
+
+    /**
+     * 清空索引，用于重建
+     */
+    void reset() throws IOException {
+        entries = 0;
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    void flush() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,197 @@
+package com.swiftq.broker.store;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按消息优先级投递的内存存储，Broker 重启后消息丢失
+ *
+ * 每个优先级（1-10，超出范围的按边界处理）一个无锁 FIFO，同一优先级内保持发布顺序；
+ * 取出时比较各级队首的有效优先级：基础优先级加上每等待 agingMs 提升的一级，取最高者，
+ * 相同时取基础优先级高的。低优先级消息等待足够久后会排到新到的高优先级消息之前，不会被饿死
+ *
+ * 队首比较只涉及固定的 10 个队列，追加与取出都是 O(1)；条数或记录字节数达到上限后发布失败。
+ * 与 {@link MemoryMessageStore} 一样，只占入站帧一小部分的记录入队前拷贝出来
+ */
+public class PriorityMessageStore implements MessageStore {
+
+    public static final int MIN_PRIORITY = 1;
+    public static final int MAX_PRIORITY = 10;
+
+    private final ConcurrentLinkedQueue<Entry>[] buckets;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final int capacity;
+    private final long maxBytes;
+    private final long agingNanos;
+
+    @SuppressWarnings("unchecked")
+    public PriorityMessageStore(int capacity, long maxBytes, long agingMs) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid max bytes: " + maxBytes);
+        }
+        if (agingMs <= 0) {
+            throw new IllegalArgumentException("Invalid aging interval: " + agingMs);
+        }
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMs);
+        this.buckets = new ConcurrentLinkedQueue[MAX_PRIORITY - MIN_PRIORITY + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> append(ByteBuf record) {
+        if (!offer(record)) {
+            record.release();
+            return MemoryMessageStore.queueFull();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 队列写满时已入队的记录保留，其余记录被释放
+     */
+    @Override
+    public CompletableFuture<Void> appendAll(List<ByteBuf> records) {
+        for (int i = 0; i < records.size(); i++) {
+            if (!offer(records.get(i))) {
+                for (int j = i; j < records.size(); j++) {
+                    records.get(j).release();
+                }
+                return MemoryMessageStore.queueFull();
+            }
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private boolean offer(ByteBuf record) {
+        int length = record.readableBytes();
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        if (bytes.addAndGet(length) > maxBytes) {
+            bytes.addAndGet(-length);
+            size.decrementAndGet();
+            return false;
+        }
+        int priority = Math.max(MIN_PRIORITY, Math.min(MAX_PRIORITY, BinaryCodec.recordPriority(record)));
+        buckets[priority - MIN_PRIORITY].offer(new Entry(MemoryMessageStore.detach(record), System.nanoTime()));
+        return true;
+    }
+
+    @Override
+    public ByteBuf poll() {
+        while (size.get() > 0) {
+            long now = System.nanoTime();
+            int best = -1;
+            long bestPriority = Long.MIN_VALUE;
+            // 从高到低比较，有效优先级相同时保留先看到的高优先级
+            for (int i = buckets.length - 1; i >= 0; i--) {
+                Entry head = buckets[i].peek();
+                if (head == null) {
+                    continue;
+                }
+                long effective = i + (now - head.enqueuedAt) / agingNanos;
+                if (effective > bestPriority) {
+                    bestPriority = effective;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                // 追加方已计数但尚未入队，入队后会唤醒等待者
+                return null;
+            }
+            // 并发消费者可能已取走该队首，此时重新比较
+            Entry entry = buckets[best].poll();
+            if (entry != null) {
+                size.decrementAndGet();
+                bytes.addAndGet(-entry.record.readableBytes());
+                return entry.record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<ByteBuf> drain(int maxMessages, long maxBytes) {
+        List<ByteBuf> batch = new ArrayList<>(Math.min(maxMessages, 64));
+        long bytes = 0;
+        while (batch.size() < maxMessages && bytes < maxBytes) {
+            ByteBuf record = poll();
+            if (record == null) {
+                break;
+            }
+            batch.add(record);
+            bytes += record.readableBytes();
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    @Override
+    public FileRegion readRegion(long offset, long maxBytes) {
+        throw new UnsupportedOperationException("Priority store does not support reading by offset");
+    }
+
+    @Override
+    public long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out) {
+        throw new UnsupportedOperationException("Priority store does not support reading by offset");
+    }
+
+    @Override
+    public long startOffset() {
+        throw new UnsupportedOperationException("Priority store does not support reading by offset");
+    }
+
+    @Override
+    public long nextOffset() {
+        throw new UnsupportedOperationException("Priority store does not support reading by offset");
+    }
+
+    @Override
+    public void close() {
+        for (ConcurrentLinkedQueue<Entry> bucket : buckets) {
+            Entry entry;
+            while ((entry = bucket.poll()) != null) {
+                size.decrementAndGet();
+                bytes.addAndGet(-entry.record.readableBytes());
+                entry.record.release();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final ByteBuf record;
+        final long enqueuedAt;
+
+        Entry(ByteBuf record, long enqueuedAt) {
+            this.record = record;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.swiftq.broker.store;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 日志存储配置
+ */
+public class StoreConfig {
+
+    private final int segmentBytes;
+    private final int indexIntervalBytes;
+    private final long checkpointIntervalMs;
+    private final FsyncPolicy fsyncPolicy;
+    private final Map<String, FsyncPolicy> topicFsyncPolicies;
+    private final long fsyncIntervalMs;
+    private final int groupCommitBytes;
+    private final long groupCommitLingerMs;
+    private final long retentionMs;
+    private final long retentionBytes;
+    private final Map<String, Long> topicRetentionMs;
+    private final Map<String, Long> topicRetentionBytes;
+    private final Map<String, String> topicCompactionKeys;
+    private final long cleanupIntervalMs;
+    private final long cleanerBytesPerSecond;
+    private final long fileDeleteDelayMs;
+
+    public StoreConfig(Builder builder) {
+        this.segmentBytes = builder.segmentBytes;
+        this.indexIntervalBytes = builder.indexIntervalBytes;
+        this.checkpointIntervalMs = builder.checkpointIntervalMs;
+        this.fsyncPolicy = builder.fsyncPolicy;
+        this.topicFsyncPolicies = Collections.unmodifiableMap(new HashMap<>(builder.topicFsyncPolicies));
+        this.fsyncIntervalMs = builder.fsyncIntervalMs;
+        this.groupCommitBytes = builder.groupCommitBytes;
+        this.groupCommitLingerMs = builder.groupCommitLingerMs;
+        this.retentionMs = builder.retentionMs;
+        this.retentionBytes = builder.retentionBytes;
+        this.topicRetentionMs = Collections.unmodifiableMap(new HashMap<>(builder.topicRetentionMs));
+        this.topicRetentionBytes = Collections.unmodifiableMap(new HashMap<>(builder.topicRetentionBytes));
+        this.topicCompactionKeys = Collections.unmodifiableMap(new HashMap<>(builder.topicCompactionKeys));
+        this.cleanupIntervalMs = builder.cleanupIntervalMs;
+        this.cleanerBytesPerSecond = builder.cleanerBytesPerSecond;
+        this.fileDeleteDelayMs = builder.fileDeleteDelayMs;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int segmentBytes = 128 * 1024 * 1024;
+        private int indexIntervalBytes = 4096;
+        private long checkpointIntervalMs = 1000;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+        private final Map<String, FsyncPolicy> topicFsyncPolicies = new HashMap<>();
+        private long fsyncIntervalMs = 1000;
+        private int groupCommitBytes = 1024 * 1024;
+        private long groupCommitLingerMs = 0;
+        private long retentionMs = -1;
+        private long retentionBytes = -1;
+        private final Map<String, Long> topicRetentionMs = new HashMap<>();
+        private final Map<String, Long> topicRetentionBytes = new HashMap<>();
+        private final Map<String, String> topicCompactionKeys = new HashMap<>();
+        private long cleanupIntervalMs = 30000;
+        private long cleanerBytesPerSecond = 16 * 1024 * 1024;
+        private long fileDeleteDelayMs = 60000;
+
+        /**
+         * 单个段文件的大小上限，写满后滚动到新段
+         */
+        public Builder segmentBytes(int segmentBytes) {
+            if (segmentBytes < 1024) {
+                throw new IllegalArgumentException("Segment too small: " + segmentBytes);
+            }
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * 稀疏索引的间隔：每写入这么多字节记录一个索引项
+         */
+        public Builder indexIntervalBytes(int indexIntervalBytes) {
+            if (indexIntervalBytes <= 0) {
+                throw new IllegalArgumentException("Invalid index interval: " + indexIntervalBytes);
+            }
+            this.indexIntervalBytes = indexIntervalBytes;
+            return this;
+        }
+
+        /**
+         * 消费位点落盘的间隔
+         */
+        public Builder checkpointIntervalMs(long checkpointIntervalMs) {
+            this.checkpointIntervalMs = checkpointIntervalMs;
+            return this;
+        }
+
+        /**
+         * 默认的持久化策略
+         */
+        public Builder fsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        /**
+         * 为指定 topic 单独设置持久化策略
+         */
+        public Builder fsyncPolicy(String topic, FsyncPolicy fsyncPolicy) {
+            this.topicFsyncPolicies.put(topic, fsyncPolicy);
+            return this;
+        }
+
+        /**
+         * INTERVAL 策略下后台 fsync 的间隔
+         */
+        public Builder fsyncIntervalMs(long fsyncIntervalMs) {
+            if (fsyncIntervalMs <= 0) {
+                throw new IllegalArgumentException("Invalid fsync interval: " + fsyncIntervalMs);
+            }
+            this.fsyncIntervalMs = fsyncIntervalMs;
+            return this;
+        }
+
+        /**
+         * 组提交阈值：一个批次最多合并 maxBytes 字节；
+         * 批次中有需要 fsync 的发布且未达到 maxBytes 时，最多再等待 lingerMs 毫秒收集后续发布
+         */
+        public Builder groupCommit(int maxBytes, long lingerMs) {
+            if (maxBytes <= 0 || lingerMs < 0) {
+                throw new IllegalArgumentException("Invalid group commit: maxBytes=" + maxBytes + ", lingerMs=" + lingerMs);
+            }
+            this.groupCommitBytes = maxBytes;
+            this.groupCommitLingerMs = lingerMs;
+            return this;
+        }
+
+        /**
+         * 默认的保留策略：超过 retentionMs 的段或使日志总大小超过 retentionBytes 的最旧段被整段删除，-1 表示不限制
+         */
+        public Builder retention(long retentionMs, long retentionBytes) {
+            this.retentionMs = retentionMs;
+            this.retentionBytes = retentionBytes;
+            return this;
+        }
+
+        /**
+         * 为指定 topic 单独设置保留策略
+         */
+        public Builder retention(String topic, long retentionMs, long retentionBytes) {
+            this.topicRetentionMs.put(topic, retentionMs);
+            this.topicRetentionBytes.put(topic, retentionBytes);
+            return this;
+        }
+
+        /**
+         * 指定 topic 按键压缩：键取自消息的 keyTag 标签，同一个键只保留最新的一条消息，没有该标签的消息不受影响
+         */
+        public Builder compact(String topic, String keyTag) {
+            if (keyTag == null || keyTag.isEmpty()) {
+                throw new IllegalArgumentException("Compaction key tag is required for topic " + topic);
+            }
+            this.topicCompactionKeys.put(topic, keyTag);
+            return this;
+        }
+
+        /**
+         * 后台清理（保留与压缩）的执行间隔
+         */
+        public Builder cleanupIntervalMs(long cleanupIntervalMs) {
+            if (cleanupIntervalMs <= 0) {
+                throw new IllegalArgumentException("Invalid cleanup interval: " + cleanupIntervalMs);
+            }
+            this.cleanupIntervalMs = cleanupIntervalMs;
+            return this;
+        }
+
+        /**
+         * 压缩线程的 I/O 带宽上限（字节/秒）
+         */
+        public Builder cleanerBytesPerSecond(long cleanerBytesPerSecond) {
+            if (cleanerBytesPerSecond <= 0) {
+                throw new IllegalArgumentException("Invalid cleaner bandwidth: " + cleanerBytesPerSecond);
+            }
+            this.cleanerBytesPerSecond = cleanerBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * 被删除或被压缩替换的段延迟这么久才关闭，让仍在读取的请求完成
+         */
+        public Builder fileDeleteDelayMs(long fileDeleteDelayMs) {
+            this.fileDeleteDelayMs = fileDeleteDelayMs;
+            return this;
+        }
+
+        public StoreConfig build() {
+            return new StoreConfig(this);
+        }
+    }
+
+    // Getters
+    public int getSegmentBytes() { return segmentBytes; }
+    public int getIndexIntervalBytes() { return indexIntervalBytes; }
+    public long getCheckpointIntervalMs() { return checkpointIntervalMs; }
+    public FsyncPolicy getFsyncPolicy() { return fsyncPolicy; }
+    public Map<String, FsyncPolicy> getTopicFsyncPolicies() { return topicFsyncPolicies; }
+    public long getFsyncIntervalMs() { return fsyncIntervalMs; }
+    public int getGroupCommitBytes() { return groupCommitBytes; }
+    public long getGroupCommitLingerMs() { return groupCommitLingerMs; }
+    public long getRetentionMs() { return retentionMs; }
+    public long getRetentionBytes() { return retentionBytes; }
+    public Map<String, Long> getTopicRetentionMs() { return topicRetentionMs; }
+    public Map<String, Long> getTopicRetentionBytes() { return topicRetentionBytes; }
+    public Map<String, String> getTopicCompactionKeys() { return topicCompactionKeys; }
+    public long getCleanupIntervalMs() { return cleanupIntervalMs; }
+    public long getCleanerBytesPerSecond() { return cleanerBytesPerSecond; }
+    public long getFileDeleteDelayMs() { return fileDeleteDelayMs; }
+
+    /**
+     * 单个 topic 独占日志时使用的配置：该 topic 的覆盖值成为默认值
+     */
+    public StoreConfig forTopic(String topic) {
+        Builder builder = builder()
+                .segmentBytes(segmentBytes)
+                .indexIntervalBytes(indexIntervalBytes)
+                .checkpointIntervalMs(checkpointIntervalMs)
+                .fsyncPolicy(fsyncPolicyFor(topic))
+                .fsyncIntervalMs(fsyncIntervalMs)
+                .groupCommit(groupCommitBytes, groupCommitLingerMs)
+                .retention(retentionMsFor(topic), retentionBytesFor(topic))
+                .cleanupIntervalMs(cleanupIntervalMs)
+                .cleanerBytesPerSecond(cleanerBytesPerSecond)
+                .fileDeleteDelayMs(fileDeleteDelayMs);
+        String keyTag = compactionKeyFor(topic);
+        if (keyTag != null) {
+            builder.compact(topic, keyTag);
+        }
+        return builder.build();
+    }
+
+    public FsyncPolicy fsyncPolicyFor(String topic) {
+        FsyncPolicy policy = topic != null ? topicFsyncPolicies.get(topic) : null;
+        return policy != null ? policy : fsyncPolicy;
+    }
+
+    public long retentionMsFor(String topic) {
+        Long value = topic != null ? topicRetentionMs.get(topic) : null;
+        return value != null ? value : retentionMs;
+    }
+
+    public long retentionBytesFor(String topic) {
+        Long value = topic != null ? topicRetentionBytes.get(topic) : null;
+        return value != null ? value : retentionBytes;
+    }
+
+    /**
+     * @return topic 不压缩时返回 null
+     */
+    public String compactionKeyFor(String topic) {
+        return topic != null ? topicCompactionKeys.get(topic) : null;
+    }
+}
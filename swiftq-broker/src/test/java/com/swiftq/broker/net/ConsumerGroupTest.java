@@ -0,0 +1,262 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.store.MessageStore;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsumerGroupTest {
+
+    private FakeTopics topics;
+
+    @Before
+    public void setUp() throws IOException {
+        topics = new FakeTopics();
+        topics.add("orders", 4, 10);
+        topics.add("audit", 2, 10);
+    }
+
+    @After
+    public void tearDown() {
+        topics.close();
+    }
+
+    @Test
+    public void rebalancesWhenMembersJoinAndLeave() {
+        ConsumerGroup group = newGroup();
+        ConsumerGroup.Member a = group.join(Collections.singletonList("orders"));
+        assertEquals(4, a.assignment().size());
+
+        ConsumerGroup.Member b = group.join(Collections.singletonList("orders"));
+        assertEquals(2, a.assignment().size());
+        assertEquals(2, b.assignment().size());
+        Set<DeliveryQueue> all = new HashSet<>(a.assignment());
+        all.addAll(b.assignment());
+        // 每个分区只属于一个成员
+        assertEquals(new HashSet<>(topics.existing("orders").partitions()), all);
+
+        a.leave();
+        assertEquals(4, b.assignment().size());
+    }
+
+    @Test
+    public void partitionsGoOnlyToSubscribers() {
+        ConsumerGroup group = newGroup();
+        ConsumerGroup.Member a = group.join(Arrays.asList("orders", "audit"));
+        ConsumerGroup.Member b = group.join(Collections.singletonList("audit"));
+        for (DeliveryQueue partition : b.assignment()) {
+            assertEquals("audit", partition.topic());
+        }
+        assertEquals(6, a.assignment().size() + b.assignment().size());
+    }
+
+    @Test
+    public void newOwnerResumesFromCommittedOffset() {
+        topics.add("single", 1, 10);
+        ConsumerGroup group = newGroup();
+        ConsumerGroup.Member a = group.join(Collections.singletonList("single"));
+        assertRecords(a.read(3, Long.MAX_VALUE), 0, 3);
+        a.commit();
+        // 读到但未提交的记录在分区换了成员后再次投递
+        assertRecords(a.read(2, Long.MAX_VALUE), 3, 2);
+
+        ConsumerGroup.Member b = group.join(Collections.singletonList("single"));
+        a.leave();
+        assertEquals(1, b.assignment().size());
+        assertRecords(b.read(10, Long.MAX_VALUE), 3, 7);
+    }
+
+    @Test
+    public void readIsDiscardedWhenOwnershipChangesMidRead() {
+        ListStore store = topics.add("single", 1, 10)[0];
+        ConsumerGroup group = newGroup();
+        ConsumerGroup.Member a = group.join(Collections.singletonList("single"));
+        ConsumerGroup.Member b = group.join(Collections.singletonList("single"));
+        assertEquals(1, a.assignment().size());
+
+        // 存储读取在组锁外进行，期间分区换给了 b
+        store.onRead = a::leave;
+        assertTrue(a.read(5, Long.MAX_VALUE).isEmpty());
+        store.onRead = null;
+        // 丢弃的记录已释放，存储中的原记录不受影响
+        assertEquals(1, store.records.get(0).refCnt());
+
+        assertRecords(b.read(5, Long.MAX_VALUE), 0, 5);
+    }
+
+    @Test
+    public void readFillsRecordPartitions() {
+        ConsumerGroup group = newGroup();
+        ConsumerGroup.Member a = group.join(Collections.singletonList("orders"));
+        int[] partitions = new int[40];
+        List<ByteBuf> records = a.read(40, Long.MAX_VALUE, partitions);
+        try {
+            assertEquals(40, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                // 记录内容是 分区 * 1000 + offset
+                assertEquals(partitions[i], records.get(i).getInt(0) / 1000);
+            }
+        } finally {
+            release(records);
+        }
+    }
+
+    private ConsumerGroup newGroup() {
+        return new ConsumerGroup("workers", topics, new HashMap<>());
+    }
+
+    /**
+     * 单分区 topic 的记录按 offset 依次排列
+     */
+    private static void assertRecords(List<ByteBuf> records, int from, int count) {
+        try {
+            assertEquals(count, records.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(from + i, records.get(i).getInt(0) % 1000);
+            }
+        } finally {
+            release(records);
+        }
+    }
+
+    private static void release(List<ByteBuf> records) {
+        for (ByteBuf record : records) {
+            record.release();
+        }
+    }
+
+    /**
+     * 不经过存储目录，直接提供测试用的 topic
+     */
+    private static final class FakeTopics extends TopicManager {
+        private final Map<String, Topic> fakeTopics = new HashMap<>();
+
+        FakeTopics() throws IOException {
+            super(BrokerConfig.builder().build());
+        }
+
+        ListStore[] add(String name, int partitionCount, int records) {
+            ListStore[] stores = new ListStore[partitionCount];
+            DeliveryQueue[] partitions = new DeliveryQueue[partitionCount];
+            for (int p = 0; p < partitionCount; p++) {
+                stores[p] = new ListStore(p, records);
+                partitions[p] = new DeliveryQueue(name, p, stores[p]);
+            }
+            fakeTopics.put(name, new Topic(name, partitions));
+            return stores;
+        }
+
+        @Override
+        public Topic existing(String name) {
+            return fakeTopics.get(name);
+        }
+
+        @Override
+        public void close() {
+            for (Topic topic : fakeTopics.values()) {
+                for (DeliveryQueue partition : topic.partitions()) {
+                    partition.store().close();
+                }
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * 只支持按 offset 读取的存储，读取时可以插入一个动作
+     */
+    private static final class ListStore implements MessageStore {
+        final List<ByteBuf> records = new ArrayList<>();
+        volatile Runnable onRead;
+
+        ListStore(int partition, int count) {
+            for (int i = 0; i < count; i++) {
+                records.add(Unpooled.buffer(4).writeInt(partition * 1000 + i));
+            }
+        }
+
+        @Override
+        public long read(long offset, int maxMessages, long maxBytes, List<ByteBuf> out) {
+            long next = offset;
+            long bytes = 0;
+            while (next < records.size() && maxMessages-- > 0 && bytes < maxBytes) {
+                ByteBuf record = records.get((int) next++);
+                bytes += record.readableBytes();
+                out.add(record.retainedDuplicate());
+            }
+            Runnable hook = onRead;
+            if (hook != null) {
+                hook.run();
+            }
+            return next;
+        }
+
+        @Override
+        public long startOffset() {
+            return 0;
+        }
+
+        @Override
+        public long nextOffset() {
+            return records.size();
+        }
+
+        @Override
+        public boolean isDurable() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            release(records);
+            records.clear();
+        }
+
+        @Override
+        public CompletableFuture<Void> append(ByteBuf record) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<Void> appendAll(List<ByteBuf> records) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ByteBuf poll() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<ByteBuf> drain(int maxMessages, long maxBytes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        @Override
+        public FileRegion readRegion(long offset, long maxBytes) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCoordinatorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private BrokerConfig config;
+    private TopicManager topics;
+    private GroupCoordinator coordinator;
+
+    @Before
+    public void setUp() throws Exception {
+        config = BrokerConfig.builder().dataDir(folder.newFolder("data").getPath()).build();
+        open();
+        Topic topic = topics.topic("orders").get();
+        for (int i = 0; i < 10; i++) {
+            topic.partition(0).offer(BinaryCodec.encodeRecord(ByteBufAllocator.DEFAULT,
+                    new Message("orders", "m" + i, 0L))).get();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        close();
+    }
+
+    @Test
+    public void committedOffsetsSurviveRestart() throws Exception {
+        ConsumerGroup.Member member = coordinator.join("workers", Collections.singletonList("orders"));
+        assertBodies(member.read(3, Long.MAX_VALUE), 0, 3);
+        member.commit();
+        // 未提交的读取在重启后再次投递
+        assertBodies(member.read(2, Long.MAX_VALUE), 3, 2);
+
+        close();
+        assertTrue(new File(new File(config.getDataDir(), GroupCoordinator.GROUPS_DIR), "workers.offsets").isFile());
+        open();
+
+        member = coordinator.join("workers", Collections.singletonList("orders"));
+        assertBodies(member.read(100, Long.MAX_VALUE), 3, 7);
+    }
+
+    @Test
+    public void groupsKeepSeparateOffsets() throws Exception {
+        ConsumerGroup.Member a = coordinator.join("workers", Collections.singletonList("orders"));
+        assertBodies(a.read(4, Long.MAX_VALUE), 0, 4);
+        a.commit();
+        coordinator.flush();
+
+        ConsumerGroup.Member b = coordinator.join("auditors", Collections.singletonList("orders"));
+        assertBodies(b.read(2, Long.MAX_VALUE), 0, 2);
+    }
+
+    @Test
+    public void joinRejectsInvalidRequests() {
+        try {
+            coordinator.join("bad/name", Collections.singletonList("orders"));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+        try {
+            coordinator.join("workers", Collections.emptyList());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // 预期
+        }
+    }
+
+    @Test
+    public void groupsRequireDurableStore() throws IOException {
+        TopicManager memory = new TopicManager(BrokerConfig.builder().build());
+        try {
+            new GroupCoordinator(memory, BrokerConfig.builder().build())
+                    .join("workers", Collections.singletonList("orders"));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // 预期
+        } finally {
+            memory.close();
+        }
+    }
+
+    private void open() throws IOException {
+        topics = new TopicManager(config);
+        coordinator = new GroupCoordinator(topics, config);
+    }
+
+    private void close() {
+        if (coordinator != null) {
+            coordinator.close();
+            topics.close();
+            coordinator = null;
+        }
+    }
+
+    private static void assertBodies(List<ByteBuf> records, int from, int count) {
+        try {
+            assertEquals(count, records.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals("m" + (from + i), BinaryCodec.decodeRecord(records.get(i)).getBody());
+            }
+        } finally {
+            for (ByteBuf record : records) {
+                record.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.common.Message;
+import com.swiftq.common.MsgState;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryRouterTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+    private TopicManager topics;
+    private RetryRouter router;
+
+    @After
+    public void tearDown() {
+        timer.stop();
+        if (router != null) {
+            router.close();
+        }
+        if (topics != null) {
+            topics.close();
+        }
+    }
+
+    @Test
+    public void retryWithoutDelayReturnsToOriginTopic() throws Exception {
+        open();
+        router.redeliver(ByteBufAllocator.DEFAULT, record("m", 0, 3), MsgState.FAILED);
+
+        Message message = awaitMessage("orders");
+        assertEquals("m", message.getBody());
+        assertEquals(1, message.getRetryCount());
+        assertEquals(MsgState.FAILED, message.getState());
+    }
+
+    @Test
+    public void exhaustedRetriesGoToDeadLetterTopic() throws Exception {
+        open();
+        router.redeliver(ByteBufAllocator.DEFAULT, record("poison", 3, 3), MsgState.TIMEOUT);
+
+        Message message = awaitMessage(RetryRouter.deadLetterTopic("orders"));
+        assertEquals("poison", message.getBody());
+        assertEquals(MsgState.DEAD_LETTER, message.getState());
+        assertNull(poll("orders"));
+    }
+
+    @Test
+    public void delayedRetryWaitsInRetryTopic() throws Exception {
+        open(200, 400);
+        long start = System.currentTimeMillis();
+        router.redeliver(ByteBufAllocator.DEFAULT, record("m", 1, 5), MsgState.FAILED);
+
+        // 第二次重试进入第二级重试 topic
+        String retryTopic = RetryRouter.retryTopic("orders", 2);
+        assertTrue(topics.existing(retryTopic) != null);
+        assertNull(poll("orders"));
+
+        Message message = awaitMessage("orders");
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(2, message.getRetryCount());
+        assertTrue(message.getTags().containsKey(RetryRouter.RETRY_AT_TAG));
+        assertTrue(topics.existing(retryTopic).partition(0).store().isEmpty());
+    }
+
+    @Test
+    public void retryTiersBeyondConfiguredDelaysUseLastDelay() throws Exception {
+        open(50);
+        router.redeliver(ByteBufAllocator.DEFAULT, record("m", 4, 10), MsgState.FAILED);
+        assertTrue(topics.existing(RetryRouter.retryTopic("orders", 1)) != null);
+        assertEquals(5, awaitMessage("orders").getRetryCount());
+    }
+
+    @Test
+    public void redriveMovesDeadLettersBackWithRetriesReset() throws Exception {
+        open();
+        for (int i = 0; i < 3; i++) {
+            router.redeliver(ByteBufAllocator.DEFAULT, record("dead-" + i, 0, 0), MsgState.FAILED);
+        }
+        assertEquals(2, (int) router.redrive(ByteBufAllocator.DEFAULT, "orders", 2).get(5, TimeUnit.SECONDS));
+
+        List<Message> redriven = new ArrayList<>();
+        Message message;
+        while ((message = poll("orders")) != null) {
+            redriven.add(message);
+        }
+        assertEquals(2, redriven.size());
+        for (Message m : redriven) {
+            assertEquals(0, m.getRetryCount());
+            assertEquals(MsgState.INIT, m.getState());
+        }
+        assertEquals(1, (int) router.redrive(ByteBufAllocator.DEFAULT, "orders", 10).get(5, TimeUnit.SECONDS));
+        assertEquals(0, (int) router.redrive(ByteBufAllocator.DEFAULT, "orders", 10).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void redriveRejectsDerivedTopics() throws Exception {
+        open();
+        for (String topic : new String[]{RetryRouter.deadLetterTopic("orders"), RetryRouter.retryTopic("orders", 1)}) {
+            try {
+                router.redrive(ByteBufAllocator.DEFAULT, topic, 1);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // 预期
+            }
+        }
+        assertEquals(0, (int) router.redrive(ByteBufAllocator.DEFAULT, "missing", 1).get());
+    }
+
+    private void open(long... retryDelaysMs) throws IOException {
+        BrokerConfig config = BrokerConfig.builder().retryDelaysMs(retryDelaysMs).build();
+        topics = new TopicManager(config);
+        router = new RetryRouter(topics, config, timer);
+    }
+
+    private Message awaitMessage(String topic) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            Message message = poll(topic);
+            if (message != null) {
+                return message;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("no message in " + topic);
+    }
+
+    private Message poll(String topic) {
+        Topic existing = topics.existing(topic);
+        if (existing == null) {
+            return null;
+        }
+        for (DeliveryQueue partition : existing.partitions()) {
+            ByteBuf record = partition.poll();
+            if (record != null) {
+                try {
+                    return BinaryCodec.decodeRecord(record);
+                } finally {
+                    record.release();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuf record(String body, int retryCount, int maxRetries) {
+        Message message = new Message("orders", body, 0L);
+        message.setRetryCount(retryCount);
+        message.setMaxRetries(maxRetries);
+        return BinaryCodec.encodeRecord(ByteBufAllocator.DEFAULT, message);
+    }
+}
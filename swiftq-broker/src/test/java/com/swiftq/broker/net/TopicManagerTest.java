@@ -0,0 +1,134 @@
+package com.swiftq.broker.net;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.broker.protocol.Partitioner;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TopicManagerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TopicManager topics;
+
+    @After
+    public void tearDown() {
+        if (topics != null) {
+            topics.close();
+        }
+    }
+
+    @Test
+    public void topicsGetConfiguredPartitionCount() throws Exception {
+        topics = new TopicManager(BrokerConfig.builder().partitions(2).partitions("orders", 4).build());
+        assertEquals(4, topics.topic("orders").get().partitionCount());
+        assertEquals(2, topics.topic("audit").get().partitionCount());
+        for (DeliveryQueue partition : topics.existing("orders").partitions()) {
+            assertEquals("orders", partition.topic());
+        }
+    }
+
+    @Test
+    public void partitionsHaveIndependentOffsets() throws Exception {
+        String dataDir = folder.newFolder("data").getPath();
+        topics = new TopicManager(BrokerConfig.builder().dataDir(dataDir).partitions(3).build());
+        Topic topic = topics.topic("orders").get();
+        for (int p = 0; p < 3; p++) {
+            for (int i = 0; i <= p; i++) {
+                topic.partition(p).offer(record("orders", null)).get();
+            }
+        }
+        for (int p = 0; p < 3; p++) {
+            assertEquals(p + 1L, topic.partition(p).store().nextOffset());
+        }
+    }
+
+    @Test
+    public void reopenKeepsPartitionsAndAllowsGrowth() throws Exception {
+        String dataDir = folder.newFolder("data").getPath();
+        topics = new TopicManager(BrokerConfig.builder().dataDir(dataDir).partitions(3).build());
+        topics.topic("orders").get().partition(2).offer(record("orders", null)).get();
+        topics.close();
+
+        // 配置变小不会丢弃磁盘上已有的分区
+        topics = new TopicManager(BrokerConfig.builder().dataDir(dataDir).partitions(1).build());
+        Topic topic = topics.existing("orders");
+        assertEquals(3, topic.partitionCount());
+        assertEquals(1L, topic.partition(2).store().nextOffset());
+        topics.close();
+
+        topics = new TopicManager(BrokerConfig.builder().dataDir(dataDir).partitions(5).build());
+        assertEquals(5, topics.existing("orders").partitionCount());
+    }
+
+    @Test
+    public void placementFollowsPartitionThenKey() throws Exception {
+        topics = new TopicManager(BrokerConfig.builder().partitions(4).build());
+        Topic topic = topics.topic("orders").get();
+        List<ByteBuf> records = new ArrayList<>();
+        try {
+            ByteBuf keyed = record("orders", "customer-7");
+            records.add(keyed);
+            DeliveryQueue expected = topic.partition(Partitioner.partitionForKey("customer-7", 4));
+            assertSame(expected, BrokerServerHandler.place(topic, keyed, -1));
+            // 请求指定的分区优先于键
+            assertSame(topic.partition(1), BrokerServerHandler.place(topic, keyed, 1));
+
+            ByteBuf unkeyed = record("orders", null);
+            records.add(unkeyed);
+            assertNull(BrokerServerHandler.place(topic, unkeyed, -1));
+        } finally {
+            for (ByteBuf record : records) {
+                record.release();
+            }
+        }
+    }
+
+    @Test
+    public void singlePartitionTopicTakesEveryRecord() throws Exception {
+        topics = new TopicManager(BrokerConfig.builder().build());
+        Topic topic = topics.topic("orders").get();
+        ByteBuf record = record("orders", null);
+        try {
+            assertSame(topic.partition(0), BrokerServerHandler.place(topic, record, -1));
+        } finally {
+            record.release();
+        }
+    }
+
+    @Test
+    public void invalidPartitionIsRejected() throws Exception {
+        topics = new TopicManager(BrokerConfig.builder().partitions(2).build());
+        Topic topic = topics.topic("orders").get();
+        for (int partition : new int[]{2, -2}) {
+            try {
+                topic.partition(partition);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // 预期
+            }
+        }
+    }
+
+    private static ByteBuf record(String topic, String key) {
+        Message message = new Message(topic, "body", 0L);
+        if (key != null) {
+            message.getTags().put(Partitioner.KEY_TAG, key);
+        }
+        return BinaryCodec.encodeRecord(ByteBufAllocator.DEFAULT, message);
+    }
+}
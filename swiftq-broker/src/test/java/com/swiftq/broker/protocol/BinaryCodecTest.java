@@ -0,0 +1,218 @@
+package com.swiftq.broker.protocol;
+
+import com.swiftq.common.Message;
+import com.swiftq.common.MsgState;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class BinaryCodecTest {
+
+    @Test
+    public void messageRoundTrip() {
+        Message message = newMessage("orders", "{\"id\":1}");
+        message.setState(MsgState.SENT);
+        message.getTags().put("key", "o-1");
+        message.setRetryCount(2);
+
+        assertMessageEquals(message, roundTrip(message));
+    }
+
+    @Test
+    public void messageRoundTripWithNullsAndInlineBody() {
+        Message message = new Message();
+        message.setTopic("t");
+        message.setPayload(new byte[]{1, 2, 3});
+        // 与载荷不同的 body 单独编码
+        message.setBody("不同的内容");
+        // 过期时间早于创建时间，差值为负
+        message.setTimestamp(1_000_000L);
+        message.setExpireAt(999_000L);
+
+        Message decoded = roundTrip(message);
+        assertMessageEquals(message, decoded);
+        assertNull(decoded.getId());
+        assertNull(decoded.getState());
+        assertNull(decoded.getTags());
+    }
+
+    @Test
+    public void requestRoundTrip() {
+        Request request = new Request("publishBatch", null, 42L);
+        request.setMessages(Arrays.asList(newMessage("a", "x"), newMessage("b", "y")));
+        request.setMaxMessages(10);
+        request.setMaxBytes(4096);
+        request.setMaxWaitMs(500);
+        request.setCredits(7);
+        request.setOffset(123_456_789_012L);
+        request.setTopics(Arrays.asList("a", "b"));
+        request.setPartition(3);
+        request.setGroup("g");
+        request.setVisibilityTimeoutMs(30_000);
+        request.setLeases(new long[]{1, Long.MAX_VALUE});
+
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeRequest(buf, request);
+        Request decoded = BinaryCodec.readRequest(buf);
+
+        assertEquals(0, buf.readableBytes());
+        assertEquals("publishBatch", decoded.getType());
+        assertEquals(42L, decoded.getRequestId());
+        assertEquals(2, decoded.getMessages().size());
+        assertMessageEquals(request.getMessages().get(1), decoded.getMessages().get(1));
+        assertEquals(10, decoded.getMaxMessages());
+        assertEquals(4096, decoded.getMaxBytes());
+        assertEquals(500L, decoded.getMaxWaitMs());
+        assertEquals(7, decoded.getCredits());
+        assertEquals(123_456_789_012L, decoded.getOffset());
+        assertEquals(Arrays.asList("a", "b"), decoded.getTopics());
+        assertEquals(3, decoded.getPartition());
+        assertEquals("g", decoded.getGroup());
+        assertEquals(30_000L, decoded.getVisibilityTimeoutMs());
+        assertArrayEquals(new long[]{1, Long.MAX_VALUE}, decoded.getLeases());
+    }
+
+    @Test
+    public void unregisteredCommandRoundTrip() {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeRequest(buf, new Request("custom-command", null, 1L));
+        Request decoded = BinaryCodec.readRequest(buf);
+        assertEquals("custom-command", decoded.getType());
+        assertEquals(-1, decoded.getPartition());
+    }
+
+    @Test
+    public void serverKeepsRecordsAsRetainedSlices() {
+        Message message = newMessage("orders", "payload");
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeRequest(buf, new Request("publish", message, 5L));
+
+        Request decoded = BinaryCodec.readRequest(buf, true);
+        try {
+            assertNull(decoded.getMessage());
+            assertEquals(1, decoded.getRecords().size());
+            ByteBuf record = decoded.getRecords().get(0);
+            assertMessageEquals(message, BinaryCodec.decodeRecord(record));
+            assertEquals("orders", BinaryCodec.recordTopic(record));
+            assertEquals(message.getPriority(), BinaryCodec.recordPriority(record));
+        } finally {
+            decoded.release();
+            buf.release();
+        }
+    }
+
+    @Test
+    public void responseRoundTrip() {
+        Response response = new Response("ok", null, null, 9L);
+        response.setMessages(Arrays.asList(newMessage("a", "1"), newMessage("a", "2")));
+        response.setNextOffset(77L);
+        Map<String, Integer> partitions = new LinkedHashMap<>();
+        partitions.put("a", 4);
+        partitions.put("b", 1);
+        response.setPartitions(partitions);
+        response.setLeases(new long[]{11, 12});
+        response.setCount(2);
+
+        ByteBuf buf = Unpooled.buffer();
+        assertEquals(0, BinaryCodec.writeResponse(buf, response).size());
+        Response decoded = BinaryCodec.readResponse(buf);
+
+        assertEquals("ok", decoded.getStatus());
+        assertEquals(9L, decoded.getRequestId());
+        assertEquals(2, decoded.getMessages().size());
+        assertMessageEquals(response.getMessages().get(0), decoded.getMessages().get(0));
+        assertEquals(77L, decoded.getNextOffset());
+        assertEquals(partitions, decoded.getPartitions());
+        assertArrayEquals(new long[]{11, 12}, decoded.getLeases());
+        assertEquals(2, decoded.getCount());
+    }
+
+    @Test
+    public void errorResponseRoundTrip() {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeResponse(buf, new Response("error", null, "No lease", 3L));
+        Response decoded = BinaryCodec.readResponse(buf);
+        assertEquals("error", decoded.getStatus());
+        assertEquals("No lease", decoded.getError());
+        assertNull(decoded.getMessage());
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void truncatedRecordIsRejected() {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeMessage(buf, newMessage("t", "body"));
+        BinaryCodec.readRecord(buf.slice(0, buf.readableBytes() - 1));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void oversizedMessageCountIsRejected() {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeVarInt(buf, 1_000_000);
+        buf.writeInt(0);
+        BinaryCodec.readMessages(buf);
+    }
+
+    @Test
+    public void peekRequestIdOfMalformedBody() {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeRequest(buf, new Request("publish", newMessage("t", "body"), 1234L));
+        ByteBuf truncated = buf.slice(0, buf.readableBytes() - 3);
+        assertEquals(1234L, BinaryCodec.peekRequestId(truncated, 0));
+        assertEquals(0, truncated.readerIndex());
+        assertEquals(-1L, BinaryCodec.peekRequestId(Unpooled.buffer(), 0));
+    }
+
+    @Test
+    public void varLongRoundTrip() {
+        long[] values = {0, 1, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        ByteBuf buf = Unpooled.buffer();
+        for (long value : values) {
+            BinaryCodec.writeVarLong(buf, value);
+        }
+        for (long value : values) {
+            assertEquals(value, BinaryCodec.readVarLong(buf));
+        }
+        assertFalse(buf.isReadable());
+    }
+
+    private static Message roundTrip(Message message) {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeMessage(buf, message);
+        Message decoded = BinaryCodec.readMessage(buf);
+        assertEquals(0, buf.readableBytes());
+        return decoded;
+    }
+
+    private static Message newMessage(String topic, String body) {
+        Message message = new Message(topic, body, 1_700_000_000_000L);
+        message.setPayload(body.getBytes(StandardCharsets.UTF_8));
+        message.setTags(new HashMap<>());
+        return message;
+    }
+
+    private static void assertMessageEquals(Message expected, Message actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTopic(), actual.getTopic());
+        assertArrayEquals(expected.getPayload(), actual.getPayload());
+        assertEquals(expected.getBody(), actual.getBody());
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getTags(), actual.getTags());
+        assertEquals(expected.getPriority(), actual.getPriority());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getExpireAt(), actual.getExpireAt());
+        assertEquals(expected.getRetryCount(), actual.getRetryCount());
+        assertEquals(expected.getMaxRetries(), actual.getMaxRetries());
+    }
+}
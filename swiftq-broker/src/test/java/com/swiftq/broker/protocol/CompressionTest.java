@@ -0,0 +1,232 @@
+package com.swiftq.broker.protocol;
+
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompressionTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void roundTripAllCodecs() {
+        for (Compression compression : Compression.values()) {
+            for (int length : new int[]{0, 1, 4, 12, 13, 127, 128, 4096, 65_536, 70_000, 300_000}) {
+                for (byte[] data : new byte[][]{json(length), randomBytes(length), repeated(length)}) {
+                    byte[] compressed = compression.compress(data);
+                    assertArrayEquals(compression + " length " + length, data,
+                            compression.decompress(compressed, data.length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compressibleDataShrinks() {
+        byte[] data = json(16_384);
+        for (Compression compression : Compression.values()) {
+            if (compression != Compression.NONE) {
+                assertTrue(compression.toString(), compression.compress(data).length < data.length / 2);
+            }
+        }
+    }
+
+    @Test
+    public void lz4MatchesAcrossMaxOffset() {
+        // 重复出现的距离超过 64 KB 时不能引用，仍需正确编码
+        byte[] block = randomBytes(70_000);
+        byte[] data = new byte[block.length * 2];
+        System.arraycopy(block, 0, data, 0, block.length);
+        System.arraycopy(block, 0, data, block.length, block.length);
+        assertArrayEquals(data, Lz4Block.decompress(Lz4Block.compress(data), data.length));
+    }
+
+    @Test
+    public void wrongOriginalLengthIsRejected() {
+        byte[] data = json(1024);
+        for (Compression compression : Compression.values()) {
+            if (compression == Compression.NONE) {
+                continue;
+            }
+            byte[] compressed = compression.compress(data);
+            expectCorrupted(compression + " shorter", () -> compression.decompress(compressed, data.length - 1));
+            expectCorrupted(compression + " longer", () -> compression.decompress(compressed, data.length + 1));
+        }
+    }
+
+    @Test
+    public void truncatedInputIsRejected() {
+        byte[] data = json(4096);
+        for (Compression compression : Compression.values()) {
+            if (compression == Compression.NONE) {
+                continue;
+            }
+            byte[] compressed = compression.compress(data);
+            byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+            expectCorrupted(compression.toString(), () -> compression.decompress(truncated, data.length));
+        }
+    }
+
+    @Test
+    public void corruptedLz4NeverEscapesBounds() {
+        // 损坏的输入只能以 CorruptedFrameException 失败，不能越界或产生其他异常
+        for (int i = 0; i < 20_000; i++) {
+            byte[] data = i % 2 == 0 ? json(random.nextInt(2000)) : randomBytes(random.nextInt(200));
+            byte[] compressed = Lz4Block.compress(data);
+            if (compressed.length == 0) {
+                continue;
+            }
+            int flips = 1 + random.nextInt(3);
+            for (int j = 0; j < flips; j++) {
+                compressed[random.nextInt(compressed.length)] ^= (byte) (1 + random.nextInt(255));
+            }
+            try {
+                Lz4Block.decompress(compressed, data.length);
+            } catch (CorruptedFrameException e) {
+                // 预期
+            }
+        }
+    }
+
+    @Test
+    public void compressedBatchRoundTrip() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            // 每条消息都很短，只有整组压缩才有效果
+            Message message = new Message("orders", null, 1_700_000_000_000L + i);
+            message.setPayload(json(60));
+            messages.add(message);
+        }
+        int plainSize = encode(publishBatch(messages, Compression.NONE)).readableBytes();
+        for (Compression compression : Compression.values()) {
+            ByteBuf buf = encode(publishBatch(messages, compression));
+            if (compression != Compression.NONE) {
+                assertTrue(compression.toString(), buf.readableBytes() < plainSize / 2);
+            }
+            // 服务端解码时解压，得到未压缩记录的切片
+            Request request = BinaryCodec.readRequest(buf, true);
+            try {
+                assertEquals(compression, request.getCompression());
+                assertEquals(messages.size(), request.getRecords().size());
+                for (int i = 0; i < messages.size(); i++) {
+                    ByteBuf record = request.getRecords().get(i);
+                    assertEquals("orders", BinaryCodec.recordTopic(record));
+                    assertArrayEquals(compression.toString(), messages.get(i).getPayload(),
+                            BinaryCodec.decodeRecord(record).getPayload());
+                }
+            } finally {
+                request.release();
+            }
+        }
+    }
+
+    @Test
+    public void smallRequestIsNotCompressed() {
+        List<Message> messages = Collections.singletonList(new Message("orders", "short", 1_700_000_000_000L));
+        assertEquals(encode(publishBatch(messages, Compression.NONE)), encode(publishBatch(messages, Compression.LZ4)));
+    }
+
+    @Test(expected = CorruptedFrameException.class)
+    public void corruptedBlockIsRejected() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(new Message("orders", new String(json(100), StandardCharsets.UTF_8), 1_700_000_000_000L));
+        }
+        ByteBuf buf = encode(publishBatch(messages, Compression.DEFLATE));
+        // 破坏压缩数据的末尾
+        buf.setByte(buf.writerIndex() - 3, buf.getByte(buf.writerIndex() - 3) ^ 0x5A);
+        BinaryCodec.readRequest(buf, true).release();
+    }
+
+    @Test
+    public void metadataNegotiatesCompression() {
+        Request request = new Request("metadata", null, 7);
+        request.setCompression(Compression.LZ4);
+        assertEquals(Compression.LZ4, BinaryCodec.readRequest(encode(request)).getCompression());
+
+        Response response = new Response("ok", null, null, 7);
+        response.setPartitions(Collections.singletonMap("orders", 4));
+        response.setCompression(Compression.NONE);
+        ByteBuf buf = Unpooled.buffer();
+        assertTrue(BinaryCodec.writeResponse(buf, response).isEmpty());
+        Response decoded = BinaryCodec.readResponse(buf);
+        assertEquals(Compression.NONE, decoded.getCompression());
+        assertEquals(Integer.valueOf(4), decoded.getPartitions().get("orders"));
+
+        // 不协商时响应中没有该字段
+        Response plain = new Response("ok", null, null, 8);
+        buf = Unpooled.buffer();
+        BinaryCodec.writeResponse(buf, plain);
+        assertNull(BinaryCodec.readResponse(buf).getCompression());
+    }
+
+    @Test
+    public void fromIdRoundTrip() {
+        for (Compression compression : Compression.values()) {
+            assertEquals(compression, Compression.fromId(compression.getId()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownIdIsRejected() {
+        Compression.fromId((byte) 99);
+    }
+
+    private static Request publishBatch(List<Message> messages, Compression compression) {
+        Request request = new Request("publishBatch", null, 1);
+        request.setMessages(messages);
+        request.setCompression(compression);
+        return request;
+    }
+
+    private static ByteBuf encode(Request request) {
+        ByteBuf buf = Unpooled.buffer();
+        BinaryCodec.writeRequest(buf, request);
+        return buf;
+    }
+
+    private static void expectCorrupted(String message, Runnable action) {
+        try {
+            action.run();
+            fail(message + ": expected CorruptedFrameException");
+        } catch (CorruptedFrameException e) {
+            // 预期
+        }
+    }
+
+    private byte[] json(int length) {
+        StringBuilder sb = new StringBuilder(length + 64);
+        while (sb.length() < length) {
+            sb.append("{\"orderId\":").append(random.nextInt(100_000))
+              .append(",\"status\":\"PAID\",\"amount\":").append(random.nextInt(1000)).append('}');
+        }
+        return sb.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static byte[] repeated(int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 'a');
+        return data;
+    }
+}
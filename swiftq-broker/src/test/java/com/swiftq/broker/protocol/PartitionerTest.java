@@ -0,0 +1,47 @@
+package com.swiftq.broker.protocol;
+
+import com.swiftq.common.Message;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionerTest {
+
+    @Test
+    public void sameKeyAlwaysMapsToSamePartition() {
+        for (int partitions = 1; partitions <= 16; partitions++) {
+            int first = Partitioner.partitionForKey("order-42", partitions);
+            assertTrue(first >= 0 && first < partitions);
+            assertEquals(first, Partitioner.partitionForKey("order-42", partitions));
+        }
+    }
+
+    @Test
+    public void negativeHashStaysInRange() {
+        // 哈希值为 Integer.MIN_VALUE 的键
+        assertEquals(Integer.MIN_VALUE, "polygenelubricants".hashCode());
+        int partition = Partitioner.partitionForKey("polygenelubricants", 7);
+        assertTrue(partition >= 0 && partition < 7);
+    }
+
+    @Test
+    public void keysSpreadAcrossPartitions() {
+        int[] counts = new int[8];
+        for (int i = 0; i < 8000; i++) {
+            counts[Partitioner.partitionForKey("key-" + i, counts.length)]++;
+        }
+        for (int count : counts) {
+            assertTrue("uneven spread: " + count, count > 500 && count < 1500);
+        }
+    }
+
+    @Test
+    public void keyComesFromKeyTag() {
+        Message message = new Message("orders", "body", 0L);
+        assertNull(Partitioner.keyOf(message));
+        message.getTags().put(Partitioner.KEY_TAG, "customer-7");
+        assertEquals("customer-7", Partitioner.keyOf(message));
+    }
+}
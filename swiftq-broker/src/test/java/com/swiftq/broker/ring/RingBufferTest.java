@@ -0,0 +1,292 @@
+package com.swiftq.broker.ring;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RingBufferTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(1, new RingBuffer<Integer>(1, WaitStrategies.busySpin()).capacity());
+        assertEquals(8, new RingBuffer<Integer>(5, WaitStrategies.busySpin()).capacity());
+        assertEquals(16, new RingBuffer<Integer>(16, WaitStrategies.busySpin()).capacity());
+    }
+
+    @Test
+    public void wrapsAroundInOrder() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4, WaitStrategies.busySpin());
+        int next = 0;
+        int expected = 0;
+        // 每轮写入与取出的条数不同，序号多次跨过槽位数组的末尾
+        for (int round = 0; round < 50; round++) {
+            int writes = 1 + round % 4;
+            for (int i = 0; i < writes; i++) {
+                if (ring.offer(next)) {
+                    next++;
+                }
+            }
+            int reads = 1 + (round * 3) % 4;
+            for (int i = 0; i < reads; i++) {
+                Integer value = ring.poll();
+                if (value == null) {
+                    break;
+                }
+                assertEquals(expected++, (int) value);
+            }
+            assertEquals(next - expected, ring.size());
+        }
+        Integer value;
+        while ((value = ring.poll()) != null) {
+            assertEquals(expected++, (int) value);
+        }
+        assertEquals(next, expected);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4, WaitStrategies.busySpin());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(4));
+        assertNull(emptyRing().poll());
+    }
+
+    @Test
+    public void drainToClaimsPublishedBatch() throws Exception {
+        RingBuffer<Integer> ring = new RingBuffer<>(8, WaitStrategies.busySpin());
+        ring.publishAll(Arrays.asList(0, 1, 2, 3, 4, 5));
+
+        List<Integer> out = new ArrayList<>();
+        assertEquals(4, ring.drainTo(out, 4));
+        assertEquals(Arrays.asList(0, 1, 2, 3), out);
+        // 批量认领同样跨过数组末尾
+        ring.publishAll(Arrays.asList(6, 7, 8, 9, 10, 11));
+        out.clear();
+        assertEquals(8, ring.drainTo(out, 100));
+        assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9, 10, 11), out);
+        assertEquals(0, ring.drainTo(out, 100));
+    }
+
+    @Test
+    public void publishAllLargerThanCapacityWaitsForSpace() throws Exception {
+        RingBuffer<Integer> ring = new RingBuffer<>(4, WaitStrategies.blocking());
+        List<Integer> elements = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            elements.add(i);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> producer = executor.submit(() -> {
+                ring.publishAll(elements);
+                return null;
+            });
+            List<Integer> out = new ArrayList<>();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (out.size() < elements.size() && System.nanoTime() < deadline) {
+                ring.drainTo(out, 3);
+            }
+            producer.get(5, TimeUnit.SECONDS);
+            assertEquals(elements, out);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void nullElementIsRejected() throws Exception {
+        RingBuffer<Integer> ring = emptyRing();
+        try {
+            ring.offer(null);
+            fail("expected NullPointerException");
+        } catch (NullPointerException e) {
+            // 预期
+        }
+        try {
+            ring.publishAll(Arrays.asList(1, null));
+            fail("expected NullPointerException");
+        } catch (NullPointerException e) {
+            // 预期：整批都不发布
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void multipleProducersAndConsumersLoseAndDuplicateNothing() throws Exception {
+        for (WaitStrategy strategy : strategies()) {
+            runMpmc(new RingBuffer<>(64, strategy));
+        }
+    }
+
+    @Test
+    public void everyStrategyWakesBlockedConsumer() throws Exception {
+        for (WaitStrategy strategy : strategies()) {
+            RingBuffer<Integer> ring = new RingBuffer<>(4, strategy);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                CountDownLatch started = new CountDownLatch(1);
+                Future<Integer> taken = executor.submit(() -> {
+                    started.countDown();
+                    return ring.take();
+                });
+                started.await();
+                Thread.sleep(20);
+                assertFalse(taken.isDone());
+                ring.publish(42);
+                assertEquals(42, (int) taken.get(5, TimeUnit.SECONDS));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void everyStrategyWakesBlockedProducer() throws Exception {
+        for (WaitStrategy strategy : strategies()) {
+            RingBuffer<Integer> ring = new RingBuffer<>(2, strategy);
+            ring.publish(0);
+            ring.publish(1);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                CountDownLatch started = new CountDownLatch(1);
+                Future<?> published = executor.submit(() -> {
+                    started.countDown();
+                    ring.publish(2);
+                    return null;
+                });
+                started.await();
+                Thread.sleep(20);
+                assertFalse(published.isDone());
+                assertEquals(0, (int) ring.take());
+                published.get(5, TimeUnit.SECONDS);
+                assertEquals(1, (int) ring.take());
+                assertEquals(2, (int) ring.take());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void interruptedWaitLeavesRingUsable() throws Exception {
+        for (WaitStrategy strategy : strategies()) {
+            RingBuffer<Integer> ring = new RingBuffer<>(4, strategy);
+            AtomicInteger interrupted = new AtomicInteger();
+            Thread consumer = new Thread(() -> {
+                try {
+                    ring.take();
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                }
+            });
+            consumer.start();
+            Thread.sleep(20);
+            consumer.interrupt();
+            consumer.join(5000);
+            assertFalse(consumer.isAlive());
+            assertEquals(1, interrupted.get());
+
+            // 中断的等待没有认领序号，之后的发布与取出不受影响
+            ring.publish(7);
+            assertEquals(7, (int) ring.poll());
+            assertTrue(ring.isEmpty());
+        }
+    }
+
+    private static void runMpmc(RingBuffer<Integer> ring) throws Exception {
+        int producers = 2;
+        int consumers = 2;
+        int perProducer = 20000;
+        int total = producers * perProducer;
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        AtomicInteger consumed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                futures.add(executor.submit(() -> {
+                    // 单条发布与批量发布交替
+                    for (int i = 0; i < perProducer; ) {
+                        if (i % 3 == 0 && i + 5 <= perProducer) {
+                            List<Integer> batch = new ArrayList<>();
+                            for (int j = 0; j < 5; j++) {
+                                batch.add(base + i + j);
+                            }
+                            ring.publishAll(batch);
+                            i += 5;
+                        } else {
+                            ring.publish(base + i);
+                            i++;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int c = 0; c < consumers; c++) {
+                int id = c;
+                futures.add(executor.submit(() -> {
+                    List<Integer> out = new ArrayList<>();
+                    while (consumed.get() < total) {
+                        out.clear();
+                        if (id == 0) {
+                            Integer value = ring.poll();
+                            if (value != null) {
+                                out.add(value);
+                            }
+                        } else {
+                            ring.drainTo(out, 16);
+                        }
+                        for (Integer value : out) {
+                            seen.incrementAndGet(value);
+                            consumed.incrementAndGet();
+                        }
+                        if (out.isEmpty()) {
+                            Thread.yield();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(total, consumed.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals("element " + i, 1, seen.get(i));
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    private static List<WaitStrategy> strategies() {
+        return Arrays.asList(WaitStrategies.busySpin(), WaitStrategies.yielding(),
+                WaitStrategies.parking(), WaitStrategies.blocking());
+    }
+
+    private static RingBuffer<Integer> emptyRing() {
+        return new RingBuffer<>(4, WaitStrategies.busySpin());
+    }
+}
@@ -0,0 +1,190 @@
+package com.swiftq.broker.store;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommitLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // 最小的段，几十条记录就会滚动
+    private final StoreConfig config = StoreConfig.builder().segmentBytes(1024).indexIntervalBytes(128).build();
+    private File dir;
+    private CommitLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("log");
+        log = CommitLog.open(dir, config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+    }
+
+    @Test
+    public void readsAcrossSegments() throws IOException {
+        append(0, 200);
+        assertTrue(log.sealedSegments().size() > 2);
+
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(200L, log.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 200);
+
+        // 跨越段边界的有限读取
+        long boundary = log.sealedSegments().get(1).baseOffset();
+        out.clear();
+        assertEquals(boundary + 5, log.read(boundary - 5, 10, Long.MAX_VALUE, out));
+        assertRecords(out, boundary - 5, 10);
+    }
+
+    @Test
+    public void reopenTruncatesTornTailAfterCheckpoint() throws IOException {
+        append(0, 200);
+        log.close();
+        File active = activeLogFile();
+        long size = active.length();
+        try (RandomAccessFile file = new RandomAccessFile(active, "rw")) {
+            // 检查点之后写到一半的日志项
+            file.seek(size);
+            file.writeLong(200);
+            file.writeInt(0);
+            file.writeInt(500);
+        }
+
+        log = CommitLog.open(dir, config);
+        assertEquals(200L, log.nextOffset());
+        assertEquals(size, active.length());
+
+        append(200, 20);
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(220L, log.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 220);
+    }
+
+    @Test
+    public void reopenWithoutCheckpointVerifiesActiveSegment() throws IOException {
+        append(0, 100);
+        log.close();
+        Files.delete(new File(dir, CommitLog.RECOVERY_FILE).toPath());
+        File active = activeLogFile();
+        try (RandomAccessFile file = new RandomAccessFile(active, "rw")) {
+            file.setLength(active.length() - 1);
+        }
+
+        log = CommitLog.open(dir, config);
+        assertEquals(99L, log.nextOffset());
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(99L, log.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 99);
+    }
+
+    @Test
+    public void corruptCheckpointFallsBackToFullVerification() throws IOException {
+        append(0, 100);
+        log.close();
+        Files.write(new File(dir, CommitLog.RECOVERY_FILE).toPath(), new byte[]{1, 2, 3});
+        File active = activeLogFile();
+        try (RandomAccessFile file = new RandomAccessFile(active, "rw")) {
+            file.setLength(active.length() - 1);
+        }
+
+        log = CommitLog.open(dir, config);
+        assertEquals(99L, log.nextOffset());
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(99L, log.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 99);
+    }
+
+    @Test
+    public void missingIndexesAreRebuiltInBackground() throws Exception {
+        append(0, 200);
+        List<File> indexes = new ArrayList<>();
+        for (LogSegment segment : log.sealedSegments()) {
+            indexes.add(segment.indexFile());
+        }
+        assertTrue(indexes.size() > 2);
+        log.close();
+        for (File index : indexes) {
+            Files.delete(index.toPath());
+        }
+
+        log = CommitLog.open(dir, config);
+        // 重建完成前也可以读取，缺少索引的段顺序扫描
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(200L, log.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 200);
+
+        log.indexesReady().get(10, TimeUnit.SECONDS);
+        for (LogSegment segment : log.sealedSegments()) {
+            assertFalse(segment.needsIndex());
+        }
+        long boundary = log.sealedSegments().get(1).baseOffset();
+        out.clear();
+        assertEquals(boundary + 5, log.read(boundary - 5, 10, Long.MAX_VALUE, out));
+        assertRecords(out, boundary - 5, 10);
+    }
+
+    @Test
+    public void intactLogNeedsNoRebuild() throws Exception {
+        append(0, 200);
+        log.close();
+        log = CommitLog.open(dir, config);
+        assertTrue(log.indexesReady().isDone());
+        assertEquals(200L, log.nextOffset());
+    }
+
+    private File activeLogFile() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(LogSegment.LOG_SUFFIX));
+        File last = null;
+        for (File file : files) {
+            // 文件名是补零的起始 offset，按名字比较即按 offset 比较
+            if (last == null || file.getName().compareTo(last.getName()) > 0) {
+                last = file;
+            }
+        }
+        return last;
+    }
+
+    private void append(long from, int count) throws IOException {
+        for (long offset = from; offset < from + count; offset++) {
+            ByteBuf record = LogSegmentTest.record(offset);
+            try {
+                assertEquals(offset, log.append(record));
+            } finally {
+                record.release();
+            }
+        }
+    }
+
+    private static void assertRecords(List<ByteBuf> out, long from, int count) {
+        try {
+            assertEquals(count, out.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(LogSegmentTest.record(from + i), out.get(i));
+            }
+        } finally {
+            for (ByteBuf record : out) {
+                record.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.swiftq.broker.store;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final GroupCommitter committer = new GroupCommitter(1);
+    private final List<CommitLog> logs = new ArrayList<>();
+
+    @After
+    public void tearDown() throws IOException {
+        committer.close();
+        for (CommitLog log : logs) {
+            log.close();
+        }
+    }
+
+    @Test
+    public void everyBatchAcknowledgesAfterFsync() throws Exception {
+        CommitLog log = open();
+        GroupCommitter.LogCommitter logCommitter = register(log, config(FsyncPolicy.EVERY_BATCH));
+        logCommitter.submit(records("orders", 5)).get(5, TimeUnit.SECONDS);
+        assertSynced(log);
+        assertEquals(5L, log.nextOffset());
+    }
+
+    @Test
+    public void noneAcknowledgesWithoutFsync() throws Exception {
+        CommitLog log = open();
+        GroupCommitter.LogCommitter logCommitter = register(log, config(FsyncPolicy.NONE));
+        logCommitter.submit(records("orders", 5)).get(5, TimeUnit.SECONDS);
+        Thread.sleep(50);
+        assertEquals(0, log.activeSegment().syncedSize());
+        assertEquals(5L, log.nextOffset());
+    }
+
+    @Test
+    public void intervalFsyncsInBackground() throws Exception {
+        CommitLog log = open();
+        StoreConfig config = StoreConfig.builder().fsyncPolicy(FsyncPolicy.INTERVAL).fsyncIntervalMs(50).build();
+        GroupCommitter.LogCommitter logCommitter = register(log, config);
+        logCommitter.submit(records("orders", 5)).get(5, TimeUnit.SECONDS);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (log.activeSegment().syncedSize() < log.activeSegment().size() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertSynced(log);
+    }
+
+    @Test
+    public void strongestTopicPolicyInBatchApplies() throws Exception {
+        CommitLog log = open();
+        StoreConfig config = StoreConfig.builder()
+                .fsyncPolicy(FsyncPolicy.NONE)
+                .fsyncPolicy("orders", FsyncPolicy.EVERY_BATCH)
+                .build();
+        GroupCommitter.LogCommitter logCommitter = register(log, config);
+
+        logCommitter.submit(records("audit", 3)).get(5, TimeUnit.SECONDS);
+        assertEquals(0, log.activeSegment().syncedSize());
+
+        List<ByteBuf> mixed = records("audit", 2);
+        mixed.addAll(records("orders", 1));
+        logCommitter.submit(mixed).get(5, TimeUnit.SECONDS);
+        assertSynced(log);
+    }
+
+    @Test
+    public void logsSharingACommitThreadSyncIndependently() throws Exception {
+        CommitLog durable = open();
+        CommitLog relaxed = open();
+        GroupCommitter.LogCommitter durableCommitter = register(durable, config(FsyncPolicy.EVERY_BATCH));
+        GroupCommitter.LogCommitter relaxedCommitter = register(relaxed, config(FsyncPolicy.NONE));
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(relaxedCommitter.submit(records("audit", 1)));
+            futures.add(durableCommitter.submit(records("orders", 1)));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertSynced(durable);
+        assertEquals(20L, durable.nextOffset());
+        assertEquals(0, relaxed.activeSegment().syncedSize());
+        assertEquals(20L, relaxed.nextOffset());
+    }
+
+    @Test
+    public void closeWritesQueuedAppendsAndRejectsLaterOnes() throws Exception {
+        CommitLog log = open();
+        GroupCommitter.LogCommitter logCommitter = register(log, config(FsyncPolicy.NONE));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(logCommitter.submit(records("orders", 1)));
+        }
+        logCommitter.close();
+        for (CompletableFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+            future.get();
+        }
+        // 屏障按 EVERY_BATCH 处理，关闭前的写入都已落盘
+        assertSynced(log);
+        assertEquals(50L, log.nextOffset());
+
+        try {
+            logCommitter.submit(records("orders", 1)).get(5, TimeUnit.SECONDS);
+            fail("expected failure after close");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void invalidThreadCountIsRejected() {
+        for (int threads : Arrays.asList(0, -1)) {
+            try {
+                new GroupCommitter(threads);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // 预期
+            }
+        }
+    }
+
+    private CommitLog open() throws IOException {
+        CommitLog log = CommitLog.open(folder.newFolder(), StoreConfig.builder().build());
+        logs.add(log);
+        return log;
+    }
+
+    private GroupCommitter.LogCommitter register(CommitLog log, StoreConfig config) {
+        return committer.register(log, config);
+    }
+
+    private static StoreConfig config(FsyncPolicy policy) {
+        return StoreConfig.builder().fsyncPolicy(policy).build();
+    }
+
+    private static void assertSynced(CommitLog log) {
+        assertTrue(log.activeSegment().size() > 0);
+        assertEquals(log.activeSegment().size(), log.activeSegment().syncedSize());
+    }
+
+    private static List<ByteBuf> records(String topic, int count) {
+        List<ByteBuf> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(BinaryCodec.encodeRecord(ByteBufAllocator.DEFAULT, new Message(topic, "m" + i, 0L)));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,248 @@
+package com.swiftq.broker.store;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogSegmentTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // 索引间隔很小，让恢复时既有索引项又需要补齐
+    private final StoreConfig config = StoreConfig.builder().indexIntervalBytes(64).build();
+    private File dir;
+    private LogSegment segment;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("log");
+        segment = LogSegment.open(dir, 0L, config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        segment.close();
+    }
+
+    @Test
+    public void appendAndRead() throws IOException {
+        appendRecords(segment, 0, 100);
+
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(100L, segment.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 100);
+
+        out.clear();
+        assertEquals(60L, segment.read(50, 10, Long.MAX_VALUE, out));
+        assertRecords(out, 50, 10);
+    }
+
+    @Test
+    public void singleRecordReadDoesNotPinAWholeChunk() throws IOException {
+        appendRecords(segment, 0, 100);
+
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(31L, segment.read(30, 1, Long.MAX_VALUE, out));
+        // 切片所在的读缓冲只有这一条日志项大小
+        assertEquals(LogSegment.ENTRY_OVERHEAD + payload(30).length, out.get(0).unwrap().capacity());
+        assertRecords(out, 30, 1);
+    }
+
+    @Test
+    public void sealedSegmentReadsFromMapping() throws IOException {
+        appendRecords(segment, 0, 20);
+        segment.flush();
+        segment.seal(20);
+
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(20L, segment.read(5, 100, Long.MAX_VALUE, out));
+        assertRecords(out, 5, 15);
+    }
+
+    @Test
+    public void recoverTruncatesTornTail() throws IOException {
+        appendRecords(segment, 0, 10);
+        int size = segment.size();
+        reopen(() -> {
+            try (RandomAccessFile file = new RandomAccessFile(segment.logFile(), "rw")) {
+                // 写到一半的日志项：头部完整，记录不完整
+                file.seek(size);
+                file.writeLong(10);
+                file.writeInt(0);
+                file.writeInt(1000);
+                file.write(new byte[100]);
+            }
+        });
+
+        segment.recover(0);
+        assertEquals(size, segment.size());
+        assertEquals(size, segment.logFile().length());
+        assertEquals(10L, segment.nextOffset());
+
+        // 截断后可以继续追加
+        appendRecords(segment, 10, 5);
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(15L, segment.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 15);
+    }
+
+    @Test
+    public void recoverStopsAtCorruptedRecord() throws IOException {
+        appendRecords(segment, 0, 10);
+        int position = 0;
+        for (int i = 0; i < 7; i++) {
+            position += LogSegment.ENTRY_OVERHEAD + payload(i).length;
+        }
+        int corrupted = position;
+        reopen(() -> {
+            try (RandomAccessFile file = new RandomAccessFile(segment.logFile(), "rw")) {
+                long at = corrupted + LogSegment.ENTRY_OVERHEAD + 1;
+                file.seek(at);
+                int b = file.read();
+                file.seek(at);
+                file.write(b ^ 0xFF);
+            }
+        });
+
+        segment.recover(0);
+        assertEquals(corrupted, segment.size());
+        assertEquals(7L, segment.nextOffset());
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(7L, segment.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 7);
+    }
+
+    @Test
+    public void recoverKeepsIntactSegment() throws IOException {
+        appendRecords(segment, 0, 50);
+        int size = segment.size();
+        reopen(() -> { });
+
+        // 正常关闭的段逐条校验后保持不变
+        segment.recover(0);
+        assertEquals(size, segment.size());
+        assertEquals(50L, segment.nextOffset());
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(50L, segment.read(25, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 25, 25);
+    }
+
+    @Test
+    public void recoverTruncatesTornTailAfterIndexedEntries() throws IOException {
+        appendRecords(segment, 0, 30);
+        assertTrue(segment.size() > 64 * 3);
+        int size = segment.size();
+        reopen(() -> {
+            try (RandomAccessFile file = new RandomAccessFile(segment.logFile(), "rw")) {
+                file.setLength(size - 3);
+            }
+        });
+
+        // 信任已落盘的前缀，只校验最后一个索引项之后的数据
+        segment.recover(size / 2);
+        assertEquals(29L, segment.nextOffset());
+        List<ByteBuf> out = new ArrayList<>();
+        assertEquals(29L, segment.read(0, 1000, Long.MAX_VALUE, out));
+        assertRecords(out, 0, 29);
+    }
+
+    @Test
+    public void regionKeepsDeletedSegmentUntilReleased() throws IOException {
+        appendRecords(segment, 0, 10);
+        segment.flush();
+        segment.seal(10);
+
+        FileRegion region = segment.region(3, 0);
+        // maxBytes 不足一条时至少返回一条完整的日志项
+        assertEquals(LogSegment.ENTRY_OVERHEAD + payload(3).length, region.count());
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        assertEquals(region.count(), region.transferTo(Channels.newChannel(sent), 0));
+        ByteBuf entry = Unpooled.wrappedBuffer(sent.toByteArray());
+        assertEquals(3L, entry.readLong());
+        entry.skipBytes(4);
+        assertEquals(record(3), entry);
+
+        File logFile = segment.logFile();
+        segment.delete();
+        assertNull(segment.region(0, Long.MAX_VALUE));
+        // 发送中的区域仍持有文件
+        assertTrue(logFile.exists());
+        assertTrue(region.release());
+        assertFalse(logFile.exists());
+        assertFalse(segment.indexFile().exists());
+    }
+
+    private void reopen(FileAction action) throws IOException {
+        segment.flush();
+        segment.close();
+        action.run();
+        segment = LogSegment.open(dir, 0L, config);
+    }
+
+    private interface FileAction {
+        void run() throws IOException;
+    }
+
+    private static void appendRecords(LogSegment segment, long from, int count) throws IOException {
+        for (long offset = from; offset < from + count; offset++) {
+            ByteBuf record = record(offset);
+            try {
+                segment.append(offset, record);
+            } finally {
+                record.release();
+            }
+        }
+    }
+
+    private static void assertRecords(List<ByteBuf> out, long from, int count) {
+        try {
+            assertEquals(count, out.size());
+            for (int i = 0; i < count; i++) {
+                ByteBuf record = out.get(i);
+                assertEquals(record(from + i), record);
+            }
+        } finally {
+            for (ByteBuf record : out) {
+                record.release();
+            }
+        }
+    }
+
+    /**
+     * 带 4 字节长度前缀的记录，长度随 offset 变化
+     */
+    static ByteBuf record(long offset) {
+        byte[] payload = payload(offset);
+        ByteBuf record = Unpooled.buffer(4 + payload.length);
+        record.writeInt(payload.length).writeBytes(payload);
+        return record;
+    }
+
+    static byte[] payload(long offset) {
+        StringBuilder sb = new StringBuilder("record-").append(offset);
+        for (long i = 0; i < offset % 7; i++) {
+            sb.append("-padding");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+package com.swiftq.broker.store;
+
+import com.swiftq.broker.protocol.BinaryCodec;
+import com.swiftq.common.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityMessageStoreTest {
+
+    private PriorityMessageStore store = new PriorityMessageStore(100, Long.MAX_VALUE, 60_000);
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void higherPriorityIsDeliveredFirst() throws Exception {
+        append("low-1", 1);
+        append("mid-1", 5);
+        append("high-1", 9);
+        append("mid-2", 5);
+        append("high-2", 9);
+
+        // 同一优先级内保持发布顺序
+        assertEquals(Arrays.asList("high-1", "high-2", "mid-1", "mid-2", "low-1"), pollAll());
+        assertTrue(store.isEmpty());
+    }
+
+    @Test
+    public void outOfRangePriorityIsClamped() throws Exception {
+        append("below", 0);
+        append("min", 1);
+        append("above", 42);
+        append("max", 10);
+        assertEquals(Arrays.asList("above", "max", "below", "min"), pollAll());
+    }
+
+    @Test
+    public void agedMessagesOvertakeNewHighPriority() throws Exception {
+        store.close();
+        // 每 10ms 提升一级
+        store = new PriorityMessageStore(100, Long.MAX_VALUE, 10);
+        append("old-low", 1);
+        Thread.sleep(150);
+        append("new-high", 10);
+        assertEquals(Arrays.asList("old-low", "new-high"), pollAll());
+    }
+
+    @Test
+    public void drainStopsAtMaxMessages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            append("m" + i, 5);
+        }
+        List<ByteBuf> batch = store.drain(3, Long.MAX_VALUE);
+        assertEquals(Arrays.asList("m0", "m1", "m2"), bodies(batch));
+        assertEquals(Arrays.asList("m3", "m4"), pollAll());
+    }
+
+    @Test
+    public void fullStoreRejectsAndReleasesRecord() throws Exception {
+        store.close();
+        store = new PriorityMessageStore(2, Long.MAX_VALUE, 60_000);
+        append("a", 5);
+        append("b", 5);
+        ByteBuf rejected = record("c", 5);
+        try {
+            store.append(rejected).get();
+            fail("expected queue full");
+        } catch (ExecutionException e) {
+            // 预期
+        }
+        assertEquals(0, rejected.refCnt());
+
+        // 取走一条后可以再次发布
+        assertEquals(Arrays.asList("a"), bodies(store.drain(1, Long.MAX_VALUE)));
+        append("c", 5);
+    }
+
+    @Test
+    public void byteLimitRejectsBatchTail() throws Exception {
+        ByteBuf probe = record("x", 5);
+        long size = probe.readableBytes();
+        probe.release();
+        store.close();
+        store = new PriorityMessageStore(100, size * 2, 60_000);
+
+        List<ByteBuf> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            records.add(record("x", 5));
+        }
+        try {
+            store.appendAll(records).get();
+            fail("expected queue full");
+        } catch (ExecutionException e) {
+            // 预期：已入队的记录保留
+        }
+        assertEquals(0, records.get(2).refCnt());
+        assertEquals(Arrays.asList("x", "x"), pollAll());
+    }
+
+    @Test
+    public void closeReleasesQueuedRecords() throws Exception {
+        ByteBuf record = record("a", 5);
+        store.append(record).get();
+        store.close();
+        assertEquals(0, record.refCnt());
+        assertNull(store.poll());
+    }
+
+    private void append(String body, int priority) throws Exception {
+        store.append(record(body, priority)).get();
+    }
+
+    private List<String> pollAll() {
+        List<ByteBuf> records = new ArrayList<>();
+        ByteBuf record;
+        while ((record = store.poll()) != null) {
+            records.add(record);
+        }
+        return bodies(records);
+    }
+
+    private static List<String> bodies(List<ByteBuf> records) {
+        List<String> bodies = new ArrayList<>();
+        for (ByteBuf record : records) {
+            bodies.add(BinaryCodec.decodeRecord(record).getBody());
+            record.release();
+        }
+        return bodies;
+    }
+
+    private static ByteBuf record(String body, int priority) {
+        Message message = new Message("orders", body, 0L);
+        message.setPriority(priority);
+        return BinaryCodec.encodeRecord(ByteBufAllocator.DEFAULT, message);
+    }
+}
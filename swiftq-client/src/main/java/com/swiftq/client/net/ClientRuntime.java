@@ -0,0 +1,76 @@
+package com.swiftq.client.net;
+
+import com.swiftq.broker.net.Transport;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内所有客户端共享的运行时：一个 EventLoopGroup 与一个请求超时用的时间轮
+ * 第一个客户端连接时创建，最后一个客户端关闭时释放
+ */
+final class ClientRuntime {
+
+    private static ClientRuntime shared;
+    private static int references;
+
+    private final Transport transport;
+    private final EventLoopGroup group;
+    // 请求超时的精度不需要高于 10ms，登记与取消都是 O(1)
+    private final HashedWheelTimer timer;
+
+    private ClientRuntime() {
+        this.transport = Transport.select(true);
+        this.group = transport.newEventLoopGroup(0, "swiftq-client");
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("swiftq-client-timer", true),
+                10, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized ClientRuntime acquire() {
+        if (shared == null) {
+            shared = new ClientRuntime();
+        }
+        references++;
+        return shared;
+    }
+
+    static synchronized void release(ClientRuntime runtime) {
+        if (runtime != shared || references == 0) {
+            return;
+        }
+        if (--references == 0) {
+            shared = null;
+            runtime.timer.stop();
+            runtime.group.shutdownGracefully();
+        }
+    }
+
+    EventLoopGroup group() {
+        return group;
+    }
+
+    Class<? extends SocketChannel> channelClass() {
+        return transport.socketChannelClass();
+    }
+
+    Timer timer() {
+        return timer;
+    }
+
+    /**
+     * 当前线程是否为共享 EventLoop 的线程，这些线程上不能阻塞等待响应
+     */
+    boolean inEventLoop() {
+        for (EventExecutor executor : group) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,70 @@
+package com.swiftq.client.net;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 合并刷新的写入器
+ * 业务线程并发发送时，写入都在 Channel 的 EventLoop 上排队执行，
+ * 同一轮任务中的写入只触发一次 flush，减少 write 系统调用
+ */
+class CoalescingWriter {
+
+    private final Channel channel;
+    private final EventLoop eventLoop;
+    private final Runnable flushTask = this::flush;
+
+    // 只在 EventLoop 上访问
+    private boolean flushPending;
+
+    CoalescingWriter(Channel channel) {
+        this.channel = channel;
+        this.eventLoop = channel.eventLoop();
+    }
+
+    void write(Object msg) {
+        write(msg, null);
+    }
+
+    /**
+     * @param listener 不为 null 时在写出完成（或失败）后回调，EventLoop 已关闭时以失败的 future 立即回调
+     */
+    void write(Object msg, ChannelFutureListener listener) {
+        if (eventLoop.inEventLoop()) {
+            write0(msg, listener);
+            return;
+        }
+        try {
+            eventLoop.execute(() -> write0(msg, listener));
+        } catch (RejectedExecutionException e) {
+            if (listener != null) {
+                try {
+                    listener.operationComplete(channel.newFailedFuture(e));
+                } catch (Exception ignored) {
+                    // 回调只用于让请求失败，不会抛出
+                }
+            }
+        }
+    }
+
+    private void write0(Object msg, ChannelFutureListener listener) {
+        if (listener != null) {
+            channel.write(msg).addListener(listener);
+        } else {
+            channel.write(msg);
+        }
+        if (!flushPending) {
+            flushPending = true;
+            // 排在已提交的写入任务之后执行
+            eventLoop.execute(flushTask);
+        }
+    }
+
+    private void flush() {
+        flushPending = false;
+        channel.flush();
+    }
+}
@@ -0,0 +1,177 @@
+package com.swiftq.client.net;
+
+import com.swiftq.broker.protocol.Request;
+import com.swiftq.broker.protocol.Response;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 到 Broker 的一条连接：按 requestId 匹配响应，每个请求有截止时间，
+ * 超时或连接断开时等待中的请求立即失败，不会一直留在等待表中
+ */
+final class Connection {
+
+    private static final Logger logger = LoggerFactory.getLogger(Connection.class);
+
+    private final Channel channel;
+    private final CoalescingWriter writer;
+    private final Timer timer;
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+
+    Connection(Channel channel, Timer timer) {
+        this.channel = channel;
+        this.writer = new CoalescingWriter(channel);
+        this.timer = timer;
+    }
+
+    boolean isActive() {
+        return channel.isActive();
+    }
+
+    /**
+     * 等待响应的请求数，连接池据此选择负载最轻的连接
+     */
+    int inFlight() {
+        return pending.size();
+    }
+
+    /**
+     * @param timeoutMs 大于 0 时超过该时间未收到响应则以 {@link TimeoutException} 失败
+     */
+    CompletableFuture<Response> request(Request req, long timeoutMs) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        long requestId = req.getRequestId();
+        Pending entry = new Pending(future);
+        pending.put(requestId, entry);
+        if (timeoutMs > 0) {
+            entry.timeout = timer.newTimeout(t -> {
+                if (pending.remove(requestId, entry)) {
+                    future.completeExceptionally(new TimeoutException(
+                            "Request " + req.getType() + " timed out after " + timeoutMs + " ms"));
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        // 登记之后才检查连接，与 channelInactive 的清理不会互相错过
+        if (!channel.isActive()) {
+            fail(requestId, new ConnectionClosedException());
+            return future;
+        }
+        // 编码失败或连接在写出前断开时立即失败，不必等到超时
+        writer.write(req, f -> {
+            if (!f.isSuccess()) {
+                fail(requestId, f.cause());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 发送没有响应的请求
+     */
+    void send(Request req) {
+        writer.write(req);
+    }
+
+    void close() {
+        // 排在已提交的写入之后，先刷出再关闭
+        channel.eventLoop().execute(() -> {
+            channel.flush();
+            channel.close();
+        });
+    }
+
+    private void fail(long requestId, Throwable cause) {
+        Pending entry = pending.remove(requestId);
+        if (entry != null) {
+            entry.cancelTimeout();
+            entry.future.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Pending {
+        final CompletableFuture<Response> future;
+        volatile Timeout timeout;
+
+        Pending(CompletableFuture<Response> future) {
+            this.future = future;
+        }
+
+        void cancelTimeout() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+
+    /**
+     * 连接的入站处理器，push 响应交给 onPush，其余按 requestId 完成等待中的请求
+     */
+    static final class ResponseHandler extends SimpleChannelInboundHandler<Response> {
+
+        private final Consumer<Response> onPush;
+        private volatile Connection connection;
+
+        ResponseHandler(Consumer<Response> onPush) {
+            this.onPush = onPush;
+        }
+
+        void bind(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Response resp) {
+            if ("push".equals(resp.getStatus())) {
+                if (onPush != null) {
+                    onPush.accept(resp);
+                }
+                return;
+            }
+            Connection conn = connection;
+            Pending entry = conn != null ? conn.pending.remove(resp.getRequestId()) : null;
+            if (entry == null) {
+                // 已超时的请求的迟到响应
+                return;
+            }
+            entry.cancelTimeout();
+            if ("ok".equals(resp.getStatus()) || "empty".equals(resp.getStatus())) {
+                entry.future.complete(resp);
+            } else {
+                entry.future.completeExceptionally(new RuntimeException(resp.getError()));
+            }
+        }
+
+        /**
+         * 连接断开后不会再有响应，让等待中的请求立即失败
+         */
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            Connection conn = connection;
+            if (conn != null) {
+                ConnectionClosedException closed = new ConnectionClosedException();
+                for (Long requestId : conn.pending.keySet()) {
+                    conn.fail(requestId, closed);
+                }
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("Closing connection to {} after error", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.swiftq.client.net;
+
+/**
+ * 连接已断开，请求没有得到响应；Broker 会按租约超时重新投递未结算的消息
+ */
+final class ConnectionClosedException extends IllegalStateException {
+
+    ConnectionClosedException() {
+        super("Connection closed");
+    }
+}
@@ -0,0 +1,190 @@
+package com.swiftq.client.net;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.swiftq.broker.protocol.ClientProtocolCodec;
+import com.swiftq.broker.protocol.Protocol;
+import com.swiftq.broker.protocol.Request;
+import com.swiftq.broker.protocol.Response;
+import com.swiftq.broker.protocol.WireFormat;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 到一个 Broker 的固定数量连接
+ * 请求发往等待响应最少的活动连接；连接断开后按指数退避重连，重连成功时回调 onReconnect
+ */
+final class ConnectionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final long MIN_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 10_000;
+
+    private final ClientRuntime runtime;
+    private final String host;
+    private final int port;
+    private final ObjectMapper mapper;
+    private final WireFormat format;
+    private final long requestTimeoutMs;
+    private final Consumer<Response> onPush;
+    private final Consumer<Connection> onReconnect;
+    private final AtomicReferenceArray<Connection> connections;
+    private volatile boolean closed;
+
+    /**
+     * @param requestTimeoutMs 请求的截止时间，长轮询请求再加上其最长挂起时间；0 表示不限
+     * @param onPush           服务端推送的响应，在 I/O 线程上回调，可为 null
+     * @param onReconnect      断线重连成功后回调，用于恢复连接上的状态，可为 null
+     */
+    ConnectionPool(ClientRuntime runtime, String host, int port, ObjectMapper mapper, WireFormat format,
+                   int size, long requestTimeoutMs, Consumer<Response> onPush, Consumer<Connection> onReconnect) {
+        this.runtime = runtime;
+        this.host = host;
+        this.port = port;
+        this.mapper = mapper;
+        this.format = format;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.onPush = onPush;
+        this.onReconnect = onReconnect;
+        this.connections = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * 建立所有连接，任何一条失败时关闭已建立的连接并抛出
+     */
+    void connect() throws InterruptedException {
+        try {
+            for (int i = 0; i < connections.length(); i++) {
+                ChannelFuture future = open().sync();
+                Connection conn = bind(i, future.channel());
+                connections.set(i, conn);
+                checkActive(i, conn);
+            }
+        } catch (Throwable e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 选择等待响应最少的活动连接
+     *
+     * @return 没有活动连接时返回 null
+     */
+    Connection select() {
+        Connection best = null;
+        for (int i = 0; i < connections.length(); i++) {
+            Connection conn = connections.get(i);
+            if (conn != null && conn.isActive() && (best == null || conn.inFlight() < best.inFlight())) {
+                best = conn;
+            }
+        }
+        return best;
+    }
+
+    CompletableFuture<Response> request(Request req) {
+        Connection conn = select();
+        if (conn == null) {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Not connected to " + host + ":" + port));
+            return future;
+        }
+        long timeoutMs = requestTimeoutMs > 0 ? requestTimeoutMs + req.getMaxWaitMs() : 0;
+        return conn.request(req, timeoutMs);
+    }
+
+    /**
+     * 发送没有响应的请求；没有活动连接时丢弃
+     */
+    void send(Request req) {
+        Connection conn = select();
+        if (conn != null) {
+            conn.send(req);
+        }
+    }
+
+    void close() {
+        closed = true;
+        for (int i = 0; i < connections.length(); i++) {
+            Connection conn = connections.getAndSet(i, null);
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    private ChannelFuture open() {
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(runtime.group())
+                 .channel(runtime.channelClass())
+                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                 .handler(new ChannelInitializer<Channel>() {
+                     @Override
+                     protected void initChannel(Channel ch) {
+                         ch.pipeline().addLast(Protocol.newFrameDecoder());
+                         ch.pipeline().addLast(new ClientProtocolCodec(mapper, format));
+                         ch.pipeline().addLast(new Connection.ResponseHandler(onPush));
+                     }
+                 });
+        return bootstrap.connect(host, port);
+    }
+
+    private Connection bind(int slot, Channel channel) {
+        Connection conn = new Connection(channel, runtime.timer());
+        channel.pipeline().get(Connection.ResponseHandler.class).bind(conn);
+        channel.closeFuture().addListener(f -> scheduleReconnect(slot, conn, MIN_BACKOFF_MS));
+        return conn;
+    }
+
+    private void scheduleReconnect(int slot, Connection lost, long backoffMs) {
+        if (closed || connections.get(slot) != lost) {
+            return;
+        }
+        logger.warn("Connection to {}:{} lost, reconnecting in {} ms", host, port, backoffMs);
+        runtime.group().schedule(() -> reconnect(slot, lost, backoffMs), backoffMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconnect(int slot, Connection lost, long backoffMs) {
+        if (closed || connections.get(slot) != lost) {
+            return;
+        }
+        open().addListener((ChannelFuture f) -> {
+            if (!f.isSuccess()) {
+                long next = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                logger.warn("Reconnect to {}:{} failed, retrying in {} ms", host, port, next);
+                runtime.group().schedule(() -> reconnect(slot, lost, next), next, TimeUnit.MILLISECONDS);
+                return;
+            }
+            Connection conn = bind(slot, f.channel());
+            if (closed || !connections.compareAndSet(slot, lost, conn)) {
+                conn.close();
+                return;
+            }
+            logger.info("Reconnected to {}:{}", host, port);
+            checkActive(slot, conn);
+            if (onReconnect != null) {
+                onReconnect.accept(conn);
+            }
+        });
+    }
+
+    /**
+     * 连接在放入槽位之前就已断开时，关闭回调找不到它，在这里补上重连
+     */
+    private void checkActive(int slot, Connection conn) {
+        if (!conn.isActive()) {
+            scheduleReconnect(slot, conn, MIN_BACKOFF_MS);
+        }
+    }
+}
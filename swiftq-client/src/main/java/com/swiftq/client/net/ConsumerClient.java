@@ -1,121 +1,459 @@
 package com.swiftq.client.net;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.swiftq.broker.protocol.Protocol;
+import com.swiftq.broker.protocol.Request;
+import com.swiftq.broker.protocol.Response;
+import com.swiftq.broker.protocol.WireFormat;
 import com.swiftq.common.Message;
-import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
-
-import java.nio.charset.StandardCharsets;
+import com.swiftq.common.MsgState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 public class ConsumerClient {
 
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerClient.class);
+
     private final String host;
     private final int port;
-    private Channel channel;
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final EventLoopGroup group = new NioEventLoopGroup();
-
-    // 支持多个异步消费请求
-    private final ConcurrentHashMap<Long, CompletableFuture<Message>> pendingFutures = new ConcurrentHashMap<>();
+    private final WireFormat format;
+    private final ObjectMapper mapper = Protocol.newObjectMapper();
+    private ClientRuntime runtime;
+    // 租约、消费组成员与推送订阅都绑定在连接上，消费者只使用一条连接
+    private ConnectionPool pool;
     private final AtomicLong requestIdGen = new AtomicLong(0);
+    private long requestTimeoutMs = 30_000;
+
+    // 推送订阅，服务端推送的响应携带订阅请求的 requestId
+    private volatile long subscriptionId;
+    // 推送回调，参数为消息与其所在的分区（服务端未返回分区时为 -1）
+    private volatile ObjIntConsumer<Message> subscriptionListener;
+    private volatile List<String> subscriptionTopics;
+    private volatile int subscriptionWindow;
+    // 为 true 时推送的信用由订阅方通过 credit 归还，而不是交给 listener 后立即归还
+    private volatile boolean manualCredit;
+
+    // 已加入的消费组，加入后 consume / consumeBatch / subscribe 只读取组分配给本连接的分区
+    private volatile String groupName;
+    private volatile List<String> groupTopics;
+
+    // 大于 0 时按租约消费，消息需要 ack，否则在超时后重新投递
+    private volatile long visibilityTimeoutMs;
+    // 已收到但尚未结算的消息 id -> 租约
+    private final ConcurrentHashMap<String, Long> leases = new ConcurrentHashMap<>();
 
     public ConsumerClient(String host, int port) {
+        this(host, port, WireFormat.BINARY);
+    }
+
+    public ConsumerClient(String host, int port, WireFormat format) {
         this.host = host;
         this.port = port;
+        this.format = format;
+    }
+
+    /**
+     * 设置请求的超时时间，长轮询请求再加上其最长挂起时间；0 表示不限，需在 connect 之前调用
+     */
+    public void setRequestTimeout(long requestTimeoutMs) {
+        if (requestTimeoutMs < 0) {
+            throw new IllegalArgumentException("Invalid request timeout: " + requestTimeoutMs);
+        }
+        this.requestTimeoutMs = requestTimeoutMs;
     }
 
+    /**
+     * 使用进程内共享的 EventLoop 建立连接
+     * 断线后在后台按退避间隔重连，重连后重新加入消费组、恢复推送订阅；断线前未结算的租约由 Broker 重新投递
+     */
     public void connect() throws InterruptedException {
-        Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(group)
-                 .channel(NioSocketChannel.class)
-                 .handler(new ChannelInitializer<Channel>() {
-                     @Override
-                     protected void initChannel(Channel ch) {
-                         ch.pipeline().addLast(new ConsumerClientHandler());
-                     }
-                 });
+        runtime = ClientRuntime.acquire();
+        pool = new ConnectionPool(runtime, host, port, mapper, format, 1, requestTimeoutMs,
+                this::onPush, conn -> restore());
+        try {
+            pool.connect();
+        } catch (Throwable e) {
+            ClientRuntime.release(runtime);
+            throw e;
+        }
+    }
 
-        ChannelFuture future = bootstrap.connect(host, port).sync();
-        channel = future.channel();
+    /**
+     * 开启按租约消费：此后取到的消息需要 {@link #ack(Message)}，在 visibilityTimeoutMs 内未确认、
+     * 被 {@link #nack(Message)} 或连接断开时由 Broker 重新投递，重试次数加一；0 表示取出即完成（默认）
+     * 消费组成员通过 {@link #commit()} 记录进度，不使用租约
+     */
+    public void setVisibilityTimeout(long visibilityTimeoutMs) {
+        if (visibilityTimeoutMs < 0) {
+            throw new IllegalArgumentException("Invalid visibility timeout: " + visibilityTimeoutMs);
+        }
+        this.visibilityTimeoutMs = visibilityTimeoutMs;
     }
 
+    /**
+     * 从所有 topic 中取一条消息
+     */
     public CompletableFuture<Message> consume() throws Exception {
-        long requestId = requestIdGen.incrementAndGet();
+        return consume(0);
+    }
 
-        Request req = new Request();
-        req.setType("consume");
-        req.setRequestId(requestId);
+    /**
+     * 长轮询消费：队列为空时服务端最多挂起 maxWaitMs 毫秒等待新消息，超时返回 null
+     */
+    public CompletableFuture<Message> consume(long maxWaitMs) throws Exception {
+        return consume((Collection<String>) null, maxWaitMs);
+    }
 
-        CompletableFuture<Message> future = new CompletableFuture<>();
-        pendingFutures.put(requestId, future);
+    /**
+     * 从指定的 topic 中取一条消息，topics 为 null 或空时消费所有 topic
+     */
+    public CompletableFuture<Message> consume(Collection<String> topics, long maxWaitMs) throws Exception {
+        Request req = new Request("consume", null, requestIdGen.incrementAndGet());
+        req.setTopics(toList(topics));
+        setConsumeMode(req);
+        req.setMaxWaitMs(maxWaitMs);
+        return request(req).thenApply(resp -> {
+            if (resp.getMessage() != null) {
+                track(Collections.singletonList(resp.getMessage()), resp.getLeases());
+            }
+            return resp.getMessage();
+        });
+    }
 
-        byte[] jsonBytes = mapper.writeValueAsBytes(req);
-        ByteBuf buf = Unpooled.wrappedBuffer(jsonBytes);
-        channel.writeAndFlush(buf);
+    public CompletableFuture<Message> consume(String topic, long maxWaitMs) throws Exception {
+        return consume(Collections.singletonList(topic), maxWaitMs);
+    }
 
-        return future;
+    /**
+     * 一次往返拉取多条消息，队列为空时返回空列表
+     *
+     * @param maxMessages 最多返回的消息数，0 表示使用服务端默认值
+     * @param maxBytes 负载字节数软上限，0 表示使用服务端默认值
+     */
+    public CompletableFuture<List<Message>> consumeBatch(int maxMessages, int maxBytes) throws Exception {
+        return consumeBatch(maxMessages, maxBytes, 0);
     }
 
-    public void close() {
-        group.shutdownGracefully();
-    }
-
-    static class Request {
-        private String type;
-        private long requestId;
-
-        public String getType() { return type; }
-        public void setType(String type) { this.type = type; }
-        public long getRequestId() { return requestId; }
-        public void setRequestId(long requestId) { this.requestId = requestId; }
-    }
-
-    static class Response {
-        private String status;
-        private Message message;
-        private String error;
-        private long requestId;
-
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
-        public Message getMessage() { return message; }
-        public void setMessage(Message message) { this.message = message; }
-        public String getError() { return error; }
-        public void setError(String error) { this.error = error; }
-        public long getRequestId() { return requestId; }
-        public void setRequestId(long requestId) { this.requestId = requestId; }
-    }
-
-    class ConsumerClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
-
-        @Override
-        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-            String json = msg.toString(StandardCharsets.UTF_8);
-            Response resp = mapper.readValue(json, Response.class);
-            CompletableFuture<Message> future = pendingFutures.remove(resp.getRequestId());
-
-            if (future != null) {
-                if ("ok".equals(resp.getStatus())) {
-                    future.complete(resp.getMessage());
-                } else if ("empty".equals(resp.getStatus())) {
-                    future.complete(null);
-                } else {
-                    future.completeExceptionally(new RuntimeException(resp.getError()));
+    /**
+     * 长轮询批量消费，maxWaitMs 为队列为空时服务端的最长挂起时间
+     */
+    public CompletableFuture<List<Message>> consumeBatch(int maxMessages, int maxBytes, long maxWaitMs) throws Exception {
+        return consumeBatch(null, maxMessages, maxBytes, maxWaitMs);
+    }
+
+    /**
+     * 从指定的 topic 中批量消费，多个 topic 由服务端轮流取数据
+     */
+    public CompletableFuture<List<Message>> consumeBatch(Collection<String> topics, int maxMessages, int maxBytes,
+                                                        long maxWaitMs) throws Exception {
+        Request req = new Request("consumeBatch", null, requestIdGen.incrementAndGet());
+        req.setTopics(toList(topics));
+        setConsumeMode(req);
+        req.setMaxMessages(maxMessages);
+        req.setMaxBytes(maxBytes);
+        req.setMaxWaitMs(maxWaitMs);
+        return request(req).thenApply(resp -> {
+            if (resp.getMessages() == null) {
+                return Collections.<Message>emptyList();
+            }
+            track(resp.getMessages(), resp.getLeases());
+            return resp.getMessages();
+        });
+    }
+
+    /**
+     * 从指定 offset 拉取消息，不影响其他消费者，需要 Broker 使用持久化存储
+     * 服务端直接发送日志文件中的一段数据，maxBytes 为单次拉取的字节数上限（0 表示默认值），
+     * 至少返回一条消息；已拉取到末尾时返回空列表
+     */
+    public CompletableFuture<FetchResult> fetch(long offset, int maxBytes) throws Exception {
+        return fetch(null, offset, maxBytes);
+    }
+
+    /**
+     * 从指定 topic 分区 0 的日志中拉取；topic 为 null 时读取默认 topic
+     */
+    public CompletableFuture<FetchResult> fetch(String topic, long offset, int maxBytes) throws Exception {
+        return fetch(topic, 0, offset, maxBytes);
+    }
+
+    /**
+     * 从 topic 的指定分区拉取，每个分区有独立的 offset 空间
+     */
+    public CompletableFuture<FetchResult> fetch(String topic, int partition, long offset, int maxBytes) throws Exception {
+        Request req = new Request("fetch", null, requestIdGen.incrementAndGet());
+        req.setTopics(topic != null ? Collections.singletonList(topic) : null);
+        req.setPartition(partition);
+        req.setOffset(offset);
+        req.setMaxBytes(maxBytes);
+        return request(req).thenApply(resp -> new FetchResult(
+                resp.getMessages() != null ? resp.getMessages() : Collections.<Message>emptyList(),
+                resp.getNextOffset()));
+    }
+
+    /**
+     * 订阅推送：服务端在 window 条的信用窗口内主动推送消息
+     * 每批推送交给 listener 后自动归还同等数量的信用；listener 在 I/O 线程上执行，不应阻塞
+     */
+    public CompletableFuture<Boolean> subscribe(int window, Consumer<Message> listener) throws Exception {
+        return subscribe(null, window, listener);
+    }
+
+    /**
+     * 订阅指定 topic 的推送，topics 为 null 或空时订阅所有 topic
+     */
+    public CompletableFuture<Boolean> subscribe(Collection<String> topics, int window, Consumer<Message> listener)
+            throws Exception {
+        return subscribe(topics, window, (message, partition) -> listener.accept(message), false);
+    }
+
+    /**
+     * @param manualCredit 为 true 时不自动归还信用，由调用方处理完消息后调用 {@link #credit(long, int)}
+     */
+    CompletableFuture<Boolean> subscribe(Collection<String> topics, int window, ObjIntConsumer<Message> listener,
+                                         boolean manualCredit) throws Exception {
+        if (subscriptionListener != null) {
+            throw new IllegalStateException("Already subscribed");
+        }
+        Request req = new Request("subscribe", null, requestIdGen.incrementAndGet());
+        req.setTopics(toList(topics));
+        setConsumeMode(req);
+        req.setCredits(window);
+
+        subscriptionId = req.getRequestId();
+        subscriptionTopics = req.getTopics();
+        subscriptionWindow = window;
+        this.manualCredit = manualCredit;
+        subscriptionListener = listener;
+        return request(req).thenApply(resp -> true);
+    }
+
+    public CompletableFuture<Boolean> unsubscribe() throws Exception {
+        subscriptionListener = null;
+        subscriptionTopics = null;
+        Request req = new Request("unsubscribe", null, requestIdGen.incrementAndGet());
+        return request(req).thenApply(resp -> true);
+    }
+
+    /**
+     * 确认消息处理完成
+     */
+    public CompletableFuture<Boolean> ack(Message message) throws Exception {
+        return settle("ack", Collections.singletonList(message), MsgState.CONFIRMED);
+    }
+
+    public CompletableFuture<Boolean> ack(Collection<Message> messages) throws Exception {
+        return settle("ack", messages, MsgState.CONFIRMED);
+    }
+
+    /**
+     * 处理失败，请 Broker 立即重新投递
+     */
+    public CompletableFuture<Boolean> nack(Message message) throws Exception {
+        return settle("nack", Collections.singletonList(message), MsgState.FAILED);
+    }
+
+    public CompletableFuture<Boolean> nack(Collection<Message> messages) throws Exception {
+        return settle("nack", messages, MsgState.FAILED);
+    }
+
+    /**
+     * 一次请求结算多条消息；租约已超时的消息已被重新投递，此时返回的 future 以异常结束
+     * 租约在结算成功后才移除，其他失败保留租约以便重试；连接断开时 Broker 已收回租约，本地记录随之作废
+     */
+    private CompletableFuture<Boolean> settle(String type, Collection<Message> messages, MsgState state) {
+        String[] messageIds = new String[messages.size()];
+        long[] ids = new long[messages.size()];
+        int i = 0;
+        for (Message message : messages) {
+            String messageId = message.getId();
+            Long lease = messageId != null ? leases.get(messageId) : null;
+            if (lease == null) {
+                CompletableFuture<Boolean> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("No lease for message " + messageId));
+                return failed;
+            }
+            messageIds[i] = messageId;
+            ids[i++] = lease;
+        }
+        Request req = new Request(type, null, requestIdGen.incrementAndGet());
+        req.setLeases(ids);
+        return request(req).handle((resp, cause) -> {
+            if (cause == null || isConnectionLost(cause)) {
+                // 只移除这次结算的租约，期间重新投递登记的新租约保留
+                for (int j = 0; j < ids.length; j++) {
+                    leases.remove(messageIds[j], ids[j]);
                 }
             }
+            if (cause != null) {
+                throw cause instanceof CompletionException
+                        ? (CompletionException) cause : new CompletionException(cause);
+            }
+            for (Message message : messages) {
+                message.setState(state);
+            }
+            return true;
+        });
+    }
+
+    private static boolean isConnectionLost(Throwable cause) {
+        Throwable root = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+        return root instanceof ConnectionClosedException || root instanceof ClosedChannelException;
+    }
+
+    private void setConsumeMode(Request req) {
+        if (groupName != null) {
+            req.setGroup(groupName);
+        } else {
+            req.setVisibilityTimeoutMs(visibilityTimeoutMs);
         }
+    }
+
+    /**
+     * 记下按租约投递的消息，结算前处于 SENT 状态
+     */
+    private void track(List<Message> messages, long[] ids) {
+        if (ids == null) {
+            return;
+        }
+        for (int i = 0; i < ids.length && i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message.getId() == null) {
+                // 没有 id 的消息无法结算，等租约超时后由 Broker 重新投递
+                logger.warn("Cannot track message without id on lease {}", ids[i]);
+                continue;
+            }
+            message.setState(MsgState.SENT);
+            leases.put(message.getId(), ids[i]);
+        }
+    }
 
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-            cause.printStackTrace();
-            ctx.close();
+    /**
+     * 加入消费组：组内成员分摊 topics 的分区，分区由 Broker 分配并在成员变化时重新分配
+     * 加入后的消费请求忽略 topic 参数，从组已提交的 offset 开始读取；需要 Broker 使用持久化存储
+     */
+    public CompletableFuture<Boolean> joinGroup(String group, Collection<String> topics) throws Exception {
+        if (groupName != null) {
+            throw new IllegalStateException("Already joined group " + groupName);
         }
+        Request req = new Request("join", null, requestIdGen.incrementAndGet());
+        req.setGroup(group);
+        req.setTopics(toList(topics));
+        return request(req).thenApply(resp -> {
+            groupName = group;
+            groupTopics = req.getTopics();
+            return true;
+        });
+    }
+
+    /**
+     * 提交已收到的消息，应在处理完成后调用；未提交的消息在分区转给其他成员后会再次投递
+     */
+    public CompletableFuture<Boolean> commit() throws Exception {
+        Request req = new Request("commit", null, requestIdGen.incrementAndGet());
+        req.setGroup(groupName);
+        return request(req).thenApply(resp -> true);
+    }
+
+    public CompletableFuture<Boolean> leaveGroup() throws Exception {
+        groupName = null;
+        groupTopics = null;
+        Request req = new Request("leave", null, requestIdGen.incrementAndGet());
+        return request(req).thenApply(resp -> true);
+    }
+
+    private void onPush(Response resp) {
+        ObjIntConsumer<Message> listener = subscriptionListener;
+        List<Message> messages = resp.getMessages();
+        if (listener == null || resp.getRequestId() != subscriptionId || messages == null) {
+            return;
+        }
+        track(messages, resp.getLeases());
+        int[] partitions = resp.getRecordPartitions();
+        for (int i = 0; i < messages.size(); i++) {
+            listener.accept(messages.get(i), partitions != null && i < partitions.length ? partitions[i] : -1);
+        }
+        if (!manualCredit) {
+            credit(resp.getRequestId(), messages.size());
+        }
+    }
+
+    /**
+     * 当前推送订阅的标识，重连后重新订阅时改变
+     */
+    long subscriptionId() {
+        return subscriptionId;
+    }
+
+    /**
+     * 向推送订阅归还 credits 条信用
+     * 重连后旧订阅的信用窗口已随连接作废，属于旧订阅的信用直接丢弃，不会叠加到新订阅的窗口上
+     *
+     * @param subscription 信用所属的订阅，即推送消息时的 {@link #subscriptionId()}
+     */
+    void credit(long subscription, int credits) {
+        if (subscription != subscriptionId) {
+            return;
+        }
+        // credit 命令没有响应
+        Request credit = new Request("credit", null, requestIdGen.incrementAndGet());
+        credit.setCredits(credits);
+        pool.send(credit);
+    }
+
+    /**
+     * 重连成功后恢复连接上的状态，在 I/O 线程上执行
+     * 旧连接上的租约已被 Broker 收回，本地记录随之作废
+     */
+    private void restore() {
+        leases.clear();
+        String group = groupName;
+        if (group != null) {
+            Request join = new Request("join", null, requestIdGen.incrementAndGet());
+            join.setGroup(group);
+            join.setTopics(groupTopics);
+            request(join).whenComplete((resp, cause) -> {
+                if (cause != null) {
+                    logger.warn("Failed to rejoin group {} after reconnect", group, cause);
+                }
+            });
+        }
+        if (subscriptionListener != null) {
+            Request subscribe = new Request("subscribe", null, requestIdGen.incrementAndGet());
+            subscribe.setTopics(subscriptionTopics);
+            setConsumeMode(subscribe);
+            subscribe.setCredits(subscriptionWindow);
+            subscriptionId = subscribe.getRequestId();
+            request(subscribe).whenComplete((resp, cause) -> {
+                if (cause != null) {
+                    logger.warn("Failed to resubscribe after reconnect", cause);
+                }
+            });
+        }
+    }
+
+    private static List<String> toList(Collection<String> topics) {
+        return topics == null || topics.isEmpty() ? null : new ArrayList<>(topics);
+    }
+
+    private CompletableFuture<Response> request(Request req) {
+        return pool.request(req);
+    }
+
+    public void close() {
+        pool.close();
+        ClientRuntime.release(runtime);
     }
 }
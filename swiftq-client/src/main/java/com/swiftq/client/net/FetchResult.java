@@ -0,0 +1,25 @@
+package com.swiftq.client.net;
+
+import com.swiftq.common.Message;
+
+import java.util.List;
+
+/**
+ * 按 offset 拉取的结果
+ */
+public class FetchResult {
+    private final List<Message> messages;
+    private final long nextOffset;
+
+    public FetchResult(List<Message> messages, long nextOffset) {
+        this.messages = messages;
+        this.nextOffset = nextOffset;
+    }
+
+    public List<Message> getMessages() { return messages; }
+
+    /**
+     * 继续拉取时使用的 offset
+     */
+    public long getNextOffset() { return nextOffset; }
+}
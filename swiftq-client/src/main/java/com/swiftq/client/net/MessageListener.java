@@ -0,0 +1,15 @@
+package com.swiftq.client.net;
+
+import com.swiftq.common.Message;
+
+/**
+ * {@link PushConsumer} 的消息处理回调，在工作线程上执行
+ */
+@FunctionalInterface
+public interface MessageListener {
+
+    /**
+     * 处理一条消息；正常返回视为处理成功，按租约消费时自动 ack，抛出异常时自动 nack，无需自行结算
+     */
+    void onMessage(Message message) throws Exception;
+}
@@ -0,0 +1,79 @@
+package com.swiftq.client.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 按键保序、全局限流的任务分发
+ * 同一个键的任务依次执行，不同键与没有键的任务并发执行；同时执行的任务数不超过 maxConcurrency
+ *
+ * 许可在执行线程上获取，分发方从不阻塞；配合虚拟线程时等待许可的线程几乎没有开销
+ */
+final class OrderedDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderedDispatcher.class);
+
+    private final Executor executor;
+    private final Semaphore permits;
+    // 键 -> 等待执行的任务，队列只在 compute 中访问；为空时移除，之后的任务重新建队列并启动执行
+    private final ConcurrentHashMap<String, ArrayDeque<Runnable>> queues = new ConcurrentHashMap<>();
+
+    OrderedDispatcher(Executor executor, int maxConcurrency) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * @param key 为 null 时不保序
+     */
+    void dispatch(String key, Runnable task) {
+        if (key == null) {
+            executor.execute(() -> runWithPermit(task));
+            return;
+        }
+        boolean[] start = new boolean[1];
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                start[0] = true;
+            }
+            queue.add(task);
+            return queue;
+        });
+        if (start[0]) {
+            executor.execute(() -> drain(key));
+        }
+    }
+
+    private void drain(String key) {
+        Runnable[] next = new Runnable[1];
+        while (true) {
+            next[0] = null;
+            queues.computeIfPresent(key, (k, queue) -> {
+                next[0] = queue.poll();
+                return next[0] != null ? queue : null;
+            });
+            if (next[0] == null) {
+                return;
+            }
+            runWithPermit(next[0]);
+        }
+    }
+
+    private void runWithPermit(Runnable task) {
+        permits.acquireUninterruptibly();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // 不能让异常中断同一个键后续任务的执行
+            logger.warn("Dispatched task failed", e);
+        } finally {
+            permits.release();
+        }
+    }
+}
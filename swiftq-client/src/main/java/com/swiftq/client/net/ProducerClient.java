@@ -1,124 +1,399 @@
 package com.swiftq.client.net;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.swiftq.broker.protocol.Compression;
+import com.swiftq.broker.protocol.Partitioner;
+import com.swiftq.broker.protocol.Protocol;
+import com.swiftq.broker.protocol.Request;
+import com.swiftq.broker.protocol.Response;
+import com.swiftq.broker.protocol.WireFormat;
 import com.swiftq.common.Message;
-import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
-import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
-
-import java.nio.charset.StandardCharsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class ProducerClient {
 
+    private static final Logger logger = LoggerFactory.getLogger(ProducerClient.class);
+
     private final String host;
     private final int port;
-    private Channel channel;
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final EventLoopGroup group = new NioEventLoopGroup();
-
-    // 用于保存请求与回调的映射，支持多请求异步返回
-    private final ConcurrentHashMap<Long, CompletableFuture<Boolean>> pendingFutures = new ConcurrentHashMap<>();
+    private final WireFormat format;
+    private final ObjectMapper mapper = Protocol.newObjectMapper();
+    private ClientRuntime runtime;
+    private ConnectionPool pool;
     private final AtomicLong requestIdGen = new AtomicLong(0);
 
+    // 连接数与请求超时
+    private int connections = 1;
+    private long requestTimeoutMs = 30_000;
+
+    // 在途请求上限：达到上限后发送方阻塞等待，最多 maxBlockMs，超时后请求失败
+    private int maxInFlightRequests = 1024;
+    private long maxBlockMs = 60_000;
+    private Semaphore inFlight;
+
+    // 批量累积：batchSize 为 0 时每次 send 单独发送
+    private int batchSize;
+    private long lingerMs;
+    private long bufferMemory;
+    private RecordAccumulator accumulator;
+
+    // 希望使用的压缩算法与服务端在 metadata 中接受的算法，两者一致时发布请求才压缩；只对二进制格式生效
+    private volatile Compression compression = Compression.NONE;
+    private volatile Compression negotiated = Compression.NONE;
+
+    // topic -> 分区数，由 metadata 请求填充
+    private final ConcurrentHashMap<String, Integer> partitionCounts = new ConcurrentHashMap<>();
+    private final Set<String> metadataRequests = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, AtomicInteger> roundRobin = new ConcurrentHashMap<>();
+
     public ProducerClient(String host, int port) {
+        this(host, port, WireFormat.BINARY);
+    }
+
+    public ProducerClient(String host, int port, WireFormat format) {
         this.host = host;
         this.port = port;
+        this.format = format;
     }
 
+    /**
+     * 设置在途请求上限与达到上限时发送方的最长阻塞时间，需在 connect 之前调用
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests, long maxBlockMs) {
+        if (maxInFlightRequests <= 0 || maxBlockMs < 0) {
+            throw new IllegalArgumentException("Invalid in-flight limit: " + maxInFlightRequests + ", " + maxBlockMs);
+        }
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.maxBlockMs = maxBlockMs;
+    }
+
+    /**
+     * 开启批量累积，需在 connect 之前调用
+     * 同一分区的消息累积到约 batchSize 字节或等待 lingerMs 后合并为一个请求发送；
+     * 未确认的批次最多占用 bufferMemory 字节，超出时 send 阻塞，阻塞时间受 maxBlockMs 限制
+     */
+    public void setBatching(int batchSize, long lingerMs, long bufferMemory) {
+        if (batchSize <= 0 || lingerMs < 0 || bufferMemory < batchSize) {
+            throw new IllegalArgumentException(
+                    "Invalid batching config: " + batchSize + ", " + lingerMs + ", " + bufferMemory);
+        }
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.bufferMemory = bufferMemory;
+    }
+
+    /**
+     * 设置发布请求的压缩算法，请求中的整组消息压缩成一个块，服务端解压后存储
+     * 算法在 metadata 请求中与服务端协商：connect 时即协商，之后在 connect 后设置的算法随下一次 metadata 请求协商；
+     * 服务端不接受该算法或协商完成之前，发布请求不压缩
+     */
+    public void setCompression(Compression compression) {
+        if (compression == null) {
+            throw new IllegalArgumentException("Compression must not be null");
+        }
+        this.compression = compression;
+    }
+
+    /**
+     * 设置到 Broker 的连接数，需在 connect 之前调用
+     * 请求发往等待响应最少的连接；多于一条连接时，不同请求之间的先后顺序不再保证
+     */
+    public void setConnections(int connections) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("Invalid connection count: " + connections);
+        }
+        this.connections = connections;
+    }
+
+    /**
+     * 设置请求的超时时间，超时未收到响应的请求以 TimeoutException 失败；0 表示不限，需在 connect 之前调用
+     */
+    public void setRequestTimeout(long requestTimeoutMs) {
+        if (requestTimeoutMs < 0) {
+            throw new IllegalArgumentException("Invalid request timeout: " + requestTimeoutMs);
+        }
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * 使用进程内共享的 EventLoop 建立连接；断开的连接在后台按退避间隔自动重连
+     */
     public void connect() throws InterruptedException {
-        Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(group)
-                 .channel(NioSocketChannel.class)
-                 .handler(new ChannelInitializer<Channel>() {
-                     @Override
-                     protected void initChannel(Channel ch) {
-                         ch.pipeline().addLast(new ProducerClientHandler());
-                     }
-                 });
+        inFlight = new Semaphore(maxInFlightRequests);
+        runtime = ClientRuntime.acquire();
+        pool = new ConnectionPool(runtime, host, port, mapper, format, connections, requestTimeoutMs, null, null);
+        try {
+            pool.connect();
+        } catch (Throwable e) {
+            ClientRuntime.release(runtime);
+            throw e;
+        }
+        if (batchSize > 0) {
+            accumulator = new RecordAccumulator(batchSize, lingerMs, bufferMemory, maxBlockMs,
+                    runtime, this::sendAccumulated);
+        }
+        if (compression != Compression.NONE && format == WireFormat.BINARY) {
+            negotiateCompression();
+        }
+    }
 
-        ChannelFuture future = bootstrap.connect(host, port).sync();
-        channel = future.channel();
+    /**
+     * 连接时的 metadata 请求：协商压缩算法，同时预取所有 topic 的分区数
+     * 协商失败不影响连接，发布请求不压缩，之后的 metadata 请求会再次协商
+     */
+    private void negotiateCompression() throws InterruptedException {
+        Request req = new Request("metadata", null, requestIdGen.incrementAndGet());
+        req.setCompression(compression);
+        try {
+            onMetadata(request(req).get(requestTimeoutMs > 0 ? requestTimeoutMs : maxBlockMs, TimeUnit.MILLISECONDS));
+            if (negotiated != compression) {
+                logger.warn("Broker does not accept {} compression, publishing uncompressed", compression);
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Compression negotiation failed, publishing uncompressed", e);
+        }
+    }
+
+    private void onMetadata(Response resp) {
+        if (resp.getPartitions() != null) {
+            partitionCounts.putAll(resp.getPartitions());
+        }
+        if (resp.getCompression() != null) {
+            negotiated = resp.getCompression();
+        }
     }
 
+    /**
+     * 发布请求实际使用的压缩算法
+     */
+    private Compression compression() {
+        Compression wanted = compression;
+        return wanted == negotiated ? wanted : Compression.NONE;
+    }
+
+    /**
+     * 发布一条消息
+     * 已知 topic 的分区数时在本地选择分区：带键的消息按键哈希，没有键的消息轮流发往各分区；
+     * 分区数未知时交给服务端按同样的规则选择，同时在后台拉取分区数
+     * 开启批量累积后，没有键的消息沿用同一个分区直到该分区的批次发出
+     */
     public CompletableFuture<Boolean> send(Message message) throws Exception {
-        long requestId = requestIdGen.incrementAndGet();
+        if (accumulator != null && message.getTopic() != null) {
+            return accumulator.append(message, partitionOf(message, accumulator.stickyPartitions()));
+        }
+        Request req = new Request("publish", message, requestIdGen.incrementAndGet());
+        req.setPartition(partitionOf(message, null));
+        req.setCompression(compression());
+        return request(req).thenApply(resp -> true);
+    }
 
-        Request req = new Request();
-        req.setType("publish");
-        req.setMessage(message);
-        req.setRequestId(requestId);
+    /**
+     * 一次请求发布多条消息，整批共用一个响应
+     * 批次按目标分区拆成多个请求，没有键的消息在一个批次内发往同一个分区
+     */
+    public CompletableFuture<Boolean> sendBatch(List<Message> messages) throws Exception {
+        Map<String, PartitionBatch> batches = new LinkedHashMap<>();
+        Map<String, Integer> sticky = new HashMap<>();
+        for (Message message : messages) {
+            int partition = message != null ? partitionOf(message, sticky) : -1;
+            String topic = message != null ? message.getTopic() : null;
+            batches.computeIfAbsent(topic + '\u0000' + partition, k -> new PartitionBatch(partition)).messages.add(message);
+        }
+
+        List<CompletableFuture<Response>> futures = new ArrayList<>(batches.size());
+        for (PartitionBatch batch : batches.values()) {
+            Request req = new Request("publishBatch", null, requestIdGen.incrementAndGet());
+            req.setMessages(batch.messages);
+            req.setPartition(batch.partition);
+            req.setCompression(compression());
+            futures.add(request(req));
+        }
+        if (futures.size() == 1) {
+            return futures.get(0).thenApply(resp -> true);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> true);
+    }
+
+    /**
+     * 立即发出所有正在累积的批次
+     */
+    public void flush() {
+        if (accumulator != null) {
+            accumulator.flush();
+        }
+    }
+
+    /**
+     * 把 topic 死信队列中最多 maxMessages 条消息移回 topic，重试次数清零
+     *
+     * @param maxMessages 不大于 0 时由服务端决定单次数量
+     * @return 移回的条数，为 0 时死信队列已清空
+     */
+    public CompletableFuture<Integer> redrive(String topic, int maxMessages) {
+        Request req = new Request("redrive", null, requestIdGen.incrementAndGet());
+        req.setTopics(Collections.singletonList(topic));
+        req.setMaxMessages(maxMessages);
+        return request(req).thenApply(Response::getCount);
+    }
 
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
-        pendingFutures.put(requestId, future);
+    /**
+     * @param sticky 不为 null 时没有键的消息沿用其中记录的本批次分区
+     * @return 分区数未知时返回 -1，由服务端选择
+     */
+    private int partitionOf(Message message, Map<String, Integer> sticky) {
+        String topic = message.getTopic();
+        if (topic == null) {
+            return -1;
+        }
+        Integer partitions = partitionCounts.get(topic);
+        if (partitions == null) {
+            refreshMetadata(topic);
+            return -1;
+        }
+        String key = Partitioner.keyOf(message);
+        if (key != null) {
+            return Partitioner.partitionForKey(key, partitions);
+        }
+        if (sticky != null) {
+            return sticky.computeIfAbsent(topic, t -> nextPartition(t, partitions));
+        }
+        return nextPartition(topic, partitions);
+    }
 
-        byte[] jsonBytes = mapper.writeValueAsBytes(req);
-        ByteBuf buf = Unpooled.wrappedBuffer(jsonBytes);
-        channel.writeAndFlush(buf);
+    private int nextPartition(String topic, int partitions) {
+        AtomicInteger counter = roundRobin.computeIfAbsent(topic, t -> new AtomicInteger());
+        return (counter.getAndIncrement() & Integer.MAX_VALUE) % partitions;
+    }
+
+    /**
+     * 拉取 topic 的分区数，同一个 topic 同时只有一个请求
+     */
+    private void refreshMetadata(String topic) {
+        if (!metadataRequests.add(topic)) {
+            return;
+        }
+        Request req = new Request("metadata", null, requestIdGen.incrementAndGet());
+        req.setTopics(Collections.singletonList(topic));
+        req.setCompression(compression);
+        request(req).whenComplete((resp, cause) -> {
+            if (resp != null) {
+                onMetadata(resp);
+            }
+            metadataRequests.remove(topic);
+        });
+    }
 
+    private CompletableFuture<Response> request(Request req) {
+        if (!acquire()) {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException(
+                    "Too many in-flight requests (" + maxInFlightRequests + ")"));
+            return future;
+        }
+        return dispatch(req);
+    }
+
+    /**
+     * 发出累积器中的一个批次；在 I/O 线程上没有在途名额时返回 null，由累积器在名额归还后重试
+     */
+    private CompletableFuture<Response> sendAccumulated(String topic, int partition, List<Message> messages) {
+        Request req = new Request("publishBatch", null, requestIdGen.incrementAndGet());
+        req.setMessages(messages);
+        req.setPartition(partition);
+        req.setCompression(compression());
+        if (runtime.inEventLoop()) {
+            return inFlight.tryAcquire() ? dispatch(req) : null;
+        }
+        return request(req);
+    }
+
+    /**
+     * 已占用在途名额后发出请求
+     */
+    private CompletableFuture<Response> dispatch(Request req) {
+        CompletableFuture<Response> future = pool.request(req);
+        future.whenComplete((resp, cause) -> {
+            inFlight.release();
+            if (accumulator != null) {
+                accumulator.permitReleased();
+            }
+        });
         return future;
     }
 
+    /**
+     * 占用一个在途名额；在 I/O 线程上调用时不等待，否则响应无法被处理
+     */
+    private boolean acquire() {
+        if (runtime.inEventLoop()) {
+            return inFlight.tryAcquire();
+        }
+        try {
+            return inFlight.tryAcquire(maxBlockMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class PartitionBatch {
+        final int partition;
+        final List<Message> messages = new ArrayList<>();
+
+        PartitionBatch(int partition) {
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * 发出正在累积的批次，等待已发出的请求收到响应后再关闭连接，最多等待一个请求超时时间；
+     * 在 I/O 线程上调用时不等待
+     */
     public void close() {
-        group.shutdownGracefully();
-    }
-
-    // 内部消息格式
-    static class Request {
-        private String type;
-        private Message message;
-        private long requestId;
-
-        public String getType() { return type; }
-        public void setType(String type) { this.type = type; }
-        public Message getMessage() { return message; }
-        public void setMessage(Message message) { this.message = message; }
-        public long getRequestId() { return requestId; }
-        public void setRequestId(long requestId) { this.requestId = requestId; }
-    }
-
-    static class Response {
-        private String status;
-        private String error;
-        private long requestId;
-        private Object message; // 添加 message 字段以兼容服务器响应
-
-        public String getStatus() { return status; }
-        public void setStatus(String status) { this.status = status; }
-        public String getError() { return error; }
-        public void setError(String error) { this.error = error; }
-        public long getRequestId() { return requestId; }
-        public void setRequestId(long requestId) { this.requestId = requestId; }
-        public Object getMessage() { return message; }
-        public void setMessage(Object message) { this.message = message; }
-    }
-
-    class ProducerClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
-
-        @Override
-        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-            String json = msg.toString(StandardCharsets.UTF_8);
-            Response resp = mapper.readValue(json, Response.class);
-            CompletableFuture<Boolean> future = pendingFutures.remove(resp.getRequestId());
-
-            if (future != null) {
-                if ("ok".equals(resp.getStatus())) {
-                    future.complete(true);
-                } else {
-                    future.completeExceptionally(new RuntimeException(resp.getError()));
-                }
-            }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMs);
+        if (accumulator != null && !accumulator.close(requestTimeoutMs)) {
+            logger.warn("Closing producer with unfinished batches");
+        }
+        if (!runtime.inEventLoop() && !awaitInFlight(deadline)) {
+            logger.warn("Closing producer with requests still in flight");
         }
+        pool.close();
+        ClientRuntime.release(runtime);
+    }
 
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-            cause.printStackTrace();
-            ctx.close();
+    /**
+     * 收回全部在途名额即所有请求都已完成
+     */
+    private boolean awaitInFlight(long deadline) {
+        try {
+            if (requestTimeoutMs == 0) {
+                inFlight.acquire(maxInFlightRequests);
+            } else if (!inFlight.tryAcquire(maxInFlightRequests,
+                    Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            inFlight.release(maxInFlightRequests);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 }
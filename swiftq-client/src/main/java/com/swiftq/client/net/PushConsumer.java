@@ -0,0 +1,249 @@
+package com.swiftq.client.net;
+
+import com.swiftq.broker.protocol.Partitioner;
+import com.swiftq.common.Message;
+import com.swiftq.common.MsgState;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 预取式推送消费者
+ * 基于 {@link ConsumerClient} 的推送订阅，Broker 最多预先推送 prefetchCount 条消息到本地缓冲，
+ * 消息交给工作线程池中的 {@link MessageListener} 处理；处理完成（按租约消费时为 ack / nack 完成）后
+ * 才归还信用，缓冲的消息字节数超过 prefetchBytes 时暂停归还，Broker 随之停止推送
+ *
+ * 工作线程多于一个时消息并发处理，不保证顺序。
+ * 虚拟线程模式（Java 21 及以上）下每条消息在自己的虚拟线程上处理，适合阻塞的处理逻辑：
+ * 同一 topic 同一分区的消息按推送顺序依次处理，不同分区并发处理，同时处理的消息数不超过设定的上限
+ */
+public class PushConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushConsumer.class);
+
+    private final ConsumerClient client;
+    private final MessageListener listener;
+
+    private int prefetchCount = 1000;
+    private long prefetchBytes = 64L * 1024 * 1024;
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+    private boolean ownsExecutor;
+    // 大于 0 时使用虚拟线程模式，为同时处理的消息数上限
+    private int maxConcurrency;
+    private OrderedDispatcher dispatcher;
+
+    // 已推送到本地但尚未处理完的消息数与估算字节数，处理完但尚未归还的信用及其所属的订阅
+    private final Object lock = new Object();
+    private int buffered;
+    private long bufferedBytes;
+    private int owedCredits;
+    private long creditSubscription;
+    // 攒够这么多信用再归还，减少 credit 命令
+    private int creditBatch;
+    private volatile boolean running;
+
+    /**
+     * @param client 已连接的消费客户端，其租约与消费组设置同样作用于推送
+     */
+    public PushConsumer(ConsumerClient client, MessageListener listener) {
+        this.client = client;
+        this.listener = listener;
+    }
+
+    /**
+     * 设置本地缓冲的上限，需在 start 之前调用
+     *
+     * @param prefetchCount Broker 可以预先推送的消息数，即订阅的信用窗口
+     * @param prefetchBytes 缓冲的消息字节数超过该值时暂停归还信用
+     */
+    public void setPrefetch(int prefetchCount, long prefetchBytes) {
+        if (prefetchCount <= 0 || prefetchBytes <= 0) {
+            throw new IllegalArgumentException("Invalid prefetch: " + prefetchCount + ", " + prefetchBytes);
+        }
+        this.prefetchCount = prefetchCount;
+        this.prefetchBytes = prefetchBytes;
+    }
+
+    /**
+     * 设置内部工作线程数，需在 start 之前调用；为 1 时按推送顺序处理
+     */
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("Invalid worker threads: " + workerThreads);
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * 使用调用方的线程池处理消息，close 时不会关闭它；需在 start 之前调用，虚拟线程模式下不使用
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 开启虚拟线程模式，需在 start 之前调用，需要 Java 21 及以上的运行时
+     * 预取窗口可以相应放大，让足够多的阻塞处理同时进行
+     *
+     * @param maxConcurrency 同时处理的消息数上限
+     */
+    public void setVirtualThreads(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency: " + maxConcurrency);
+        }
+        if (!VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public CompletableFuture<Boolean> start() throws Exception {
+        return start((Collection<String>) null);
+    }
+
+    public CompletableFuture<Boolean> start(String topic) throws Exception {
+        return start(Collections.singletonList(topic));
+    }
+
+    /**
+     * 订阅 topics 并开始处理，topics 为 null 或空时订阅所有 topic
+     */
+    public CompletableFuture<Boolean> start(Collection<String> topics) throws Exception {
+        if (running) {
+            throw new IllegalStateException("Already started");
+        }
+        if (maxConcurrency > 0) {
+            executor = VirtualThreads.newExecutor("swiftq-consumer");
+            ownsExecutor = true;
+            dispatcher = new OrderedDispatcher(executor, maxConcurrency);
+        } else if (executor == null) {
+            executor = Executors.newFixedThreadPool(workerThreads, new DefaultThreadFactory("swiftq-consumer"));
+            ownsExecutor = true;
+        }
+        creditBatch = Math.max(1, prefetchCount / 4);
+        running = true;
+        return client.subscribe(topics, prefetchCount, this::onPush, true);
+    }
+
+    /**
+     * 本地缓冲中尚未处理完的消息数
+     */
+    public int buffered() {
+        synchronized (lock) {
+            return buffered;
+        }
+    }
+
+    /**
+     * 取消订阅；自建的线程池处理完已缓冲的消息后退出
+     */
+    public void close() throws Exception {
+        running = false;
+        try {
+            client.unsubscribe();
+        } finally {
+            if (ownsExecutor) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 在 I/O 线程上执行，只登记并转交给工作线程
+     */
+    private void onPush(Message message, int partition) {
+        int size = RecordAccumulator.estimateSize(message);
+        long subscription = client.subscriptionId();
+        synchronized (lock) {
+            buffered++;
+            bufferedBytes += size;
+        }
+        try {
+            if (dispatcher != null) {
+                dispatcher.dispatch(orderingKey(message, partition), () -> handle(message, size, subscription));
+            } else {
+                executor.execute(() -> handle(message, size, subscription));
+            }
+        } catch (RejectedExecutionException e) {
+            // 已关闭，按租约消费的消息由 Broker 在超时后重新投递
+            done(size, subscription);
+        }
+    }
+
+    /**
+     * 按 topic/partition 保序；服务端没有返回分区时退回到按键保序，没有键的消息不保序
+     */
+    static String orderingKey(Message message, int partition) {
+        if (partition >= 0) {
+            return message.getTopic() + '/' + partition;
+        }
+        String key = Partitioner.keyOf(message);
+        return key != null ? message.getTopic() + '\u0000' + key : null;
+    }
+
+    private void handle(Message message, int size, long subscription) {
+        boolean success;
+        try {
+            listener.onMessage(message);
+            success = true;
+        } catch (Throwable e) {
+            logger.warn("Listener failed on message {}", message.getId(), e);
+            success = false;
+        }
+        if (message.getState() != MsgState.SENT) {
+            done(size, subscription);
+            return;
+        }
+        // 按租约投递的消息，结算完成后再归还信用
+        CompletableFuture<Boolean> settled;
+        try {
+            settled = success ? client.ack(message) : client.nack(message);
+        } catch (Exception e) {
+            settled = new CompletableFuture<>();
+            settled.completeExceptionally(e);
+        }
+        settled.whenComplete((v, cause) -> {
+            if (cause != null) {
+                logger.warn("Failed to settle message {}", message.getId(), cause);
+            }
+            done(size, subscription);
+        });
+    }
+
+    /**
+     * @param subscription 推送该消息的订阅；断线重连后重新订阅时 Broker 已给出完整的新窗口，
+     *                     旧订阅的消息处理完只释放缓冲，不再归还信用，否则每次重连窗口都会变大
+     */
+    private void done(int size, long subscription) {
+        int credits = 0;
+        long current = client.subscriptionId();
+        synchronized (lock) {
+            buffered--;
+            bufferedBytes -= size;
+            if (creditSubscription != current) {
+                // 欠下的信用属于旧订阅，随之作废
+                creditSubscription = current;
+                owedCredits = 0;
+            }
+            if (subscription == current) {
+                owedCredits++;
+            }
+            // 缓冲清空时总是归还，保证不会因为攒批而停住
+            if (bufferedBytes < prefetchBytes && (owedCredits >= creditBatch || buffered == 0)) {
+                credits = owedCredits;
+                owedCredits = 0;
+            }
+        }
+        if (credits > 0 && running) {
+            client.credit(current, credits);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.swiftq.client.net;
+
+import com.swiftq.broker.protocol.Response;
+import com.swiftq.common.Message;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 生产者端的消息累积器
+ * 每个 topic 分区保留一个正在累积的批次，批次估算大小达到 batchSize 时由发送线程立即发出，
+ * 否则在创建 lingerMs 之后由 EventLoop 发出；每条消息仍有自己的 future，在整批的响应到达时完成
+ *
+ * 未发出与未确认的批次占用的内存不超过 bufferMemory，不足时发送方最多阻塞 maxBlockMs，
+ * 在 EventLoop 上不阻塞，直接失败
+ *
+ * 在途请求已满时批次按顺序排队，在途名额释放时（{@link #permitReleased()}）再发出，
+ * 排队超过 lingerMs + maxBlockMs 的批次失败
+ *
+ * 关闭时拒绝新消息，发出所有批次并等待它们的响应；此后仍在排队的批次失败
+ */
+class RecordAccumulator {
+
+    /**
+     * 发出一个批次；在途请求已满且不能等待时返回 null，由累积器在名额释放后重试
+     */
+    interface Sender {
+        CompletableFuture<Response> send(String topic, int partition, List<Message> messages);
+    }
+
+    // 估算消息大小时每条消息的固定开销
+    private static final int RECORD_OVERHEAD = 64;
+
+    private final int batchSize;
+    private final long lingerMs;
+    private final long bufferMemory;
+    private final long maxBlockMs;
+    private final ClientRuntime runtime;
+    // 批次的 linger 定时与排队批次的重试在这个 EventLoop 上执行
+    private final EventLoop eventLoop;
+    private final Sender sender;
+
+    // topic + 分区 -> 正在累积的批次
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<>();
+    // 没有键的消息沿用 topic 当前的分区，直到该分区的批次发出
+    private final ConcurrentHashMap<String, Integer> stickyPartitions = new ConcurrentHashMap<>();
+    // 等待在途名额的批次，按发出顺序排队
+    private final ConcurrentLinkedDeque<Batch> blocked = new ConcurrentLinkedDeque<>();
+
+    private final ReentrantLock memoryLock = new ReentrantLock();
+    private final Condition memoryFreed = memoryLock.newCondition();
+    private long availableMemory;
+
+    private volatile boolean closed;
+    // 关闭流程结束，等待发出的批次直接失败
+    private volatile boolean terminated;
+
+    RecordAccumulator(int batchSize, long lingerMs, long bufferMemory, long maxBlockMs,
+                      ClientRuntime runtime, Sender sender) {
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.bufferMemory = bufferMemory;
+        this.maxBlockMs = maxBlockMs;
+        this.runtime = runtime;
+        this.eventLoop = runtime.group().next();
+        this.sender = sender;
+        this.availableMemory = bufferMemory;
+    }
+
+    Map<String, Integer> stickyPartitions() {
+        return stickyPartitions;
+    }
+
+    /**
+     * 把消息加入 topic 分区的批次
+     *
+     * @param partition 为 -1 时由服务端选择分区
+     */
+    CompletableFuture<Boolean> append(Message message, int partition) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Producer closed"));
+            return future;
+        }
+        int size = estimateSize(message);
+        if (size > bufferMemory) {
+            future.completeExceptionally(new IllegalArgumentException(
+                    "Message size " + size + " exceeds producer buffer memory " + bufferMemory));
+            return future;
+        }
+        if (!reserve(size)) {
+            future.completeExceptionally(new IllegalStateException(
+                    "Producer buffer memory exhausted (" + bufferMemory + " bytes)"));
+            return future;
+        }
+
+        String topic = message.getTopic();
+        Batch[] full = new Batch[1];
+        batches.compute(topic + '\u0000' + partition, (key, batch) -> {
+            if (batch == null) {
+                batch = new Batch(key, topic, partition);
+                Batch created = batch;
+                batch.linger = eventLoop.schedule(() -> expire(created), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            batch.add(message, future, size);
+            if (batch.bytes >= batchSize) {
+                full[0] = batch;
+                return null;
+            }
+            return batch;
+        });
+
+        if (full[0] != null) {
+            full[0].linger.cancel(false);
+            ship(full[0]);
+        }
+        if (closed) {
+            // 与 close 并发加入的消息，close 中的 flush 可能没有看到它的批次
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * 立即发出所有正在累积的批次
+     */
+    void flush() {
+        for (Batch batch : batches.values()) {
+            if (batches.remove(batch.key, batch)) {
+                batch.linger.cancel(false);
+                ship(batch);
+            }
+        }
+    }
+
+    /**
+     * 拒绝新消息，发出所有批次并等待它们完成，最多等待 timeoutMs（为 0 时不限）；
+     * 在 EventLoop 上调用时不等待
+     *
+     * @return 所有批次都已完成时返回 true
+     */
+    boolean close(long timeoutMs) {
+        closed = true;
+        flush();
+        boolean drained = runtime.inEventLoop() || awaitDrained(timeoutMs);
+        terminated = true;
+        // 在 EventLoop 上让仍在排队的批次失败，与重试互不干扰
+        eventLoop.execute(this::shipBlocked);
+        return drained;
+    }
+
+    /**
+     * 所有批次完成后占用的内存全部归还
+     */
+    private boolean awaitDrained(long timeoutMs) {
+        memoryLock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (availableMemory < bufferMemory) {
+                if (timeoutMs == 0) {
+                    memoryFreed.await();
+                } else if (remainingNanos <= 0) {
+                    return false;
+                } else {
+                    remainingNanos = memoryFreed.awaitNanos(remainingNanos);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    private void expire(Batch batch) {
+        if (batches.remove(batch.key, batch)) {
+            ship(batch);
+        }
+    }
+
+    private void ship(Batch batch) {
+        stickyPartitions.remove(batch.topic, batch.partition);
+        if (!trySend(batch)) {
+            batch.blockTimeout = eventLoop.schedule(() -> expireBlocked(batch),
+                    Math.max(0, batch.deadlineNanos(lingerMs + maxBlockMs) - System.nanoTime()),
+                    TimeUnit.NANOSECONDS);
+            blocked.addLast(batch);
+            // 排队前释放的名额不会再通知，入队后补一次重试
+            eventLoop.execute(this::shipBlocked);
+        }
+    }
+
+    /**
+     * 在途请求完成、名额归还后调用，按顺序发出排队的批次
+     */
+    void permitReleased() {
+        if (!blocked.isEmpty()) {
+            eventLoop.execute(this::shipBlocked);
+        }
+    }
+
+    private void shipBlocked() {
+        Batch batch;
+        while ((batch = blocked.pollFirst()) != null) {
+            if (terminated) {
+                batch.blockTimeout.cancel(false);
+                release(batch.bytes);
+                batch.fail(new IllegalStateException("Producer closed"));
+            } else if (trySend(batch)) {
+                batch.blockTimeout.cancel(false);
+            } else {
+                blocked.addFirst(batch);
+                return;
+            }
+        }
+    }
+
+    private void expireBlocked(Batch batch) {
+        if (blocked.remove(batch)) {
+            release(batch.bytes);
+            batch.fail(new IllegalStateException("Too many in-flight requests"));
+        }
+    }
+
+    /**
+     * @return 没有在途名额时返回 false
+     */
+    private boolean trySend(Batch batch) {
+        CompletableFuture<Response> response = sender.send(batch.topic, batch.partition, batch.messages);
+        if (response == null) {
+            return false;
+        }
+        response.whenComplete((resp, cause) -> {
+            release(batch.bytes);
+            if (cause != null) {
+                batch.fail(cause);
+            } else {
+                for (CompletableFuture<Boolean> future : batch.futures) {
+                    future.complete(true);
+                }
+            }
+        });
+        return true;
+    }
+
+    private boolean reserve(int size) {
+        memoryLock.lock();
+        try {
+            if (availableMemory >= size) {
+                availableMemory -= size;
+                return true;
+            }
+            // EventLoop 上等待会挡住释放内存的响应
+            if (runtime.inEventLoop() || maxBlockMs == 0) {
+                return false;
+            }
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxBlockMs);
+            while (availableMemory < size) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = memoryFreed.awaitNanos(remainingNanos);
+            }
+            availableMemory -= size;
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    private void release(long size) {
+        memoryLock.lock();
+        try {
+            availableMemory += size;
+            memoryFreed.signalAll();
+        } finally {
+            memoryLock.unlock();
+        }
+    }
+
+    /**
+     * 估算消息编码后的大小，只用于批次大小与内存上限的计算
+     */
+    static int estimateSize(Message message) {
+        int size = RECORD_OVERHEAD;
+        size += length(message.getId()) + length(message.getTopic()) + length(message.getBody());
+        if (message.getPayload() != null) {
+            size += message.getPayload().length;
+        }
+        if (message.getTags() != null) {
+            for (Map.Entry<String, String> tag : message.getTags().entrySet()) {
+                size += length(tag.getKey()) + length(tag.getValue());
+            }
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s != null ? s.length() : 0;
+    }
+
+    private static final class Batch {
+        final String key;
+        final String topic;
+        final int partition;
+        final long createdNanos = System.nanoTime();
+        final List<Message> messages = new ArrayList<>();
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        long bytes;
+        ScheduledFuture<?> linger;
+        // 等待在途名额的截止定时
+        ScheduledFuture<?> blockTimeout;
+
+        Batch(String key, String topic, int partition) {
+            this.key = key;
+            this.topic = topic;
+            this.partition = partition;
+        }
+
+        void add(Message message, CompletableFuture<Boolean> future, int size) {
+            messages.add(message);
+            futures.add(future);
+            bytes += size;
+        }
+
+        long deadlineNanos(long timeoutMs) {
+            return createdNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        }
+
+        void fail(Throwable cause) {
+            for (CompletableFuture<Boolean> future : futures) {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.swiftq.client.net;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 虚拟线程支持
+ * 这是 Java 8 下的版本，不支持虚拟线程；Java 21 及以上运行时使用多版本 jar 中
+ * META-INF/versions/21 下的实现（源码在 src/main/java21，由 java21 profile 编译）
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器
+     */
+    static ExecutorService newExecutor(String name) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+}
@@ -0,0 +1,137 @@
+package com.swiftq.client.net;
+
+import com.swiftq.broker.protocol.Partitioner;
+import com.swiftq.common.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedDispatcherTest {
+
+    // 每个任务一个线程，与虚拟线程执行器的行为相同
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void tasksWithSameKeyRunInOrder() throws Exception {
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, 8);
+        int keys = 4;
+        int perKey = 200;
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(keys * perKey);
+        for (int i = 0; i < perKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                String key = "orders/" + k;
+                int sequence = i;
+                dispatcher.dispatch(key, () -> {
+                    seen.computeIfAbsent(key, x -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Integer> sequences : seen.values()) {
+            assertEquals(perKey, sequences.size());
+            for (int i = 0; i < perKey; i++) {
+                assertEquals(i, (int) sequences.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void differentKeysRunConcurrently() throws Exception {
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, 8);
+        // 两个键的任务互相等待，串行执行时会卡住
+        CountDownLatch both = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        for (String key : new String[]{"orders/0", "orders/1"}) {
+            dispatcher.dispatch(key, () -> {
+                both.countDown();
+                try {
+                    if (both.await(5, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void concurrencyIsBounded() throws Exception {
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, 3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(40);
+        for (int i = 0; i < 40; i++) {
+            // 一半没有键，一半各自一个键
+            String key = i % 2 == 0 ? null : "orders/" + i;
+            dispatcher.dispatch(key, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue("peak " + peak.get(), peak.get() <= 3);
+        assertTrue(peak.get() > 1);
+    }
+
+    @Test
+    public void failingTaskDoesNotBlockItsKey() throws Exception {
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch("orders/0", () -> {
+            throw new IllegalStateException("boom");
+        });
+        dispatcher.dispatch("orders/0", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void orderingKeyPrefersPartition() {
+        Message keyed = new Message("orders", "body", 0L);
+        keyed.getTags().put(Partitioner.KEY_TAG, "customer-7");
+        assertEquals("orders/3", PushConsumer.orderingKey(keyed, 3));
+        // 同一分区内不同键的消息也按推送顺序处理
+        Message other = new Message("orders", "body", 0L);
+        other.getTags().put(Partitioner.KEY_TAG, "customer-8");
+        assertEquals(PushConsumer.orderingKey(keyed, 3), PushConsumer.orderingKey(other, 3));
+        assertNotEquals(PushConsumer.orderingKey(keyed, 3), PushConsumer.orderingKey(keyed, 4));
+    }
+
+    @Test
+    public void orderingKeyFallsBackToMessageKey() {
+        Message keyed = new Message("orders", "body", 0L);
+        keyed.getTags().put(Partitioner.KEY_TAG, "customer-7");
+        assertEquals("orders\u0000customer-7", PushConsumer.orderingKey(keyed, -1));
+        assertNotEquals(PushConsumer.orderingKey(keyed, 0), PushConsumer.orderingKey(keyed, -1));
+        assertNull(PushConsumer.orderingKey(new Message("orders", "body", 0L), -1));
+    }
+}
@@ -0,0 +1,241 @@
+package com.swiftq.client.net;
+
+import com.swiftq.common.Message;
+import com.swiftq.common.MsgState;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PushConsumerTest {
+
+    private static final int SIZE = RecordAccumulator.estimateSize(message(0));
+
+    private final FakeClient client = new FakeClient();
+    private PushConsumer consumer;
+
+    @After
+    public void tearDown() throws Exception {
+        if (consumer != null) {
+            consumer.close();
+        }
+    }
+
+    @Test
+    public void creditsAreReturnedInBatchesAfterProcessing() throws Exception {
+        CountDownLatch handled = new CountDownLatch(8);
+        start(8, Long.MAX_VALUE, message -> handled.countDown());
+        assertEquals(8, client.window);
+
+        for (int i = 0; i < 8; i++) {
+            client.push(message(i));
+        }
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+        awaitBuffered(0);
+        // 每攒够 prefetchCount / 4 条归还一次
+        assertEquals(8, client.creditsReturned());
+        for (int credits : client.credits) {
+            assertTrue(credits <= 2);
+        }
+    }
+
+    @Test
+    public void leasedMessagesReturnCreditAfterSettle() throws Exception {
+        start(4, Long.MAX_VALUE, message -> {
+            if (message.getBody().endsWith("1")) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        CompletableFuture<Boolean> ack = new CompletableFuture<>();
+        client.settlements.add(ack);
+        Message first = leased(message(0));
+        client.push(first);
+        // 结算完成前不归还信用
+        Message acked = client.settled.poll(5, TimeUnit.SECONDS);
+        assertEquals("ack", acked.getTags().get("settle"));
+        assertEquals(1, consumer.buffered());
+        assertEquals(0, client.creditsReturned());
+
+        ack.complete(true);
+        awaitBuffered(0);
+        assertEquals(1, client.creditsReturned());
+
+        client.push(leased(message(1)));
+        Message nacked = client.settled.poll(5, TimeUnit.SECONDS);
+        assertEquals("nack", nacked.getTags().get("settle"));
+        awaitBuffered(0);
+        assertEquals(2, client.creditsReturned());
+    }
+
+    @Test
+    public void bufferedBytesAbovePrefetchBytesPauseCredits() throws Exception {
+        Semaphore gate = new Semaphore(0);
+        // 缓冲不到两条消息的字节数，每条消息处理完都可以归还
+        start(4, 2L * SIZE - 1, message -> gate.acquire());
+        for (int i = 0; i < 3; i++) {
+            client.push(message(i));
+        }
+        assertEquals(3, consumer.buffered());
+
+        gate.release();
+        awaitBuffered(2);
+        // 仍缓冲两条，超过 prefetchBytes，暂停归还
+        assertEquals(0, client.creditsReturned());
+
+        gate.release();
+        awaitBuffered(1);
+        assertEquals(2, client.creditsReturned());
+
+        gate.release();
+        awaitBuffered(0);
+        assertEquals(3, client.creditsReturned());
+    }
+
+    @Test
+    public void creditsOfPreviousSubscriptionAreDropped() throws Exception {
+        Semaphore gate = new Semaphore(0);
+        start(4, Long.MAX_VALUE, message -> gate.acquire());
+        client.push(message(0));
+        // 重连后重新订阅，Broker 已给出新的完整窗口
+        client.subscriptionId = 2;
+        gate.release();
+        awaitBuffered(0);
+        assertEquals(0, client.creditsReturned());
+
+        client.push(message(1));
+        gate.release();
+        awaitBuffered(0);
+        assertEquals(1, client.creditsReturned());
+        assertEquals(Collections.singletonList(2L), client.creditSubscriptions());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPrefetchIsRejected() {
+        new PushConsumer(client, message -> { }).setPrefetch(0, 1);
+    }
+
+    private void start(int prefetchCount, long prefetchBytes, MessageListener listener) throws Exception {
+        consumer = new PushConsumer(client, listener);
+        consumer.setPrefetch(prefetchCount, prefetchBytes);
+        // 单个工作线程，按推送顺序处理
+        consumer.setWorkerThreads(1);
+        consumer.start("orders");
+    }
+
+    private void awaitBuffered(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (consumer.buffered() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, consumer.buffered());
+        // done 在减少缓冲计数之后才归还信用
+        Thread.sleep(20);
+    }
+
+    private static Message leased(Message message) {
+        message.setState(MsgState.SENT);
+        return message;
+    }
+
+    /**
+     * 消息体长度相同，估算大小也相同
+     */
+    private static Message message(int i) {
+        return new Message("orders", String.format("body-%04d", i), 0L);
+    }
+
+    /**
+     * 不连接 Broker，记录订阅、结算与归还的信用
+     */
+    private static final class FakeClient extends ConsumerClient {
+        volatile long subscriptionId = 1;
+        volatile int window;
+        volatile ObjIntConsumer<Message> listener;
+        final List<Integer> credits = Collections.synchronizedList(new ArrayList<>());
+        final List<Long> subscriptions = Collections.synchronizedList(new ArrayList<>());
+        final BlockingQueue<Message> settled = new LinkedBlockingQueue<>();
+        final Queue<CompletableFuture<Boolean>> settlements = new ConcurrentLinkedQueue<>();
+
+        FakeClient() {
+            super("localhost", 0);
+        }
+
+        void push(Message message) {
+            listener.accept(message, 0);
+        }
+
+        int creditsReturned() {
+            synchronized (credits) {
+                int total = 0;
+                for (int credit : credits) {
+                    total += credit;
+                }
+                return total;
+            }
+        }
+
+        List<Long> creditSubscriptions() {
+            synchronized (subscriptions) {
+                return new ArrayList<>(subscriptions);
+            }
+        }
+
+        @Override
+        CompletableFuture<Boolean> subscribe(Collection<String> topics, int window, ObjIntConsumer<Message> listener,
+                                             boolean manualCredit) {
+            assertTrue(manualCredit);
+            this.window = window;
+            this.listener = listener;
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> unsubscribe() {
+            listener = null;
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        long subscriptionId() {
+            return subscriptionId;
+        }
+
+        @Override
+        void credit(long subscription, int count) {
+            subscriptions.add(subscription);
+            credits.add(count);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> ack(Message message) {
+            return settle(message, "ack");
+        }
+
+        @Override
+        public CompletableFuture<Boolean> nack(Message message) {
+            return settle(message, "nack");
+        }
+
+        private CompletableFuture<Boolean> settle(Message message, String type) {
+            message.getTags().put("settle", type);
+            settled.add(message);
+            CompletableFuture<Boolean> settlement = settlements.poll();
+            return settlement != null ? settlement : CompletableFuture.completedFuture(true);
+        }
+    }
+}
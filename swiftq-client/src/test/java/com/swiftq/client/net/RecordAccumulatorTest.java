@@ -0,0 +1,321 @@
+package com.swiftq.client.net;
+
+import com.swiftq.broker.protocol.Response;
+import com.swiftq.common.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordAccumulatorTest {
+
+    // 估算大小相同的消息，批次与内存上限按条数换算
+    private static final int SIZE = RecordAccumulator.estimateSize(message(0));
+
+    private ClientRuntime runtime;
+    private FakeSender sender;
+    private RecordAccumulator accumulator;
+
+    @Before
+    public void setUp() {
+        runtime = ClientRuntime.acquire();
+    }
+
+    @After
+    public void tearDown() {
+        if (accumulator != null) {
+            accumulator.close(1000);
+        }
+        if (sender != null) {
+            sender.completeAll();
+        }
+        ClientRuntime.release(runtime);
+    }
+
+    @Test
+    public void fullBatchShipsBeforeLinger() throws Exception {
+        open(3, 60_000, 100, 0, 10);
+        List<CompletableFuture<Boolean>> futures = appendAll(0, 3);
+
+        SentBatch batch = sender.next();
+        assertEquals(3, batch.messages.size());
+        assertNull(sender.poll(50));
+        batch.complete();
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void lingerShipsPartialBatch() throws Exception {
+        open(100, 50, 100, 0, 10);
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> future = accumulator.append(message(0), 0);
+
+        SentBatch batch = sender.next();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, batch.messages.size());
+        batch.complete();
+        assertTrue(future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void lingerRacingSizeTriggerShipsEveryMessageOnce() throws Exception {
+        // linger 很短，与达到批次大小的发出并发进行
+        open(4, 1, 100_000, 1000, 1000);
+        int threads = 4;
+        int perThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        try {
+            List<Future<List<CompletableFuture<Boolean>>>> appenders = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int base = t * perThread;
+                appenders.add(executor.submit(() -> appendAll(base, perThread)));
+            }
+            for (Future<List<CompletableFuture<Boolean>>> appender : appenders) {
+                futures.addAll(appender.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Set<String> seen = new HashSet<>();
+        int total = threads * perThread;
+        while (seen.size() < total) {
+            SentBatch batch = sender.next();
+            assertTrue(batch.messages.size() <= 4);
+            for (Message message : batch.messages) {
+                assertTrue("duplicate " + message.getBody(), seen.add(message.getBody()));
+            }
+            batch.complete();
+        }
+        assertNull(sender.poll(50));
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void memoryIsReleasedWhenResponseArrives() throws Exception {
+        // 内存只够两条，不等待
+        open(1, 60_000, 2, 0, 10);
+        appendAll(0, 2);
+        CompletableFuture<Boolean> rejected = accumulator.append(message(2), 0);
+        assertFailed(rejected, "buffer memory exhausted");
+
+        sender.next().complete();
+        sender.next().complete();
+        CompletableFuture<Boolean> accepted = accumulator.append(message(3), 0);
+        sender.next().complete();
+        assertTrue(accepted.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void maxBlockMsBoundsWaitForMemory() throws Exception {
+        open(1, 60_000, 1, 100, 10);
+        accumulator.append(message(0), 0);
+        SentBatch first = sender.next();
+
+        long start = System.nanoTime();
+        CompletableFuture<Boolean> rejected = accumulator.append(message(1), 0);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertFailed(rejected, "buffer memory exhausted");
+        assertTrue("waited " + waitedMs + " ms", waitedMs >= 100 && waitedMs < 5000);
+
+        // 等待期间归还的内存立即可用
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<CompletableFuture<Boolean>> blocked = executor.submit(() -> accumulator.append(message(2), 0));
+            Thread.sleep(20);
+            first.complete();
+            CompletableFuture<Boolean> accepted = blocked.get(5, TimeUnit.SECONDS);
+            sender.next().complete();
+            assertTrue(accepted.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void blockedBatchShipsWhenPermitIsReleased() throws Exception {
+        open(1, 60_000, 100, 10_000, 1);
+        CompletableFuture<Boolean> first = accumulator.append(message(0), 0);
+        CompletableFuture<Boolean> second = accumulator.append(message(1), 0);
+        SentBatch sent = sender.next();
+        // 没有名额的批次排队，除了入队后补的一次重试，不会按固定间隔反复尝试
+        assertNull(sender.poll(100));
+        assertTrue(sender.attempts(message(1).getBody()) <= 2);
+
+        sent.complete();
+        SentBatch retried = sender.next();
+        assertEquals(message(1).getBody(), retried.messages.get(0).getBody());
+        retried.complete();
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockedBatchFailsAfterMaxBlock() throws Exception {
+        open(1, 10, 100, 100, 1);
+        accumulator.append(message(0), 0);
+        sender.next();
+        CompletableFuture<Boolean> blocked = accumulator.append(message(1), 0);
+        assertFailed(blocked, "Too many in-flight requests");
+    }
+
+    @Test
+    public void closeShipsAccumulatedBatchesAndWaits() throws Exception {
+        open(100, 60_000, 100, 0, 10);
+        List<CompletableFuture<Boolean>> futures = appendAll(0, 3);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> closed = executor.submit(() -> accumulator.close(5000));
+            SentBatch batch = sender.next();
+            assertEquals(3, batch.messages.size());
+            assertFalse(closed.isDone());
+            batch.complete();
+            assertTrue(closed.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        assertFailed(accumulator.append(message(3), 0), "Producer closed");
+    }
+
+    @Test
+    public void closeFailsBatchesStillWaitingForPermit() throws Exception {
+        open(100, 60_000, 100, 60_000, 0);
+        CompletableFuture<Boolean> future = accumulator.append(message(0), 0);
+        assertFalse(accumulator.close(50));
+        assertFailed(future, "Producer closed");
+    }
+
+    private void open(int batchMessages, long lingerMs, int bufferMessages, long maxBlockMs, int permits) {
+        sender = new FakeSender(permits);
+        accumulator = new RecordAccumulator(batchMessages * SIZE, lingerMs, (long) bufferMessages * SIZE,
+                maxBlockMs, runtime, sender);
+        sender.accumulator = accumulator;
+    }
+
+    private List<CompletableFuture<Boolean>> appendAll(int from, int count) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            futures.add(accumulator.append(message(i), 0));
+        }
+        return futures;
+    }
+
+    private static void assertFailed(CompletableFuture<Boolean> future, String reason) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected failure: " + reason);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(reason));
+        }
+    }
+
+    /**
+     * 编号补零到相同位数，估算大小也相同
+     */
+    private static Message message(int i) {
+        return new Message("orders", String.format("body-%04d", i), 0L);
+    }
+
+    private static final class SentBatch {
+        final List<Message> messages;
+        final CompletableFuture<Response> response = new CompletableFuture<>();
+        private final FakeSender sender;
+
+        SentBatch(List<Message> messages, FakeSender sender) {
+            this.messages = new ArrayList<>(messages);
+            this.sender = sender;
+        }
+
+        /**
+         * 响应到达：先归还在途名额，再完成请求
+         */
+        void complete() {
+            sender.permits.release();
+            response.complete(new Response());
+            sender.accumulator.permitReleased();
+        }
+    }
+
+    /**
+     * 在途名额用完时返回 null，与 ProducerClient 在 I/O 线程上的行为相同
+     */
+    private static final class FakeSender implements RecordAccumulator.Sender {
+        final Semaphore permits;
+        final BlockingQueue<SentBatch> sent = new LinkedBlockingQueue<>();
+        final List<SentBatch> all = new ArrayList<>();
+        final List<String> attempts = new ArrayList<>();
+        volatile RecordAccumulator accumulator;
+
+        FakeSender(int permits) {
+            this.permits = new Semaphore(permits);
+        }
+
+        @Override
+        public synchronized CompletableFuture<Response> send(String topic, int partition, List<Message> messages) {
+            for (Message message : messages) {
+                attempts.add(message.getBody());
+            }
+            if (!permits.tryAcquire()) {
+                return null;
+            }
+            SentBatch batch = new SentBatch(messages, this);
+            all.add(batch);
+            sent.add(batch);
+            return batch.response;
+        }
+
+        synchronized int attempts(String body) {
+            int count = 0;
+            for (String attempt : attempts) {
+                if (attempt.equals(body)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        SentBatch next() throws InterruptedException {
+            SentBatch batch = sent.poll(5, TimeUnit.SECONDS);
+            assertTrue("no batch sent", batch != null);
+            return batch;
+        }
+
+        SentBatch poll(long timeoutMs) throws InterruptedException {
+            return sent.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void completeAll() {
+            for (SentBatch batch : all) {
+                batch.response.complete(new Response());
+            }
+        }
+    }
+}
@@ -8,13 +8,13 @@ import com.swiftq.core.router.DynamicRouter;
 import com.swiftq.core.router.RouteRule;
 import com.swiftq.core.statemachine.MessageStateMachine;
 import com.swiftq.core.statemachine.StateEvent;
+import com.swiftq.core.timer.Timeout;
+import com.swiftq.core.timer.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -29,8 +29,9 @@ public class MessageCenter {
     private final DynamicRouter router;
     private final Map<String, MessageStateMachine> stateMachines;
     
-    // 定时任务
-    private final ScheduledExecutorService scheduler;
+    // 定时任务：过期、延迟投递和重试都挂在时间轮上，不再周期扫描全部消息
+    private final TimingWheel timer;
+    private final Map<String, Timeout> expiryTimeouts;
     
     // 事件监听器
     private final List<MessageEventListener> eventListeners;
@@ -39,11 +40,9 @@ public class MessageCenter {
         this.messageIndex = new MessageMultiIndex();
         this.router = new DynamicRouter();
         this.stateMachines = new ConcurrentHashMap<>();
-        this.scheduler = Executors.newScheduledThreadPool(2);
+        this.timer = new TimingWheel("swiftq-center", 2);
+        this.expiryTimeouts = new ConcurrentHashMap<>();
         this.eventListeners = new ArrayList<>();
-        
-        // 启动定时任务
-        startPeriodicTasks();
     }
     
     /**
@@ -57,6 +56,7 @@ public class MessageCenter {
             
             // 添加到索引
             messageIndex.addMessage(message);
+            scheduleExpiry(message);
             
             // 触发事件
             fireEvent(MessageEvent.MESSAGE_RECEIVED, message);
@@ -70,6 +70,33 @@ public class MessageCenter {
         }
     }
     
+    /**
+     * 延迟发布消息，到达 deliverAt 时才开始发送流程，期间消息保持 INIT 状态并可被查询
+     *
+     * @param deliverAt 以 System.currentTimeMillis() 计的投递时刻
+     */
+    public boolean publishMessageAt(Message message, long deliverAt) {
+        try {
+            MessageStateMachine stateMachine = new MessageStateMachine(message);
+            stateMachines.put(message.getId(), stateMachine);
+            messageIndex.addMessage(message);
+            scheduleExpiry(message);
+            fireEvent(MessageEvent.MESSAGE_RECEIVED, message);
+            
+            timer.scheduleAt(() -> {
+                // 到期前已过期或被清理的消息不再发送
+                if (stateMachines.get(message.getId()) == stateMachine) {
+                    stateMachine.transition(StateEvent.SEND);
+                }
+            }, deliverAt);
+            return true;
+            
+        } catch (Exception e) {
+            logger.error("Failed to publish message {}", message.getId(), e);
+            return false;
+        }
+    }
+    
     /**
      * 消息发送完成
      */
@@ -198,58 +225,43 @@ public class MessageCenter {
     }
     
     /**
-     * 启动定时任务
+     * 在消息的过期时刻登记一个定时任务，确认或清理时取消
      */
-    private void startPeriodicTasks() {
-        // 清理过期消息
-        scheduler.scheduleAtFixedRate(this::cleanupExpiredMessages, 30, 30, TimeUnit.SECONDS);
-        
-        // 检查重试消息
-        scheduler.scheduleAtFixedRate(this::processRetryMessages, 10, 10, TimeUnit.SECONDS);
+    private void scheduleExpiry(Message message) {
+        String messageId = message.getId();
+        // isExpired 以严格大于判断，晚 1ms 触发
+        Timeout timeout = timer.scheduleAt(() -> expireMessage(message), message.getExpireAt() + 1);
+        Timeout previous = expiryTimeouts.put(messageId, timeout);
+        if (previous != null) {
+            previous.cancel();
+        }
     }
     
     /**
-     * 清理过期消息
+     * 过期消息
      */
-    private void cleanupExpiredMessages() {
+    private void expireMessage(Message message) {
+        String messageId = message.getId();
         try {
-            long now = System.currentTimeMillis();
-            List<String> expiredIds = new ArrayList<>();
-            
-            stateMachines.forEach((id, stateMachine) -> {
-                Message message = getMessageById(id);
-                if (message != null && message.isExpired()) {
-                    if (stateMachine.transition(StateEvent.EXPIRE)) {
-                        expiredIds.add(id);
-                        fireEvent(MessageEvent.MESSAGE_EXPIRED, message);
-                    }
-                }
-            });
-            
-            // 清理过期消息
-            expiredIds.forEach(this::cleanupMessage);
-            
-            if (!expiredIds.isEmpty()) {
-                logger.info("Cleaned up {} expired messages", expiredIds.size());
+            MessageStateMachine stateMachine = stateMachines.get(messageId);
+            if (stateMachine == null || !message.isExpired()) {
+                return;
+            }
+            if (stateMachine.transition(StateEvent.EXPIRE)) {
+                fireEvent(MessageEvent.MESSAGE_EXPIRED, message);
+                cleanupMessage(messageId);
+                logger.debug("Message {} expired", messageId);
             }
-            
         } catch (Exception e) {
-            logger.error("Error during expired message cleanup", e);
+            logger.error("Error expiring message {}", messageId, e);
         }
     }
     
-    /**
-     * 处理重试消息
-     */
-    private void processRetryMessages() {
-        // 这里实现重试逻辑
-    }
-    
     /**
      * 安排重试
      */
     private void scheduleRetry(String messageId) {
-        scheduler.schedule(() -> {
+        timer.schedule(() -> {
             MessageStateMachine stateMachine = stateMachines.get(messageId);
             if (stateMachine != null && stateMachine.canTransition(StateEvent.RETRY)) {
                 stateMachine.transition(StateEvent.RETRY);
@@ -262,6 +274,10 @@ public class MessageCenter {
      * 清理消息
      */
     private void cleanupMessage(String messageId) {
+        Timeout timeout = expiryTimeouts.remove(messageId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
         stateMachines.remove(messageId);
         messageIndex.removeMessage(messageId);
     }
@@ -283,14 +299,7 @@ public class MessageCenter {
      * 关闭消息中心
      */
     public void shutdown() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
+        timer.close();
+        expiryTimeouts.clear();
     }
 }
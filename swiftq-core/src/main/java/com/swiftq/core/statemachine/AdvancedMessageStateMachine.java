@@ -2,13 +2,13 @@ package com.swiftq.core.statemachine;
 
 import com.swiftq.common.Message;
 import com.swiftq.common.MsgState;
+import com.swiftq.core.timer.Timeout;
+import com.swiftq.core.timer.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,7 +25,10 @@ public class AdvancedMessageStateMachine {
     private final Message message;
     private final Map<MsgState, Set<StateEvent>> stateTransitions;
     private final List<StateTransitionListener> listeners = new ArrayList<>();
-    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(2);
+    // 超时、重试退避和自动转换都挂在共享时间轮上，每个状态机不再单独占用线程
+    private final TimingWheel timer;
+    private final Set<PendingTimeout> pendingTimeouts = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
 
     // 状态机配置
     private final StateMachineConfig config;
@@ -36,10 +39,15 @@ public class AdvancedMessageStateMachine {
     private final OrderingManager orderingManager;
 
     public AdvancedMessageStateMachine(Message message, StateMachineConfig config) {
+        this(message, config, TimingWheel.shared());
+    }
+
+    public AdvancedMessageStateMachine(Message message, StateMachineConfig config, TimingWheel timer) {
         this.message = message;
         this.config = config;
+        this.timer = timer;
         this.stateTransitions = initializeTransitions();
-        this.dedupManager = new DeduplicationManager(config.getDedupConfig());
+        this.dedupManager = new DeduplicationManager(config.getDedupConfig(), timer);
         this.rateLimiter = new RateLimiter(config.getRateLimitConfig());
         this.orderingManager = new OrderingManager(config.getOrderingConfig());
     }
@@ -435,7 +443,7 @@ public class AdvancedMessageStateMachine {
      */
     private void scheduleAutomaticTransitions(MsgState currentState) {
         // 为需要自动处理的状态安排下一步
-        scheduler.schedule(() -> {
+        schedule(() -> {
             if (message.getState() == currentState) {
                 switch (currentState) {
                     case DEDUP_CHECKING:
@@ -502,7 +510,7 @@ public class AdvancedMessageStateMachine {
                         break;
                 }
             }
-        }, 100, TimeUnit.MILLISECONDS); // 100ms延迟，模拟实际处理时间
+        }, 100); // 100ms延迟，模拟实际处理时间
     }
 
     /**
@@ -524,11 +532,11 @@ public class AdvancedMessageStateMachine {
      */
     private void scheduleTimeoutCheck(MsgState state) {
         long timeout = getTimeoutForState(state);
-        scheduler.schedule(() -> {
+        schedule(() -> {
             if (message.getState() == state) {
                 transition(StateEvent.TIMEOUT);
             }
-        }, timeout, TimeUnit.MILLISECONDS);
+        }, timeout);
     }
 
     /**
@@ -536,24 +544,56 @@ public class AdvancedMessageStateMachine {
      */
     private void scheduleRetryResume() {
         long delay = calculateRetryDelay();
-        scheduler.schedule(() -> {
+        schedule(() -> {
             if (message.getState() == MsgState.RETRY_DELAYED) {
                 transition(StateEvent.RETRY_RESUME);
             }
-        }, delay, TimeUnit.MILLISECONDS);
+        }, delay);
     }
 
     /**
      * 调度限流恢复检查
      */
     private void scheduleRateLimitRecoveryCheck() {
-        scheduler.schedule(() -> {
+        schedule(() -> {
             if (message.getState() == MsgState.RATE_LIMITED && rateLimiter.tryAcquire(message)) {
                 transition(StateEvent.RATE_LIMIT_RECOVERED);
             } else {
                 scheduleRateLimitRecoveryCheck(); // 继续检查
             }
-        }, config.getRateLimitConfig().getRecoveryCheckInterval(), TimeUnit.MILLISECONDS);
+        }, config.getRateLimitConfig().getRecoveryCheckInterval());
+    }
+
+    /**
+     * 在时间轮上登记定时任务，关闭后不再登记
+     */
+    private void schedule(Runnable task, long delayMs) {
+        if (shutdown) {
+            return;
+        }
+        // 先登记再交给时间轮：任务可能在 schedule 返回之前就已触发
+        PendingTimeout pending = new PendingTimeout();
+        pendingTimeouts.add(pending);
+        pending.timeout = timer.schedule(() -> {
+            pendingTimeouts.remove(pending);
+            if (!shutdown) {
+                task.run();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 已登记的定时任务，Timeout 在交给时间轮之后才填入
+     */
+    private static final class PendingTimeout {
+        volatile Timeout timeout;
+
+        void cancel() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
     }
 
     /**
@@ -621,14 +661,11 @@ public class AdvancedMessageStateMachine {
      * 关闭状态机
      */
     public void shutdown() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
+        shutdown = true;
+        for (PendingTimeout pending : pendingTimeouts) {
+            pending.cancel();
         }
+        pendingTimeouts.clear();
+        dedupManager.shutdown();
     }
 }
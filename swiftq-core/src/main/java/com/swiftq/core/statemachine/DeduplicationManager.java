@@ -1,14 +1,14 @@
 package com.swiftq.core.statemachine;
 
 import com.swiftq.common.Message;
+import com.swiftq.core.timer.Timeout;
+import com.swiftq.core.timer.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -20,10 +20,17 @@ class DeduplicationManager {
 
     private final StateMachineConfig.DeduplicationConfig config;
     private final ConcurrentHashMap<String, Long> messageHashes = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final TimingWheel timer;
+    private volatile Timeout cleanupTimeout;
+    private volatile boolean shutdown;
 
     public DeduplicationManager(StateMachineConfig.DeduplicationConfig config) {
+        this(config, TimingWheel.shared());
+    }
+
+    public DeduplicationManager(StateMachineConfig.DeduplicationConfig config, TimingWheel timer) {
         this.config = config;
+        this.timer = timer;
         // 启动清理任务
         startCleanupTask();
     }
@@ -100,7 +107,13 @@ class DeduplicationManager {
      * 启动清理任务
      */
     private void startCleanupTask() {
-        cleanupExecutor.scheduleAtFixedRate(this::cleanup, 60, 60, TimeUnit.SECONDS);
+        if (shutdown) {
+            return;
+        }
+        cleanupTimeout = timer.schedule(() -> {
+            cleanup();
+            startCleanupTask();
+        }, 60, TimeUnit.SECONDS);
     }
 
     /**
@@ -135,7 +148,11 @@ class DeduplicationManager {
      * 关闭管理器
      */
     public void shutdown() {
-        cleanupExecutor.shutdown();
+        shutdown = true;
+        Timeout timeout = cleanupTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
     }
 
     /**
@@ -0,0 +1,19 @@
+package com.swiftq.core.timer;
+
+/**
+ * 定时任务句柄
+ * Handle of a task scheduled on a {@link TimingWheel}
+ */
+public interface Timeout {
+
+    /**
+     * 取消任务，O(1)
+     *
+     * @return 任务已执行或已取消时返回 false
+     */
+    boolean cancel();
+
+    boolean isCancelled();
+
+    boolean isExpired();
+}
@@ -0,0 +1,372 @@
+package com.swiftq.core.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分层时间轮
+ * Hierarchical Timing Wheel
+ *
+ * 用于延迟投递、重试退避、状态超时和消息过期等大量短生命周期定时任务，替代每个任务一个
+ * ScheduledExecutorService 堆节点的做法：登记和取消都是 O(1)，到期时整个槽位一次取出。
+ *
+ * 第 0 层每个槽位一个 tick，第 L 层每个槽位覆盖 wheelSize^L 个 tick；任务按剩余时间放入能容纳它的最低层，
+ * 高层槽位轮到时把其中的任务按剩余时间降级到低层。超出最高层范围的任务停在最高层，每转一圈重新放置一次。
+ *
+ * 槽位只由时间轮线程访问：登记与取消先进入无锁队列，每个 tick 开始时批量处理；
+ * 到期任务按槽位批量交给执行器，一个槽位只提交一次
+ */
+public final class TimingWheel implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static volatile TimingWheel shared;
+
+    private final long tickNanos;
+    private final int bits;
+    private final int mask;
+    private final int levels;
+    private final Entry[][] wheels;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final Thread worker;
+
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final long startNanos;
+    private volatile boolean closed;
+
+    // 以下字段只在时间轮线程上访问
+    private long tick;
+
+    /**
+     * @param tickMs    时间精度
+     * @param wheelSize 每层槽位数，取不小于该值的 2 的幂
+     * @param levels    层数，能直接容纳的最长延迟为 tickMs * wheelSize^levels
+     * @param executor  执行到期任务的线程池，为 null 时在时间轮线程上执行，此时任务必须很短
+     */
+    public TimingWheel(String name, long tickMs, int wheelSize, int levels, Executor executor) {
+        this(name, tickMs, wheelSize, levels, executor, null);
+    }
+
+    /**
+     * 10ms 精度、每层 512 槽、4 层（可直接容纳约 21 年的延迟），到期任务在 threads 个工作线程上执行
+     */
+    public TimingWheel(String name, int threads) {
+        this(name, 10, 512, 4, null, newExecutor(name, threads));
+    }
+
+    private TimingWheel(String name, long tickMs, int wheelSize, int levels, Executor executor,
+                        ExecutorService ownedExecutor) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("Invalid tick: " + tickMs);
+        }
+        if (wheelSize < 2 || wheelSize > (1 << 16)) {
+            throw new IllegalArgumentException("Invalid wheel size: " + wheelSize);
+        }
+        this.bits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        if (levels < 1 || (long) bits * levels > 62) {
+            throw new IllegalArgumentException("Invalid levels: " + levels);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.mask = (1 << bits) - 1;
+        this.levels = levels;
+        this.wheels = new Entry[levels][1 << bits];
+        this.executor = ownedExecutor != null ? ownedExecutor : executor;
+        this.ownedExecutor = ownedExecutor;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 进程内共享的时间轮，首次使用时创建，不需要关闭
+     */
+    public static TimingWheel shared() {
+        TimingWheel wheel = shared;
+        if (wheel == null) {
+            synchronized (TimingWheel.class) {
+                wheel = shared;
+                if (wheel == null) {
+                    wheel = new TimingWheel("swiftq-timer", Math.max(2, Runtime.getRuntime().availableProcessors()));
+                    shared = wheel;
+                }
+            }
+        }
+        return wheel;
+    }
+
+    private static ExecutorService newExecutor(String name, int threads) {
+        AtomicInteger id = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + "-worker-" + id.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 在 delay 之后执行任务
+     *
+     * @throws IllegalStateException 时间轮已关闭
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Timing wheel is closed");
+        }
+        // 限制延迟上限，避免截止时间溢出
+        long delayNanos = Math.min(Math.max(0, unit.toNanos(delay)), Long.MAX_VALUE >> 2);
+        Entry entry = new Entry(task, System.nanoTime() + delayNanos);
+        pending.incrementAndGet();
+        added.add(entry);
+        return entry;
+    }
+
+    /**
+     * 在指定的时刻执行任务，时刻已过时在下一个 tick 执行
+     *
+     * @param epochMillis 以 System.currentTimeMillis() 计的时刻
+     */
+    public Timeout scheduleAt(Runnable task, long epochMillis) {
+        return schedule(task, epochMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尚未到期且未取消的任务数
+     */
+    public long pendingTimeouts() {
+        return pending.get();
+    }
+
+    private void run() {
+        while (!closed) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            tick++;
+            try {
+                processCancelled();
+                processAdded();
+                advance();
+            } catch (RuntimeException e) {
+                logger.error("Timing wheel tick failed", e);
+            }
+        }
+    }
+
+    private void processAdded() {
+        Entry entry;
+        while ((entry = added.poll()) != null) {
+            if (entry.state.get() != INIT) {
+                continue;
+            }
+            // 向上取整，保证不早于截止时间执行
+            long ticks = (entry.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+            entry.deadlineTick = Math.max(ticks, tick);
+            place(entry, null);
+        }
+    }
+
+    private void processCancelled() {
+        Entry entry;
+        while ((entry = cancelled.poll()) != null) {
+            entry.unlink(wheels);
+        }
+    }
+
+    /**
+     * 按剩余 tick 数放入能容纳它的最低层，已到期的放入 due
+     */
+    private void place(Entry entry, List<Entry> due) {
+        long delta = entry.deadlineTick - tick;
+        if (delta <= 0 && due != null) {
+            due.add(entry);
+            return;
+        }
+        for (int level = 0; level < levels; level++) {
+            int shift = bits * level;
+            if (delta < 1L << (shift + bits)) {
+                entry.link(wheels, level, (int) ((entry.deadlineTick >>> shift) & mask));
+                return;
+            }
+        }
+        // 超出范围，停在最高层中最晚轮到的槽位，轮到时重新放置
+        int shift = bits * (levels - 1);
+        entry.link(wheels, levels - 1, (int) (((tick >>> shift) + mask) & mask));
+    }
+
+    /**
+     * 从高到低降级本 tick 轮到的高层槽位，然后取出第 0 层的到期槽位
+     */
+    private void advance() {
+        List<Entry> due = new ArrayList<>();
+        for (int level = levels - 1; level > 0; level--) {
+            int shift = bits * level;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                Entry entry = detachAll(level, (int) ((tick >>> shift) & mask));
+                while (entry != null) {
+                    Entry next = entry.next;
+                    entry.next = null;
+                    place(entry, due);
+                    entry = next;
+                }
+            }
+        }
+        Entry entry = detachAll(0, (int) (tick & mask));
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+            due.add(entry);
+            entry = next;
+        }
+        if (!due.isEmpty()) {
+            expire(due);
+        }
+    }
+
+    private Entry detachAll(int level, int slot) {
+        Entry head = wheels[level][slot];
+        wheels[level][slot] = null;
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            entry.prev = null;
+            entry.level = -1;
+        }
+        return head;
+    }
+
+    /**
+     * 整批执行到期任务，一个 tick 只向执行器提交一次
+     */
+    private void expire(List<Entry> due) {
+        List<Entry> tasks = new ArrayList<>(due.size());
+        for (Entry entry : due) {
+            if (entry.state.compareAndSet(INIT, EXPIRED)) {
+                pending.decrementAndGet();
+                tasks.add(entry);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (executor == null) {
+            runAll(tasks);
+            return;
+        }
+        try {
+            executor.execute(() -> runAll(tasks));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Dropped {} expired timeout(s): executor rejected", tasks.size());
+        }
+    }
+
+    private static void runAll(List<Entry> tasks) {
+        for (Entry entry : tasks) {
+            try {
+                entry.task.run();
+            } catch (Throwable t) {
+                logger.warn("Timeout task failed", t);
+            }
+        }
+    }
+
+    /**
+     * 停止时间轮，未到期的任务不再执行
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        // 以下字段只在时间轮线程上访问
+        long deadlineTick;
+        int level = -1;
+        int slot;
+        Entry prev;
+        Entry next;
+
+        Entry(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        void link(Entry[][] wheels, int level, int slot) {
+            this.level = level;
+            this.slot = slot;
+            Entry head = wheels[level][slot];
+            next = head;
+            prev = null;
+            if (head != null) {
+                head.prev = this;
+            }
+            wheels[level][slot] = this;
+        }
+
+        void unlink(Entry[][] wheels) {
+            if (level < 0) {
+                // 尚未放入槽位或已被取出
+                return;
+            }
+            if (prev != null) {
+                prev.next = next;
+            } else {
+                wheels[level][slot] = next;
+            }
+            if (next != null) {
+                next.prev = prev;
+            }
+            prev = null;
+            next = null;
+            level = -1;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.swiftq.core.timer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimingWheelTest {
+
+    // 1ms 精度、每层 8 槽、3 层：第 0 层覆盖 8ms，第 1 层 64ms，最高层 512ms
+    private final TimingWheel wheel = new TimingWheel("test-timer", 1, 8, 3, null);
+
+    @After
+    public void tearDown() {
+        wheel.close();
+    }
+
+    @Test
+    public void neverFiresEarly() throws Exception {
+        // 覆盖每一层以及超出最高层范围、需要多转一圈的延迟
+        long[] delays = {0, 1, 3, 7, 8, 9, 15, 63, 64, 65, 200, 511, 512, 700, 1100};
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        List<String> early = Collections.synchronizedList(new ArrayList<>());
+        for (long delay : delays) {
+            long start = System.nanoTime();
+            wheel.schedule(() -> {
+                long elapsed = System.nanoTime() - start;
+                if (elapsed < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                    early.add(delay + "ms fired after " + elapsed + "ns");
+                }
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue("not all timeouts fired", latch.await(5, TimeUnit.SECONDS));
+        assertTrue(early.toString(), early.isEmpty());
+        assertEquals(0, wheel.pendingTimeouts());
+    }
+
+    @Test
+    public void firesInDeadlineOrder() throws Exception {
+        // 打乱登记顺序，跨层降级后仍按截止时间先后执行
+        long[] delays = {90, 10, 600, 70, 30, 150, 50, 20};
+        List<Long> fired = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(delays.length);
+        for (long delay : delays) {
+            wheel.schedule(() -> {
+                fired.add(delay);
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        List<Long> sorted = new ArrayList<>(fired);
+        Collections.sort(sorted);
+        assertEquals(sorted, fired);
+    }
+
+    @Test
+    public void cancelledTimeoutNeverRuns() throws Exception {
+        AtomicBoolean ran = new AtomicBoolean();
+        List<Timeout> timeouts = new ArrayList<>();
+        for (long delay : new long[]{5, 40, 300}) {
+            timeouts.add(wheel.schedule(() -> ran.set(true), delay, TimeUnit.MILLISECONDS));
+        }
+        // 一个在放入槽位之前取消，其余在槽位中取消
+        assertTrue(timeouts.get(0).cancel());
+        Thread.sleep(20);
+        assertTrue(timeouts.get(1).cancel());
+        assertTrue(timeouts.get(2).cancel());
+        assertEquals(0, wheel.pendingTimeouts());
+
+        CountDownLatch latch = new CountDownLatch(1);
+        wheel.schedule(latch::countDown, 400, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        for (Timeout timeout : timeouts) {
+            assertTrue(timeout.isCancelled());
+            assertFalse(timeout.isExpired());
+            assertFalse(timeout.cancel());
+        }
+    }
+
+    @Test
+    public void expiredTimeoutCannotBeCancelled() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        Timeout timeout = wheel.schedule(latch::countDown, 2, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopTheWheel() throws Exception {
+        AtomicInteger ran = new AtomicInteger();
+        // 同一槽位中的后续任务与之后的槽位都照常执行
+        CountDownLatch latch = new CountDownLatch(2);
+        wheel.schedule(() -> {
+            ran.incrementAndGet();
+            throw new IllegalStateException("boom");
+        }, 5, TimeUnit.MILLISECONDS);
+        wheel.schedule(latch::countDown, 5, TimeUnit.MILLISECONDS);
+        wheel.schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void scheduleAfterCloseIsRejected() {
+        wheel.close();
+        try {
+            wheel.schedule(() -> { }, 1, TimeUnit.MILLISECONDS);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // 预期
+        }
+    }
+}